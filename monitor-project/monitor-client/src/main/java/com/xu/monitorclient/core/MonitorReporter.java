@@ -0,0 +1,115 @@
+package com.xu.monitorclient.core;
+
+import com.xu.monitorcommon.constant.AppConstants;
+import com.xu.monitorcommon.moudule.BaseMonitorModel;
+import com.xu.monitorcommon.moudule.HostFacts;
+import com.xu.monitorcommon.result.R;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.RestClientException;
+import org.springframework.web.client.RestTemplate;
+
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * 上报客户端
+ * 负责把监控样本批次、主机静态信息发送到服务端，统一携带通信密钥请求头
+ */
+@Component
+public class MonitorReporter {
+
+    // RestTemplate（增加超时，避免服务端无响应时阻塞采集线程）
+    private final RestTemplate restTemplate;
+
+    @Value("${monitor.server-base-url}")
+    private String serverBaseUrl;
+
+    @Value("${monitor.app-secret}")
+    private String appSecret;
+
+    // 最近一次请求是否成功，离线补发据此判断服务端是否已恢复
+    private volatile boolean serverReachable = true;
+
+    public MonitorReporter() {
+        SimpleClientHttpRequestFactory factory = new SimpleClientHttpRequestFactory();
+        factory.setConnectTimeout((int) Duration.ofSeconds(3).toMillis());
+        factory.setReadTimeout((int) Duration.ofSeconds(10).toMillis());
+        this.restTemplate = new RestTemplate(factory);
+    }
+
+    /**
+     * 批量上报监控样本 (一次 HTTP 请求)
+     *
+     * @param batch 带采集时间戳的样本列表
+     * @throws ServerRejectedException 服务端明确拒绝了这批数据 (重试也不会成功)
+     * @throws RestClientException 连接失败、超时或服务端暂时不可用 (HTTP 5xx、R.code 503)
+     */
+    public void sendBatch(List<BaseMonitorModel> batch) {
+        post(serverBaseUrl + "/api/monitor/report/batch", batch);
+    }
+
+    /**
+     * 上报主机静态信息
+     *
+     * @throws RestClientException 连接失败、超时或服务端返回错误
+     */
+    public void sendHostFacts(HostFacts facts) {
+        post(serverBaseUrl + "/api/agent/facts", facts);
+    }
+
+    /**
+     * 最近一次请求是否成功
+     */
+    public boolean isServerReachable() {
+        return serverReachable;
+    }
+
+    private void post(String url, Object body) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        headers.add(AppConstants.MONITOR_APP_SECRET_HEADER, appSecret);
+        R<?> result;
+        try {
+            result = restTemplate.postForObject(url, new HttpEntity<>(body, headers), R.class);
+            serverReachable = true;
+        } catch (HttpClientErrorException e) {
+            if (isRetryable(e.getStatusCode().value())) {
+                serverReachable = false;
+                throw e;
+            }
+            throw new ServerRejectedException(e.getStatusCode().value(), "服务端拒绝: " + e.getMessage());
+        } catch (RestClientException e) {
+            serverReachable = false;
+            throw e;
+        }
+        if (result == null) {
+            serverReachable = false;
+            throw new RestClientException("服务端拒绝: 空响应");
+        }
+        // 服务端业务错误以 HTTP 200 + R.code 返回：写入缓冲已满 (503) 等暂时性错误由调用方写入离线缓冲，
+        // 其它错误 (如 400/413、处理某条数据时出错的 500) 重试也不会成功
+        if (result.getCode() != 200) {
+            String msg = "服务端拒绝: " + result.getCode() + " " + result.getMsg();
+            if (isRetryable(result.getCode())) {
+                serverReachable = false;
+                throw new RestClientException(msg);
+            }
+            throw new ServerRejectedException(result.getCode(), msg);
+        }
+    }
+
+    /**
+     * 稍后重试可能成功的错误码：服务端过载/写入缓冲已满、限流、请求超时
+     */
+    private static boolean isRetryable(int code) {
+        return code == HttpStatus.SERVICE_UNAVAILABLE.value() || code == HttpStatus.TOO_MANY_REQUESTS.value()
+                || code == HttpStatus.REQUEST_TIMEOUT.value();
+    }
+}
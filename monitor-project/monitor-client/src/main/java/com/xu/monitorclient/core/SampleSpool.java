@@ -0,0 +1,277 @@
+package com.xu.monitorclient.core;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.xu.monitorcommon.moudule.BaseMonitorModel;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 离线样本缓冲 (Spool)
+ * 服务端不可达时，发送失败的样本写入本地的内存映射文件，服务端恢复后由 SpoolReplayTask 分批补发。
+ *
+ * <p>文件结构：固定大小的环形日志。</p>
+ * <pre>
+ * [Header 64 bytes] magic | version | capacity | head | tail | used | count | headSeq
+ * [Data  capacity ] 记录 = [int 长度][JSON 字节]，写到末尾放不下时写入 -1 作为回绕标记，从 0 继续写
+ * </pre>
+ * <ul>
+ *   <li>只追加：新样本总是写在 tail；读取/确认总是从 head 开始</li>
+ *   <li>容量上限：空间不足时从 head 开始淘汰最旧的记录 (oldest-first)</li>
+ *   <li>序号：每条记录隐含一个递增序号 (headSeq + 偏移)，补发确认时按序号提交，
+ *       即使补发期间有记录被淘汰也不会误删新数据</li>
+ * </ul>
+ * <p>写入落在操作系统页缓存中，进程崩溃不会丢数据；停机时会 force() 刷盘。</p>
+ */
+@Component
+public class SampleSpool {
+
+    private static final Logger logger = LoggerFactory.getLogger(SampleSpool.class);
+
+    private static final int MAGIC = 0x53504F4C; // "SPOL"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 64;
+    private static final int WRAP_MARKER = -1;
+
+    // Header 字段偏移
+    private static final int OFF_MAGIC = 0;
+    private static final int OFF_VERSION = 4;
+    private static final int OFF_CAPACITY = 8;
+    private static final int OFF_HEAD = 16;
+    private static final int OFF_TAIL = 24;
+    private static final int OFF_USED = 32;
+    private static final int OFF_COUNT = 40;
+    private static final int OFF_HEAD_SEQ = 48;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final long capacity;
+
+    // 以下状态与 Header 保持一致，只在 synchronized 方法中修改
+    private long head;     // 最旧记录的偏移 (相对数据区)
+    private long tail;     // 下一条记录的写入偏移
+    private long used;     // head 到 tail 之间占用的字节数 (含回绕浪费的空间)
+    private long count;    // 记录条数
+    private long headSeq;  // 最旧记录的序号
+
+    // 因容量不足被淘汰的样本数 (进程内统计)
+    private long evicted;
+
+    public SampleSpool(@Value("${monitor.spool.path:agent-spool.dat}") String path,
+                       @Value("${monitor.spool.max-bytes:33554432}") long maxBytes) throws IOException {
+        this.channel = FileChannel.open(Path.of(path),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        if (maxBytes <= HEADER_SIZE || maxBytes > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("monitor.spool.max-bytes 超出范围: " + maxBytes);
+        }
+        long existingCapacity = readExistingCapacity();
+        this.capacity = existingCapacity > 0 ? existingCapacity : maxBytes - HEADER_SIZE;
+        if (existingCapacity > 0 && existingCapacity != maxBytes - HEADER_SIZE) {
+            logger.warn("Spool 文件已存在，沿用原容量 {} 字节 (配置值在清空文件后生效)", existingCapacity);
+        }
+        this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + capacity);
+
+        if (existingCapacity > 0) {
+            head = buffer.getLong(OFF_HEAD);
+            tail = buffer.getLong(OFF_TAIL);
+            used = buffer.getLong(OFF_USED);
+            count = buffer.getLong(OFF_COUNT);
+            headSeq = buffer.getLong(OFF_HEAD_SEQ);
+            if (!headerValid()) {
+                logger.warn("Spool 文件头中的位置信息无效，丢弃缓冲中的数据");
+                head = tail = used = count = 0;
+                writeHeader();
+            }
+            logger.info("📦 加载离线缓冲 {}: 待补发 {} 条", path, count);
+        } else {
+            buffer.putInt(OFF_MAGIC, MAGIC);
+            buffer.putInt(OFF_VERSION, VERSION);
+            buffer.putLong(OFF_CAPACITY, capacity);
+            writeHeader();
+        }
+    }
+
+    /**
+     * 文件头中的位置是否自洽 (头部在记录写完之后才更新，tail 之后写了一半的记录不会被读到)
+     */
+    private boolean headerValid() {
+        return head >= 0 && head <= capacity && tail >= 0 && tail <= capacity
+                && used >= 0 && used <= capacity && count >= 0 && count <= used / 4;
+    }
+
+    /**
+     * 追加样本，空间不足时淘汰最旧的记录
+     */
+    public synchronized void append(BaseMonitorModel sample) {
+        byte[] data;
+        try {
+            data = mapper.writeValueAsBytes(sample);
+        } catch (IOException e) {
+            logger.warn("样本序列化失败，未写入离线缓冲: {}", e.getMessage());
+            return;
+        }
+        long need = 4L + data.length;
+        if (need > capacity) {
+            logger.warn("样本大小 {} 超过离线缓冲容量，已丢弃", data.length);
+            return;
+        }
+
+        long pos;
+        long waste;
+        while (true) {
+            // 末尾剩余空间放不下时回绕到数据区开头，剩余部分记为浪费空间
+            boolean wrap = capacity - tail < need;
+            waste = wrap ? capacity - tail : 0;
+            pos = wrap ? 0 : tail;
+            if (waste + need <= capacity - used) {
+                break;
+            }
+            if (count == 0) {
+                head = tail = used = 0;
+                continue;
+            }
+            removeOldest();
+            evicted++;
+        }
+
+        if (waste >= 4) {
+            buffer.putInt(HEADER_SIZE + (int) tail, WRAP_MARKER);
+        }
+        buffer.putInt(HEADER_SIZE + (int) pos, data.length);
+        buffer.put(HEADER_SIZE + (int) pos + 4, data);
+        tail = pos + need;
+        used += waste + need;
+        count++;
+        writeHeader();
+    }
+
+    /**
+     * 读取最旧的若干条样本 (不删除)，补发成功后调用 {@link #commit(long)} 确认
+     */
+    public synchronized Batch peek(int maxRecords) {
+        List<BaseMonitorModel> samples = new ArrayList<>();
+        long offset = head;
+        long scanned = 0;
+        long n = Math.min(maxRecords, count);
+        for (long i = 0; i < n; i++) {
+            if (capacity - offset < 4 || buffer.getInt(HEADER_SIZE + (int) offset) == WRAP_MARKER) {
+                scanned += capacity - offset;
+                offset = 0;
+            }
+            int len = buffer.getInt(HEADER_SIZE + (int) offset);
+            if (len < 0 || offset + 4 + len > capacity || scanned + 4 + len > used) {
+                // 长度字段损坏：之后的记录无法定位，从这里截断
+                logger.warn("离线缓冲中的记录长度无效 ({})，丢弃之后的 {} 条记录", len, count - i);
+                count = i;
+                tail = offset;
+                used = scanned;
+                if (count == 0) {
+                    head = tail = used = 0;
+                }
+                writeHeader();
+                n = i;
+                break;
+            }
+            scanned += 4L + len;
+            byte[] data = new byte[len];
+            buffer.get(HEADER_SIZE + (int) offset + 4, data);
+            offset += 4L + len;
+            try {
+                samples.add(mapper.readValue(data, BaseMonitorModel.class));
+            } catch (IOException e) {
+                // 损坏的记录直接跳过，commit 时随批次一起删除
+                logger.warn("离线缓冲中的记录损坏，已跳过: {}", e.getMessage());
+            }
+        }
+        return new Batch(headSeq, headSeq + n, samples);
+    }
+
+    /**
+     * 确认序号小于 endSeq 的记录已补发，从缓冲中删除
+     */
+    public synchronized void commit(long endSeq) {
+        while (count > 0 && headSeq < endSeq) {
+            removeOldest();
+        }
+        writeHeader();
+    }
+
+    public synchronized long size() {
+        return count;
+    }
+
+    public synchronized boolean isEmpty() {
+        return count == 0;
+    }
+
+    public synchronized long getEvicted() {
+        return evicted;
+    }
+
+    @PreDestroy
+    public synchronized void close() throws IOException {
+        buffer.force();
+        channel.close();
+    }
+
+    /**
+     * 删除 head 处的一条记录 (跳过回绕标记)
+     */
+    private void removeOldest() {
+        if (capacity - head < 4 || buffer.getInt(HEADER_SIZE + (int) head) == WRAP_MARKER) {
+            used -= capacity - head;
+            head = 0;
+        }
+        int len = buffer.getInt(HEADER_SIZE + (int) head);
+        head += 4L + len;
+        used -= 4L + len;
+        count--;
+        headSeq++;
+        if (count == 0) {
+            head = tail = used = 0;
+        }
+    }
+
+    private void writeHeader() {
+        buffer.putLong(OFF_HEAD, head);
+        buffer.putLong(OFF_TAIL, tail);
+        buffer.putLong(OFF_USED, used);
+        buffer.putLong(OFF_COUNT, count);
+        buffer.putLong(OFF_HEAD_SEQ, headSeq);
+    }
+
+    /**
+     * 读取已有文件头中的容量，文件不存在/损坏时返回 0
+     */
+    private long readExistingCapacity() throws IOException {
+        if (channel.size() < HEADER_SIZE) {
+            return 0;
+        }
+        MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+        if (header.getInt(OFF_MAGIC) != MAGIC || header.getInt(OFF_VERSION) != VERSION) {
+            logger.warn("Spool 文件头无效，重新初始化");
+            return 0;
+        }
+        long existing = header.getLong(OFF_CAPACITY);
+        return channel.size() >= HEADER_SIZE + existing ? existing : 0;
+    }
+
+    /**
+     * 一批待补发的样本，[startSeq, endSeq) 为其序号区间
+     */
+    public record Batch(long startSeq, long endSeq, List<BaseMonitorModel> samples) {
+    }
+}
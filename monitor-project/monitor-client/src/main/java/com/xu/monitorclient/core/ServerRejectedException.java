@@ -0,0 +1,21 @@
+package com.xu.monitorclient.core;
+
+import org.springframework.web.client.RestClientException;
+
+/**
+ * 服务端可达，但明确拒绝了请求 (HTTP 4xx 或 R.code 为 503/429 之外的错误)。
+ * 同样的数据重试也不会成功，调用方不应写入离线缓冲或反复补发
+ */
+public class ServerRejectedException extends RestClientException {
+
+    private final int code;
+
+    public ServerRejectedException(int code, String msg) {
+        super(msg);
+        this.code = code;
+    }
+
+    public int getCode() {
+        return code;
+    }
+}
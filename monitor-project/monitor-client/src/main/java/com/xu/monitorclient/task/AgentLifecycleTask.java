@@ -3,7 +3,7 @@ package com.xu.monitorclient.task;
 import com.xu.monitorclient.core.AgentIdentity;
 import com.xu.monitorcommon.constant.AppConstants;
 import com.xu.monitorcommon.dto.AgentDTO;
-import com.xu.monitorcommon.moudule.BaseMonitorModel;
+import com.xu.monitorcommon.moudule.HostFacts;
 import com.xu.monitorcommon.utils.SystemMonitorUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -90,11 +90,11 @@ public class AgentLifecycleTask {
             AgentDTO.Register dto = new AgentDTO.Register();
             dto.setAgentId(agentIdentity.getAgentId());
 
-            // 采集一次静态信息用于注册
-            BaseMonitorModel model = SystemMonitorUtil.collect();
-            dto.setHostname(model.getHostName());
-            dto.setOsName(model.getOsName());
-            dto.setIp(model.getIp());
+            // 读取主机静态信息用于注册 (有缓存，不会触发完整采集)
+            HostFacts facts = SystemMonitorUtil.collectHostFacts();
+            dto.setHostname(facts.getHostName());
+            dto.setOsName(facts.getOsName());
+            dto.setIp(facts.getIp());
 
             sendRequest(url, dto);
             isRegistered = true;
@@ -1,15 +1,22 @@
 package com.xu.monitorclient.task;
 
 import com.xu.monitorclient.core.AgentIdentity;
+import com.xu.monitorclient.core.MonitorReporter;
+import com.xu.monitorclient.core.SampleSpool;
+import com.xu.monitorclient.core.ServerRejectedException;
 import com.xu.monitorcommon.moudule.BaseMonitorModel;
+import com.xu.monitorcommon.moudule.HostFacts;
 import com.xu.monitorcommon.utils.SystemMonitorUtil;
+import jakarta.annotation.PreDestroy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 import org.springframework.web.client.RestClientException;
-import org.springframework.web.client.RestTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
 
 @Component
 public class CollectorTask {
@@ -18,61 +25,109 @@ public class CollectorTask {
     private static final Logger logger = LoggerFactory.getLogger(CollectorTask.class);
 
     private final AgentIdentity agentIdentity;
-    public CollectorTask(AgentIdentity agentIdentity){
+    private final MonitorReporter reporter;
+    private final SampleSpool spool;
+    public CollectorTask(AgentIdentity agentIdentity, MonitorReporter reporter, SampleSpool spool){
         this.agentIdentity = agentIdentity;
+        this.reporter = reporter;
+        this.spool = spool;
+        // 预热增量采样器，第一次定时采集就能得到真实的速率数据
+        SystemMonitorUtil.prime();
     }
 
-    //2.从配置文件中获取服务端地址,机器id,通信密钥
-    @Value("${monitor.server-url}")
-    private String serverUrl;
-
-    @Value("${monitor.app-id}")
-    private String appId;
+    //2.从配置文件中获取批量上报参数
+    // 缓冲区攒够 N 个样本就发送
+    @Value("${monitor.batch.max-size:6}")
+    private int batchMaxSize;
 
-    @Value("${monitor.app-secret}")
-    private String appSecret;
+    // 最早的样本等待超过 T 毫秒也发送 (按采集周期检查，实际延迟向上取整到一个采集间隔)
+    @Value("${monitor.batch.max-wait:30000}")
+    private long batchMaxWaitMillis;
 
+    // 服务端已确认的主机静态信息指纹，指纹变化时才重新上报 HostFacts
+    private String reportedFactsFingerprint;
 
-    //3.创建RestTemplate对象,用来发送数据
-    private final RestTemplate restTemplate = new RestTemplate();
+    //3.待发送样本缓冲区 (只在调度线程和停机钩子中访问)
+    private final List<BaseMonitorModel> buffer = new ArrayList<>();
 
     //4.定时任务
     @Scheduled(fixedRateString="${monitor.interval}")
-    public void run() throws InterruptedException {
+    public void run() {
         try {
-            //4.1调用采集数据工具类
+            //4.1调用采集数据工具类 (增量采样，不阻塞调度线程)
             BaseMonitorModel data = SystemMonitorUtil.collect();
 
-            //4.2打印日志,并调用方法上传数据到服务端
+            //4.2打印日志
             logger.info("[数据采集成功]CPU利用率: {}% 内存已使用: {}G",
                     data.getCpuLoad(),data.getMemoryUsed());
 
             //4.3注入唯一标识
             data.setAgentId(agentIdentity.getAgentId());
-            sendDataToServer(data);
-        } catch (InterruptedException e) {
+
+            //4.4静态信息有变化时先上报 HostFacts,保证服务端能为样本找到对应的主机信息
+            reportHostFactsIfChanged();
+
+            //4.5放入缓冲区,攒够 N 个或等待超过 T 毫秒后批量上报
+            synchronized (buffer) {
+                buffer.add(data);
+                if (buffer.size() >= batchMaxSize
+                        || System.currentTimeMillis() - buffer.get(0).getTimestamp() >= batchMaxWaitMillis) {
+                    flush();
+                }
+            }
+        } catch (RuntimeException e) {
             logger.error("采集或上报数据失败",e);
         }
 
     }
 
     /**
-     * 上报数据
-     * @param data
+     * 停机前把缓冲区中剩余的样本发出去
      */
-    private void sendDataToServer(BaseMonitorModel data) {
-        logger.info(">>>正在向服务端[{}] 上报数据...",serverUrl);
+    @PreDestroy
+    public void shutdown() {
+        synchronized (buffer) {
+            if (!buffer.isEmpty()) {
+                flush();
+            }
+        }
+    }
 
+    /**
+     * 主机静态信息指纹与上次成功上报的不同时，上报 HostFacts
+     */
+    private void reportHostFactsIfChanged() {
+        HostFacts facts = SystemMonitorUtil.collectHostFacts();
+        if (facts.getFingerprint().equals(reportedFactsFingerprint)) {
+            return;
+        }
+        facts.setAgentId(agentIdentity.getAgentId());
         try {
-            //发送数据
-            // 参数1: URL
-            // 参数2: 要发送的对象 (Spring 会自动把它转换成 JSON 格式，例如 {"cpuLoad":15.5})
-            // 参数3: 服务端返回的数据类型 (服务端返回 "success"，所以是 String.class)
-            String response = restTemplate.postForObject(serverUrl, data, String.class);
-            logger.info("服务器响应: {}",response);
+            reporter.sendHostFacts(facts);
+            reportedFactsFingerprint = facts.getFingerprint();
+            logger.info("主机静态信息已上报: host={} ip={} fingerprint={}",
+                    facts.getHostName(), facts.getIp(), facts.getFingerprint());
         } catch (RestClientException e) {
-            logger.error("发送失败,服务端可能未启动: {}",e.getMessage());
+            logger.warn("主机静态信息上报失败,下个周期重试: {}", e.getMessage());
         }
+    }
 
+    /**
+     * 批量上报缓冲区中的样本 (调用方需持有 buffer 锁)
+     */
+    private void flush() {
+        List<BaseMonitorModel> batch = new ArrayList<>(buffer);
+        buffer.clear();
+        logger.info(">>>正在向服务端批量上报 {} 条数据...", batch.size());
+        try {
+            reporter.sendBatch(batch);
+        } catch (ServerRejectedException e) {
+            // 服务端明确拒绝：重试也不会成功，不写入离线缓冲
+            logger.error("服务端拒绝了 {} 条数据,已丢弃: {}", batch.size(), e.getMessage());
+        } catch (RestClientException e) {
+            // 发送失败的样本写入离线缓冲，服务端恢复后由 SpoolReplayTask 按原始时间戳补发
+            batch.forEach(spool::append);
+            logger.error("发送失败,服务端可能未启动,{} 条数据已写入离线缓冲: {}", batch.size(), e.getMessage());
+        }
     }
 }
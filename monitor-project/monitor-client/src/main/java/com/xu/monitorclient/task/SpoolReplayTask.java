@@ -0,0 +1,123 @@
+package com.xu.monitorclient.task;
+
+import com.xu.monitorclient.core.MonitorReporter;
+import com.xu.monitorclient.core.SampleSpool;
+import com.xu.monitorclient.core.ServerRejectedException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.RestClientException;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 离线缓冲补发任务
+ * 服务端恢复后，把 {@link SampleSpool} 中积压的样本按原始时间戳分批补发。
+ *
+ * <p>为避免整个集群在服务端恢复时同时补发 (惊群)，做了两层限制：</p>
+ * <ol>
+ *   <li>恢复后先随机等待 0 ~ replay-jitter 毫秒再开始补发，把各个 Agent 的起点错开</li>
+ *   <li>令牌桶限速：每秒最多补发 replay-rate 条，单批不超过 replay-batch-size 条</li>
+ * </ol>
+ *
+ * <p>连接失败、超时与服务端暂时不可用 (503) 时保留数据稍后重试；服务端明确拒绝的批次 ({@link ServerRejectedException})
+ * 重试也不会成功，直接确认并计入 skipped，避免一批坏数据堵住整个缓冲。</p>
+ */
+@Component
+public class SpoolReplayTask {
+
+    private static final Logger logger = LoggerFactory.getLogger(SpoolReplayTask.class);
+
+    private final SampleSpool spool;
+    private final MonitorReporter reporter;
+
+    public SpoolReplayTask(SampleSpool spool, MonitorReporter reporter) {
+        this.spool = spool;
+        this.reporter = reporter;
+    }
+
+    // 单批补发的最大条数
+    @Value("${monitor.spool.replay-batch-size:100}")
+    private int replayBatchSize;
+
+    // 每秒最多补发的样本数 (令牌桶速率)
+    @Value("${monitor.spool.replay-rate:50}")
+    private double replayRate;
+
+    // 服务端恢复后开始补发前的最大随机等待 (毫秒)
+    @Value("${monitor.spool.replay-jitter:30000}")
+    private long replayJitterMillis;
+
+    // 令牌桶状态 (只在调度线程中访问)
+    private double tokens;
+    private long lastRefillNanos = System.nanoTime();
+
+    // 本轮补发允许开始的时间，0 表示尚未安排
+    private long resumeAt;
+
+    // 被服务端拒绝而丢弃的样本数
+    private long skipped;
+
+    @Scheduled(fixedDelayString = "${monitor.spool.replay-interval:2000}")
+    public void replay() {
+        if (spool.isEmpty()) {
+            resumeAt = 0;
+            return;
+        }
+        // 1.服务端不可达时不补发，等下一次正常上报成功
+        if (!reporter.isServerReachable()) {
+            resumeAt = 0;
+            return;
+        }
+        // 2.服务端刚恢复：随机错开补发起点
+        long now = System.currentTimeMillis();
+        if (resumeAt == 0) {
+            resumeAt = now + ThreadLocalRandom.current().nextLong(Math.max(1, replayJitterMillis));
+            logger.info("服务端已恢复,{} 毫秒后开始补发离线缓冲中的 {} 条数据", resumeAt - now, spool.size());
+            return;
+        }
+        if (now < resumeAt) {
+            return;
+        }
+
+        // 3.按令牌桶限速分批补发
+        refillTokens();
+        int permits = (int) Math.min(tokens, replayBatchSize);
+        if (permits <= 0) {
+            return;
+        }
+        SampleSpool.Batch batch = spool.peek(permits);
+        try {
+            if (!batch.samples().isEmpty()) {
+                reporter.sendBatch(batch.samples());
+            }
+            spool.commit(batch.endSeq());
+            tokens -= batch.endSeq() - batch.startSeq();
+            logger.info("<<<离线缓冲补发 {} 条数据,剩余 {} 条", batch.samples().size(), spool.size());
+        } catch (ServerRejectedException e) {
+            spool.commit(batch.endSeq());
+            tokens -= batch.endSeq() - batch.startSeq();
+            skipped += batch.samples().size();
+            logger.warn("离线缓冲中的 {} 条数据被服务端拒绝,已丢弃 (累计 {} 条): {}",
+                    batch.samples().size(), skipped, e.getMessage());
+        } catch (RestClientException e) {
+            // 补发失败：数据仍在缓冲中，等服务端再次恢复后重新错开补发
+            resumeAt = 0;
+            logger.warn("离线缓冲补发失败,稍后重试: {}", e.getMessage());
+        }
+    }
+
+    public long getSkipped() {
+        return skipped;
+    }
+
+    private void refillTokens() {
+        long nowNanos = System.nanoTime();
+        double elapsedSeconds = (nowNanos - lastRefillNanos) / 1_000_000_000.0;
+        lastRefillNanos = nowNanos;
+        // 桶容量为一个批次，长时间空闲后也不会一次性突发
+        tokens = Math.min(replayBatchSize, tokens + elapsedSeconds * replayRate);
+    }
+}
@@ -0,0 +1,210 @@
+package com.xu.monitorclient.core;
+
+import com.xu.monitorclient.task.SpoolReplayTask;
+import com.xu.monitorcommon.moudule.BaseMonitorModel;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.client.RestClientException;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 离线缓冲：环形回绕、重启后补发、崩溃留下的不完整记录
+ */
+public class SampleSpoolTest {
+
+    private static final int HEADER_SIZE = 64;
+    private static final int OFF_TAIL = 24;
+
+    @TempDir
+    Path dir;
+
+    private static BaseMonitorModel sample(long timestamp) {
+        BaseMonitorModel model = new BaseMonitorModel();
+        model.setAgentId("agent-0001");
+        model.setTimestamp(timestamp);
+        model.setCpuLoad(12.5);
+        return model;
+    }
+
+    private static List<Long> timestamps(SampleSpool.Batch batch) {
+        return batch.samples().stream().map(BaseMonitorModel::getTimestamp).toList();
+    }
+
+    private static List<Long> range(long from, long to) {
+        List<Long> values = new ArrayList<>();
+        for (long i = from; i < to; i++) {
+            values.add(i);
+        }
+        return values;
+    }
+
+    @Test
+    public void wrapsAroundAndEvictsOldest() throws IOException {
+        SampleSpool spool = new SampleSpool(dir.resolve("spool.dat").toString(), HEADER_SIZE + 4096);
+        for (long i = 0; i < 200; i++) {
+            spool.append(sample(i));
+        }
+        long size = spool.size();
+        assertTrue(size > 0 && size < 200);
+        assertEquals(200 - size, spool.getEvicted());
+
+        // 回绕后仍按写入顺序读出最新的记录
+        SampleSpool.Batch batch = spool.peek(Integer.MAX_VALUE);
+        assertEquals(range(200 - size, 200), timestamps(batch));
+
+        // 补发期间继续写入并淘汰：按序号确认，不会误删新数据
+        SampleSpool.Batch first = spool.peek(3);
+        for (long i = 200; i < 205; i++) {
+            spool.append(sample(i));
+        }
+        spool.commit(first.endSeq());
+        List<Long> remaining = timestamps(spool.peek(Integer.MAX_VALUE));
+        assertEquals(204L, remaining.get(remaining.size() - 1));
+        assertEquals(range(remaining.get(0), 205), remaining);
+        spool.close();
+    }
+
+    @Test
+    public void replaysAfterReopen() throws IOException {
+        String path = dir.resolve("spool.dat").toString();
+        SampleSpool spool = new SampleSpool(path, HEADER_SIZE + 65536);
+        for (long i = 0; i < 5; i++) {
+            spool.append(sample(i));
+        }
+        spool.commit(spool.peek(2).endSeq());
+        spool.close();
+
+        SampleSpool reopened = new SampleSpool(path, HEADER_SIZE + 65536);
+        assertEquals(3, reopened.size());
+        List<BaseMonitorModel> sent = new ArrayList<>();
+        SpoolReplayTask task = new SpoolReplayTask(reopened, new MonitorReporter() {
+            @Override
+            public boolean isServerReachable() {
+                return true;
+            }
+
+            @Override
+            public void sendBatch(List<BaseMonitorModel> batch) {
+                sent.addAll(batch);
+            }
+        });
+        ReflectionTestUtils.setField(task, "replayBatchSize", 100);
+        ReflectionTestUtils.setField(task, "replayRate", 1e9);
+        ReflectionTestUtils.setField(task, "replayJitterMillis", 1L);
+        // 第一次只安排补发起点，之后才开始补发
+        task.replay();
+        task.replay();
+        assertEquals(List.of(2L, 3L, 4L), sent.stream().map(BaseMonitorModel::getTimestamp).toList());
+        assertTrue(reopened.isEmpty());
+        reopened.close();
+
+        assertTrue(new SampleSpool(path, HEADER_SIZE + 65536).isEmpty());
+    }
+
+    @Test
+    public void skipsRejectedBatchButKeepsTransientFailures() throws IOException {
+        SampleSpool spool = new SampleSpool(dir.resolve("spool.dat").toString(), HEADER_SIZE + 65536);
+        for (long i = 0; i < 3; i++) {
+            spool.append(sample(i));
+        }
+        List<Long> sent = new ArrayList<>();
+        boolean[] unavailable = {true};
+        SpoolReplayTask task = new SpoolReplayTask(spool, new MonitorReporter() {
+            @Override
+            public boolean isServerReachable() {
+                return true;
+            }
+
+            @Override
+            public void sendBatch(List<BaseMonitorModel> batch) {
+                if (unavailable[0]) {
+                    throw new RestClientException("服务端拒绝: 503 写入缓冲已满");
+                }
+                if (batch.get(0).getTimestamp() == 1) {
+                    throw new ServerRejectedException(400, "服务端拒绝: 400 bad record");
+                }
+                batch.forEach(model -> sent.add(model.getTimestamp()));
+            }
+        });
+        ReflectionTestUtils.setField(task, "replayBatchSize", 1);
+        ReflectionTestUtils.setField(task, "replayRate", 1e9);
+        ReflectionTestUtils.setField(task, "replayJitterMillis", 1L);
+
+        // 暂时不可用：数据保留在缓冲中
+        task.replay();
+        task.replay();
+        assertEquals(3, spool.size());
+
+        // 恢复后补发，被拒绝的一批跳过，不会堵住后面的数据
+        unavailable[0] = false;
+        for (int i = 0; i < 5; i++) {
+            task.replay();
+        }
+        assertEquals(List.of(0L, 2L), sent);
+        assertEquals(1, task.getSkipped());
+        assertTrue(spool.isEmpty());
+        spool.close();
+    }
+
+    @Test
+    public void ignoresTornTailRecord() throws IOException {
+        String path = dir.resolve("spool.dat").toString();
+        SampleSpool spool = new SampleSpool(path, HEADER_SIZE + 65536);
+        for (long i = 0; i < 3; i++) {
+            spool.append(sample(i));
+        }
+        spool.close();
+
+        // 模拟写到一半崩溃：tail 处只写了长度和部分内容，文件头没有更新
+        try (RandomAccessFile file = new RandomAccessFile(path, "rw")) {
+            file.seek(OFF_TAIL);
+            long tail = file.readLong();
+            file.seek(HEADER_SIZE + tail);
+            file.writeInt(500);
+            file.write("{\"agentId\":\"agent-".getBytes());
+        }
+
+        SampleSpool reopened = new SampleSpool(path, HEADER_SIZE + 65536);
+        assertEquals(3, reopened.size());
+        reopened.append(sample(3));
+        assertEquals(List.of(0L, 1L, 2L, 3L), timestamps(reopened.peek(10)));
+        reopened.close();
+    }
+
+    @Test
+    public void truncatesAtCorruptRecordLength() throws IOException {
+        String path = dir.resolve("spool.dat").toString();
+        SampleSpool spool = new SampleSpool(path, HEADER_SIZE + 65536);
+        spool.append(sample(0));
+        spool.append(sample(1));
+        long thirdOffset;
+        try (RandomAccessFile file = new RandomAccessFile(path, "rw")) {
+            file.seek(OFF_TAIL);
+            thirdOffset = file.readLong();
+        }
+        spool.append(sample(2));
+        spool.close();
+
+        // 最后一条记录的长度字段损坏
+        try (RandomAccessFile file = new RandomAccessFile(path, "rw")) {
+            file.seek(HEADER_SIZE + thirdOffset);
+            file.writeInt(Integer.MAX_VALUE);
+        }
+
+        SampleSpool reopened = new SampleSpool(path, HEADER_SIZE + 65536);
+        assertEquals(List.of(0L, 1L), timestamps(reopened.peek(10)));
+        assertEquals(2, reopened.size());
+        reopened.append(sample(3));
+        assertEquals(List.of(0L, 1L, 3L), timestamps(reopened.peek(10)));
+        reopened.close();
+    }
+}
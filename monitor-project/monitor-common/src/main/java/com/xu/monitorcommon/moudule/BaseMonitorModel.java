@@ -1,24 +1,24 @@
 package com.xu.monitorcommon.moudule;
 
+import java.util.List;
 
-
+/**
+ * 监控样本：只包含随时间变化的指标 (Gauges)
+ * 操作系统、主机名、IP、内存/磁盘总量等静态信息见 {@link HostFacts}，只在变化时单独上报
+ */
 public class BaseMonitorModel {
 
     //探针唯一标识(核心)
     private String agentId;
 
-    // 基础信息
-    private String osName;      // 操作系统名称 (如 Windows 11)
-    private String hostName;    // 主机名
-    private String ip;          // IP地址
+    // 采集时间 (Agent 端时间戳, epoch 毫秒)，批量/延迟上报时服务端据此还原数据点时间
+    private long timestamp;
 
     // 核心硬件
     private double cpuLoad;     // CPU使用率 (0.0 - 100.0)
-    private double memoryTotal; // 内存总量 (GB)
     private double memoryUsed;  // 内存已用 (GB)
 
     // 磁盘信息
-    private double diskTotal;   // 磁盘总量 (GB)
     private double diskUsed;    // 磁盘已用 (GB)
     private double diskUsage;   // 磁盘使用率 (%)
 
@@ -38,37 +38,15 @@ public class BaseMonitorModel {
     private double diskReadRate;
     private double diskWriteRate;
 
-    //  Top 5 进程 (JSON 字符串形式存储)
+    //  Top 5 进程 (结构化列表，服务端写入 process_top 表，每个进程一个数据点)
+    private List<ProcessModel> topProcesses;
+
+    //  Top 5 进程 (JSON 字符串形式)，旧版 Agent 使用；服务端在 topProcesses 为空时解析该字段
     private String topProcessesJson;
-    // 辅助字段：仅用于传输，不存数据库,为了方便，我们在 Util 里直接转 JSON存入上面的String
 
     //CPU温度
     private double cpuTemperature;
 
-    public String getOsName() {
-        return osName;
-    }
-
-    public void setOsName(String osName) {
-        this.osName = osName;
-    }
-
-    public String getHostName() {
-        return hostName;
-    }
-
-    public void setHostName(String hostName) {
-        this.hostName = hostName;
-    }
-
-    public String getIp() {
-        return ip;
-    }
-
-    public void setIp(String ip) {
-        this.ip = ip;
-    }
-
     public double getCpuLoad() {
         return cpuLoad;
     }
@@ -77,14 +55,6 @@ public class BaseMonitorModel {
         this.cpuLoad = cpuLoad;
     }
 
-    public double getMemoryTotal() {
-        return memoryTotal;
-    }
-
-    public void setMemoryTotal(double memoryTotal) {
-        this.memoryTotal = memoryTotal;
-    }
-
     public double getMemoryUsed() {
         return memoryUsed;
     }
@@ -93,14 +63,6 @@ public class BaseMonitorModel {
         this.memoryUsed = memoryUsed;
     }
 
-    public double getDiskTotal() {
-        return diskTotal;
-    }
-
-    public void setDiskTotal(double diskTotal) {
-        this.diskTotal = diskTotal;
-    }
-
     public double getDiskUsed() {
         return diskUsed;
     }
@@ -181,6 +143,14 @@ public class BaseMonitorModel {
         this.diskWriteRate = diskWriteRate;
     }
 
+    public List<ProcessModel> getTopProcesses() {
+        return topProcesses;
+    }
+
+    public void setTopProcesses(List<ProcessModel> topProcesses) {
+        this.topProcesses = topProcesses;
+    }
+
     public String getTopProcessesJson() {
         return topProcessesJson;
     }
@@ -197,6 +167,14 @@ public class BaseMonitorModel {
         this.cpuTemperature = cpuTemperature;
     }
 
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public void setTimestamp(long timestamp) {
+        this.timestamp = timestamp;
+    }
+
     public String getAgentId() {
         return agentId;
     }
@@ -0,0 +1,101 @@
+package com.xu.monitorcommon.moudule;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+/**
+ * 主机静态信息 (Host Facts)
+ * 操作系统、主机名、IP、内存/磁盘总量等几乎不变的信息，
+ * Agent 启动时采集一次，之后只有指纹变化时才重新上报，不再随每个监控样本重复发送
+ */
+public class HostFacts {
+
+    //探针唯一标识
+    private String agentId;
+
+    private String osName;      // 操作系统名称 (如 Windows 11)
+    private String hostName;    // 主机名
+    private String ip;          // IP地址
+    private double memoryTotal; // 内存总量 (GB)
+    private double diskTotal;   // 磁盘总量 (GB)
+
+    // 指纹：由上面的静态字段计算得出，用于判断是否需要重新上报
+    private String fingerprint;
+
+    /**
+     * 根据当前字段计算指纹 (不包含 agentId)：按固定顺序拼接各字段后取 SHA-256
+     */
+    public String computeFingerprint() {
+        String canonical = String.join("\n",
+                osName == null ? "" : osName,
+                hostName == null ? "" : hostName,
+                ip == null ? "" : ip,
+                Double.toString(memoryTotal),
+                Double.toString(diskTotal));
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(canonical.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            // 所有 JRE 都必须提供 SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public String getAgentId() {
+        return agentId;
+    }
+
+    public void setAgentId(String agentId) {
+        this.agentId = agentId;
+    }
+
+    public String getOsName() {
+        return osName;
+    }
+
+    public void setOsName(String osName) {
+        this.osName = osName;
+    }
+
+    public String getHostName() {
+        return hostName;
+    }
+
+    public void setHostName(String hostName) {
+        this.hostName = hostName;
+    }
+
+    public String getIp() {
+        return ip;
+    }
+
+    public void setIp(String ip) {
+        this.ip = ip;
+    }
+
+    public double getMemoryTotal() {
+        return memoryTotal;
+    }
+
+    public void setMemoryTotal(double memoryTotal) {
+        this.memoryTotal = memoryTotal;
+    }
+
+    public double getDiskTotal() {
+        return diskTotal;
+    }
+
+    public void setDiskTotal(double diskTotal) {
+        this.diskTotal = diskTotal;
+    }
+
+    public String getFingerprint() {
+        return fingerprint;
+    }
+
+    public void setFingerprint(String fingerprint) {
+        this.fingerprint = fingerprint;
+    }
+}
@@ -1,7 +1,7 @@
 package com.xu.monitorcommon.utils;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.xu.monitorcommon.moudule.BaseMonitorModel;
+import com.xu.monitorcommon.moudule.HostFacts;
 import com.xu.monitorcommon.moudule.ProcessModel;
 import oshi.SystemInfo;
 import oshi.hardware.*;
@@ -17,11 +17,12 @@ import java.text.DecimalFormat;
 import java.util.ArrayList;
 import java.util.Enumeration;
 import java.util.List;
-import java.util.concurrent.TimeUnit;
 
 /**
  * 系统监控工具类 (Full Version)
  * 包含：基础信息、CPU/内存/磁盘/网络、磁盘IO速率、Top5进程
+ * 速率类指标由有状态的增量采样器计算：保留上一次的计数器快照，下一次采集时做差值
+ * 主机静态信息 (HostFacts) 单独缓存，不随每次采集重复计算
  */
 public class SystemMonitorUtil {
 
@@ -29,22 +30,42 @@ public class SystemMonitorUtil {
     private static final HardwareAbstractionLayer HAL = SI.getHardware();
     private static final OperatingSystem OS = SI.getOperatingSystem();
     private static final DecimalFormat TWO_DECIMAL = new DecimalFormat("#.00");
-    private static final ObjectMapper MAPPER = new ObjectMapper();
 
-    public static BaseMonitorModel collect() throws InterruptedException {
+    /**
+     * 上一次采样的计数器快照，作为下一次 collect() 计算速率的基线
+     */
+    private static CounterSnapshot lastSnapshot;
+
+    /**
+     * 主机静态信息缓存：启动时采集一次，之后按 FACTS_REFRESH_MILLIS 周期复查 (IP 可能因 DHCP 变化)
+     */
+    private static HostFacts hostFacts;
+    private static long hostFactsCollectedAt;
+    private static final long FACTS_REFRESH_MILLIS = 60_000;
+
+    /**
+     * 预热采样器：记录一次计数器基线，使进程启动后的第一次 collect() 就能算出真实速率。
+     * 建议在定时任务开始前调用一次。
+     */
+    public static synchronized void prime() {
+        lastSnapshot = takeSnapshot();
+    }
+
+    /**
+     * 采集一次监控数据。
+     * 速率类指标 (CPU 使用率、网络/磁盘 IO) 基于上一次调用留下的快照计算，
+     * 调用间隔无需固定，间隔漂移时按实际经过的时间折算。
+     */
+    public static synchronized BaseMonitorModel collect() {
         BaseMonitorModel model = new BaseMonitorModel();
+        model.setTimestamp(System.currentTimeMillis());
 
-        // 1. 基础信息
-        model.setOsName(OS.toString());
-        model.setHostName(OS.getNetworkParams().getHostName());
-        model.setIp(getLocalIp());
+        // 1. 运行时间 (操作系统/主机名/IP 等静态信息见 collectHostFacts)
         model.setUpTime(OS.getSystemUptime());
 
         // 2. 内存信息
         GlobalMemory memory = HAL.getMemory();
-        double totalMem = memory.getTotal() / 1024.0 / 1024.0 / 1024.0;
         double usedMem = (memory.getTotal() - memory.getAvailable()) / 1024.0 / 1024.0 / 1024.0;
-        model.setMemoryTotal(parse(totalMem));
         model.setMemoryUsed(parse(usedMem));
 
         // 3. 磁盘容量信息
@@ -58,70 +79,32 @@ public class SystemMonitorUtil {
         }
         double totalDiskGb = totalDiskBytes / 1024.0 / 1024.0 / 1024.0;
         double usedDiskGb = usedDiskBytes / 1024.0 / 1024.0 / 1024.0;
-        model.setDiskTotal(parse(totalDiskGb));
         model.setDiskUsed(parse(usedDiskGb));
         model.setDiskUsage(totalDiskGb > 0 ? parse((usedDiskGb / totalDiskGb) * 100) : 0);
+        // 磁盘总量本次已经顺带算出，挂载变化时直接刷新静态信息，无需等待下一次复查
+        if (hostFacts != null && hostFacts.getDiskTotal() != parse(totalDiskGb)) {
+            hostFacts = buildHostFacts(hostFacts.getIp(), parse(totalDiskGb));
+        }
 
         // ==========================================
         // 4. 动态速率采样 (CPU, Net, Disk IO)
+        // 与上一次 collect() 留下的快照做差值，按两次采样之间的真实耗时计算速率，
+        // 不再 sleep 1 秒等待第二次采样，采集本身只需要几毫秒
         // ==========================================
-        CentralProcessor processor = HAL.getProcessor();
-        List<NetworkIF> networkIFs = HAL.getNetworkIFs();
-        List<HWDiskStore> diskStores = HAL.getDiskStores(); // 获取磁盘列表
-
-        // --- 📸 第一次采样 ---
-        long[] prevCpuTicks = processor.getSystemCpuLoadTicks();
-
-        long prevNetRecv = 0;
-        long prevNetSent = 0;
-        for (NetworkIF net : networkIFs) {
-            net.updateAttributes();
-            prevNetRecv += net.getBytesRecv();
-            prevNetSent += net.getBytesSent();
-        }
-
-        // 磁盘 IO 第一次采样
-        long prevDiskRead = 0;
-        long prevDiskWrite = 0;
-        for (HWDiskStore disk : diskStores) {
-            disk.updateAttributes(); // 必须更新
-            prevDiskRead += disk.getReadBytes();
-            prevDiskWrite += disk.getWriteBytes();
-        }
-
-        //休眠 1 秒
-        TimeUnit.SECONDS.sleep(1);
-
-        // --- 📸 第二次采样 ---
-        long[] currCpuTicks = processor.getSystemCpuLoadTicks();
+        CounterSnapshot curr = takeSnapshot();
+        CounterSnapshot prev = lastSnapshot;
+        lastSnapshot = curr;
 
-        long currNetRecv = 0;
-        long currNetSent = 0;
-        for (NetworkIF net : networkIFs) {
-            net.updateAttributes();
-            currNetRecv += net.getBytesRecv();
-            currNetSent += net.getBytesSent();
-        }
+        if (prev != null) {
+            double elapsedSeconds = (curr.nanoTime - prev.nanoTime) / 1_000_000_000.0;
 
-        // 磁盘 IO 第二次采样
-        long currDiskRead = 0;
-        long currDiskWrite = 0;
-        for (HWDiskStore disk : diskStores) {
-            disk.updateAttributes();
-            currDiskRead += disk.getReadBytes();
-            currDiskWrite += disk.getWriteBytes();
+            model.setCpuLoad(parse(cpuLoadBetween(prev.cpuTicks, curr.cpuTicks) * 100));
+            model.setNetRecvRate(parse(ratePerSecond(prev.netRecv, curr.netRecv, elapsedSeconds) / 1024.0));
+            model.setNetSentRate(parse(ratePerSecond(prev.netSent, curr.netSent, elapsedSeconds) / 1024.0));
+            model.setDiskReadRate(parse(ratePerSecond(prev.diskRead, curr.diskRead, elapsedSeconds) / 1024.0));
+            model.setDiskWriteRate(parse(ratePerSecond(prev.diskWrite, curr.diskWrite, elapsedSeconds) / 1024.0));
         }
-
-        // --- 计算并赋值 ---
-        double cpuLoad = processor.getSystemCpuLoadBetweenTicks(prevCpuTicks) * 100;
-        model.setCpuLoad(parse(cpuLoad));
-
-        model.setNetRecvRate(parse((currNetRecv - prevNetRecv) / 1024.0));
-        model.setNetSentRate(parse((currNetSent - prevNetSent) / 1024.0));
-
-        // 🟢 赋值磁盘速率
-        model.setDiskReadRate(parse((currDiskRead - prevDiskRead) / 1024.0));
-        model.setDiskWriteRate(parse((currDiskWrite - prevDiskWrite) / 1024.0));
+        // prev == null 说明是进程启动后的第一次采样，没有基线可比较，速率类指标保持 0
 
         // 5. 系统负载
         double[] loads = HAL.getProcessor().getSystemLoadAverage(3);
@@ -151,12 +134,8 @@ public class SystemMonitorUtil {
             processList.add(pm);
         }
 
-        try {
-            // 序列化为 JSON 字符串
-            model.setTopProcessesJson(MAPPER.writeValueAsString(processList));
-        } catch (Exception e) {
-            model.setTopProcessesJson("[]");
-        }
+        // 结构化上报，服务端按进程拆成 process_top 数据点
+        model.setTopProcesses(processList);
 
         //7.采集CPU温度
         Sensors sensors = HAL.getSensors();
@@ -166,6 +145,84 @@ public class SystemMonitorUtil {
         return model;
     }
 
+    /**
+     * 获取主机静态信息 (操作系统、主机名、IP、内存/磁盘总量)。
+     * 结果会被缓存，只有距上次采集超过 FACTS_REFRESH_MILLIS 才会重新枚举网卡等信息，
+     * 调用方通过比较 {@link HostFacts#getFingerprint()} 判断是否需要重新上报
+     */
+    public static synchronized HostFacts collectHostFacts() {
+        long now = System.currentTimeMillis();
+        if (hostFacts == null || now - hostFactsCollectedAt >= FACTS_REFRESH_MILLIS) {
+            long totalDiskBytes = 0;
+            for (OSFileStore fs : OS.getFileSystem().getFileStores()) {
+                totalDiskBytes += fs.getTotalSpace();
+            }
+            hostFacts = buildHostFacts(getLocalIp(), parse(totalDiskBytes / 1024.0 / 1024.0 / 1024.0));
+            hostFactsCollectedAt = now;
+        }
+        return hostFacts;
+    }
+
+    private static HostFacts buildHostFacts(String ip, double diskTotalGb) {
+        HostFacts facts = new HostFacts();
+        facts.setOsName(OS.toString());
+        facts.setHostName(OS.getNetworkParams().getHostName());
+        facts.setIp(ip);
+        facts.setMemoryTotal(parse(HAL.getMemory().getTotal() / 1024.0 / 1024.0 / 1024.0));
+        facts.setDiskTotal(diskTotalGb);
+        facts.setFingerprint(facts.computeFingerprint());
+        return facts;
+    }
+
+    /**
+     * 读取一次 CPU ticks、所有网卡收发字节数、所有磁盘读写字节数
+     */
+    private static CounterSnapshot takeSnapshot() {
+        long[] cpuTicks = HAL.getProcessor().getSystemCpuLoadTicks();
+
+        long netRecv = 0;
+        long netSent = 0;
+        for (NetworkIF net : HAL.getNetworkIFs()) {
+            net.updateAttributes();
+            netRecv += net.getBytesRecv();
+            netSent += net.getBytesSent();
+        }
+
+        long diskRead = 0;
+        long diskWrite = 0;
+        for (HWDiskStore disk : HAL.getDiskStores()) {
+            disk.updateAttributes(); // 必须更新
+            diskRead += disk.getReadBytes();
+            diskWrite += disk.getWriteBytes();
+        }
+
+        return new CounterSnapshot(System.nanoTime(), cpuTicks, netRecv, netSent, diskRead, diskWrite);
+    }
+
+    /**
+     * 根据两次 ticks 计算 CPU 使用率 (0.0 - 1.0)，算法与 OSHI 的 getSystemCpuLoadBetweenTicks 一致
+     */
+    private static double cpuLoadBetween(long[] prevTicks, long[] currTicks) {
+        long total = 0;
+        for (int i = 0; i < currTicks.length; i++) {
+            total += currTicks[i] - prevTicks[i];
+        }
+        int idleIdx = CentralProcessor.TickType.IDLE.getIndex();
+        int ioWaitIdx = CentralProcessor.TickType.IOWAIT.getIndex();
+        long idle = currTicks[idleIdx] + currTicks[ioWaitIdx] - prevTicks[idleIdx] - prevTicks[ioWaitIdx];
+        return total > 0 && idle >= 0 ? (double) (total - idle) / total : 0d;
+    }
+
+    /**
+     * 计数器差值按经过的秒数折算为每秒速率。
+     * 网卡/磁盘被移除或计数器回绕时差值可能为负，此时按 0 处理
+     */
+    private static double ratePerSecond(long prev, long curr, double elapsedSeconds) {
+        long delta = curr - prev;
+        if (delta < 0 || elapsedSeconds <= 0) return 0;
+        return delta / elapsedSeconds;
+    }
+
     private static double parse(double val) {
         if (Double.isNaN(val)) return 0.00;
         return Double.parseDouble(TWO_DECIMAL.format(val));
@@ -202,4 +259,12 @@ public class SystemMonitorUtil {
     private static double formatLoad(double val) {
         return val < 0 ? 0.0 : Double.parseDouble(TWO_DECIMAL.format(val));
     }
+
+    /**
+     * 计数器快照：nanoTime 用于计算两次采样之间的真实间隔
+     */
+    private record CounterSnapshot(long nanoTime, long[] cpuTicks,
+                                   long netRecv, long netSent,
+                                   long diskRead, long diskWrite) {
+    }
 }
\ No newline at end of file
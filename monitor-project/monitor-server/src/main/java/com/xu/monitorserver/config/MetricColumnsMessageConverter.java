@@ -0,0 +1,141 @@
+package com.xu.monitorserver.config;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.xu.monitorserver.dto.MetricColumns;
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.AbstractHttpMessageConverter;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 历史曲线的列式响应，由 Accept 头协商：
+ * <ul>
+ *     <li>{@value #JSON_VALUE}：{ code, msg, data: { fields, times: [epoch 毫秒], values: { 字段: [数值或 null] } } }</li>
+ *     <li>{@value #BINARY_VALUE}：小端二进制帧，格式见 {@link #writeBinary}</li>
+ * </ul>
+ * 两种格式都直接从 {@link MetricColumns} 的 long[]/double[] 输出，不为每个点创建 Map、装箱数值或格式化时间字符串
+ */
+public class MetricColumnsMessageConverter extends AbstractHttpMessageConverter<MetricColumns> {
+
+    public static final String JSON_VALUE = "application/vnd.monitor.columns+json";
+    public static final String BINARY_VALUE = "application/vnd.monitor.columns";
+    public static final MediaType JSON = MediaType.parseMediaType(JSON_VALUE);
+    public static final MediaType BINARY = MediaType.parseMediaType(BINARY_VALUE);
+
+    /**
+     * 二进制帧开头的魔数 "MCOL"
+     */
+    static final int MAGIC = 0x4C4F434D;
+    static final short VERSION = 1;
+
+    private final JsonFactory jsonFactory = new JsonFactory();
+
+    public MetricColumnsMessageConverter() {
+        super(JSON, BINARY);
+    }
+
+    @Override
+    protected boolean supports(Class<?> clazz) {
+        return MetricColumns.class.isAssignableFrom(clazz);
+    }
+
+    @Override
+    protected boolean canRead(MediaType mediaType) {
+        return false;
+    }
+
+    @Override
+    protected MetricColumns readInternal(Class<? extends MetricColumns> clazz, HttpInputMessage inputMessage) {
+        throw new HttpMessageNotReadableException("列式格式只用于响应", inputMessage);
+    }
+
+    @Override
+    protected void writeInternal(MetricColumns columns, HttpOutputMessage outputMessage) throws IOException {
+        MediaType contentType = outputMessage.getHeaders().getContentType();
+        if (contentType != null && BINARY.isCompatibleWith(contentType)) {
+            outputMessage.getBody().write(writeBinary(columns));
+        } else {
+            writeJson(columns, outputMessage);
+        }
+    }
+
+    private void writeJson(MetricColumns columns, HttpOutputMessage outputMessage) throws IOException {
+        try (JsonGenerator gen = jsonFactory.createGenerator(outputMessage.getBody(), JsonEncoding.UTF8)) {
+            gen.writeStartObject();
+            // 与 R 的字段保持一致，前端拦截器按 code 判断成功
+            gen.writeNumberField("code", 200);
+            gen.writeStringField("msg", "操作成功");
+            gen.writeObjectFieldStart("data");
+            gen.writeArrayFieldStart("fields");
+            for (String field : columns.fields()) {
+                gen.writeString(field);
+            }
+            gen.writeEndArray();
+            gen.writeFieldName("times");
+            gen.writeArray(columns.times(), 0, columns.size());
+            gen.writeObjectFieldStart("values");
+            for (int f = 0; f < columns.fields().size(); f++) {
+                gen.writeArrayFieldStart(columns.fields().get(f));
+                double[] values = columns.values()[f];
+                for (int i = 0; i < columns.size(); i++) {
+                    if (Double.isNaN(values[i])) {
+                        gen.writeNull();
+                    } else {
+                        gen.writeNumber(values[i]);
+                    }
+                }
+                gen.writeEndArray();
+            }
+            gen.writeEndObject();
+            gen.writeEndObject();
+            gen.writeEndObject();
+        }
+    }
+
+    /**
+     * 二进制帧 (小端)：
+     * <pre>
+     * int32   魔数 "MCOL"
+     * int16   版本 (1)
+     * int16   字段数 F
+     * int32   行数 N
+     * F × (int16 长度 + UTF-8 字段名)
+     * 补 0 到 8 字节对齐
+     * int64[N]        窗口时间 (epoch 毫秒)
+     * F × float64[N]  各字段数值，NaN 表示该窗口没有数据
+     * </pre>
+     * 对齐后浏览器可以直接用 BigInt64Array / Float64Array 读取各列，不需要逐个解析
+     */
+    static byte[] writeBinary(MetricColumns columns) {
+        int fieldCount = columns.fields().size();
+        int rows = columns.size();
+        byte[][] names = new byte[fieldCount][];
+        int header = 12;
+        for (int f = 0; f < fieldCount; f++) {
+            names[f] = columns.fields().get(f).getBytes(StandardCharsets.UTF_8);
+            header += 2 + names[f].length;
+        }
+        int aligned = (header + 7) & ~7;
+        ByteBuffer buffer = ByteBuffer.allocate(aligned + 8 * rows * (1 + fieldCount)).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(MAGIC).putShort(VERSION).putShort((short) fieldCount).putInt(rows);
+        for (byte[] name : names) {
+            buffer.putShort((short) name.length).put(name);
+        }
+        buffer.position(aligned);
+        buffer.asLongBuffer().put(columns.times(), 0, rows);
+        buffer.position(aligned + 8 * rows);
+        for (int f = 0; f < fieldCount; f++) {
+            buffer.asDoubleBuffer().put(columns.values()[f], 0, rows);
+            buffer.position(buffer.position() + 8 * rows);
+        }
+        return buffer.array();
+    }
+}
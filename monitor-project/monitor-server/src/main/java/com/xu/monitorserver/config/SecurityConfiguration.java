@@ -55,7 +55,7 @@ public class SecurityConfiguration {
                         // 允许匿名访问 Agent 上报接口
                         .requestMatchers("/api/agent/**").permitAll()
                         // 放行 Client 上报接口
-                        .requestMatchers("/api/monitor/report").permitAll()
+                        .requestMatchers("/api/monitor/report", "/api/monitor/report/batch").permitAll()
                         // 允许匿名访问刷新接口
                         .requestMatchers("/api/auth/refresh").permitAll()
                         // 其他所有请求需要认证
@@ -1,9 +1,20 @@
 package com.xu.monitorserver.config;
 
 import org.springframework.context.annotation.Configuration;
+import org.springframework.http.converter.HttpMessageConverter;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 
+import java.util.List;
+
 @Configuration
 public class WebConfig implements WebMvcConfigurer {
     //用户头像改成OSS存储,不使用本地存储
-}
\ No newline at end of file
+
+    /**
+     * 列式响应放在 Jackson 之前：application/vnd.monitor.columns+json 也匹配 Jackson 的 application/*+json
+     */
+    @Override
+    public void extendMessageConverters(List<HttpMessageConverter<?>> converters) {
+        converters.add(0, new MetricColumnsMessageConverter());
+    }
+}
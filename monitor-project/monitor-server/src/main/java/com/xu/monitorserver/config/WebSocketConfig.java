@@ -1,6 +1,7 @@
 package com.xu.monitorserver.config;
 
 import com.xu.monitorserver.handler.AuthHandshakeInterceptor;
+import com.xu.monitorserver.handler.LiveMetricsWebSocketHandler;
 import com.xu.monitorserver.handler.WebSshWebSocketHandler;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.web.socket.config.annotation.EnableWebSocket;
@@ -31,10 +32,17 @@ public class WebSocketConfig implements WebSocketConfigurer {
      */
     private final AuthHandshakeInterceptor authHandshakeInterceptor;
 
+    /**
+     * 实时指标订阅：上报的新样本直接推送给订阅者，替代 Dashboard 轮询。
+     */
+    private final LiveMetricsWebSocketHandler liveMetricsWebSocketHandler;
+
     public WebSocketConfig(WebSshWebSocketHandler webSshWebSocketHandler,
-                           AuthHandshakeInterceptor authHandshakeInterceptor) {
+                           AuthHandshakeInterceptor authHandshakeInterceptor,
+                           LiveMetricsWebSocketHandler liveMetricsWebSocketHandler) {
         this.webSshWebSocketHandler = webSshWebSocketHandler;
         this.authHandshakeInterceptor = authHandshakeInterceptor;
+        this.liveMetricsWebSocketHandler = liveMetricsWebSocketHandler;
     }
 
     /**
@@ -43,6 +51,7 @@ public class WebSocketConfig implements WebSocketConfigurer {
      * <p>路径约定：</p>
      * <ul>
      *   <li><code>/ws/ssh</code>：WebSSH 终端连接入口</li>
+     *   <li><code>/ws/metrics</code>：实时指标订阅（协议见 {@link LiveMetricsWebSocketHandler}）</li>
      * </ul>
      *
      * <p>跨域：当前配置允许所有来源（<code>*</code>）。如果你后续要上线生产环境，建议改成白名单来源，
@@ -55,5 +64,8 @@ public class WebSocketConfig implements WebSocketConfigurer {
                 .setAllowedOrigins("*")
                 // 握手拦截器：可在握手时做鉴权/绑定用户信息
                 .addInterceptors(authHandshakeInterceptor);
+        registry.addHandler(liveMetricsWebSocketHandler, "/ws/metrics")
+                .setAllowedOrigins("*")
+                .addInterceptors(authHandshakeInterceptor);
     }
 }
\ No newline at end of file
@@ -4,9 +4,11 @@ package com.xu.monitorserver.controller;
 import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
 import com.xu.monitorcommon.constant.AppConstants;
 import com.xu.monitorcommon.dto.AgentDTO;
+import com.xu.monitorcommon.moudule.HostFacts;
 import com.xu.monitorcommon.result.R;
 import com.xu.monitorserver.entity.ServerInfo;
 import com.xu.monitorserver.mapper.ServerInfoMapper;
+import com.xu.monitorserver.service.monitorservice.HostFactsService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
@@ -24,9 +26,12 @@ public class AgentController {
 
     private final ServerInfoMapper serverMapper;
     private final StringRedisTemplate redisTemplate;
-    public AgentController(ServerInfoMapper serverMapper,StringRedisTemplate redisTemplate){
+    private final HostFactsService hostFactsService;
+    public AgentController(ServerInfoMapper serverMapper,StringRedisTemplate redisTemplate,
+                           HostFactsService hostFactsService){
         this.redisTemplate=redisTemplate;
         this.serverMapper=serverMapper;
+        this.hostFactsService=hostFactsService;
     }
 
     @Value("${monitor.app-secret}")
@@ -50,17 +55,23 @@ public class AgentController {
         // 1. 标记在线 (TTL 60秒，心跳间隔30秒，容错率2倍)
         refreshOnlineStatus(dto.getAgentId());
 
+        // 启动时静态信息上报可能先于注册到达 (当时 server_info 还没有这一行，只进入了缓存)，这里一并入库
+        HostFacts facts = hostFactsService.cached(dto.getAgentId());
+
         // 2. 查询数据库是否已有该 Agent
         ServerInfo existingServer = serverMapper.selectOne(
                 new LambdaQueryWrapper<ServerInfo>().eq(ServerInfo::getAgentId, dto.getAgentId())
         );
 
+        ServerInfo registered;
         if (existingServer != null) {
             // 2.1 已存在：更新最新的 IP 和 HostName (应对 DHCP 变动)
             existingServer.setIp(dto.getIp());
             existingServer.setName(dto.getHostname()); // 可选：是否覆盖名称看业务需求
             existingServer.setUpdateTime(LocalDateTime.now());
+            applyFacts(existingServer, facts, dto);
             serverMapper.updateById(existingServer);
+            registered = existingServer;
         } else {
             // 2.2 不存在：
             // 策略A：自动入库 (Auto Discovery) - 推荐
@@ -71,15 +82,40 @@ public class AgentController {
             newServer.setPort(22); // 默认 SSH 端口
             newServer.setCreateBy("system"); // 标记为系统自动发现
             newServer.setCreateTime(LocalDateTime.now());
+            applyFacts(newServer, facts, dto);
             serverMapper.insert(newServer);
-            
+            registered = newServer;
+
             // 策略B：不入库，只在 Redis 记录一个 "待接入列表"，让管理员在前端手动点"准入"
             // (这里我们采用策略A，简单直接)
         }
+        // 读取缓存之后、入库之前到达的静态信息上报找不到这一行，只进入了缓存：补写一次
+        HostFacts latest = hostFactsService.cached(dto.getAgentId());
+        if (latest != null && latest != facts && latest.getFingerprint() != null) {
+            applyFacts(registered, latest, dto);
+            serverMapper.updateById(registered);
+        }
+        // IP/主机名可能已变化：更新缓存，保留已上报的静态信息
+        hostFactsService.registered(dto.getAgentId(), dto.getIp(), dto.getHostname());
 
         return R.ok();
     }
 
+    /**
+     * Agent 主机静态信息上报
+     * 逻辑：Agent 只在静态信息指纹变化时调用，服务端更新缓存并落库
+     */
+    @PostMapping("/facts")
+    public R<Void> facts(@RequestBody HostFacts facts,
+                         @RequestHeader(value = AppConstants.MONITOR_APP_SECRET_HEADER, required = false) String secretHeader) {
+        //鉴权校验 (先校验再记录，未通过鉴权的请求内容不写入日志)
+        checkSecret(secretHeader);
+        logger.info("收到 Agent 静态信息上报: agentId={} fingerprint={}", facts.getAgentId(), facts.getFingerprint());
+
+        hostFactsService.update(facts);
+        return R.ok();
+    }
+
     /**
      * Agent 心跳
      * 逻辑：仅续期 Redis Key
@@ -95,6 +131,20 @@ public class AgentController {
         return R.ok();
     }
 
+    /**
+     * 辅助方法：写入 Agent 上报过的静态信息；还没有上报时至少保留注册请求中的操作系统名称
+     */
+    private void applyFacts(ServerInfo server, HostFacts facts, AgentDTO.Register dto) {
+        if (facts != null && facts.getFingerprint() != null) {
+            server.setOsName(facts.getOsName());
+            server.setMemoryTotal(facts.getMemoryTotal());
+            server.setDiskTotal(facts.getDiskTotal());
+            server.setFactsFingerprint(facts.getFingerprint());
+        } else if (dto.getOsName() != null) {
+            server.setOsName(dto.getOsName());
+        }
+    }
+
     /**
      * 辅助方法：刷新 Redis 在线状态
      * Key: agent:online:uuid
@@ -0,0 +1,88 @@
+package com.xu.monitorserver.controller;
+
+import com.xu.monitorcommon.result.R;
+import com.xu.monitorserver.entity.AlertEvent;
+import com.xu.monitorserver.entity.AlertRule;
+import com.xu.monitorserver.exception.ServiceException;
+import com.xu.monitorserver.service.alertservice.AlertService;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.List;
+import java.util.Map;
+
+@RestController
+@RequestMapping("/api/alert")
+public class AlertController {
+
+    private final AlertService alertService;
+
+    public AlertController(AlertService alertService) {
+        this.alertService = alertService;
+    }
+
+    /**
+     * 告警规则列表
+     */
+    @GetMapping("/rules")
+    public R<List<AlertRule>> listRules() {
+        return R.ok(alertService.listRules());
+    }
+
+    /**
+     * 新增 (不带 id) 或修改告警规则，保存后立即生效
+     */
+    @PreAuthorize("hasRole('ADMIN')")
+    @PostMapping("/rules")
+    public R<AlertRule> saveRule(@RequestBody AlertRule rule) {
+        return R.ok(alertService.saveRule(rule, getCurrentUsername()));
+    }
+
+    /**
+     * 删除告警规则，该规则仍在触发中的告警在对应 Agent 的下一个样本到达时恢复
+     */
+    @PreAuthorize("hasRole('ADMIN')")
+    @DeleteMapping("/rules/{id}")
+    public R<Void> deleteRule(@PathVariable("id") Long id) {
+        alertService.deleteRule(id);
+        return R.ok(null);
+    }
+
+    /**
+     * 告警事件 (按触发时间倒序)
+     * 例：/events?status=FIRING&agentId=...&limit=100
+     */
+    @GetMapping("/events")
+    public R<List<AlertEvent>> listEvents(
+            @RequestParam(value = "status", required = false) String status,
+            @RequestParam(value = "agentId", required = false) String agentId,
+            @RequestParam(value = "limit", defaultValue = "100") int limit) {
+        return R.ok(alertService.listEvents(status, agentId, limit));
+    }
+
+    /**
+     * 告警评估统计：规则数、评估样本数、触发中的告警数、事件队列状态
+     */
+    @GetMapping("/stats")
+    public R<Map<String, Object>> stats() {
+        return R.ok(alertService.stats());
+    }
+
+    private String getCurrentUsername() {
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        if (authentication == null) {
+            throw new ServiceException(401, "未登录");
+        }
+        Object principal = authentication.getPrincipal();
+        if (principal instanceof UserDetails userDetails) {
+            return userDetails.getUsername();
+        }
+        if (principal instanceof String s && !"anonymousUser".equalsIgnoreCase(s)) {
+            return s;
+        }
+        throw new ServiceException(401, "未登录");
+    }
+}
@@ -2,9 +2,22 @@ package com.xu.monitorserver.controller;
 
 import com.xu.monitorcommon.moudule.BaseMonitorModel;
 import com.xu.monitorcommon.result.R;
+import com.xu.monitorserver.config.MetricColumnsMessageConverter;
+import com.xu.monitorserver.dto.HistoryQuery;
+import com.xu.monitorserver.dto.MetricColumns;
+import com.xu.monitorserver.dto.TimeSeriesColumns;
+import com.xu.monitorserver.exception.ServiceException;
+import com.xu.monitorserver.service.monitorservice.DashboardService;
+import com.xu.monitorserver.service.monitorservice.HistoryExportService;
 import com.xu.monitorserver.service.monitorservice.IMonitorService;
+import com.xu.monitorserver.service.monitorservice.SchemaMigrationService;
+import com.xu.monitorserver.utils.HistoryCursor;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.annotation.*;
 
+import java.io.IOException;
 import java.util.List;
 import java.util.Map;
 
@@ -13,13 +26,21 @@ import java.util.Map;
 public class MonitorController {
 
     private final IMonitorService monitorService;
+    private final SchemaMigrationService migrationService;
+    private final DashboardService dashboardService;
+    private final HistoryExportService exportService;
 
-    public MonitorController(IMonitorService monitorService){
+    public MonitorController(IMonitorService monitorService, SchemaMigrationService migrationService,
+                             DashboardService dashboardService, HistoryExportService exportService){
         this.monitorService = monitorService;
+        this.migrationService = migrationService;
+        this.dashboardService = dashboardService;
+        this.exportService = exportService;
     }
 
     /**
      * 上报数据
+     * 只做时间戳校验并放入异步写入队列，不等待 InfluxDB 写入完成
      */
     @PostMapping("/report")
     public R<Void> report(@RequestBody BaseMonitorModel data) {
@@ -27,15 +48,119 @@ public class MonitorController {
         return R.ok();
     }
 
+    /**
+     * 批量上报数据
+     * Agent 攒够一批样本后一次性上报，每个样本携带 Agent 端采集时间戳
+     */
+    @PostMapping("/report/batch")
+    public R<Void> reportBatch(@RequestBody List<BaseMonitorModel> batch) {
+        monitorService.saveMonitorDataBatch(batch);
+        return R.ok();
+    }
+
+    /**
+     * 获取写入链路统计
+     * 异步写入队列的深度、每批大小、写入耗时、重试与丢弃数量，以及时钟偏差处理计数
+     */
+    @GetMapping("/ingest/stats")
+    public R<Map<String,Object>> getIngestStats() {
+        return R.ok(monitorService.getIngestStats());
+    }
+
+    /**
+     * 获取历史查询缓存统计
+     * 缓存的时间桶与点数、命中/未命中、实际发往 InfluxDB 的查询数、LRU 淘汰与迟到数据失效次数；
+     * hotTier 为内存热层的块数、占用、命中/未命中与淘汰次数；rollup 为连续汇总的水位、覆盖范围与使用次数
+     */
+    @GetMapping("/query-cache/stats")
+    public R<Map<String,Object>> getQueryCacheStats() {
+        return R.ok(monitorService.getQueryCacheStats());
+    }
+
+    /**
+     * 获取实时推送统计 (/ws/metrics)
+     * 订阅连接数、分发的样本数、发送的消息数，以及慢连接上被合并/丢弃的样本数
+     */
+    @GetMapping("/live/stats")
+    public R<Map<String,Object>> getLiveStats() {
+        return R.ok(monitorService.getLiveStats());
+    }
+
+    /**
+     * 启动存储结构迁移 (server_status -> server_metrics/process_top)，后台执行
+     * @param days 迁移最近多少天的旧数据
+     */
+    @PreAuthorize("hasRole('ADMIN')")
+    @PostMapping("/migration/schema-v2")
+    public R<Map<String,Object>> startSchemaMigration(
+            @RequestParam(value = "days", defaultValue = "30") int days) {
+        return R.ok(migrationService.start(days));
+    }
+
+    /**
+     * 查询存储结构迁移进度
+     */
+    @PreAuthorize("hasRole('ADMIN')")
+    @GetMapping("/migration/schema-v2")
+    public R<Map<String,Object>> getSchemaMigrationStatus() {
+        return R.ok(migrationService.status());
+    }
+
+    /**
+     * Dashboard 聚合接口：一次请求并发查询多个面板，返回每个面板的数据与耗时
+     * 例：/dashboard?agentId=...&panels=info,cpu,load&start=-1h
+     */
+    @GetMapping("/dashboard")
+    public R<Map<String,Object>> getDashboard(
+            @RequestParam(value = "agentId", required = false) String agentId,
+            @RequestParam(value = "ip", required = false) String ip,
+            @RequestParam(value = "panels", required = false) List<String> panels,
+            @RequestParam(value = "start", required = false) String start,
+            @RequestParam(value = "end", required = false) String end,
+            @RequestParam(value = "maxPoints", required = false) Integer maxPoints,
+            @RequestParam(value = "fn", required = false) String fn,
+            @RequestParam(value = "downsample", required = false) String downsample,
+            @RequestParam(value = "since", required = false) String since){
+        return R.ok(dashboardService.load(target(agentId, ip), panels, new HistoryQuery(start, end, maxPoints, fn, downsample, since)));
+    }
+
+    /**
+     * 多字段历史数据 (列式)：一次查询取回多个字段，按时间窗口对齐
+     * 例：/history?agentId=...&fields=cpu_load,memory_used&start=-7d&maxPoints=500&fn=max
+     * 所有历史接口的聚合窗口由 start~end 与 maxPoints 自动选择，fn 为窗口聚合函数 (mean/max/min/last)；
+     * downsample=lttb/minmax 时先取更细的窗口，再降采样到 maxPoints 个点，保留尖峰形状；
+     * since=上次响应头 X-History-Cursor 的值时只返回不早于该时间的窗口 (增量轮询)
+     */
+    @GetMapping("/history")
+    public R<TimeSeriesColumns> getHistoryColumns(
+            @RequestParam(value = "agentId", required = false) String agentId,
+            @RequestParam(value = "ip", required = false) String ip,
+            @RequestParam("fields") List<String> fields,
+            @RequestParam(value = "start", required = false) String start,
+            @RequestParam(value = "end", required = false) String end,
+            @RequestParam(value = "maxPoints", required = false) Integer maxPoints,
+            @RequestParam(value = "fn", required = false) String fn,
+            @RequestParam(value = "downsample", required = false) String downsample,
+            @RequestParam(value = "since", required = false) String since,
+            HttpServletResponse response){
+        return R.ok(withCursor(response, monitorService.getHistoryColumns(target(agentId, ip), fields, new HistoryQuery(start, end, maxPoints, fn, downsample, since)), since));
+    }
+
     /**
      * 获取CPU负载历史数据
      */
     @GetMapping("/cpu-history")
     public R<List<Map<String,Object>>> getCpuHistory(
-            @RequestParam("ip") String ip,
+            @RequestParam(value = "agentId", required = false) String agentId,
+            @RequestParam(value = "ip", required = false) String ip,
             @RequestParam(value = "start", required = false) String start,
-            @RequestParam(value = "end", required = false) String end){
-        return R.ok(monitorService.getCpuHistory(ip, start, end));
+            @RequestParam(value = "end", required = false) String end,
+            @RequestParam(value = "maxPoints", required = false) Integer maxPoints,
+            @RequestParam(value = "fn", required = false) String fn,
+            @RequestParam(value = "downsample", required = false) String downsample,
+            @RequestParam(value = "since", required = false) String since,
+            HttpServletResponse response){
+        return R.ok(withCursor(response, monitorService.getCpuHistory(target(agentId, ip), new HistoryQuery(start, end, maxPoints, fn, downsample, since)), since));
     }
 
     /**
@@ -43,10 +168,16 @@ public class MonitorController {
      */
     @GetMapping("/disk-history")
     public R<List<Map<String,Object>>> getDiskHistory(
-            @RequestParam("ip") String ip,
+            @RequestParam(value = "agentId", required = false) String agentId,
+            @RequestParam(value = "ip", required = false) String ip,
             @RequestParam(value = "start", required = false) String start,
-            @RequestParam(value = "end", required = false) String end){
-        return R.ok(monitorService.getDiskHistory(ip, start, end));
+            @RequestParam(value = "end", required = false) String end,
+            @RequestParam(value = "maxPoints", required = false) Integer maxPoints,
+            @RequestParam(value = "fn", required = false) String fn,
+            @RequestParam(value = "downsample", required = false) String downsample,
+            @RequestParam(value = "since", required = false) String since,
+            HttpServletResponse response){
+        return R.ok(withCursor(response, monitorService.getDiskHistory(target(agentId, ip), new HistoryQuery(start, end, maxPoints, fn, downsample, since)), since));
     }
 
     /**
@@ -54,16 +185,33 @@ public class MonitorController {
      */
     @GetMapping("/net-history")
     public R<List<Map<String,Object>>> getNetHistory(
-            @RequestParam("ip") String ip,
+            @RequestParam(value = "agentId", required = false) String agentId,
+            @RequestParam(value = "ip", required = false) String ip,
             @RequestParam(value = "start", required = false) String start,
-            @RequestParam(value = "end", required = false) String end){
-        return R.ok(monitorService.getNetHistory(ip, start, end));
+            @RequestParam(value = "end", required = false) String end,
+            @RequestParam(value = "maxPoints", required = false) Integer maxPoints,
+            @RequestParam(value = "fn", required = false) String fn,
+            @RequestParam(value = "downsample", required = false) String downsample,
+            @RequestParam(value = "since", required = false) String since,
+            HttpServletResponse response){
+        return R.ok(withCursor(response, monitorService.getNetHistory(target(agentId, ip), new HistoryQuery(start, end, maxPoints, fn, downsample, since)), since));
     }
 
     // 🟢 修复：基础信息不需要时间范围
     @GetMapping("/base-info")
-    public R<Map<String,Object>> getBaseInfo(@RequestParam("ip") String ip){
-        return R.ok(monitorService.getServerLatestInfo(ip));
+    public R<Map<String,Object>> getBaseInfo(
+            @RequestParam(value = "agentId", required = false) String agentId,
+            @RequestParam(value = "ip", required = false) String ip){
+        return R.ok(monitorService.getServerLatestInfo(target(agentId, ip)));
+    }
+
+    /**
+     * 获取所有 Agent 的最新指标
+     * 直接读取服务端内存中每个 Agent 最新一条样本，不查询 InfluxDB；超过 monitor.latest.max-age 未更新的标记 stale
+     */
+    @GetMapping("/latest")
+    public R<List<Map<String,Object>>> getFleetLatest(){
+        return R.ok(monitorService.getFleetLatest());
     }
 
     /**
@@ -71,10 +219,16 @@ public class MonitorController {
      */
     @GetMapping("/load-history")
     public R<Map<String,Object>> getSystemLoadHistory(
-            @RequestParam("ip") String ip,
+            @RequestParam(value = "agentId", required = false) String agentId,
+            @RequestParam(value = "ip", required = false) String ip,
             @RequestParam(value = "start", required = false) String start,
-            @RequestParam(value = "end", required = false) String end){
-        return R.ok(monitorService.getSystemLoadHistory(ip, start, end));
+            @RequestParam(value = "end", required = false) String end,
+            @RequestParam(value = "maxPoints", required = false) Integer maxPoints,
+            @RequestParam(value = "fn", required = false) String fn,
+            @RequestParam(value = "downsample", required = false) String downsample,
+            @RequestParam(value = "since", required = false) String since,
+            HttpServletResponse response){
+        return R.ok(withCursor(response, monitorService.getSystemLoadHistory(target(agentId, ip), new HistoryQuery(start, end, maxPoints, fn, downsample, since)), since));
     }
 
     /**
@@ -82,10 +236,16 @@ public class MonitorController {
      */
     @GetMapping("/disk-io-history")
     public R<Map<String,Object>> getDiskIoHistory(
-            @RequestParam("ip") String ip,
+            @RequestParam(value = "agentId", required = false) String agentId,
+            @RequestParam(value = "ip", required = false) String ip,
             @RequestParam(value = "start", required = false) String start,
-            @RequestParam(value = "end", required = false) String end){
-        return R.ok(monitorService.getDiskIoHistory(ip, start, end));
+            @RequestParam(value = "end", required = false) String end,
+            @RequestParam(value = "maxPoints", required = false) Integer maxPoints,
+            @RequestParam(value = "fn", required = false) String fn,
+            @RequestParam(value = "downsample", required = false) String downsample,
+            @RequestParam(value = "since", required = false) String since,
+            HttpServletResponse response){
+        return R.ok(withCursor(response, monitorService.getDiskIoHistory(target(agentId, ip), new HistoryQuery(start, end, maxPoints, fn, downsample, since)), since));
     }
 
     /**
@@ -93,9 +253,103 @@ public class MonitorController {
      */
     @GetMapping("/temp-history")
     public R<List<Map<String,Object>>> getTempHistory(
-            @RequestParam("ip") String ip,
+            @RequestParam(value = "agentId", required = false) String agentId,
+            @RequestParam(value = "ip", required = false) String ip,
+            @RequestParam(value = "start", required = false) String start,
+            @RequestParam(value = "end", required = false) String end,
+            @RequestParam(value = "maxPoints", required = false) Integer maxPoints,
+            @RequestParam(value = "fn", required = false) String fn,
+            @RequestParam(value = "downsample", required = false) String downsample,
+            @RequestParam(value = "since", required = false) String since,
+            HttpServletResponse response){
+        return R.ok(withCursor(response, monitorService.getTempHistory(target(agentId, ip), new HistoryQuery(start, end, maxPoints, fn, downsample, since)), since));
+    }
+
+    /**
+     * 各历史接口在列式响应中对应的字段 (与 JSON 接口查询的字段一致)，/history 使用 fields 参数
+     */
+    private static final Map<String, List<String>> COLUMNAR_FIELDS = Map.of(
+            "cpu-history", List.of("cpu_load"),
+            "disk-history", List.of("disk_usage"),
+            "net-history", List.of("net_recv_rate"),
+            "temp-history", List.of("cpu_temp"),
+            "load-history", List.of("sys_load_1", "sys_load_5", "sys_load_15"),
+            "disk-io-history", List.of("disk_read_rate", "disk_write_rate"));
+
+    /**
+     * 历史曲线的列式响应：Accept 为 application/vnd.monitor.columns+json (并列数组) 或
+     * application/vnd.monitor.columns (小端二进制帧) 时由这里处理，参数与对应的 JSON 接口相同。
+     * 直接从 long[]/double[] 输出，不为每个点创建 Map 与时间字符串；字段名使用存储字段 (如 sys_load_1)
+     */
+    @GetMapping(value = {"/history", "/cpu-history", "/disk-history", "/net-history", "/temp-history",
+            "/load-history", "/disk-io-history"},
+            produces = {MetricColumnsMessageConverter.JSON_VALUE, MetricColumnsMessageConverter.BINARY_VALUE})
+    public MetricColumns getHistoryColumnar(
+            HttpServletRequest request,
+            @RequestParam(value = "agentId", required = false) String agentId,
+            @RequestParam(value = "ip", required = false) String ip,
+            @RequestParam(value = "fields", required = false) List<String> fields,
+            @RequestParam(value = "start", required = false) String start,
+            @RequestParam(value = "end", required = false) String end,
+            @RequestParam(value = "maxPoints", required = false) Integer maxPoints,
+            @RequestParam(value = "fn", required = false) String fn,
+            @RequestParam(value = "downsample", required = false) String downsample,
+            @RequestParam(value = "since", required = false) String since,
+            HttpServletResponse response){
+        String uri = request.getRequestURI();
+        List<String> seriesFields = COLUMNAR_FIELDS.getOrDefault(uri.substring(uri.lastIndexOf('/') + 1), fields);
+        return withCursor(response, monitorService.getHistoryMetricColumns(target(agentId, ip), seriesFields,
+                new HistoryQuery(start, end, maxPoints, fn, downsample, since)), since);
+    }
+
+    /**
+     * 导出原始数据 (不做窗口聚合)，按 NDJSON (默认) 或 CSV 边查询边写出
+     * 例：/export?agentIds=a1,a2&fields=cpu_load,memory_used&start=-30d&format=csv
+     * 参数错误时返回 R JSON；开始写出后客户端断开会取消正在执行的 InfluxDB 查询
+     */
+    @GetMapping("/export")
+    public void export(
+            @RequestParam(value = "agentIds", required = false) List<String> agentIds,
+            @RequestParam(value = "agentId", required = false) String agentId,
+            @RequestParam(value = "ip", required = false) String ip,
+            @RequestParam(value = "fields", required = false) List<String> fields,
             @RequestParam(value = "start", required = false) String start,
-            @RequestParam(value = "end", required = false) String end){
-        return R.ok(monitorService.getTempHistory(ip, start, end));
+            @RequestParam(value = "end", required = false) String end,
+            @RequestParam(value = "format", required = false) String format,
+            HttpServletResponse response) throws IOException {
+        List<String> agents = agentIds != null && !agentIds.isEmpty() ? agentIds : List.of(target(agentId, ip));
+        HistoryExportService.ExportRequest request = exportService.prepare(agents, fields, start, end, format);
+        response.setContentType(request.format().getContentType() + ";charset=UTF-8");
+        response.setHeader("Content-Disposition",
+                "attachment; filename=\"" + HistoryExportService.fileName(request.format()) + "\"");
+        exportService.export(request, response.getOutputStream());
+    }
+
+    /**
+     * 通过响应头返回增量游标 (最新一个点的时间)，下次轮询作为 since 传回
+     */
+    private <T> T withCursor(HttpServletResponse response, T data, String since) {
+        String cursor = HistoryCursor.latest(data, since);
+        if (cursor != null) {
+            response.setHeader(HistoryCursor.HEADER, cursor);
+        }
+        return data;
+    }
+
+    /**
+     * 查询目标：优先使用稳定的 agentId；只传 ip 的旧调用方先解析出 agentId (兼容接口)
+     */
+    private String target(String agentId, String ip) {
+        if (agentId != null && !agentId.isBlank()) {
+            return agentId;
+        }
+        if (ip == null || ip.isBlank()) {
+            throw new ServiceException(400, "agentId 与 ip 不能同时为空");
+        }
+        String resolved = monitorService.resolveAgentId(ip);
+        if (resolved == null) {
+            throw new ServiceException(404, "未找到该 IP 对应的 Agent: " + ip);
+        }
+        return resolved;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,14 @@
+package com.xu.monitorserver.dto;
+
+/**
+ * 历史曲线查询参数
+ *
+ * @param start      开始时间 (如 "-1h" 或 "2025-12-16T10:00:00Z")，为空时默认 -1h
+ * @param end        结束时间 (如 "now()" 或 "2025-12-16T12:00:00Z")，为空时默认 now()
+ * @param maxPoints  每条曲线最多返回的点数，决定聚合窗口大小；为空时使用 monitor.history.default-max-points
+ * @param fn         窗口聚合函数 mean/max/min/last，为空时为 mean
+ * @param downsample 降采样方式 none/lttb/minmax，为空时不降采样；指定后先按更细的窗口查询，再挑选出 maxPoints 个点
+ * @param since      增量游标：客户端已持有的最后一个点的时间 (RFC3339 或 epoch 毫秒)，只返回时间不早于它的窗口
+ */
+public record HistoryQuery(String start, String end, Integer maxPoints, String fn, String downsample, String since) {
+}
@@ -0,0 +1,15 @@
+package com.xu.monitorserver.dto;
+
+import com.xu.monitorcommon.moudule.BaseMonitorModel;
+import com.xu.monitorcommon.moudule.HostFacts;
+
+/**
+ * 一条待写入 InfluxDB 的监控样本 (写链路内部使用)
+ *
+ * @param model           Agent 上报的样本
+ * @param facts           主机静态信息 (提供 os_name/host_name/ip 标签，可能为 null)
+ * @param timestampMillis 经过时钟偏差校验后的写入时间 (epoch 毫秒)
+ * @param clockSkewMillis 原始时间戳超出允许范围的偏差 (毫秒，正数表示在未来)，0 表示未超限
+ */
+public record IngestSample(BaseMonitorModel model, HostFacts facts, long timestampMillis, long clockSkewMillis) {
+}
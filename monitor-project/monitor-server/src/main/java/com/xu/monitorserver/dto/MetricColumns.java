@@ -0,0 +1,65 @@
+package com.xu.monitorserver.dto;
+
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * 按时间对齐的多字段序列 (基本类型数组)，查询缓存与降采样在这个结构上处理，最后才转换成 {@link TimeSeriesColumns}
+ *
+ * @param fields 字段名
+ * @param times  窗口结束时间 (epoch 毫秒)，升序
+ * @param values 每个字段一列，与 times 等长；NaN 表示该窗口没有数据
+ */
+public record MetricColumns(List<String> fields, long[] times, double[][] values) {
+
+    public static MetricColumns empty(List<String> fields) {
+        return new MetricColumns(fields, new long[0], new double[fields.size()][0]);
+    }
+
+    public static MetricColumns of(TimeSeriesColumns columns, List<String> fields) {
+        int size = columns.time().size();
+        long[] times = new long[size];
+        double[][] values = new double[fields.size()][size];
+        for (int i = 0; i < size; i++) {
+            times[i] = Instant.parse(columns.time().get(i)).toEpochMilli();
+            for (int f = 0; f < fields.size(); f++) {
+                Double value = columns.values().get(fields.get(f)).get(i);
+                values[f][i] = value != null ? value : Double.NaN;
+            }
+        }
+        return new MetricColumns(fields, times, values);
+    }
+
+    public int size() {
+        return times.length;
+    }
+
+    /**
+     * 只保留指定的行
+     *
+     * @param rows 行号，升序
+     */
+    public MetricColumns select(int[] rows) {
+        long[] t = new long[rows.length];
+        double[][] v = new double[fields.size()][rows.length];
+        for (int r = 0; r < rows.length; r++) {
+            t[r] = times[rows[r]];
+            for (int f = 0; f < fields.size(); f++) {
+                v[f][r] = values[f][rows[r]];
+            }
+        }
+        return new MetricColumns(fields, t, v);
+    }
+
+    public TimeSeriesColumns toTimeSeries() {
+        TimeSeriesColumns columns = TimeSeriesColumns.empty(fields);
+        for (int i = 0; i < times.length; i++) {
+            columns.time().add(Instant.ofEpochMilli(times[i]).toString());
+            for (int f = 0; f < fields.size(); f++) {
+                double value = values[f][i];
+                columns.values().get(fields.get(f)).add(Double.isNaN(value) ? null : value);
+            }
+        }
+        return columns;
+    }
+}
@@ -0,0 +1,46 @@
+package com.xu.monitorserver.dto;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 按时间对齐的多字段序列 (列式)：time 与每个字段的值列一一对应
+ *
+ * <p>一次 Flux 查询取回多个字段，pivot 后每个时间窗口一行；某个字段在该窗口没有数据时对应位置为 null。</p>
+ *
+ * @param time   窗口时间 (ISO-8601)
+ * @param values 字段名 -> 与 time 等长的值列
+ */
+public record TimeSeriesColumns(List<String> time, Map<String, List<Double>> values) {
+
+    public static TimeSeriesColumns empty(List<String> fields) {
+        Map<String, List<Double>> values = new HashMap<>();
+        for (String field : fields) {
+            values.put(field, new ArrayList<>());
+        }
+        return new TimeSeriesColumns(new ArrayList<>(), values);
+    }
+
+    /**
+     * 取出单个字段，转换成历史曲线接口的 [{time, value}] 格式 (跳过空值)
+     */
+    public List<Map<String, Object>> points(String field) {
+        List<Double> column = values.get(field);
+        List<Map<String, Object>> points = new ArrayList<>();
+        if (column == null) {
+            return points;
+        }
+        for (int i = 0; i < time.size(); i++) {
+            Double value = column.get(i);
+            if (value != null) {
+                Map<String, Object> point = new HashMap<>();
+                point.put("time", time.get(i));
+                point.put("value", value);
+                points.add(point);
+            }
+        }
+        return points;
+    }
+}
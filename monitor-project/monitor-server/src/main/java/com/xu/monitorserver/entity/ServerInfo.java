@@ -58,6 +58,12 @@ public class ServerInfo {
     private String createBy; // 创建人
     private String agentId; // 唯一标识ID
 
+    // 主机静态信息 (由 Agent 在指纹变化时上报，见 HostFacts)
+    private String osName;           // 操作系统名称
+    private Double memoryTotal;      // 内存总量 (GB)
+    private Double diskTotal;        // 磁盘总量 (GB)
+    private String factsFingerprint; // 静态信息指纹
+
     private LocalDateTime createTime;
     private LocalDateTime updateTime;
 
@@ -142,6 +148,38 @@ public class ServerInfo {
         this.agentId = agentId;
     }
 
+    public String getOsName() {
+        return osName;
+    }
+
+    public void setOsName(String osName) {
+        this.osName = osName;
+    }
+
+    public Double getMemoryTotal() {
+        return memoryTotal;
+    }
+
+    public void setMemoryTotal(Double memoryTotal) {
+        this.memoryTotal = memoryTotal;
+    }
+
+    public Double getDiskTotal() {
+        return diskTotal;
+    }
+
+    public void setDiskTotal(Double diskTotal) {
+        this.diskTotal = diskTotal;
+    }
+
+    public String getFactsFingerprint() {
+        return factsFingerprint;
+    }
+
+    public void setFactsFingerprint(String factsFingerprint) {
+        this.factsFingerprint = factsFingerprint;
+    }
+
     public Boolean getIsOnline() {
         return isOnline;
     }
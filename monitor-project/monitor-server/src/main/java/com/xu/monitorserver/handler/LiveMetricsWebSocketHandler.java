@@ -0,0 +1,206 @@
+package com.xu.monitorserver.handler;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.xu.monitorserver.repository.MetricsLineEncoder;
+import com.xu.monitorserver.service.monitorservice.LiveMetricsHub;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.lang.NonNull;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.adapter.NativeWebSocketSession;
+import org.springframework.web.socket.handler.ConcurrentWebSocketSessionDecorator;
+import org.springframework.web.socket.handler.TextWebSocketHandler;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 实时指标订阅的 WebSocket 处理器 (/ws/metrics)。
+ *
+ * <h2>消息协议（文本 JSON）</h2>
+ * <ol>
+ *   <li>订阅 (可重复发送以修改订阅条件)：
+ *     <pre>
+ *     { "operate": "subscribe", "agentIds": ["agent-1"], "fields": ["cpu_load", "memory_used"] }
+ *     </pre>
+ *     agentIds 为空时订阅全部 Agent，fields 为空时推送全部 server_metrics 字段。
+ *     服务端回复 <code>{"type":"subscribed","agentIds":[...],"fields":[...]}</code>，随后立即推送各 Agent 当前的最新值。
+ *   </li>
+ *   <li>取消订阅：<code>{ "operate": "unsubscribe" }</code></li>
+ *   <li>推送：<code>{"type":"metrics","dropped":0,"samples":[{"agentId","time","values":{...}}]}</code>，
+ *     dropped 为连接过慢时被丢弃的样本数。</li>
+ *   <li>错误：<code>{"type":"error","message":"..."}</code></li>
+ * </ol>
+ *
+ * <p>握手时由 {@link AuthHandshakeInterceptor} 校验 token；分发、合并与丢弃策略见 {@link LiveMetricsHub}。</p>
+ *
+ * <p>不读取数据的客户端不能长期占住发送线程：每个连接包装为 {@link ConcurrentWebSocketSessionDecorator}
+ * (其它线程发送时不等待，超出缓冲上限丢弃最旧的消息)，底层的阻塞发送超过 send-time-limit 后失败并关闭连接。</p>
+ */
+@Component
+public class LiveMetricsWebSocketHandler extends TextWebSocketHandler {
+
+    private static final Logger logger = LoggerFactory.getLogger(LiveMetricsWebSocketHandler.class);
+
+    /**
+     * org.apache.tomcat.websocket.Constants#BLOCKING_SEND_TIMEOUT_PROPERTY
+     */
+    private static final String TOMCAT_BLOCKING_SEND_TIMEOUT = "org.apache.tomcat.websocket.BLOCKING_SEND_TIMEOUT";
+
+    private final LiveMetricsHub hub;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    /**
+     * 单个连接最多列出的 Agent 数量 (agentIds 为空表示订阅全部，不受此限制)
+     */
+    @Value("${monitor.live.max-agents-per-subscription:1000}")
+    private int maxAgents;
+
+    /**
+     * 单条消息的最长发送时间 (毫秒)，超过后关闭连接
+     */
+    @Value("${monitor.live.send-time-limit:5000}")
+    private int sendTimeLimit;
+
+    /**
+     * 单个连接等待发送的消息字节数上限，超出丢弃最旧的消息
+     */
+    @Value("${monitor.live.send-buffer-limit:524288}")
+    private int sendBufferLimit;
+
+    /**
+     * session id -> 包装后的连接
+     */
+    private final Map<String, WebSocketSession> sessions = new ConcurrentHashMap<>();
+
+    public LiveMetricsWebSocketHandler(LiveMetricsHub hub) {
+        this.hub = hub;
+    }
+
+    @Override
+    public void afterConnectionEstablished(@NonNull WebSocketSession session) {
+        if (session instanceof NativeWebSocketSession nativeSession) {
+            jakarta.websocket.Session endpoint = nativeSession.getNativeSession(jakarta.websocket.Session.class);
+            if (endpoint != null) {
+                // Tomcat 的阻塞发送超时 (默认 20 秒)：客户端不读取时发送线程最多等待 send-time-limit
+                endpoint.getUserProperties().put(TOMCAT_BLOCKING_SEND_TIMEOUT, (long) sendTimeLimit);
+            }
+        }
+        sessions.put(session.getId(), new ConcurrentWebSocketSessionDecorator(session, sendTimeLimit, sendBufferLimit,
+                ConcurrentWebSocketSessionDecorator.OverflowStrategy.DROP));
+    }
+
+    private WebSocketSession decorated(WebSocketSession session) {
+        return sessions.getOrDefault(session.getId(), session);
+    }
+
+    @Override
+    protected void handleTextMessage(@NonNull WebSocketSession session, @NonNull TextMessage message) {
+        JsonNode data;
+        try {
+            data = objectMapper.readTree(message.getPayload());
+        } catch (IOException e) {
+            sendError(session, "消息不是合法的 JSON");
+            return;
+        }
+        String operate = data.path("operate").asText();
+        if ("subscribe".equals(operate)) {
+            handleSubscribe(session, data);
+        } else if ("unsubscribe".equals(operate)) {
+            hub.unsubscribe(session.getId());
+        } else {
+            sendError(session, "不支持的操作类型: " + operate);
+        }
+    }
+
+    private void handleSubscribe(WebSocketSession session, JsonNode data) {
+        Set<String> agentIds = new LinkedHashSet<>(textList(data.path("agentIds")));
+        if (agentIds.size() > maxAgents) {
+            sendError(session, "一次最多订阅 " + maxAgents + " 个 Agent");
+            return;
+        }
+        List<String> fields = textList(data.path("fields"));
+        if (fields.isEmpty()) {
+            fields = MetricsLineEncoder.METRIC_FIELDS.stream().sorted().toList();
+        }
+        for (String field : fields) {
+            if (!MetricsLineEncoder.METRIC_FIELDS.contains(field)) {
+                sendError(session, "不支持的字段: " + field);
+                return;
+            }
+        }
+        List<String> distinctFields = fields.stream().distinct().toList();
+        LiveMetricsHub.Sink sink = new SessionSink(decorated(session));
+        try {
+            sink.send(objectMapper.writeValueAsString(Map.of(
+                    "type", "subscribed", "agentIds", agentIds, "fields", distinctFields)));
+        } catch (IOException | RuntimeException e) {
+            sink.close();
+            return;
+        }
+        hub.subscribe(session.getId(), sink, agentIds, distinctFields);
+    }
+
+    private static List<String> textList(JsonNode node) {
+        List<String> values = new ArrayList<>();
+        if (node.isArray()) {
+            for (JsonNode item : node) {
+                if (item.isTextual() && !item.asText().isBlank()) {
+                    values.add(item.asText());
+                }
+            }
+        }
+        return values;
+    }
+
+    private void sendError(WebSocketSession session, String message) {
+        try {
+            new SessionSink(decorated(session)).send(
+                    objectMapper.writeValueAsString(Map.of("type", "error", "message", message)));
+        } catch (IOException | RuntimeException e) {
+            logger.debug("实时指标错误消息发送失败: {}", e.getMessage());
+        }
+    }
+
+    @Override
+    public void afterConnectionClosed(@NonNull WebSocketSession session, @NonNull CloseStatus status) {
+        hub.unsubscribe(session.getId());
+        sessions.remove(session.getId());
+    }
+
+    @Override
+    public void handleTransportError(@NonNull WebSocketSession session, @NonNull Throwable exception) {
+        hub.unsubscribe(session.getId());
+    }
+
+    /**
+     * 回复消息 (当前线程) 与推送 (发送线程) 经 {@link ConcurrentWebSocketSessionDecorator} 串行发送；
+     * 超过发送时间限制时抛出 SessionLimitExceededException 并关闭连接，推送方随之退订
+     */
+    private record SessionSink(WebSocketSession session) implements LiveMetricsHub.Sink {
+
+        @Override
+        public void send(String text) throws IOException {
+            session.sendMessage(new TextMessage(text));
+        }
+
+        @Override
+        public void close() {
+            try {
+                session.close(CloseStatus.SESSION_NOT_RELIABLE);
+            } catch (IOException e) {
+                // 连接已断开
+            }
+        }
+    }
+}
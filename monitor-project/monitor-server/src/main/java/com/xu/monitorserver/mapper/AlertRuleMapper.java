@@ -0,0 +1,9 @@
+package com.xu.monitorserver.mapper;
+
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import com.xu.monitorserver.entity.AlertRule;
+import org.apache.ibatis.annotations.Mapper;
+
+@Mapper
+public interface AlertRuleMapper extends BaseMapper<AlertRule> {
+}
@@ -0,0 +1,50 @@
+package com.xu.monitorserver.repository;
+
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 历史曲线的窗口聚合方式：aggregateWindow(every: seconds, fn: fn)
+ *
+ * <p>窗口按 epoch 对齐，以窗口结束时间作为点的时间。窗口大小从 {@link #LADDER} 中选取，
+ * 保证不同请求落在同一组窗口上，查询缓存才能复用 (见 {@link HistoryQueryCache})。</p>
+ *
+ * @param seconds 窗口大小 (秒)
+ * @param fn      聚合函数，取值见 {@link #FUNCTIONS}
+ */
+public record AggregateWindow(long seconds, String fn) {
+
+    /**
+     * 可选的窗口大小 (秒)：10s 是 Agent 的采集粒度，最大 1 天
+     */
+    public static final List<Long> LADDER = List.of(
+            10L, 30L, 60L, 300L, 600L, 1_800L, 3_600L, 10_800L, 21_600L, 43_200L, 86_400L);
+
+    public static final Set<String> FUNCTIONS = Set.of("mean", "max", "min", "last");
+
+    public static final AggregateWindow DEFAULT = new AggregateWindow(LADDER.get(0), "mean");
+
+    public AggregateWindow {
+        if (!FUNCTIONS.contains(fn)) {
+            throw new IllegalArgumentException("不支持的聚合函数: " + fn);
+        }
+    }
+
+    /**
+     * 让点数不超过 maxPoints 的最小窗口；范围过大时取最大窗口
+     *
+     * @param rangeMillis 查询范围 (毫秒)
+     */
+    public static AggregateWindow choose(long rangeMillis, int maxPoints, String fn) {
+        for (long seconds : LADDER) {
+            if (rangeMillis <= seconds * 1000 * maxPoints) {
+                return new AggregateWindow(seconds, fn);
+            }
+        }
+        return new AggregateWindow(LADDER.get(LADDER.size() - 1), fn);
+    }
+
+    public long millis() {
+        return seconds * 1000;
+    }
+}
@@ -0,0 +1,404 @@
+package com.xu.monitorserver.repository;
+
+import com.xu.monitorserver.dto.IngestSample;
+import com.xu.monitorserver.dto.MetricColumns;
+import com.xu.monitorserver.exception.ServiceException;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Repository;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * 进程内的文件时序存储 (monitor.storage.engine=embedded)，小规模部署与测试环境不需要 InfluxDB
+ *
+ * <p>每个 Agent 一个目录，每个 UTC 日期一个段文件 ({@link SeriesSegment})：内存映射、只追加的定长记录
+ * (时间 + 全部 server_metrics 字段)。写入直接追加到映射 (不经过 WAL 与异步写入器)，后台线程每隔
+ * {@code flush-interval} 把改动刷到磁盘。</p>
+ * <ul>
+ *   <li>范围查询：按段的日期与头部的最小/最大时间跳过整段，有序段内二分查找起点后顺序读取</li>
+ *   <li>窗口聚合：在读取时用 {@link WindowAggregator} 计算，结果与 Flux aggregateWindow 相同</li>
+ *   <li>保留与压缩：后台线程删除整段早于 {@code retention-days} 的段文件；乱序写入 (离线补发) 过的段
+ *       在 1 分钟内没有新写入后重写为有序段，同一时间戳保留最后写入的值</li>
+ * </ul>
+ * <p>只保存 server_metrics：不保存 Top 进程 (base-info 的 topProcesses 来自内存中的最新样本)，
+ * 也不支持旧结构 server_status 的双读。时间按 monitor.ingest.precision 截断，与写入 InfluxDB 的精度一致。</p>
+ */
+@Repository
+@ConditionalOnProperty(name = "monitor.storage.engine", havingValue = "embedded")
+public class EmbeddedMetricStore implements MetricStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(EmbeddedMetricStore.class);
+
+    /**
+     * 段文件中的字段顺序
+     */
+    public static final List<String> FIELDS = MetricsLineEncoder.METRIC_FIELDS.stream().sorted().toList();
+
+    private static final long DAY_MILLIS = TimeUnit.DAYS.toMillis(1);
+    private static final long COMPACT_IDLE_MILLIS = TimeUnit.MINUTES.toMillis(1);
+    private static final long MAINTENANCE_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(1);
+    private static final Pattern PLAIN_ID = Pattern.compile("[A-Za-z0-9_-]{1,64}");
+    private static final String SUFFIX = ".seg";
+
+    private final Path dir;
+    private final long retentionMillis;
+    private final long precisionMillis;
+    private final long flushIntervalMillis;
+
+    private final Map<String, NavigableMap<Long, SeriesSegment>> series = new ConcurrentHashMap<>();
+
+    private volatile boolean running;
+    private Thread maintainer;
+
+    @Autowired
+    public EmbeddedMetricStore(@Value("${monitor.storage.embedded.dir:data/tsdb}") String dir,
+                               @Value("${monitor.storage.embedded.retention-days:30}") long retentionDays,
+                               @Value("${monitor.storage.embedded.flush-interval:1000}") long flushIntervalMillis,
+                               @Value("${monitor.ingest.precision:s}") String precision) {
+        this(Paths.get(dir), TimeUnit.DAYS.toMillis(retentionDays), "s".equalsIgnoreCase(precision) ? 1000 : 1,
+                flushIntervalMillis);
+    }
+
+    EmbeddedMetricStore(Path dir, long retentionMillis, long precisionMillis, long flushIntervalMillis) {
+        this.dir = dir;
+        this.retentionMillis = retentionMillis;
+        this.precisionMillis = precisionMillis;
+        this.flushIntervalMillis = flushIntervalMillis;
+    }
+
+    @PostConstruct
+    public void start() throws IOException {
+        Files.createDirectories(dir);
+        running = true;
+        maintainer = new Thread(this::maintainLoop, "embedded-metric-store");
+        maintainer.setDaemon(true);
+        maintainer.start();
+        logger.info("嵌入式时序存储已启动: dir={} retention={}d", dir.toAbsolutePath(),
+                TimeUnit.MILLISECONDS.toDays(retentionMillis));
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        running = false;
+        if (maintainer != null) {
+            maintainer.interrupt();
+            maintainer.join(TimeUnit.SECONDS.toMillis(10));
+        }
+        flush();
+    }
+
+    @Override
+    public void saveBatch(List<IngestSample> samples) {
+        long expireBefore = System.currentTimeMillis() - retentionMillis;
+        double[] row = new double[FIELDS.size()];
+        for (IngestSample sample : samples) {
+            String agentId = sample.model().getAgentId();
+            long time = Math.floorDiv(sample.timestampMillis(), precisionMillis) * precisionMillis;
+            if (agentId == null || time < expireBefore) {
+                continue;
+            }
+            for (int f = 0; f < FIELDS.size(); f++) {
+                String field = FIELDS.get(f);
+                double value = MetricsLineEncoder.metricValue(sample, field);
+                // 与写入 InfluxDB 的字段一致：clock_skew_ms 只在有偏差时写入
+                row[f] = "clock_skew_ms".equals(field) && value == 0 ? Double.NaN : value;
+            }
+            try {
+                // 段刚好过期删除 (跨过保留边界的样本) 时不再写入
+                segment(agentId, dayOf(time)).append(time, row);
+            } catch (IOException e) {
+                throw new ServiceException(500, "写入嵌入式存储失败: " + e.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public MetricColumns queryMetricColumns(String agentId, String ip, List<String> fields, String start, String end,
+                                            AggregateWindow window) {
+        long[] range = range(start, end);
+        WindowAggregator aggregator = new WindowAggregator(fields.size(), range[0], range[1], window);
+        try {
+            scan(agentId, fields, range[0], range[1], (time, values) -> {
+                for (int f = 0; f < values.length; f++) {
+                    aggregator.add(f, time, values[f]);
+                }
+            });
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return aggregator.toColumns(fields);
+    }
+
+    @Override
+    public long streamRawRows(String agentId, String ip, List<String> fields, String start, String end,
+                              long timeoutMillis, RawRowHandler handler) throws IOException {
+        long[] range = range(start, end);
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        long[] rows = new long[1];
+        scan(agentId, fields, range[0], range[1], (time, values) -> {
+            // 与 pivot 的结果一致：所选字段都没有值的时间点不输出
+            boolean any = false;
+            for (double value : values) {
+                if (!Double.isNaN(value)) {
+                    any = true;
+                    break;
+                }
+            }
+            if (!any) {
+                return;
+            }
+            if ((++rows[0] & 0xFFF) == 0 && System.currentTimeMillis() > deadline) {
+                throw new ServiceException(500, "导出查询失败: 超过 " + timeoutMillis + "ms");
+            }
+            handler.accept(Instant.ofEpochMilli(time), values);
+        });
+        return rows[0];
+    }
+
+    @Override
+    public Map<String, Object> queryLastOne(String agentId, String ip) {
+        Map<String, Object> info = new HashMap<>();
+        if (agentId == null) {
+            return info;
+        }
+        long notBefore = System.currentTimeMillis() - TimeUnit.HOURS.toMillis(1);
+        int field = FIELDS.indexOf("up_time");
+        double[] value = new double[1];
+        for (SeriesSegment segment : segments(agentId).tailMap(dayOf(notBefore), true).descendingMap().values()) {
+            if (segment.last(field, notBefore, value) != Long.MIN_VALUE) {
+                info.put("uptime", (long) value[0]);
+                info.put("topProcesses", List.of());
+                break;
+            }
+        }
+        return info;
+    }
+
+    /**
+     * 把所有段的改动刷到磁盘
+     */
+    public void flush() {
+        for (NavigableMap<Long, SeriesSegment> segments : series.values()) {
+            for (SeriesSegment segment : segments.values()) {
+                segment.force();
+            }
+        }
+    }
+
+    /**
+     * 保留与压缩：删除过期的段文件 (包括本次运行中没有加载过的 Agent)，重写空闲的无序段
+     */
+    void maintain(long now) {
+        long expireBefore = now - retentionMillis;
+        try (DirectoryStream<Path> agents = Files.newDirectoryStream(dir, Files::isDirectory)) {
+            for (Path agentDir : agents) {
+                // 与首次加载 (segments 的 computeIfAbsent) 互斥，加载中的 Agent 不会映射正在删除的文件
+                series.compute(agentDir.getFileName().toString(), (name, loaded) -> {
+                    expire(agentDir, loaded, expireBefore);
+                    return loaded;
+                });
+            }
+        } catch (IOException e) {
+            logger.warn("嵌入式存储清理失败: {}", e.getMessage());
+        }
+        for (NavigableMap<Long, SeriesSegment> segments : series.values()) {
+            for (SeriesSegment segment : segments.values()) {
+                if (segment.isSorted() || now - segment.lastWrite() < COMPACT_IDLE_MILLIS) {
+                    continue;
+                }
+                try {
+                    if (segment.compact()) {
+                        logger.info("嵌入式存储段已压缩: {} ({} 条)", segment.path(), segment.count());
+                    }
+                } catch (IOException e) {
+                    logger.warn("嵌入式存储段压缩失败: {} {}", segment.path(), e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * 删除一个 Agent 整段过期的段文件：已加载的段在创建段所用的锁内移出，关闭后再删除文件
+     */
+    private void expire(Path agentDir, NavigableMap<Long, SeriesSegment> loaded, long expireBefore) {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(agentDir, "*" + SUFFIX)) {
+            for (Path file : files) {
+                Long day = parseDay(file);
+                if (day == null || day + DAY_MILLIS > expireBefore) {
+                    continue;
+                }
+                if (loaded != null) {
+                    synchronized (loaded) {
+                        SeriesSegment segment = loaded.remove(day);
+                        if (segment != null) {
+                            segment.close();
+                        }
+                    }
+                }
+                Files.deleteIfExists(file);
+                logger.info("嵌入式存储段已过期删除: {}", file);
+            }
+        } catch (IOException e) {
+            logger.warn("嵌入式存储清理失败: {} {}", agentDir, e.getMessage());
+        }
+    }
+
+    private void maintainLoop() {
+        long lastMaintenance = 0;
+        while (running) {
+            try {
+                Thread.sleep(Math.max(100, Math.min(flushIntervalMillis, MAINTENANCE_INTERVAL_MILLIS)));
+            } catch (InterruptedException e) {
+                return;
+            }
+            try {
+                flush();
+                long now = System.currentTimeMillis();
+                if (now - lastMaintenance >= MAINTENANCE_INTERVAL_MILLIS) {
+                    lastMaintenance = now;
+                    maintain(now);
+                }
+            } catch (RuntimeException e) {
+                logger.warn("嵌入式存储后台任务失败: {}", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 按时间顺序读取 [from, to) 内的记录 (跨多个日期的段)
+     */
+    private void scan(String agentId, List<String> fields, long from, long to, SeriesSegment.RowVisitor visitor)
+            throws IOException {
+        if (agentId == null || to <= from) {
+            return;
+        }
+        int[] positions = new int[fields.size()];
+        for (int f = 0; f < fields.size(); f++) {
+            positions[f] = FIELDS.indexOf(fields.get(f));
+        }
+        for (SeriesSegment segment : segments(agentId).subMap(dayOf(from), true, dayOf(to - 1), true).values()) {
+            segment.scan(from, to, positions, visitor);
+        }
+    }
+
+    private SeriesSegment segment(String agentId, long day) throws IOException {
+        NavigableMap<Long, SeriesSegment> segments = segments(agentId);
+        SeriesSegment segment = segments.get(day);
+        if (segment != null) {
+            return segment;
+        }
+        synchronized (segments) {
+            segment = segments.get(day);
+            if (segment == null) {
+                segment = SeriesSegment.open(agentDir(agentId).resolve(fileName(day)), day, FIELDS);
+                segments.put(day, segment);
+            }
+            return segment;
+        }
+    }
+
+    /**
+     * 一个 Agent 的全部段，第一次访问时从磁盘加载
+     */
+    private NavigableMap<Long, SeriesSegment> segments(String agentId) {
+        return series.computeIfAbsent(dirName(agentId), name -> {
+            NavigableMap<Long, SeriesSegment> segments = new ConcurrentSkipListMap<>();
+            Path agentDir = dir.resolve(name);
+            if (!Files.isDirectory(agentDir)) {
+                return segments;
+            }
+            List<Path> files = new ArrayList<>();
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(agentDir, "*" + SUFFIX)) {
+                stream.forEach(files::add);
+            } catch (IOException e) {
+                throw new ServiceException(500, "读取嵌入式存储失败: " + e.getMessage());
+            }
+            for (Path file : files) {
+                Long day = parseDay(file);
+                if (day == null) {
+                    continue;
+                }
+                try {
+                    segments.put(day, SeriesSegment.open(file, day, FIELDS));
+                } catch (IOException e) {
+                    // 损坏的段不影响其它日期的数据
+                    logger.warn("跳过无法打开的段文件: {} {}", file, e.getMessage());
+                }
+            }
+            return segments;
+        });
+    }
+
+    private Path agentDir(String agentId) {
+        return dir.resolve(dirName(agentId));
+    }
+
+    /**
+     * Agent 目录名：常见的 ID (UUID 等) 原样使用，其它字符的 ID 用 UTF-8 的十六进制，避免路径穿越
+     */
+    private static String dirName(String agentId) {
+        return PLAIN_ID.matcher(agentId).matches()
+                ? agentId
+                : "x" + HexFormat.of().formatHex(agentId.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static long dayOf(long time) {
+        return Math.floorDiv(time, DAY_MILLIS) * DAY_MILLIS;
+    }
+
+    private static String fileName(long day) {
+        return LocalDate.ofEpochDay(day / DAY_MILLIS) + SUFFIX;
+    }
+
+    private static Long parseDay(Path file) {
+        String name = file.getFileName().toString();
+        if (!name.endsWith(SUFFIX)) {
+            return null;
+        }
+        try {
+            return LocalDate.parse(name.substring(0, name.length() - SUFFIX.length()))
+                    .atStartOfDay(ZoneOffset.UTC).toInstant().toEpochMilli();
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 查询范围 [from, to)，写法与 Flux range 相同
+     */
+    private static long[] range(String start, String end) {
+        long now = System.currentTimeMillis();
+        Long from = FluxTime.parse(start, "-1h", now);
+        Long to = FluxTime.parse(end, "now()", now);
+        if (from == null || to == null) {
+            throw new ServiceException(400, "嵌入式存储只支持 RFC3339、now() 与 -1h 这类相对时间: " + start + " ~ " + end);
+        }
+        return new long[]{from, to};
+    }
+}
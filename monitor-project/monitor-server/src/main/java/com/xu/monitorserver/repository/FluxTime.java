@@ -0,0 +1,78 @@
+package com.xu.monitorserver.repository;
+
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 解析历史查询的 start/end：RFC3339、now() 或 -1h 这类 Flux 相对时间
+ */
+public final class FluxTime {
+
+    /**
+     * Flux 相对时间，如 -1h、-30m、-1h30m、-7d (不含 mo/y 这类日历单位)
+     */
+    private static final Pattern RELATIVE = Pattern.compile("^-((\\d+)(w|d|h|m|s))+$");
+    private static final Pattern RELATIVE_PART = Pattern.compile("(\\d+)(w|d|h|m|s)");
+
+    private FluxTime() {
+    }
+
+    /**
+     * @param value        请求中的时间，为空时使用 defaultValue
+     * @param defaultValue 默认值 ("-1h" 或 "now()")
+     * @param now          当前时间 (epoch 毫秒)
+     * @return epoch 毫秒；无法解析时返回 null
+     */
+    public static Long parse(String value, String defaultValue, long now) {
+        String text = value == null || value.isEmpty() ? defaultValue : value.trim();
+        if ("now()".equals(text)) {
+            return now;
+        }
+        if (RELATIVE.matcher(text).matches()) {
+            long millis = 0;
+            Matcher part = RELATIVE_PART.matcher(text);
+            while (part.find()) {
+                long n = Long.parseLong(part.group(1));
+                millis += switch (part.group(2)) {
+                    case "w" -> n * 7 * 86_400_000L;
+                    case "d" -> n * 86_400_000L;
+                    case "h" -> n * 3_600_000L;
+                    case "m" -> n * 60_000L;
+                    default -> n * 1_000L;
+                };
+            }
+            return now - millis;
+        }
+        try {
+            return Instant.parse(text).toEpochMilli();
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 解析增量游标：RFC3339 (与历史接口返回的 time 相同) 或 epoch 毫秒
+     *
+     * @return epoch 毫秒；无法解析时返回 null
+     */
+    public static Long parseCursor(String value) {
+        if (value == null || value.isBlank()) {
+            return null;
+        }
+        String text = value.trim();
+        if (text.chars().allMatch(Character::isDigit)) {
+            try {
+                return Long.parseLong(text);
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        try {
+            return Instant.parse(text).toEpochMilli();
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+}
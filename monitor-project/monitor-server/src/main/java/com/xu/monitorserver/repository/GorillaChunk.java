@@ -0,0 +1,253 @@
+package com.xu.monitorserver.repository;
+
+import java.util.Arrays;
+
+/**
+ * 一条 (时间, 数值) 序列的 Gorilla 压缩块 (编码方式同 Facebook Gorilla 论文与 Prometheus 的 XOR chunk)
+ *
+ * <ul>
+ *   <li>时间戳：首个时间戳原样写 64 位，之后写差值的差值 (delta-of-delta)。采集间隔固定时差值的差值为 0，只占 1 位：
+ *     <pre>
+ *     0                      dod == 0
+ *     10   + 14 位           dod ∈ [-8191, 8192]
+ *     110  + 17 位           dod ∈ [-65535, 65536]
+ *     1110 + 20 位           dod ∈ [-524287, 524288]
+ *     1111 + 64 位           其余
+ *     </pre>
+ *   </li>
+ *   <li>数值：与上一个值的 IEEE 754 位模式做 XOR。值不变只占 1 位 (0)；有效位落在上一次的前导零/尾随零区间内时写
+ *       10 + 有效位，否则写 11 + 5 位前导零个数 + 6 位有效位长度 + 有效位</li>
+ * </ul>
+ *
+ * <p>位流按大端顺序写在 long 数组中。只能按时间递增追加；不是线程安全的，由 {@link HotTierStore} 在 Agent 上同步。</p>
+ */
+final class GorillaChunk {
+
+    private long[] words;
+    private int bitLength;
+
+    private int count;
+    private long firstTime;
+    private long lastTime;
+    private long lastDelta;
+    private long lastValueBits;
+    private int lastLeading = -1;
+    private int lastTrailing;
+
+    GorillaChunk(int expectedPoints) {
+        // 缓慢变化的指标每个点只占几位，不够时按倍数扩容
+        words = new long[Math.max(2, expectedPoints / 8)];
+    }
+
+    /**
+     * 追加一个点
+     *
+     * @param time 时间 (epoch 毫秒)，必须大于上一个点的时间
+     */
+    void append(long time, double value) {
+        long valueBits = Double.doubleToRawLongBits(value);
+        if (count == 0) {
+            writeBits(time, 64);
+            writeBits(valueBits, 64);
+            firstTime = time;
+        } else {
+            if (time <= lastTime) {
+                throw new IllegalArgumentException("时间必须递增: " + time + " <= " + lastTime);
+            }
+            long delta = time - lastTime;
+            writeDeltaOfDelta(delta - lastDelta);
+            lastDelta = delta;
+            writeValue(valueBits ^ lastValueBits);
+        }
+        lastTime = time;
+        lastValueBits = valueBits;
+        count++;
+    }
+
+    private void writeDeltaOfDelta(long dod) {
+        if (dod == 0) {
+            writeBits(0, 1);
+        } else if (fits(dod, 14)) {
+            writeBits(0b10, 2);
+            writeBits(dod, 14);
+        } else if (fits(dod, 17)) {
+            writeBits(0b110, 3);
+            writeBits(dod, 17);
+        } else if (fits(dod, 20)) {
+            writeBits(0b1110, 4);
+            writeBits(dod, 20);
+        } else {
+            writeBits(0b1111, 4);
+            writeBits(dod, 64);
+        }
+    }
+
+    private void writeValue(long xor) {
+        if (xor == 0) {
+            writeBits(0, 1);
+            return;
+        }
+        // 5 位最多表示 31 个前导零
+        int leading = Math.min(Long.numberOfLeadingZeros(xor), 31);
+        int trailing = Long.numberOfTrailingZeros(xor);
+        if (lastLeading >= 0 && leading >= lastLeading && trailing >= lastTrailing) {
+            writeBits(0b10, 2);
+            writeBits(xor >>> lastTrailing, 64 - lastLeading - lastTrailing);
+            return;
+        }
+        int significant = 64 - leading - trailing;
+        writeBits(0b11, 2);
+        writeBits(leading, 5);
+        // 有效位长度 1~64，64 写成 0
+        writeBits(significant, 6);
+        writeBits(xor >>> trailing, significant);
+        lastLeading = leading;
+        lastTrailing = trailing;
+    }
+
+    /**
+     * 解码全部点
+     *
+     * @param times  输出的时间，长度不小于 {@link #count()}
+     * @param values 输出的数值，长度不小于 {@link #count()}
+     */
+    void decode(long[] times, double[] values) {
+        if (count == 0) {
+            return;
+        }
+        Reader in = new Reader();
+        long time = in.read(64);
+        long valueBits = in.read(64);
+        long delta = 0;
+        int leading = 0;
+        int trailing = 0;
+        times[0] = time;
+        values[0] = Double.longBitsToDouble(valueBits);
+        for (int i = 1; i < count; i++) {
+            delta += in.readDeltaOfDelta();
+            time += delta;
+            if (in.read(1) != 0) {
+                if (in.read(1) != 0) {
+                    leading = (int) in.read(5);
+                    int significant = (int) in.read(6);
+                    if (significant == 0) {
+                        significant = 64;
+                    }
+                    trailing = 64 - leading - significant;
+                }
+                valueBits ^= in.read(64 - leading - trailing) << trailing;
+            }
+            times[i] = time;
+            values[i] = Double.longBitsToDouble(valueBits);
+        }
+    }
+
+    /**
+     * 封存：截掉位流末尾未使用的空间，之后不再追加
+     */
+    void seal() {
+        int used = (bitLength + 63) >>> 6;
+        if (used < words.length) {
+            words = Arrays.copyOf(words, Math.max(1, used));
+        }
+    }
+
+    int count() {
+        return count;
+    }
+
+    long firstTime() {
+        return firstTime;
+    }
+
+    long lastTime() {
+        return lastTime;
+    }
+
+    /**
+     * 占用的内存 (字节，按位流数组容量加对象头估算)
+     */
+    long sizeBytes() {
+        return 64 + (long) words.length * Long.BYTES;
+    }
+
+    int bitLength() {
+        return bitLength;
+    }
+
+    /**
+     * dod 能否用 n 位补码表示 (区间 [-(2^(n-1) - 1), 2^(n-1)]，与解码时的符号还原一致)
+     */
+    private static boolean fits(long value, int bits) {
+        return value >= -((1L << (bits - 1)) - 1) && value <= 1L << (bits - 1);
+    }
+
+    private static long mask(int bits) {
+        return bits == 64 ? -1L : (1L << bits) - 1;
+    }
+
+    /**
+     * 写入 value 的低 bits 位 (0~64)
+     */
+    private void writeBits(long value, int bits) {
+        if (bits == 0) {
+            return;
+        }
+        int index = bitLength >>> 6;
+        if (index + 1 >= words.length) {
+            words = Arrays.copyOf(words, words.length * 2);
+        }
+        int free = 64 - (bitLength & 63);
+        if (bits <= free) {
+            words[index] |= (value & mask(bits)) << (free - bits);
+        } else {
+            int rest = bits - free;
+            words[index] |= (value >>> rest) & mask(free);
+            words[index + 1] |= value << (64 - rest);
+        }
+        bitLength += bits;
+    }
+
+    private final class Reader {
+
+        private int position;
+
+        long read(int bits) {
+            if (bits == 0) {
+                return 0;
+            }
+            int index = position >>> 6;
+            int free = 64 - (position & 63);
+            long result;
+            if (bits <= free) {
+                result = (words[index] >>> (free - bits)) & mask(bits);
+            } else {
+                int rest = bits - free;
+                result = ((words[index] & mask(free)) << rest) | (words[index + 1] >>> (64 - rest));
+            }
+            position += bits;
+            return result;
+        }
+
+        long readDeltaOfDelta() {
+            int bits;
+            if (read(1) == 0) {
+                return 0;
+            } else if (read(1) == 0) {
+                bits = 14;
+            } else if (read(1) == 0) {
+                bits = 17;
+            } else if (read(1) == 0) {
+                bits = 20;
+            } else {
+                return read(64);
+            }
+            long value = read(bits);
+            // 还原符号：大于 2^(bits-1) 的是负数
+            if (value > 1L << (bits - 1)) {
+                value -= 1L << bits;
+            }
+            return value;
+        }
+    }
+}
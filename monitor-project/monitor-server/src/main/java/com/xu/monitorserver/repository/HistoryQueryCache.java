@@ -0,0 +1,381 @@
+package com.xu.monitorserver.repository;
+
+import com.xu.monitorserver.dto.IngestSample;
+import com.xu.monitorserver.dto.MetricColumns;
+import com.xu.monitorserver.dto.TimeSeriesColumns;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 历史曲线查询结果缓存 (按时间桶对齐)
+ *
+ * <p>多人同时打开同一台服务器的 Dashboard 时，每个页面每 5 秒都会重复执行相同的 Flux 聚合。
+ * 这里把查询范围切成固定长度、按 epoch 对齐的时间桶 (不小于 {@code bucket-seconds}，并取聚合窗口的整数倍)：</p>
+ * <ul>
+ *   <li>已关闭的桶 (结束时间早于 min(now, 写入完整水位) - {@code closed-after}) 的聚合结果不会再变化，缓存后一直复用，
+ *       直到被 LRU 淘汰。写入完整水位见 {@link MetricStore#durableWatermark()}：WAL 积压时水位停在积压开始的时间，
+ *       还没写入 InfluxDB 的时间段不会被当成已关闭</li>
+ *   <li>包含当前时间的尾部桶仍在写入，每次都实时查询，与缓存的部分拼接后返回</li>
+ *   <li>缺失的相邻关闭桶合并成一次查询，再按桶拆分放入缓存</li>
+ * </ul>
+ * <p>离线缓冲补发等迟到数据会落入已关闭的桶，写入时通过 {@link #invalidate(List)} 让对应的桶失效；
+ * 迟到数据写入 InfluxDB 之前的查询可能把旧结果重新缓存，因此水位越过其到达时间后再失效一次。
+ * 缓存按总点数限制大小 ({@code max-points})，超出时淘汰最久未访问的桶。
+ * 无法解析的时间范围 (非 RFC3339、非 -1h 这类简单相对时间) 不走缓存，直接查询。</p>
+ */
+@Component
+public class HistoryQueryCache {
+
+    private final MetricStore metricStore;
+
+    private final long bucketSeconds;
+    private final long closedAfterMillis;
+    private final long maxPoints;
+
+    /**
+     * LRU：访问顺序的 LinkedHashMap，所有访问在 this 上同步 (单次操作只是内存读写，锁竞争很小)
+     */
+    private final LinkedHashMap<BucketKey, MetricColumns> chunks = new LinkedHashMap<>(256, 0.75f, true);
+    private long cachedPoints;
+
+    /**
+     * 尚未写完的迟到数据：agentId -> [最早时间, 最晚时间, 最近一次到达时间] (在 this 上同步)
+     */
+    private final Map<String, long[]> pendingLate = new HashMap<>();
+    /**
+     * 每次因迟到数据失效时加一：查询期间发生过失效时，查到的结果可能不含迟到数据，不放入缓存
+     */
+    private long lateGeneration;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong liveQueries = new AtomicLong();
+    private final AtomicLong influxQueries = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+    private final AtomicLong bypassed = new AtomicLong();
+
+    public HistoryQueryCache(MetricStore metricStore,
+                             @Value("${monitor.query-cache.bucket-seconds:600}") long bucketSeconds,
+                             @Value("${monitor.query-cache.closed-after:120000}") long closedAfterMillis,
+                             @Value("${monitor.query-cache.max-points:2000000}") long maxPoints) {
+        if (bucketSeconds <= 0) {
+            throw new IllegalArgumentException("monitor.query-cache.bucket-seconds 必须大于 0: " + bucketSeconds);
+        }
+        this.metricStore = metricStore;
+        this.bucketSeconds = bucketSeconds;
+        this.closedAfterMillis = closedAfterMillis;
+        this.maxPoints = maxPoints;
+    }
+
+    /**
+     * 查询多字段历史数据 (结果与 {@link MetricStore#queryMetricColumns} 相同，但尽量复用已缓存的时间桶)
+     */
+    public TimeSeriesColumns query(String agentId, String ip, List<String> fields, String start, String end,
+                                   AggregateWindow window) {
+        return queryColumns(agentId, ip, fields, start, end, window).toTimeSeries();
+    }
+
+    /**
+     * 同 {@link #query}，返回基本类型数组的列，供降采样等后续处理使用
+     */
+    public MetricColumns queryColumns(String agentId, String ip, List<String> fields, String start, String end,
+                                      AggregateWindow window) {
+        long now = System.currentTimeMillis();
+        Long from = FluxTime.parse(start, "-1h", now);
+        Long to = FluxTime.parse(end, "now()", now);
+        if (from == null || to == null) {
+            bypassed.incrementAndGet();
+            influxQueries.incrementAndGet();
+            return metricStore.queryMetricColumns(agentId, ip, fields, start, end, window);
+        }
+        to = Math.min(to, now);
+        if (to <= from) {
+            return MetricColumns.empty(fields);
+        }
+
+        long bucketMillis = bucketMillis(window);
+        long closedBefore = closedBefore(now);
+        long generation = lateGeneration();
+        long firstBucket = Math.floorDiv(from, bucketMillis) * bucketMillis;
+        long lastBucket = Math.floorDiv(to - 1, bucketMillis) * bucketMillis;
+
+        // 1. 已关闭的桶：先查缓存，缺失的记下来
+        Map<Long, MetricColumns> resolved = new LinkedHashMap<>();
+        List<Long> missing = new ArrayList<>();
+        long liveFrom = -1;
+        for (long bucket = firstBucket; bucket <= lastBucket; bucket += bucketMillis) {
+            if (bucket + bucketMillis > closedBefore) {
+                // 从这个桶开始都还在写入
+                liveFrom = bucket;
+                break;
+            }
+            MetricColumns chunk = get(new BucketKey(agentId, ip, fields, window, bucket));
+            if (chunk != null) {
+                hits.incrementAndGet();
+                resolved.put(bucket, chunk);
+            } else {
+                misses.incrementAndGet();
+                missing.add(bucket);
+            }
+        }
+
+        // 2. 缺失的关闭桶：相邻的合并成一次查询，结果按桶拆分后缓存
+        for (int i = 0; i < missing.size(); ) {
+            int j = i;
+            while (j + 1 < missing.size() && missing.get(j + 1) == missing.get(j) + bucketMillis) {
+                j++;
+            }
+            long runStart = missing.get(i);
+            long runEnd = missing.get(j) + bucketMillis;
+            influxQueries.incrementAndGet();
+            MetricColumns columns = metricStore.queryMetricColumns(agentId, ip, fields,
+                    Instant.ofEpochMilli(runStart).toString(), Instant.ofEpochMilli(runEnd).toString(), window);
+            for (Map.Entry<Long, MetricColumns> entry : split(columns, runStart, runEnd, bucketMillis).entrySet()) {
+                put(new BucketKey(agentId, ip, fields, window, entry.getKey()), entry.getValue(), generation);
+                resolved.put(entry.getKey(), entry.getValue());
+            }
+            i = j + 1;
+        }
+
+        List<MetricColumns> parts = new ArrayList<>();
+        for (long bucket = firstBucket; bucket <= lastBucket && (liveFrom < 0 || bucket < liveFrom); bucket += bucketMillis) {
+            parts.add(resolved.get(bucket));
+        }
+        // 3. 尾部仍在写入的桶：实时查询，不缓存。
+        //    从请求范围所在的窗口开始查 (增量轮询时只有最近一两个窗口)；结束时间取到窗口边界，
+        //    正在写入的窗口也以窗口结束时间为标签，轮询之间同一个窗口的时间保持不变
+        if (liveFrom >= 0) {
+            long windowMillis = window.millis();
+            long liveStart = Math.max(liveFrom, Math.floorDiv(from, windowMillis) * windowMillis);
+            long liveStop = Math.floorDiv(to + windowMillis - 1, windowMillis) * windowMillis;
+            liveQueries.incrementAndGet();
+            influxQueries.incrementAndGet();
+            parts.add(metricStore.queryMetricColumns(agentId, ip, fields,
+                    Instant.ofEpochMilli(liveStart).toString(), Instant.ofEpochMilli(liveStop).toString(), window));
+        }
+
+        // 4. 按时间顺序拼接，只保留与 [from, to) 相交的窗口
+        return concat(fields, parts, from, to, window.millis());
+    }
+
+    /**
+     * 迟到的样本 (落在已关闭的桶中) 写入后，让对应 Agent 覆盖这些时间的桶失效
+     */
+    public void invalidate(List<IngestSample> samples) {
+        long now = System.currentTimeMillis();
+        long closedBefore = closedBefore(now);
+        // agentId -> 迟到样本的 [最早, 最晚] 时间 (补发的样本通常是连续的一段)
+        Map<String, long[]> late = new HashMap<>();
+        for (IngestSample sample : samples) {
+            String agentId = sample.model().getAgentId();
+            long time = sample.timestampMillis();
+            if (agentId == null || time >= closedBefore) {
+                continue;
+            }
+            late.merge(agentId, new long[]{time, time},
+                    (a, b) -> new long[]{Math.min(a[0], b[0]), Math.max(a[1], b[1])});
+        }
+        if (late.isEmpty()) {
+            return;
+        }
+        synchronized (this) {
+            removeCovered(late);
+            // 数据写入 InfluxDB 后再失效一次 (见 closedBefore)
+            for (Map.Entry<String, long[]> entry : late.entrySet()) {
+                long[] range = entry.getValue();
+                pendingLate.merge(entry.getKey(), new long[]{range[0], range[1], now},
+                        (a, b) -> new long[]{Math.min(a[0], b[0]), Math.max(a[1], b[1]), Math.max(a[2], b[2])});
+            }
+        }
+    }
+
+    /**
+     * 已关闭的桶的结束时间上限；顺带让已写入 InfluxDB 的迟到数据覆盖的桶再失效一次
+     */
+    private long closedBefore(long now) {
+        long watermark = metricStore.durableWatermark();
+        synchronized (this) {
+            if (!pendingLate.isEmpty()) {
+                Map<String, long[]> drained = new HashMap<>();
+                Iterator<Map.Entry<String, long[]>> it = pendingLate.entrySet().iterator();
+                while (it.hasNext()) {
+                    Map.Entry<String, long[]> entry = it.next();
+                    if (entry.getValue()[2] < watermark) {
+                        drained.put(entry.getKey(), entry.getValue());
+                        it.remove();
+                    }
+                }
+                removeCovered(drained);
+            }
+        }
+        return Math.min(now, watermark) - closedAfterMillis;
+    }
+
+    /**
+     * 删除 late 中各 Agent 的时间范围 [from, to] 覆盖的桶 (持有 this 锁时调用)
+     */
+    private void removeCovered(Map<String, long[]> late) {
+        if (late.isEmpty()) {
+            return;
+        }
+        lateGeneration++;
+        Iterator<Map.Entry<BucketKey, MetricColumns>> it = chunks.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<BucketKey, MetricColumns> entry = it.next();
+            BucketKey key = entry.getKey();
+            long[] range = late.get(key.agentId());
+            if (range != null && key.covers(range[0], range[1], bucketMillis(key.window()))) {
+                cachedPoints -= sizeOf(entry.getValue());
+                it.remove();
+                invalidations.incrementAndGet();
+            }
+        }
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        synchronized (this) {
+            stats.put("entries", chunks.size());
+            stats.put("points", cachedPoints);
+            stats.put("pendingLateAgents", pendingLate.size());
+        }
+        stats.put("maxPoints", maxPoints);
+        stats.put("bucketSeconds", bucketSeconds);
+        stats.put("hits", hits.get());
+        stats.put("misses", misses.get());
+        long total = hits.get() + misses.get();
+        stats.put("hitRate", total == 0 ? 0d : (double) hits.get() / total);
+        stats.put("liveQueries", liveQueries.get());
+        stats.put("influxQueries", influxQueries.get());
+        stats.put("evictions", evictions.get());
+        stats.put("invalidations", invalidations.get());
+        stats.put("bypassed", bypassed.get());
+        return stats;
+    }
+
+    private synchronized MetricColumns get(BucketKey key) {
+        return chunks.get(key);
+    }
+
+    private synchronized long lateGeneration() {
+        return lateGeneration;
+    }
+
+    private synchronized void put(BucketKey key, MetricColumns chunk, long generation) {
+        if (generation != lateGeneration) {
+            return;
+        }
+        MetricColumns previous = chunks.put(key, chunk);
+        if (previous != null) {
+            cachedPoints -= sizeOf(previous);
+        }
+        cachedPoints += sizeOf(chunk);
+        // 访问顺序的迭代从最久未访问的开始；刚放入的桶不淘汰
+        Iterator<Map.Entry<BucketKey, MetricColumns>> it = chunks.entrySet().iterator();
+        while (cachedPoints > maxPoints && it.hasNext()) {
+            Map.Entry<BucketKey, MetricColumns> eldest = it.next();
+            if (eldest.getKey().equals(key)) {
+                continue;
+            }
+            cachedPoints -= sizeOf(eldest.getValue());
+            it.remove();
+            evictions.incrementAndGet();
+        }
+    }
+
+    /**
+     * 按桶拆分一次跨多个桶的查询结果。窗口以结束时间为标签，(bucket, bucket + B] 属于同一个桶
+     */
+    private static Map<Long, MetricColumns> split(MetricColumns columns, long runStart, long runEnd, long bucketMillis) {
+        Map<Long, MetricColumns> result = new LinkedHashMap<>();
+        long[] times = columns.times();
+        int row = 0;
+        for (long bucket = runStart; bucket < runEnd; bucket += bucketMillis) {
+            while (row < times.length && times[row] <= bucket) {
+                row++;
+            }
+            int first = row;
+            while (row < times.length && times[row] <= bucket + bucketMillis) {
+                row++;
+            }
+            result.put(bucket, columns.select(range(first, row)));
+        }
+        return result;
+    }
+
+    private static MetricColumns concat(List<String> fields, List<MetricColumns> parts, long from, long to, long windowMillis) {
+        int total = 0;
+        for (MetricColumns part : parts) {
+            total += part.size();
+        }
+        long[] times = new long[total];
+        double[][] values = new double[fields.size()][total];
+        int n = 0;
+        for (MetricColumns part : parts) {
+            for (int i = 0; i < part.size(); i++) {
+                long stop = part.times()[i];
+                if (stop <= from || stop - windowMillis >= to) {
+                    continue;
+                }
+                times[n] = stop;
+                for (int f = 0; f < fields.size(); f++) {
+                    values[f][n] = part.values()[f][i];
+                }
+                n++;
+            }
+        }
+        if (n == total) {
+            return new MetricColumns(fields, times, values);
+        }
+        return new MetricColumns(fields, times, values).select(range(0, n));
+    }
+
+    private static int[] range(int from, int to) {
+        int[] rows = new int[to - from];
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = from + i;
+        }
+        return rows;
+    }
+
+    /**
+     * 时间桶长度：不小于 bucket-seconds 的聚合窗口整数倍，保证窗口不会跨桶
+     */
+    private long bucketMillis(AggregateWindow window) {
+        long windows = Math.max(1, (bucketSeconds + window.seconds() - 1) / window.seconds());
+        return windows * window.millis();
+    }
+
+    /**
+     * 缓存键：同一 Agent、同一组字段、同一种窗口聚合、同一个时间桶 (双读时旧结构按 ip 读取，ip 也是键的一部分)
+     */
+    private record BucketKey(String agentId, String ip, List<String> fields, AggregateWindow window, long bucketStart) {
+
+        /**
+         * [from, to] 内的样本是否会影响这个桶：样本所在窗口以结束时间为标签，桶内是结束时间在 (bucketStart, bucketStart + B] 的窗口
+         */
+        boolean covers(long from, long to, long bucketMillis) {
+            long w = window.millis();
+            long firstStop = Math.floorDiv(from, w) * w + w;
+            long lastStop = Math.floorDiv(to, w) * w + w;
+            return firstStop <= bucketStart + bucketMillis && lastStop > bucketStart;
+        }
+    }
+
+    /**
+     * 缓存占用的点数 (空桶按 1 计)
+     */
+    private static long sizeOf(MetricColumns columns) {
+        return Math.max(1, (long) columns.size() * columns.fields().size());
+    }
+}
@@ -0,0 +1,369 @@
+package com.xu.monitorserver.repository;
+
+import com.xu.monitorserver.dto.IngestSample;
+import com.xu.monitorserver.dto.MetricColumns;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 最近数据的内存热层：每个 Agent、每个 server_metrics 字段一条 Gorilla 压缩序列 (见 {@link GorillaChunk})
+ *
+ * <p>Dashboard 的请求绝大多数只看最近一小时，这部分历史曲线直接在内存中解码聚合，不再查询 InfluxDB：</p>
+ * <ul>
+ *   <li>写入：上报的样本通过时钟校验后追加到各字段的当前块，块满 {@link #BLOCK_POINTS} 个点后封存</li>
+ *   <li>覆盖范围：每个 Agent 记录一个覆盖起点，起点之后的样本完整保存在热层中。起点取服务端启动后收到的第一个样本，
+ *       封存块因超出保留时长或内存预算被淘汰、乱序样本无法追加时起点后移</li>
+ *   <li>查询：请求范围 (按窗口对齐后) 全部落在覆盖范围内时按与 Flux aggregateWindow 相同的规则聚合
+ *       (窗口按 epoch 对齐、以结束时间为标签、没有数据的窗口不返回)，否则返回 null 由调用方查询 InfluxDB</li>
+ *   <li>内存：所有块 (含未封存的当前块) 的占用超过 {@code max-bytes} 时按封存顺序淘汰最旧的块，
+ *       没有封存块可淘汰时按最后上报时间淘汰整个 Agent</li>
+ *   <li>清理：超过保留时长没有上报的 Agent 定期整体删除</li>
+ * </ul>
+ *
+ * <p>热层只保存本实例收到的样本：多个服务端实例分担上报时应关闭 (monitor.hot-tier.enabled=false)。</p>
+ */
+@Component
+public class HotTierStore {
+
+    /**
+     * 每个块的点数：5 秒采集间隔下约 20 分钟，淘汰以块为单位
+     */
+    static final int BLOCK_POINTS = 256;
+
+    private final boolean enabled;
+    private final long retentionMillis;
+    private final long maxBytes;
+    /**
+     * 写入 InfluxDB 的时间精度 (毫秒)，热层按同样的精度截断时间，聚合结果与 InfluxDB 一致
+     */
+    private final long precisionMillis;
+
+    private final Map<String, AgentSeries> agents = new ConcurrentHashMap<>();
+    /**
+     * 封存的块，按封存顺序 (近似按时间) 排列，淘汰从队首开始
+     */
+    private final ConcurrentLinkedQueue<SealedBlock> sealed = new ConcurrentLinkedQueue<>();
+    private final AtomicLong bytes = new AtomicLong();
+    /**
+     * 下次清理不再上报的 Agent 的时间
+     */
+    private final AtomicLong nextSweep = new AtomicLong();
+
+    private final AtomicLong appended = new AtomicLong();
+    private final AtomicLong outOfOrder = new AtomicLong();
+    private final AtomicLong evicted = new AtomicLong();
+    private final AtomicLong expired = new AtomicLong();
+    private final AtomicLong evictedAgents = new AtomicLong();
+    private final AtomicLong expiredAgents = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    @Autowired
+    public HotTierStore(@Value("${monitor.hot-tier.enabled:true}") boolean enabled,
+                        @Value("${monitor.hot-tier.retention-hours:2}") long retentionHours,
+                        @Value("${monitor.hot-tier.max-bytes:67108864}") long maxBytes,
+                        @Value("${monitor.ingest.precision:s}") String precision) {
+        this(enabled, retentionHours * 3_600_000L, maxBytes, "s".equalsIgnoreCase(precision) ? 1000 : 1);
+    }
+
+    HotTierStore(boolean enabled, long retentionMillis, long maxBytes, long precisionMillis) {
+        this.enabled = enabled;
+        this.retentionMillis = retentionMillis;
+        this.maxBytes = maxBytes;
+        this.precisionMillis = precisionMillis;
+    }
+
+    /**
+     * 追加一批已写入的样本 (上报线程调用)
+     */
+    public void append(List<IngestSample> samples) {
+        if (!enabled || samples.isEmpty()) {
+            return;
+        }
+        for (IngestSample sample : samples) {
+            String agentId = sample.model().getAgentId();
+            if (agentId == null) {
+                continue;
+            }
+            long time = Math.floorDiv(sample.timestampMillis(), precisionMillis) * precisionMillis;
+            // 取到的序列恰好被淘汰时重新创建
+            while (!agents.computeIfAbsent(agentId, AgentSeries::new).append(sample, time)) {
+                Thread.onSpinWait();
+            }
+        }
+        evict(System.currentTimeMillis());
+    }
+
+    /**
+     * 从热层查询多字段窗口聚合 (结果与 {@link HistoryQueryCache#queryColumns} 相同)
+     *
+     * @return 请求范围不在热层覆盖范围内时返回 null
+     */
+    public MetricColumns queryColumns(String agentId, List<String> fields, String start, String end,
+                                      AggregateWindow window) {
+        if (!enabled) {
+            return null;
+        }
+        long now = System.currentTimeMillis();
+        Long from = FluxTime.parse(start, "-1h", now);
+        Long to = FluxTime.parse(end, "now()", now);
+        AgentSeries series = agents.get(agentId);
+        if (from == null || to == null || series == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        to = Math.min(to, now);
+        if (to <= from) {
+            hits.incrementAndGet();
+            return MetricColumns.empty(fields);
+        }
+        // 与 InfluxDB 查询结果一致：返回与 [from, to) 相交的完整窗口
+        long w = window.millis();
+        long lo = Math.floorDiv(from, w) * w;
+        long hi = Math.floorDiv(to + w - 1, w) * w;
+        MetricColumns columns = series.aggregate(fields, lo, hi, window, now - retentionMillis);
+        if (columns == null) {
+            misses.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+        }
+        return columns;
+    }
+
+    /**
+     * 淘汰超出保留时长的块，再按封存顺序淘汰到内存预算以内
+     */
+    private void evict(long now) {
+        long expireBefore = now - retentionMillis;
+        long next = nextSweep.get();
+        if (now >= next && nextSweep.compareAndSet(next, now + Math.min(60_000L, retentionMillis))) {
+            for (AgentSeries series : agents.values()) {
+                if (series.lastTime() < expireBefore && remove(series)) {
+                    expiredAgents.incrementAndGet();
+                }
+            }
+        }
+        SealedBlock head;
+        while ((head = sealed.peek()) != null) {
+            boolean expire = head.chunk().lastTime() < expireBefore;
+            if (!expire && bytes.get() <= maxBytes) {
+                return;
+            }
+            if (sealed.remove(head)) {
+                head.agent().drop(head);
+                (expire ? expired : evicted).incrementAndGet();
+            }
+        }
+        if (bytes.get() > maxBytes) {
+            // 预算被各 Agent 未封存的当前块占满 (Agent 多、每个 Agent 还不满一个块)：先淘汰最久没有上报的 Agent
+            List<AgentSeries> oldest = new ArrayList<>(agents.values());
+            oldest.sort(Comparator.comparingLong(AgentSeries::lastTime));
+            for (AgentSeries series : oldest) {
+                if (bytes.get() <= maxBytes) {
+                    return;
+                }
+                if (remove(series)) {
+                    evictedAgents.incrementAndGet();
+                }
+            }
+        }
+    }
+
+    /**
+     * 删除一个 Agent 的全部序列并释放占用
+     */
+    private boolean remove(AgentSeries series) {
+        if (!agents.remove(series.agentId, series)) {
+            return false;
+        }
+        bytes.addAndGet(-series.release());
+        sealed.removeIf(block -> block.agent() == series);
+        return true;
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("agents", agents.size());
+        stats.put("sealedBlocks", sealed.size());
+        stats.put("bytes", bytes.get());
+        stats.put("maxBytes", maxBytes);
+        stats.put("retentionMillis", retentionMillis);
+        stats.put("appended", appended.get());
+        stats.put("outOfOrder", outOfOrder.get());
+        stats.put("evicted", evicted.get());
+        stats.put("expired", expired.get());
+        stats.put("evictedAgents", evictedAgents.get());
+        stats.put("expiredAgents", expiredAgents.get());
+        stats.put("hits", hits.get());
+        stats.put("misses", misses.get());
+        return stats;
+    }
+
+    private record SealedBlock(AgentSeries agent, String field, GorillaChunk chunk) {
+    }
+
+    /**
+     * 一个 Agent 的全部字段序列，追加、查询、淘汰都在这个对象上同步
+     */
+    private final class AgentSeries {
+
+        private final String agentId;
+        private final Map<String, FieldSeries> fields = new HashMap<>();
+        /**
+         * 覆盖起点：不早于该时间的样本都在热层中
+         */
+        private long coveredFrom = Long.MIN_VALUE;
+        private long lastTime = Long.MIN_VALUE;
+        /**
+         * 已从热层删除，之后的追加由调用方写入新的序列
+         */
+        private boolean removed;
+
+        AgentSeries(String agentId) {
+            this.agentId = agentId;
+        }
+
+        /**
+         * @return 序列已被删除时返回 false
+         */
+        synchronized boolean append(IngestSample sample, long time) {
+            if (removed) {
+                return false;
+            }
+            if (lastTime == Long.MIN_VALUE) {
+                coveredFrom = time;
+            } else if (time <= lastTime) {
+                // 离线补发等乱序样本无法追加到压缩块：覆盖范围内缺了这个点，起点移到已有数据之后
+                if (time >= coveredFrom) {
+                    coveredFrom = lastTime + 1;
+                    outOfOrder.incrementAndGet();
+                }
+                return true;
+            }
+            lastTime = time;
+            for (String field : MetricsLineEncoder.METRIC_FIELDS) {
+                double value = MetricsLineEncoder.metricValue(sample, field);
+                // 与写入 InfluxDB 的字段一致：clock_skew_ms 只在有偏差时写入
+                if (Double.isNaN(value) || ("clock_skew_ms".equals(field) && value == 0)) {
+                    continue;
+                }
+                FieldSeries series = fields.computeIfAbsent(field, f -> {
+                    FieldSeries created = new FieldSeries();
+                    bytes.addAndGet(created.open.sizeBytes());
+                    return created;
+                });
+                GorillaChunk open = series.open;
+                long before = open.sizeBytes();
+                open.append(time, value);
+                if (open.count() >= BLOCK_POINTS) {
+                    open.seal();
+                    series.sealed.addLast(open);
+                    sealed.add(new SealedBlock(this, field, open));
+                    series.open = new GorillaChunk(BLOCK_POINTS);
+                    bytes.addAndGet(series.open.sizeBytes());
+                }
+                bytes.addAndGet(open.sizeBytes() - before);
+            }
+            appended.incrementAndGet();
+            return true;
+        }
+
+        synchronized long lastTime() {
+            return lastTime;
+        }
+
+        /**
+         * 标记为已删除并清空所有块
+         *
+         * @return 释放的字节数
+         */
+        synchronized long release() {
+            removed = true;
+            long released = 0;
+            for (FieldSeries series : fields.values()) {
+                released += series.open.sizeBytes();
+                for (GorillaChunk chunk : series.sealed) {
+                    released += chunk.sizeBytes();
+                }
+            }
+            fields.clear();
+            return released;
+        }
+
+        /**
+         * 移除一个封存块 (只会是该字段最旧的块)，覆盖起点移到块之后
+         */
+        synchronized void drop(SealedBlock block) {
+            FieldSeries series = fields.get(block.field());
+            if (series != null && series.sealed.peekFirst() == block.chunk()) {
+                series.sealed.pollFirst();
+                bytes.addAndGet(-block.chunk().sizeBytes());
+            }
+            coveredFrom = Math.max(coveredFrom, block.chunk().lastTime() + 1);
+        }
+
+        /**
+         * 聚合 [lo, hi) 内的窗口
+         *
+         * @return 范围不在覆盖范围内时返回 null
+         */
+        synchronized MetricColumns aggregate(List<String> names, long lo, long hi, AggregateWindow window,
+                                             long retainedFrom) {
+            if (lo < coveredFrom || lo < retainedFrom) {
+                return null;
+            }
+            WindowAggregator aggregator = new WindowAggregator(names.size(), lo, hi, window);
+            for (int f = 0; f < names.size(); f++) {
+                FieldSeries series = fields.get(names.get(f));
+                if (series != null) {
+                    series.accumulate(aggregator, f, lo, hi);
+                }
+            }
+            return aggregator.toColumns(names);
+        }
+    }
+
+    private static final class FieldSeries {
+
+        private final ArrayDeque<GorillaChunk> sealed = new ArrayDeque<>();
+        private GorillaChunk open = new GorillaChunk(BLOCK_POINTS);
+
+        /**
+         * 把 [lo, hi) 内的点按时间顺序加入聚合
+         */
+        void accumulate(WindowAggregator aggregator, int field, long lo, long hi) {
+            long[] times = new long[BLOCK_POINTS];
+            double[] values = new double[BLOCK_POINTS];
+            for (GorillaChunk chunk : sealed) {
+                accumulate(chunk, aggregator, field, lo, hi, times, values);
+            }
+            accumulate(open, aggregator, field, lo, hi, times, values);
+        }
+
+        private static void accumulate(GorillaChunk chunk, WindowAggregator aggregator, int field, long lo, long hi,
+                                       long[] times, double[] values) {
+            if (chunk.count() == 0 || chunk.lastTime() < lo || chunk.firstTime() >= hi) {
+                return;
+            }
+            chunk.decode(times, values);
+            for (int i = 0; i < chunk.count(); i++) {
+                if (times[i] >= lo && times[i] < hi) {
+                    aggregator.add(field, times[i], values[i]);
+                }
+            }
+        }
+    }
+}
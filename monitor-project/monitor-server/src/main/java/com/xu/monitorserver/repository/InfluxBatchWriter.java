@@ -0,0 +1,459 @@
+package com.xu.monitorserver.repository;
+
+import com.influxdb.client.InfluxDBClient;
+import com.influxdb.client.domain.WritePrecision;
+import com.influxdb.exceptions.InfluxException;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * InfluxDB 异步批量写入器
+ *
+ * <p>上报接口只把 line protocol 交给写入器后立即返回，Tomcat 工作线程不再等待 InfluxDB。有两种模式：</p>
+ * <ul>
+ *   <li>WAL 模式 (默认)：数据先追加到 {@link IngestWal}，后台线程从检查点开始按 {@code wal.drain-batch-bytes}
+ *       读出大批次写入 InfluxDB，成功后推进检查点；InfluxDB 不可用时数据留在磁盘上，恢复后继续补写</li>
+ *   <li>内存队列模式 ({@code wal.enabled=false})：数据放入有界内存队列，攒够 {@code batch-size} 条
+ *       或等待超过 {@code flush-interval} 毫秒后写入；队列满时按 {@code overflow-policy} 处理
+ *       (DROP_NEWEST / DROP_OLDEST / BLOCK)，重试耗尽后丢弃该批</li>
+ * </ul>
+ * <p>{@link #getDrainedWatermark()} 给出排空水位：在此之前提交的数据都已写入 InfluxDB (或已确定丢弃)，
+ * 查询缓存与连续汇总据此判断一段时间的数据是否已经完整，WAL 积压时不会把缺数据的时间段当成已关闭。</p>
+ * <p>连接失败、429、5xx 按指数退避 + 随机抖动重试；其他 4xx (如某一行格式错误、413 请求过大) 把批次二分后重写，
+ * 最终只丢弃被拒绝的行。队列深度、每批大小、写入耗时、丢弃数量见 {@link #stats()}。</p>
+ */
+@Component
+@ConditionalOnProperty(name = "monitor.storage.engine", havingValue = "influx", matchIfMissing = true)
+public class InfluxBatchWriter {
+
+    private static final Logger logger = LoggerFactory.getLogger(InfluxBatchWriter.class);
+
+    public enum OverflowPolicy { DROP_NEWEST, DROP_OLDEST, BLOCK }
+
+    private final InfluxDBClient influxDBClient;
+    private final IngestWal wal;
+    private final BlockingQueue<String> queue;
+
+    @Value("${influx.bucket}")
+    private String bucket;
+
+    @Value("${influx.org}")
+    private String org;
+
+    /**
+     * 写入时间戳精度 (s/ms/us/ns)，默认秒级：Agent 采集间隔为秒级，
+     * 秒级时间戳的 delta 编码更紧凑，InfluxDB 压缩率更高
+     */
+    @Value("${monitor.ingest.precision:s}")
+    private String precision;
+
+    // 内存队列模式下单次写入的最大记录数 (每条记录是一个上报批次)
+    @Value("${monitor.ingest.writer.batch-size:1000}")
+    private int batchSize;
+
+    // 批次中第一条数据最多等待的毫秒数
+    @Value("${monitor.ingest.writer.flush-interval:1000}")
+    private long flushIntervalMillis;
+
+    @Value("${monitor.ingest.writer.max-retries:5}")
+    private int maxRetries;
+
+    // 指数退避的初始/最大等待 (毫秒)
+    @Value("${monitor.ingest.writer.retry-base-delay:200}")
+    private long retryBaseDelayMillis;
+
+    @Value("${monitor.ingest.writer.retry-max-delay:10000}")
+    private long retryMaxDelayMillis;
+
+    @Value("${monitor.ingest.writer.overflow-policy:DROP_OLDEST}")
+    private OverflowPolicy overflowPolicy;
+
+    // BLOCK 策略下最多等待的毫秒数，超时后丢弃新数据
+    @Value("${monitor.ingest.writer.block-timeout:1000}")
+    private long blockTimeoutMillis;
+
+    // WAL 模式下单次从 WAL 读出写入 InfluxDB 的最大字节数
+    @Value("${monitor.ingest.wal.drain-batch-bytes:2097152}")
+    private int drainBatchBytes;
+
+    // WAL 刷盘间隔 (毫秒)，0 表示只依赖操作系统回写
+    @Value("${monitor.ingest.wal.fsync-interval:1000}")
+    private long fsyncIntervalMillis;
+
+    private Thread flusher;
+    private volatile boolean running;
+
+    /**
+     * 排空水位 (墙钟毫秒)：在此之前提交的数据都已写入 InfluxDB；启动后第一次排空前为 0
+     */
+    private volatile long drainedWatermark;
+
+    // --- 统计 ---
+    private final AtomicLong enqueued = new AtomicLong();
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong flushes = new AtomicLong();
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong droppedOverflow = new AtomicLong();
+    private final AtomicLong droppedWriteFailure = new AtomicLong();
+    private final AtomicLong drainErrors = new AtomicLong();
+    private final AtomicLong totalFlushMillis = new AtomicLong();
+    private volatile long maxFlushMillis;
+    private volatile long lastFlushMillis;
+    private volatile int lastFlushSize;
+
+    public InfluxBatchWriter(InfluxDBClient influxDBClient, IngestWal wal,
+                             @Value("${monitor.ingest.writer.queue-capacity:50000}") int queueCapacity) {
+        this.influxDBClient = influxDBClient;
+        this.wal = wal;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+    }
+
+    @PostConstruct
+    public void start() {
+        running = true;
+        flusher = new Thread(wal.isEnabled() ? this::drainWalLoop : this::flushLoop, "influx-batch-writer");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    /**
+     * 停机时先停止 flusher；内存队列模式再把队列中剩余的数据写完 (WAL 模式下剩余数据留在磁盘，重启后继续写)
+     */
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        running = false;
+        flusher.interrupt();
+        flusher.join(TimeUnit.SECONDS.toMillis(10));
+        List<String> batch = new ArrayList<>(batchSize);
+        while (queue.drainTo(batch, batchSize) > 0) {
+            if (!writeWithRetry(batch)) {
+                droppedWriteFailure.addAndGet(lineCount(batch));
+            }
+            batch.clear();
+        }
+    }
+
+    /**
+     * 提交一个样本批次的 line protocol (多行以 \n 分隔)。WAL 模式下返回时数据已落盘 (可以向 Agent 确认)
+     *
+     * @param lines     编码好的 line protocol，调用方可在返回后复用
+     * @param lineCount 行数 (用于统计)
+     * @throws com.xu.monitorserver.exception.ServiceException WAL 已满
+     */
+    public void submit(CharSequence lines, int lineCount) {
+        if (wal.isEnabled()) {
+            wal.append(lines);
+            enqueued.addAndGet(lineCount);
+        } else {
+            // 内存队列中一个元素就是一个样本批次，writeRecords 会把多行记录原样拼接
+            enqueue(lines.toString(), lineCount);
+        }
+    }
+
+    /**
+     * 放入一个样本批次，队列满时按溢出策略处理
+     */
+    private void enqueue(String record, int lineCount) {
+        if (queue.offer(record)) {
+            enqueued.addAndGet(lineCount);
+            return;
+        }
+        switch (overflowPolicy) {
+            case DROP_OLDEST:
+                // 腾出一个位置给新数据；并发时可能再次失败，此时丢弃新数据
+                String oldest = queue.poll();
+                if (oldest != null) {
+                    droppedOverflow.addAndGet(lineCount(oldest));
+                }
+                if (!queue.offer(record)) {
+                    droppedOverflow.addAndGet(lineCount);
+                    return;
+                }
+                break;
+            case BLOCK:
+                try {
+                    if (!queue.offer(record, blockTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                        droppedOverflow.addAndGet(lineCount);
+                        return;
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    droppedOverflow.addAndGet(lineCount);
+                    return;
+                }
+                break;
+            default:
+                droppedOverflow.addAndGet(lineCount);
+                return;
+        }
+        enqueued.addAndGet(lineCount);
+    }
+
+    /**
+     * 排空水位 (墙钟毫秒)：在此之前提交的数据都已写入 InfluxDB 或已确定丢弃，之后提交的可能仍在 WAL/队列中
+     */
+    public long getDrainedWatermark() {
+        return drainedWatermark;
+    }
+
+    public WritePrecision getPrecision() {
+        return switch (precision.toLowerCase()) {
+            case "ns" -> WritePrecision.NS;
+            case "us" -> WritePrecision.US;
+            case "ms" -> WritePrecision.MS;
+            default -> WritePrecision.S;
+        };
+    }
+
+    /**
+     * 写入统计 (供 /api/monitor/ingest/stats 展示)。
+     * queueDepth/queueRemaining 按队列元素 (上报批次) 计，其余数量与批次大小都按 line protocol 行数计
+     */
+    public Map<String, Object> stats() {
+        long flushCount = flushes.get();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("queueDepth", queue.size());
+        stats.put("queueRemaining", queue.remainingCapacity());
+        stats.put("enqueued", enqueued.get());
+        stats.put("written", written.get());
+        stats.put("flushes", flushCount);
+        stats.put("lastFlushSize", lastFlushSize);
+        stats.put("avgFlushSize", flushCount == 0 ? 0 : written.get() / flushCount);
+        stats.put("lastFlushMillis", lastFlushMillis);
+        stats.put("avgFlushMillis", flushCount == 0 ? 0 : totalFlushMillis.get() / flushCount);
+        stats.put("maxFlushMillis", maxFlushMillis);
+        stats.put("retries", retries.get());
+        stats.put("droppedOverflow", droppedOverflow.get());
+        stats.put("droppedWriteFailure", droppedWriteFailure.get());
+        stats.put("drainErrors", drainErrors.get());
+        long watermark = drainedWatermark;
+        stats.put("drainLagMillis", watermark == 0 ? -1 : Math.max(0, System.currentTimeMillis() - watermark));
+        stats.putAll(wal.stats());
+        return stats;
+    }
+
+    private void flushLoop() {
+        List<String> batch = new ArrayList<>(batchSize);
+        while (running) {
+            try {
+                // 1.等待批次中的第一条数据；等不到说明之前提交的都已写完
+                long pollAt = System.currentTimeMillis();
+                String first = queue.poll(flushIntervalMillis, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    drainedWatermark = pollAt;
+                    continue;
+                }
+                batch.add(first);
+
+                // 2.攒够 batch-size 条，或第一条等待超过 flush-interval 就写入
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(flushIntervalMillis);
+                while (batch.size() < batchSize) {
+                    queue.drainTo(batch, batchSize - batch.size());
+                    if (batch.size() >= batchSize) {
+                        break;
+                    }
+                    long waitNanos = deadline - System.nanoTime();
+                    String next = waitNanos > 0 ? queue.poll(waitNanos, TimeUnit.NANOSECONDS) : null;
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                // 先取时间再看队列：此时队列为空，则在此之前提交的数据都在这一批里
+                long collectedAt = System.currentTimeMillis();
+                boolean caughtUp = queue.isEmpty();
+                if (!writeWithRetry(batch)) {
+                    droppedWriteFailure.addAndGet(lineCount(batch));
+                }
+                if (caughtUp) {
+                    drainedWatermark = collectedAt;
+                }
+            } catch (InterruptedException e) {
+                // stop() 触发，已取出的数据继续写完
+                if (!writeWithRetry(batch)) {
+                    droppedWriteFailure.addAndGet(lineCount(batch));
+                }
+                return;
+            } catch (RuntimeException e) {
+                logger.error("InfluxDB 批量写入线程异常", e);
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * WAL 模式：从检查点开始读出一批写入 InfluxDB，成功后推进检查点。
+     * 读满 drain-batch-bytes 时立即继续，否则等待 flush-interval 再读，以便攒成大批次。
+     * 读取 WAL 或推进检查点时的异常只记录并退避，线程继续运行 (线程退出后 WAL 会一直积压到写满)
+     */
+    private void drainWalLoop() {
+        long lastForce = System.currentTimeMillis();
+        int failures = 0;
+        while (running) {
+            boolean full = false;
+            try {
+                long readAt = System.currentTimeMillis();
+                IngestWal.Batch batch = wal.read(wal.getCheckpoint(), drainBatchBytes);
+                if (!batch.records().isEmpty()) {
+                    if (writeWithRetry(batch.records())) {
+                        wal.commit(batch.next());
+                        full = !batch.reachedEnd();
+                    } else {
+                        // InfluxDB 持续不可用：数据留在 WAL 中，等待后重新从检查点读取
+                        sleepQuietly(retryMaxDelayMillis);
+                        continue;
+                    }
+                }
+                if (batch.reachedEnd()) {
+                    // 读取开始前追加的记录都已写入
+                    drainedWatermark = readAt;
+                }
+                if (fsyncIntervalMillis > 0 && System.currentTimeMillis() - lastForce >= fsyncIntervalMillis) {
+                    wal.force();
+                    lastForce = System.currentTimeMillis();
+                }
+                failures = 0;
+            } catch (RuntimeException e) {
+                drainErrors.incrementAndGet();
+                logger.error("WAL 补写线程异常,退避后从检查点重新读取", e);
+                sleepQuietly(backoffMillis(failures++));
+                continue;
+            }
+            if (!full) {
+                sleepQuietly(flushIntervalMillis);
+            }
+        }
+    }
+
+    /**
+     * 写入一批数据，可重试的错误按指数退避 + 抖动重试；不可重试的 4xx 交给 {@link #splitAndWrite}
+     *
+     * @return true 表示已写入 (被拒绝的行已丢弃、不应再重试)；false 表示重试耗尽
+     */
+    private boolean writeWithRetry(List<String> batch) {
+        if (batch.isEmpty()) {
+            return true;
+        }
+        for (int attempt = 0; ; attempt++) {
+            long begin = System.nanoTime();
+            try {
+                influxDBClient.getWriteApiBlocking().writeRecords(bucket, org, getPrecision(), batch);
+                recordFlush(lineCount(batch), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin));
+                return true;
+            } catch (InfluxException e) {
+                if (!isRetryable(e)) {
+                    return splitAndWrite(batch, e);
+                }
+                if (attempt >= maxRetries || !running && attempt > 0) {
+                    logger.error("InfluxDB 写入失败,已重试 {} 次 (status={}): {}", attempt, e.status(), e.getMessage());
+                    return false;
+                }
+                retries.incrementAndGet();
+                long delay = backoffMillis(attempt);
+                logger.warn("InfluxDB 写入失败,{} 毫秒后第 {} 次重试: {}", delay, attempt + 1, e.getMessage());
+                sleepQuietly(delay);
+            }
+        }
+    }
+
+    /**
+     * 整批被拒绝时二分重写：一行格式错误会让 InfluxDB 拒绝整个请求，二分后其余的行照常写入，
+     * 只丢弃被拒绝的那一行 (413 请求过大时同样拆小重写)。多行记录拆到只剩一条时按行拆分
+     */
+    private boolean splitAndWrite(List<String> batch, InfluxException e) {
+        List<String> parts = batch.size() > 1 ? batch : splitLines(batch.get(0));
+        if (parts.size() <= 1) {
+            droppedWriteFailure.addAndGet(lineCount(parts));
+            logger.error("InfluxDB 拒绝写入,丢弃 1 行数据 (status={}): {} line={}", e.status(), e.getMessage(), parts);
+            return true;
+        }
+        int mid = parts.size() / 2;
+        return writeWithRetry(parts.subList(0, mid)) && writeWithRetry(parts.subList(mid, parts.size()));
+    }
+
+    private static List<String> splitLines(String record) {
+        List<String> lines = new ArrayList<>();
+        for (String line : record.split("\n")) {
+            if (!line.isEmpty()) {
+                lines.add(line);
+            }
+        }
+        return lines;
+    }
+
+    /**
+     * 记录中的 line protocol 行数 (多行以 \n 分隔，末尾没有换行)
+     */
+    private static int lineCount(String record) {
+        if (record.isEmpty()) {
+            return 0;
+        }
+        int count = 1;
+        for (int i = record.indexOf('\n'); i >= 0; i = record.indexOf('\n', i + 1)) {
+            count++;
+        }
+        return count;
+    }
+
+    private static int lineCount(List<String> records) {
+        int count = 0;
+        for (String record : records) {
+            count += lineCount(record);
+        }
+        return count;
+    }
+
+    /**
+     * 连接失败 (status=0)、限流 (429)、服务端错误 (5xx) 可重试；其他 4xx (如 line protocol 格式错误) 重试也不会成功
+     */
+    private static boolean isRetryable(InfluxException e) {
+        int status = e.status();
+        return status == 0 || status == 429 || status >= 500;
+    }
+
+    /**
+     * 指数退避 + 抖动：在 [delay/2, delay] 之间随机，避免多个批次同时重试
+     */
+    private long backoffMillis(int attempt) {
+        long delay = Math.min(retryMaxDelayMillis, retryBaseDelayMillis << Math.min(attempt, 20));
+        return delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+    }
+
+    /**
+     * 等待；被 stop() 打断时直接返回，由调用方检查 running
+     */
+    private static void sleepQuietly(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            // ignore
+        }
+    }
+
+    private void recordFlush(int size, long millis) {
+        written.addAndGet(size);
+        flushes.incrementAndGet();
+        totalFlushMillis.addAndGet(millis);
+        lastFlushSize = size;
+        lastFlushMillis = millis;
+        if (millis > maxFlushMillis) {
+            maxFlushMillis = millis;
+        }
+    }
+}
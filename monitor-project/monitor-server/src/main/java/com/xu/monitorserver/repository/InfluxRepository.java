@@ -1,32 +1,52 @@
 package com.xu.monitorserver.repository;
 
+import com.influxdb.Cancellable;
 import com.influxdb.client.InfluxDBClient;
-import com.influxdb.client.WriteApiBlocking;
 import com.influxdb.client.domain.WritePrecision;
-import com.influxdb.client.write.Point;
 import com.influxdb.query.FluxRecord;
 import com.influxdb.query.FluxTable;
-import com.xu.monitorcommon.moudule.BaseMonitorModel;
+import com.xu.monitorcommon.moudule.ProcessModel;
+import com.xu.monitorserver.dto.IngestSample;
+import com.xu.monitorserver.dto.MetricColumns;
+import com.xu.monitorserver.dto.TimeSeriesColumns;
+import com.xu.monitorserver.exception.ServiceException;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.stereotype.Repository;
 
+import java.io.IOException;
 import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * InfluxDB 数据访问层 (Repository)
- * 负责所有与时序数据库的交互：写入 Point、执行 Flux 查询
+ * 负责所有与时序数据库的交互：编码 line protocol (经异步写入器写入)、执行 Flux 查询。
+ * monitor.storage.engine=influx (默认) 时作为 {@link MetricStore} 的实现
  */
 @Repository
-public class InfluxRepository {
+@ConditionalOnProperty(name = "monitor.storage.engine", havingValue = "influx", matchIfMissing = true)
+public class InfluxRepository implements MetricStore {
 
     private final InfluxDBClient influxDBClient;
+    private final InfluxBatchWriter batchWriter;
 
-    public InfluxRepository(InfluxDBClient influxDBClient) {
+    /**
+     * 旧存储结构 (v1) 的 measurement：每个点携带 os_name/host_name/ip 标签和 top_processes JSON 字段
+     */
+    public static final String LEGACY_MEASUREMENT = "server_status";
+
+    public InfluxRepository(InfluxDBClient influxDBClient, InfluxBatchWriter batchWriter) {
         this.influxDBClient = influxDBClient;
+        this.batchWriter = batchWriter;
     }
 
     @Value("${influx.bucket}")
@@ -35,105 +55,346 @@ public class InfluxRepository {
     @Value("${influx.org}")
     private String org;
 
+    /**
+     * 双读：迁移完成前同时读取 v1 (server_status) 与 v2 (server_metrics/process_top)
+     */
+    @Value("${monitor.storage.dual-read:true}")
+    private boolean dualRead;
+
+    /**
+     * 每个请求线程复用的编码缓冲区 (Tomcat 工作线程是池化的)
+     */
+    private static final ThreadLocal<StringBuilder> LINE_BUFFER = ThreadLocal.withInitial(() -> new StringBuilder(4096));
+
+    /**
+     * 缓冲区超过该大小后不再复用，避免一次大批量上报让每个线程长期占用大块内存
+     */
+    private static final int MAX_RETAINED_BUFFER = 1 << 20;
+
     /**
      * 写入单条监控数据 (Write)
-     * Client 端上报后调用此方法
-     * @param model 监控数据传输对象
-     */
-    public void save(BaseMonitorModel model) {
-        // 获取同步写入 API
-        WriteApiBlocking writeApi = influxDBClient.getWriteApiBlocking();
-
-        // 构建数据点 (Point)
-        // Measurement: 表名 "server_status"
-        Point point = Point.measurement("server_status")
-                // --- Tags (索引字段) ---
-                // Tags 用于快速筛选，例如查询特定 IP 或 OS 的数据
-                .addTag("os_name", model.getOsName())
-                .addTag("host_name", model.getHostName())
-                .addTag("ip", model.getIp())
-
-                // --- Fields (数值字段) ---
-                // 核心指标
-                .addField("cpu_load", model.getCpuLoad())
-                .addField("memory_used", model.getMemoryUsed())
-                .addField("memory_total", model.getMemoryTotal())
-                // 磁盘与网络
-                .addField("disk_usage", model.getDiskUsage())
-                .addField("disk_total", model.getDiskTotal())
-                .addField("net_recv_rate", model.getNetRecvRate())
-                .addField("net_sent_rate", model.getNetSentRate())
-                // 负载与运行时间
-                .addField("sys_load_1", model.getSystemLoad1())
-                .addField("sys_load_5", model.getSystemLoad5())
-                .addField("sys_load_15", model.getSystemLoad15())
-                .addField("up_time", model.getUpTime())
-                // 磁盘I/O速率与Top5进程列表
-                .addField("disk_read_rate", model.getDiskReadRate())
-                .addField("disk_write_rate", model.getDiskWriteRate())
-                .addField("top_processes", model.getTopProcessesJson() !=null
-                ?model.getTopProcessesJson():"[]")
-                // CPU温度
-                .addField("cpu_temp",model.getCpuTemperature())
-
-                // 时间戳：使用当前服务器时间
-                .time(Instant.now(), WritePrecision.NS);
-
-        // 执行写入
-        writeApi.writePoint(bucket, org, point);
+     * Client 端上报后调用此方法；只交给 {@link InfluxBatchWriter} (先写 WAL)，由后台线程批量写入 InfluxDB
+     * @param sample 已校验时间戳的样本
+     */
+    @Override
+    public void save(IngestSample sample) {
+        saveBatch(List.of(sample));
+    }
+
+    /**
+     * 批量写入监控数据 (Write Batch)
+     * 时间戳取 Agent 端的采集时间，允许乱序/补发；与其他 Agent 的数据在写入器中合并成大批次。
+     * 样本由 {@link MetricsLineEncoder} 直接编码为 line protocol (server_metrics + process_top)，不经过 Point 构建器
+     * @param samples 已校验时间戳的样本列表
+     */
+    @Override
+    public void saveBatch(List<IngestSample> samples) {
+        StringBuilder lines = LINE_BUFFER.get();
+        lines.setLength(0);
+        WritePrecision precision = batchWriter.getPrecision();
+        int lineCount = 0;
+        for (IngestSample sample : samples) {
+            if (lines.length() > 0) {
+                lines.append('\n');
+            }
+            lineCount += MetricsLineEncoder.encode(sample, precision, lines);
+        }
+        try {
+            batchWriter.submit(lines, lineCount);
+        } finally {
+            if (lines.capacity() > MAX_RETAINED_BUFFER) {
+                LINE_BUFFER.remove();
+            }
+        }
+    }
+
+    /**
+     * 数据先进 WAL 再由写入器异步写入 InfluxDB，完整水位即写入器的排空水位
+     */
+    @Override
+    public long durableWatermark() {
+        return batchWriter.getDrainedWatermark();
+    }
+
+    /**
+     * 一次查询多个字段 (如 sys_load_1/5/15)，按时间窗口对齐成列
+     * 多个字段共用一次范围扫描与窗口聚合，再 pivot 成每个窗口一行，代替每个字段各发一次查询。
+     * 读取 v2 的 server_metrics (按 agent_id)；双读期间同时读取旧结构 server_status (按 ip)，
+     * 两者合并后再做窗口聚合，迁移完成前后曲线保持连续
+     * @param agentId Agent ID
+     * @param ip      该 Agent 当前登记的 IP，用于读取旧结构数据 (可为 null)
+     * @param fields  字段名列表
+     * @param start   开始时间 (如 "-1h" 或 "2025-12-16T10:00:00Z")
+     * @param end     结束时间 (如 "now()" 或 "2025-12-16T12:00:00Z")
+     * @param window  窗口大小与聚合函数
+     */
+    public TimeSeriesColumns queryHistoryColumns(String agentId, String ip, List<String> fields, String start, String end,
+                                                 AggregateWindow window) {
+        return queryMetricColumns(agentId, ip, fields, start, end, window).toTimeSeries();
+    }
+
+    /**
+     * 同 {@link #queryHistoryColumns}，结果直接写入基本类型数组 (不经过字符串时间与装箱的 Double)
+     */
+    @Override
+    public MetricColumns queryMetricColumns(String agentId, String ip, List<String> fields, String start, String end,
+                                            AggregateWindow window) {
+        String source = fieldsSource(agentId, ip, fields, start, end);
+        if (source == null) {
+            return MetricColumns.empty(fields);
+        }
+        String flux = source +
+                "|> aggregateWindow(every: " + window.seconds() + "s, fn: " + window.fn() + ", createEmpty: false) " +
+                // 各字段的表合并成一张后 pivot，同一窗口的多个字段落到同一行
+                "|> group() " +
+                "|> pivot(rowKey: [\"_time\"], columnKey: [\"_field\"], valueColumn: \"_value\") " +
+                "|> sort(columns: [\"_time\"])";
+
+        List<FluxTable> tables = influxDBClient.getQueryApi().query(flux, org);
+        int size = 0;
+        for (FluxTable table : tables) {
+            size += table.getRecords().size();
+        }
+        long[] times = new long[size];
+        double[][] values = new double[fields.size()][size];
+        int row = 0;
+        for (FluxTable table : tables) {
+            for (FluxRecord record : table.getRecords()) {
+                times[row] = record.getTime().toEpochMilli();
+                for (int f = 0; f < fields.size(); f++) {
+                    Object value = record.getValueByKey(fields.get(f));
+                    values[f][row] = value instanceof Number number ? number.doubleValue() : Double.NaN;
+                }
+                row++;
+            }
+        }
+        return new MetricColumns(fields, times, values);
+    }
+
+    /**
+     * 流式读取原始数据 (不做窗口聚合)：使用客户端的流式回调逐行交给 handler，结果不在内存中保存，
+     * 内存占用与时间范围无关。handler 写出失败 (通常是 HTTP 客户端已断开) 时取消 InfluxDB 查询
+     *
+     * @param timeoutMillis 整个查询的最长等待时间，超时后取消查询
+     * @return 输出的行数
+     * @throws IOException handler 写出失败
+     */
+    @Override
+    public long streamRawRows(String agentId, String ip, List<String> fields, String start, String end,
+                              long timeoutMillis, RawRowHandler handler) throws IOException {
+        String source = fieldsSource(agentId, ip, fields, start, end);
+        if (source == null) {
+            return 0;
+        }
+        String flux = source +
+                "|> group() " +
+                "|> pivot(rowKey: [\"_time\"], columnKey: [\"_field\"], valueColumn: \"_value\") " +
+                "|> sort(columns: [\"_time\"])";
+
+        CountDownLatch done = new CountDownLatch(1);
+        AtomicReference<Cancellable> running = new AtomicReference<>();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        double[] values = new double[fields.size()];
+        long[] rows = new long[1];
+        // 回调线程与请求线程交接响应流：回调在锁内检查 closed 并写出，超时/中断时请求线程先在锁内置 closed，
+        // 等正在写出的一行结束后才返回，之后回调不再写入响应
+        Object handoff = new Object();
+        boolean[] closed = new boolean[1];
+        influxDBClient.getQueryApi().query(flux, org, (cancellable, record) -> {
+            running.set(cancellable);
+            synchronized (handoff) {
+                if (closed[0] || failure.get() != null) {
+                    cancellable.cancel();
+                    return;
+                }
+                for (int f = 0; f < fields.size(); f++) {
+                    Object value = record.getValueByKey(fields.get(f));
+                    values[f] = value instanceof Number number ? number.doubleValue() : Double.NaN;
+                }
+                try {
+                    handler.accept(record.getTime(), values);
+                    rows[0]++;
+                } catch (IOException e) {
+                    failure.set(e);
+                    cancellable.cancel();
+                    done.countDown();
+                }
+            }
+        }, error -> {
+            failure.compareAndSet(null, error);
+            done.countDown();
+        }, done::countDown);
+
+        try {
+            if (!done.await(timeoutMillis, TimeUnit.MILLISECONDS)) {
+                failure.compareAndSet(null, new TimeoutException("导出查询超过 " + timeoutMillis + "ms"));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failure.compareAndSet(null, e);
+        }
+        synchronized (handoff) {
+            closed[0] = true;
+        }
+        Throwable error = failure.get();
+        if (error == null) {
+            return rows[0];
+        }
+        Cancellable cancellable = running.get();
+        if (cancellable != null) {
+            cancellable.cancel();
+        }
+        if (error instanceof IOException io) {
+            throw io;
+        }
+        throw new ServiceException(500, "导出查询失败: " + error.getMessage());
     }
 
     /**
-     * 通用查询历史数据 (支持动态时间)
-     * @param start 开始时间 (ISO格式, 如 "-1h" 或 "2025-12-16T10:00:00Z")
-     * @param end   结束时间 (ISO格式, 如 "now()" 或 "2025-12-16T12:00:00Z")
+     * 历史查询的数据源 (聚合之前)：v2 与双读时的 v1 合并成按 _field 分组、按时间排序的表
+     * @return 没有可读的数据源时返回 null
      */
-    public List<Map<String, Object>> queryHistory(String ip, String field, String start, String end) {
+    private String fieldsSource(String agentId, String ip, List<String> fields, String start, String end) {
         // 如果没传时间，默认查过去 1 小时
         String rangeStart = (start == null || start.isEmpty()) ? "-1h" : start;
         String rangeStop = (end == null || end.isEmpty()) ? "now()" : end;
 
-        String flux = String.format(
+        boolean readV2 = agentId != null;
+        boolean readV1 = dualRead && ip != null;
+        if (!readV2 && !readV1) {
+            return null;
+        }
+
+        StringBuilder flux = new StringBuilder();
+        if (readV2) {
+            flux.append("v2 = ").append(fieldSource(rangeStart, rangeStop, MetricsLineEncoder.METRICS, "agent_id", agentId, fields)).append('\n');
+        }
+        if (readV1) {
+            flux.append("v1 = ").append(fieldSource(rangeStart, rangeStop, LEGACY_MEASUREMENT, "ip", ip, fields)).append('\n');
+        }
+        if (readV2 && readV1) {
+            flux.append("union(tables: [v2, v1]) ")
+                    .append("|> group(columns: [\"_field\"]) ")
+                    .append("|> sort(columns: [\"_time\"]) ");
+        } else {
+            flux.append(readV2 ? "v2 " : "v1 ");
+        }
+        return flux.toString();
+    }
+
+    /**
+     * 单个 measurement 的数据源；只保留时间、值与字段名，去掉 tag 列，使 v1/v2 的表结构一致可以合并
+     */
+    private String fieldSource(String rangeStart, String rangeStop, String measurement,
+                               String tagKey, String tagValue, List<String> fields) {
+        StringBuilder fieldFilter = new StringBuilder();
+        for (String field : fields) {
+            if (fieldFilter.length() > 0) {
+                fieldFilter.append(" or ");
+            }
+            fieldFilter.append("r[\"_field\"] == \"").append(escape(field)).append('"');
+        }
+        return String.format(
                 "from(bucket: \"%s\") " +
                         "|> range(start: %s, stop: %s) " + // 🟢 动态注入 start 和 stop
-                        "|> filter(fn: (r) => r[\"_measurement\"] == \"server_status\") " +
-                        "|> filter(fn: (r) => r[\"ip\"] == \"%s\") " +
-                        "|> filter(fn: (r) => r[\"_field\"] == \"%s\") " +
-                        "|> aggregateWindow(every: 10s, fn: mean, createEmpty: false) " +
-                        "|> yield(name: \"mean\")",
-                bucket, rangeStart, rangeStop, ip, field
+                        "|> filter(fn: (r) => r[\"_measurement\"] == \"%s\") " +
+                        "|> filter(fn: (r) => r[\"%s\"] == \"%s\") " +
+                        "|> filter(fn: (r) => %s) " +
+                        "|> keep(columns: [\"_start\", \"_stop\", \"_time\", \"_value\", \"_field\"])",
+                bucket, rangeStart, rangeStop, measurement, tagKey, escape(tagValue), fieldFilter
         );
+    }
 
-        List<FluxTable> tables = influxDBClient.getQueryApi().query(flux, org);
-        List<Map<String, Object>> result = new ArrayList<>();
+    /**
+     * 查询服务器最新基础信息 (Query Latest Info)
+     * 用于前端顶部的基础信息卡片。运行时间取自 server_metrics，Top 进程取自 process_top 最近一个时间点；
+     * v2 没有数据且处于双读期间时退回旧结构 server_status。
+     * 主机名/系统/内存总量等静态信息由 Service 层从 HostFacts 补充
+     *
+     * @param agentId Agent ID
+     * @param ip      该 Agent 当前登记的 IP，用于读取旧结构数据 (可为 null)
+     * @return Map { uptime: 12345, topProcesses: [...] }
+     */
+    @Override
+    public Map<String, Object> queryLastOne(String agentId, String ip) {
+        Map<String, Object> info = new HashMap<>();
+        if (agentId != null) {
+            String uptimeFlux = String.format(
+                    "from(bucket: \"%s\") " +
+                            "|> range(start: -1h) " +
+                            "|> filter(fn: (r) => r[\"_measurement\"] == \"%s\") " +
+                            "|> filter(fn: (r) => r[\"agent_id\"] == \"%s\") " +
+                            "|> filter(fn: (r) => r[\"_field\"] == \"up_time\") " +
+                            "|> last()",
+                    bucket, MetricsLineEncoder.METRICS, escape(agentId)
+            );
+            for (FluxTable table : influxDBClient.getQueryApi().query(uptimeFlux, org)) {
+                for (FluxRecord record : table.getRecords()) {
+                    info.put("uptime", record.getValue());
+                }
+            }
+            if (!info.isEmpty()) {
+                info.put("topProcesses", queryLatestProcesses(agentId));
+                return info;
+            }
+        }
+        return dualRead && ip != null ? queryLegacyLastOne(ip) : info;
+    }
 
-        for (FluxTable table : tables) {
+    /**
+     * 最近一个采集时间点上的 Top 进程 (按 CPU 降序)
+     */
+    private List<ProcessModel> queryLatestProcesses(String agentId) {
+        // 每个 (name, pid) 序列各取最后一个点，pivot 后 cpu/mem 合并到同一行
+        String flux = String.format(
+                "from(bucket: \"%s\") " +
+                        "|> range(start: -1h) " +
+                        "|> filter(fn: (r) => r[\"_measurement\"] == \"%s\") " +
+                        "|> filter(fn: (r) => r[\"agent_id\"] == \"%s\") " +
+                        "|> last() " +
+                        "|> pivot(rowKey: [\"_time\"], columnKey: [\"_field\"], valueColumn: \"_value\")",
+                bucket, MetricsLineEncoder.PROCESS_TOP, escape(agentId)
+        );
+        List<FluxRecord> records = new ArrayList<>();
+        Instant latest = null;
+        for (FluxTable table : influxDBClient.getQueryApi().query(flux, org)) {
             for (FluxRecord record : table.getRecords()) {
-                Map<String, Object> map = new HashMap<>();
-                map.put("time", record.getTime().toString());
-                map.put("value", record.getValue());
-                result.add(map);
+                records.add(record);
+                if (record.getTime() != null && (latest == null || record.getTime().isAfter(latest))) {
+                    latest = record.getTime();
+                }
             }
         }
-        return result;
+        // 已退出 Top 列表的进程序列的 last() 停留在更早的时间点，只保留最新时间点上的行
+        List<ProcessModel> processes = new ArrayList<>();
+        for (FluxRecord record : records) {
+            if (!Objects.equals(record.getTime(), latest)) {
+                continue;
+            }
+            ProcessModel process = new ProcessModel();
+            process.setName((String) record.getValueByKey("name"));
+            Object pid = record.getValueByKey("pid");
+            process.setPid(pid != null ? Integer.parseInt(pid.toString()) : 0);
+            process.setCpu(toDouble(record.getValueByKey("cpu")));
+            process.setMem(toDouble(record.getValueByKey("mem")));
+            processes.add(process);
+        }
+        processes.sort(Comparator.comparingDouble(ProcessModel::getCpu).reversed());
+        return processes;
     }
 
     /**
-     * 查询服务器最新基础信息 (Query Latest Info)
-     * 用于前端顶部的基础信息卡片
-     *
-     * @param ip 服务器IP
-     * @return Map { osName: "...", uptime: 12345, ... }
+     * 旧结构 server_status 的最新信息 (迁移完成、关闭双读后不再调用)
      */
-    public Map<String, Object> queryLastOne(String ip) {
+    private Map<String, Object> queryLegacyLastOne(String ip) {
         // Flux 语句：只取最后一条 (last)
         String flux = String.format(
                 "from(bucket: \"%s\") " +
                         "|> range(start: -1h) " +
-                        "|> filter(fn: (r) => r[\"_measurement\"] == \"server_status\") " +
+                        "|> filter(fn: (r) => r[\"_measurement\"] == \"%s\") " +
                         "|> filter(fn: (r) => r[\"ip\"] == \"%s\") " +
                         "|> last()",
-                bucket, ip
+                bucket, LEGACY_MEASUREMENT, escape(ip)
         );
 
         List<FluxTable> tables = influxDBClient.getQueryApi().query(flux, org);
@@ -155,8 +416,6 @@ public class InfluxRepository {
                 }
 
                 // 2. 提取 Fields 并转换为驼峰命名 (匹配前端)
-                if ("memory_total".equals(key)) info.put("memoryTotal", val);
-                if ("disk_total".equals(key)) info.put("diskTotal", val);
                 // 数据库是 "up_time" -> 前端要 "uptime"
                 if ("up_time".equals(key)) info.put("uptime", val);
                 if ("top_processes".equals(key)) info.put("topProcesses", val);
@@ -164,4 +423,15 @@ public class InfluxRepository {
         }
         return info;
     }
-}
\ No newline at end of file
+
+    /**
+     * Flux 字符串字面量转义 (反斜杠、双引号、${ 插值)：agentId/ip 来自请求参数，不能原样拼进查询
+     */
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("${", "\\${");
+    }
+
+    private static double toDouble(Object value) {
+        return value instanceof Number number ? number.doubleValue() : 0d;
+    }
+}
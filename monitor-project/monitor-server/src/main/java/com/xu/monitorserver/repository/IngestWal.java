@@ -0,0 +1,405 @@
+package com.xu.monitorserver.repository;
+
+import com.xu.monitorserver.exception.ServiceException;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.zip.CRC32;
+
+/**
+ * 写入链路的预写日志 (Write-Ahead Log)
+ *
+ * <p>上报的样本先以 line protocol 追加到本地 WAL，追加成功后才向 Agent 返回成功；
+ * 由 {@link InfluxBatchWriter} 在后台按大批次把 WAL 中的数据写入 InfluxDB，写入成功后推进检查点并删除已确认的段文件。
+ * 因此 InfluxDB 变慢、重启或服务端自身重启，都不会丢失已确认的数据。</p>
+ *
+ * <pre>
+ * {dir}/wal-00000000000000000001.seg   固定大小的内存映射段文件，写满后滚动到下一个段
+ *       记录 = [int 长度][int CRC32][UTF-8 line protocol (多行以 \n 分隔)]，长度为 0 表示段内数据结束
+ * {dir}/checkpoint                     已写入 InfluxDB 的位置 [long 段序号][int 段内偏移]
+ * </pre>
+ *
+ * <p>启动时做一次恢复扫描：逐条校验 CRC 找到每个段的数据末尾 (丢弃写了一半的记录)，从检查点继续补写。
+ * 检查点之后的数据可能被重复写入一次，InfluxDB 中同一序列、同一时间戳的点会被覆盖，因此重放是幂等的。</p>
+ *
+ * <p>写入只落在操作系统页缓存中，进程崩溃不丢数据；需要防止整机掉电时可调小 {@code fsync-interval} 定期刷盘。</p>
+ */
+@Component
+@ConditionalOnProperty(name = "monitor.storage.engine", havingValue = "influx", matchIfMissing = true)
+public class IngestWal {
+
+    private static final Logger logger = LoggerFactory.getLogger(IngestWal.class);
+
+    private static final String SEGMENT_PREFIX = "wal-";
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final int RECORD_HEADER = 8;
+
+    private final boolean enabled;
+    private final Path dir;
+    private final int segmentBytes;
+    private final long maxBytes;
+
+    // 段序号 -> 段，只有最后一个段可写
+    private final ConcurrentSkipListMap<Long, Segment> segments = new ConcurrentSkipListMap<>();
+    private Segment active;
+
+    private FileChannel checkpointChannel;
+    private volatile Cursor checkpoint;
+
+    // append 复用的编码器与校验和 (持有锁时使用)
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private final CRC32 crc = new CRC32();
+
+    // 删除失败的段 (Windows 下文件仍被映射时无法删除)，下次提交时重试
+    private final List<Path> pendingDeletes = new ArrayList<>();
+
+    public IngestWal(@Value("${monitor.ingest.wal.enabled:true}") boolean enabled,
+                     @Value("${monitor.ingest.wal.dir:data/ingest-wal}") String dir,
+                     @Value("${monitor.ingest.wal.segment-bytes:16777216}") int segmentBytes,
+                     @Value("${monitor.ingest.wal.max-bytes:1073741824}") long maxBytes) throws IOException {
+        this.enabled = enabled;
+        this.dir = Path.of(dir);
+        this.segmentBytes = segmentBytes;
+        this.maxBytes = maxBytes;
+        if (enabled) {
+            recover();
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 追加一段 line protocol (多行以 \n 分隔，作为一条记录)，返回后即视为已确认。
+     * 字符直接编码为 UTF-8 写入映射内存，不产生中间 byte[]
+     *
+     * @throws ServiceException WAL 已满 (InfluxDB 长时间不可用)，调用方应让 Agent 稍后重试
+     */
+    public synchronized void append(CharSequence payload) {
+        while (true) {
+            int pos = active.end;
+            // 段末尾保留 4 字节，保证数据之后总能读到长度为 0 的结束标记
+            int room = segmentBytes - 4 - pos - RECORD_HEADER;
+            if (room <= 0) {
+                roll();
+                continue;
+            }
+            ByteBuffer dst = active.buffer.slice(pos + RECORD_HEADER, room);
+            encoder.reset();
+            CoderResult result = encoder.encode(CharBuffer.wrap(payload), dst, true);
+            if (!result.isOverflow()) {
+                result = encoder.flush(dst);
+            }
+            if (result.isOverflow()) {
+                if (pos == 0) {
+                    throw new ServiceException(413, "单次上报数据过大");
+                }
+                // 当前段放不下，滚动到新段重新编码
+                roll();
+                continue;
+            }
+
+            int len = dst.position();
+            crc.reset();
+            crc.update(dst.flip());
+            // 先写数据和校验和，最后写长度，保证读到长度时整条记录已完整
+            active.buffer.putInt(pos + 4, (int) crc.getValue());
+            active.buffer.putInt(pos, len);
+            active.end = pos + RECORD_HEADER + len;
+            return;
+        }
+    }
+
+    /**
+     * 从 from 开始读取若干条记录，累计不超过 maxBytes (至少返回一条)
+     */
+    public Batch read(Cursor from, int maxBytes) {
+        List<String> records = new ArrayList<>();
+        long segSeq = from.segment();
+        int offset = from.offset();
+        int bytes = 0;
+        boolean reachedEnd = false;
+        while (bytes < maxBytes) {
+            Segment seg = segments.get(segSeq);
+            if (seg == null) {
+                // 段已删除 (或检查点早于现存的段)，从下一个现存的段开始
+                Long next = segments.ceilingKey(segSeq);
+                if (next == null) {
+                    reachedEnd = true;
+                    break;
+                }
+                segSeq = next;
+                offset = 0;
+                continue;
+            }
+            int end = seg.end;
+            if (offset >= end) {
+                if (!seg.sealed) {
+                    reachedEnd = true;
+                    break;
+                }
+                Long next = segments.higherKey(segSeq);
+                if (next == null) {
+                    reachedEnd = true;
+                    break;
+                }
+                segSeq = next;
+                offset = 0;
+                continue;
+            }
+            int len = seg.buffer.getInt(offset);
+            byte[] data = new byte[len];
+            seg.buffer.get(offset + RECORD_HEADER, data);
+            records.add(new String(data, StandardCharsets.UTF_8));
+            offset += RECORD_HEADER + len;
+            bytes += len;
+        }
+        return new Batch(records, new Cursor(segSeq, offset), reachedEnd);
+    }
+
+    /**
+     * 记录已写入 InfluxDB 的位置，并删除之前的段文件
+     */
+    public synchronized void commit(Cursor cursor) {
+        checkpoint = cursor;
+        try {
+            ByteBuffer buf = ByteBuffer.allocate(12);
+            buf.putLong(cursor.segment()).putInt(cursor.offset()).flip();
+            checkpointChannel.write(buf, 0);
+        } catch (IOException e) {
+            logger.warn("写入 WAL 检查点失败: {}", e.getMessage());
+        }
+        while (!segments.isEmpty() && segments.firstKey() < cursor.segment()) {
+            Segment seg = segments.pollFirstEntry().getValue();
+            seg.close();
+            pendingDeletes.add(seg.path);
+        }
+        pendingDeletes.removeIf(IngestWal::deleteQuietly);
+    }
+
+    public Cursor getCheckpoint() {
+        return checkpoint;
+    }
+
+    /**
+     * 把可写段刷到磁盘 (防止整机掉电)
+     */
+    public synchronized void force() {
+        if (active != null) {
+            active.buffer.force();
+        }
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("walEnabled", enabled);
+        if (!enabled) {
+            return stats;
+        }
+        Cursor cp = checkpoint;
+        long pending = 0;
+        for (Segment seg : segments.values()) {
+            pending += seg.seq == cp.segment() ? seg.end - cp.offset() : (seg.seq > cp.segment() ? seg.end : 0);
+        }
+        stats.put("walSegments", segments.size());
+        stats.put("walPendingBytes", pending);
+        stats.put("walCheckpoint", cp.segment() + ":" + cp.offset());
+        return stats;
+    }
+
+    @PreDestroy
+    public synchronized void close() throws IOException {
+        if (!enabled) {
+            return;
+        }
+        for (Segment seg : segments.values()) {
+            seg.buffer.force();
+            seg.close();
+        }
+        checkpointChannel.force(true);
+        checkpointChannel.close();
+    }
+
+    /**
+     * 启动恢复扫描：加载现存的段、定位每个段的数据末尾、读取检查点
+     */
+    private void recover() throws IOException {
+        Files.createDirectories(dir);
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            stream.forEach(files::add);
+        }
+        files.sort(null);
+
+        for (Path file : files) {
+            Segment seg = openSegment(file, parseSeq(file));
+            seg.end = scanEnd(seg);
+            seg.sealed = true;
+            segments.put(seg.seq, seg);
+        }
+
+        checkpointChannel = FileChannel.open(dir.resolve("checkpoint"),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        ByteBuffer buf = ByteBuffer.allocate(12);
+        if (checkpointChannel.read(buf, 0) == 12) {
+            buf.flip();
+            checkpoint = new Cursor(buf.getLong(), buf.getInt());
+        } else {
+            checkpoint = new Cursor(segments.isEmpty() ? 1 : segments.firstKey(), 0);
+        }
+
+        // 检查点不能越过段内的数据末尾 (末尾的残缺记录已在扫描时丢弃)
+        Segment checkpointSeg = segments.get(checkpoint.segment());
+        if (checkpointSeg != null && checkpoint.offset() > checkpointSeg.end) {
+            checkpoint = new Cursor(checkpoint.segment(), checkpointSeg.end);
+        }
+
+        // 最后一个段继续作为可写段；没有段 (或段文件被手工删除) 时从检查点所在序号新建
+        if (segments.isEmpty() || segments.lastKey() < checkpoint.segment()) {
+            long seq = Math.max(1, checkpoint.segment());
+            active = openSegment(segmentPath(seq), seq);
+            segments.put(seq, active);
+            checkpoint = new Cursor(seq, 0);
+        } else {
+            active = segments.lastEntry().getValue();
+            active.sealed = false;
+        }
+        commit(checkpoint);
+
+        long pending = 0;
+        for (Segment seg : segments.values()) {
+            pending += seg.seq == checkpoint.segment() ? seg.end - checkpoint.offset() : seg.end;
+        }
+        logger.info("WAL 恢复完成: 目录={} 段数={} 待写入 {} 字节", dir.toAbsolutePath(), segments.size(), pending);
+    }
+
+    /**
+     * 逐条校验 CRC，返回第一条无效记录的位置 (即数据末尾)
+     */
+    private int scanEnd(Segment seg) {
+        int offset = 0;
+        CRC32 crc = new CRC32();
+        while (offset + RECORD_HEADER <= segmentBytes) {
+            int len = seg.buffer.getInt(offset);
+            if (len <= 0 || offset + RECORD_HEADER + len > segmentBytes) {
+                break;
+            }
+            byte[] data = new byte[len];
+            seg.buffer.get(offset + RECORD_HEADER, data);
+            crc.reset();
+            crc.update(data);
+            if ((int) crc.getValue() != seg.buffer.getInt(offset + 4)) {
+                logger.warn("WAL 段 {} 在偏移 {} 处记录损坏，丢弃之后的数据", seg.path.getFileName(), offset);
+                break;
+            }
+            offset += RECORD_HEADER + len;
+        }
+        // 清掉末尾写了一半的记录，避免之后追加的数据与残留字节混在一起
+        for (int i = offset; i < Math.min(offset + RECORD_HEADER, segmentBytes); i++) {
+            seg.buffer.put(i, (byte) 0);
+        }
+        return offset;
+    }
+
+    private void roll() {
+        if ((long) (segments.size() + 1) * segmentBytes > maxBytes) {
+            throw new ServiceException(503, "写入缓冲已满,请稍后重试");
+        }
+        active.sealed = true;
+        long seq = active.seq + 1;
+        try {
+            active = openSegment(segmentPath(seq), seq);
+        } catch (IOException e) {
+            throw new ServiceException(503, "创建 WAL 段失败: " + e.getMessage());
+        }
+        segments.put(seq, active);
+    }
+
+    private Segment openSegment(Path path, long seq) throws IOException {
+        FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+        return new Segment(seq, path, channel, buffer);
+    }
+
+    private Path segmentPath(long seq) {
+        return dir.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, seq, SEGMENT_SUFFIX));
+    }
+
+    private static long parseSeq(Path file) {
+        String name = file.getFileName().toString();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    private static boolean deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * WAL 中的位置：段序号 + 段内偏移
+     */
+    public record Cursor(long segment, int offset) {
+    }
+
+    /**
+     * 一次读取的结果，next 为这些记录之后的位置；reachedEnd 表示已读到读取时 WAL 的末尾
+     * (读取开始前追加完成的记录都在其中)
+     */
+    public record Batch(List<String> records, Cursor next, boolean reachedEnd) {
+    }
+
+    private static final class Segment {
+        final long seq;
+        final Path path;
+        final FileChannel channel;
+        final MappedByteBuffer buffer;
+        // 已写入数据的末尾，追加线程写、drainer 线程读
+        volatile int end;
+        volatile boolean sealed;
+
+        Segment(long seq, Path path, FileChannel channel, MappedByteBuffer buffer) {
+            this.seq = seq;
+            this.path = path;
+            this.channel = channel;
+            this.buffer = buffer;
+        }
+
+        void close() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                logger.warn("关闭 WAL 段失败: {}", e.getMessage());
+            }
+        }
+    }
+}
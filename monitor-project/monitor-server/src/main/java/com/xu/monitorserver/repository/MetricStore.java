@@ -0,0 +1,73 @@
+package com.xu.monitorserver.repository;
+
+import com.xu.monitorserver.dto.IngestSample;
+import com.xu.monitorserver.dto.MetricColumns;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * server_metrics 时序数据的存储接口，监控服务、查询缓存与导出都只依赖这个接口
+ *
+ * <p>由 monitor.storage.engine 选择实现：</p>
+ * <ul>
+ *   <li>influx (默认)：{@link InfluxRepository}，经 WAL 与异步写入器写入 InfluxDB</li>
+ *   <li>embedded：{@link EmbeddedMetricStore}，进程内的文件存储，小规模部署与测试环境不需要 InfluxDB</li>
+ * </ul>
+ *
+ * <p>时间参数 start/end 与 Flux 的 range 写法相同 ("-1h"、"now()"、RFC3339)，为空时分别取 "-1h" 与 "now()"；
+ * ip 为双读旧结构 server_status 时使用的 IP (可为 null)，不支持旧结构的实现忽略该参数。</p>
+ */
+public interface MetricStore {
+
+    /**
+     * 写入一批已校验时间戳的样本
+     */
+    void saveBatch(List<IngestSample> samples);
+
+    default void save(IngestSample sample) {
+        saveBatch(List.of(sample));
+    }
+
+    /**
+     * 写入完整水位 (墙钟毫秒)：在此之前 saveBatch 的样本都已可以查询到。
+     * 同步写入的实现即为当前时间；异步写入的实现在积压时落后于当前时间
+     */
+    default long durableWatermark() {
+        return System.currentTimeMillis();
+    }
+
+    /**
+     * 窗口聚合：窗口按 epoch 对齐，只统计 [start, end) 内的点，以窗口结束时间 (不超过 end) 为点的时间，
+     * 没有数据的窗口不返回；某个字段在窗口内没有数据时为 NaN
+     */
+    MetricColumns queryMetricColumns(String agentId, String ip, List<String> fields, String start, String end,
+                                     AggregateWindow window);
+
+    /**
+     * 原始数据范围查询：按时间顺序逐行回调，不在内存中保存结果
+     *
+     * @param timeoutMillis 整个查询的最长时间
+     * @return 输出的行数
+     * @throws IOException handler 写出失败
+     */
+    long streamRawRows(String agentId, String ip, List<String> fields, String start, String end,
+                       long timeoutMillis, RawRowHandler handler) throws IOException;
+
+    /**
+     * 最近 1 小时内的最新信息
+     *
+     * @return 可修改的 Map { uptime, topProcesses }，没有数据时为空
+     */
+    Map<String, Object> queryLastOne(String agentId, String ip);
+
+    /**
+     * 原始数据导出时逐行回调；values 数组在各行之间复用，NaN 表示该时间点没有这个字段
+     */
+    @FunctionalInterface
+    interface RawRowHandler {
+        void accept(Instant time, double[] values) throws IOException;
+    }
+}
@@ -0,0 +1,202 @@
+package com.xu.monitorserver.repository;
+
+import com.influxdb.client.domain.WritePrecision;
+import com.xu.monitorcommon.moudule.BaseMonitorModel;
+import com.xu.monitorcommon.moudule.ProcessModel;
+import com.xu.monitorserver.dto.IngestSample;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 监控样本的 line protocol 编码器 (存储结构 v2)
+ *
+ * <p>直接把样本按 line protocol 追加到调用方复用的 StringBuilder 中，
+ * 不再经过 {@code Point} 构建器 (每个点一个 TreeMap、十几个装箱对象、NumberFormat 格式化)。
+ * 输出与 {@code Point.toLineProtocol()} 一致：tags、fields 按 key 排序，非有限的浮点数跳过，转义规则相同，
+ * 浮点数与 Point 的 NumberFormat 一样写成普通小数 (0.0001、12345678.0)，不用科学计数法。</p>
+ *
+ * <p>一个样本编码为多行：</p>
+ * <pre>
+ * server_metrics,agent_id=9f1c... cpu_load=12.5,...,up_time=3600i 1734339600
+ * process_top,agent_id=9f1c...,name=java,pid=1201 cpu=12.5,mem=3.25 1734339600
+ * process_top,agent_id=9f1c...,name=mysqld,pid=881 cpu=4.0,mem=8.5 1734339600
+ * </pre>
+ * <ul>
+ *   <li>server_metrics 只有数值字段，唯一的 tag 是稳定的 agent_id；主机名/IP 等静态信息保存在 MySQL 与缓存中，
+ *       改主机名、换 IP 不会让序列分叉</li>
+ *   <li>process_top 每个进程一个点，可以按进程名/PID 做聚合分析</li>
+ * </ul>
+ */
+public final class MetricsLineEncoder {
+
+    public static final String METRICS = "server_metrics";
+    public static final String PROCESS_TOP = "process_top";
+
+    /**
+     * server_metrics 中可查询的数值字段
+     */
+    public static final Set<String> METRIC_FIELDS = Set.of(
+            "cpu_load", "cpu_temp", "disk_read_rate", "disk_usage", "disk_write_rate", "memory_used",
+            "net_recv_rate", "net_sent_rate", "sys_load_1", "sys_load_15", "sys_load_5", "up_time", "clock_skew_ms");
+
+    private MetricsLineEncoder() {
+    }
+
+    /**
+     * 编码一个样本 (可能多行，行之间以 \n 分隔，末尾不含换行符)
+     *
+     * @return 写入的行数
+     */
+    public static int encode(IngestSample sample, WritePrecision precision, StringBuilder out) {
+        BaseMonitorModel model = sample.model();
+        long time = toPrecision(sample.timestampMillis(), precision);
+
+        // --- server_metrics (fields 按 key 排序) ---
+        out.append(METRICS);
+        appendTag(out, "agent_id", model.getAgentId());
+        out.append(' ');
+        int mark = out.length();
+        if (sample.clockSkewMillis() != 0) {
+            appendLong(out, mark, "clock_skew_ms", sample.clockSkewMillis());
+        }
+        appendDouble(out, mark, "cpu_load", model.getCpuLoad());
+        appendDouble(out, mark, "cpu_temp", model.getCpuTemperature());
+        appendDouble(out, mark, "disk_read_rate", model.getDiskReadRate());
+        appendDouble(out, mark, "disk_usage", model.getDiskUsage());
+        appendDouble(out, mark, "disk_write_rate", model.getDiskWriteRate());
+        appendDouble(out, mark, "memory_used", model.getMemoryUsed());
+        appendDouble(out, mark, "net_recv_rate", model.getNetRecvRate());
+        appendDouble(out, mark, "net_sent_rate", model.getNetSentRate());
+        appendDouble(out, mark, "sys_load_1", model.getSystemLoad1());
+        appendDouble(out, mark, "sys_load_15", model.getSystemLoad15());
+        appendDouble(out, mark, "sys_load_5", model.getSystemLoad5());
+        appendLong(out, mark, "up_time", model.getUpTime());
+        out.append(' ').append(time);
+        int lines = 1;
+
+        // --- process_top (tags: agent_id, name, pid) ---
+        List<ProcessModel> processes = model.getTopProcesses();
+        if (processes != null) {
+            for (ProcessModel process : processes) {
+                out.append('\n').append(PROCESS_TOP);
+                appendTag(out, "agent_id", model.getAgentId());
+                appendTag(out, "name", process.getName());
+                out.append(",pid=").append(process.getPid());
+                out.append(' ');
+                mark = out.length();
+                appendDouble(out, mark, "cpu", process.getCpu());
+                appendDouble(out, mark, "mem", process.getMem());
+                if (out.length() == mark) {
+                    // 没有有效字段的行不合法，用 0 占位
+                    out.append("cpu=0.0");
+                }
+                out.append(' ').append(time);
+                lines++;
+            }
+        }
+        return lines;
+    }
+
+    /**
+     * 样本中某个 server_metrics 字段的值 (与 {@link #encode} 写入的字段一致)
+     *
+     * @return 不是数值字段或没有有效值时返回 NaN
+     */
+    public static double metricValue(IngestSample sample, String field) {
+        BaseMonitorModel model = sample.model();
+        double value = switch (field) {
+            case "cpu_load" -> model.getCpuLoad();
+            case "cpu_temp" -> model.getCpuTemperature();
+            case "disk_read_rate" -> model.getDiskReadRate();
+            case "disk_usage" -> model.getDiskUsage();
+            case "disk_write_rate" -> model.getDiskWriteRate();
+            case "memory_used" -> model.getMemoryUsed();
+            case "net_recv_rate" -> model.getNetRecvRate();
+            case "net_sent_rate" -> model.getNetSentRate();
+            case "sys_load_1" -> model.getSystemLoad1();
+            case "sys_load_15" -> model.getSystemLoad15();
+            case "sys_load_5" -> model.getSystemLoad5();
+            case "up_time" -> model.getUpTime();
+            case "clock_skew_ms" -> sample.clockSkewMillis();
+            default -> Double.NaN;
+        };
+        return Double.isFinite(value) ? value : Double.NaN;
+    }
+
+    /**
+     * 把 epoch 毫秒换算为目标精度 (秒级向下取整)
+     */
+    public static long toPrecision(long epochMillis, WritePrecision precision) {
+        return switch (precision) {
+            case NS -> epochMillis * 1_000_000L;
+            case US -> epochMillis * 1_000L;
+            case MS -> epochMillis;
+            case S -> Math.floorDiv(epochMillis, 1000L);
+        };
+    }
+
+    private static void appendTag(StringBuilder out, String key, String value) {
+        if (value == null || value.isEmpty()) {
+            return;
+        }
+        out.append(',').append(key).append('=');
+        escapeKey(out, value);
+    }
+
+    private static void appendDouble(StringBuilder out, int mark, String key, double value) {
+        if (!Double.isFinite(value)) {
+            return;
+        }
+        appendDecimal(fieldKey(out, mark, key), value);
+    }
+
+    /**
+     * 按普通小数写出，至少一位小数。append(double) 的有效数字与 Point 的 NumberFormat 相同，
+     * 但 |value| < 1e-3 或 >= 1e7 时会写成 1.0E-4、1.2345678E7，这类少见的值再经 BigDecimal 展开
+     */
+    static void appendDecimal(StringBuilder out, double value) {
+        int start = out.length();
+        out.append(value);
+        if (out.indexOf("E", start) < 0) {
+            return;
+        }
+        String plain = new BigDecimal(out.substring(start)).stripTrailingZeros().toPlainString();
+        out.setLength(start);
+        out.append(plain);
+        if (plain.indexOf('.') < 0) {
+            out.append(".0");
+        }
+    }
+
+    private static void appendLong(StringBuilder out, int mark, String key, long value) {
+        fieldKey(out, mark, key).append(value).append('i');
+    }
+
+    /**
+     * 第一个 field 前不加逗号
+     */
+    private static StringBuilder fieldKey(StringBuilder out, int mark, String key) {
+        if (out.length() > mark) {
+            out.append(',');
+        }
+        return out.append(key).append('=');
+    }
+
+    /**
+     * tag 值转义：逗号、等号、空格前加反斜杠，换行/回车/制表符转成转义序列
+     */
+    private static void escapeKey(StringBuilder out, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '\n' -> out.append("\\n");
+                case '\r' -> out.append("\\r");
+                case '\t' -> out.append("\\t");
+                case ' ', ',', '=' -> out.append('\\').append(c);
+                default -> out.append(c);
+            }
+        }
+    }
+}
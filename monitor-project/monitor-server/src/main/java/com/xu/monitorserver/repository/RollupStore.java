@@ -0,0 +1,545 @@
+package com.xu.monitorserver.repository;
+
+import com.influxdb.client.InfluxDBClient;
+import com.influxdb.client.domain.Bucket;
+import com.influxdb.client.domain.BucketRetentionRules;
+import com.influxdb.client.domain.Organization;
+import com.influxdb.query.FluxRecord;
+import com.influxdb.query.FluxTable;
+import com.xu.monitorserver.dto.IngestSample;
+import com.xu.monitorserver.dto.MetricColumns;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * 连续汇总 (rollup)：把 server_metrics 的原始点预先汇总成 1 分钟、1 小时两级，分别写入独立的桶，各自设置保留时长
+ *
+ * <p>一个月的曲线按 1 小时窗口只需读取每个字段 720 行汇总，不再每次聚合 50 万个原始点：</p>
+ * <ul>
+ *   <li>汇总：后台线程每隔 {@code interval} 执行 Flux 任务 (aggregateWindow + to)，在 InfluxDB 内部把
+ *       [水位, min(now, 写入完整水位) - lag) 的原始点汇总成每分钟的 min/max/sum/count/last，跨过整点后再由分钟汇总合并出小时汇总。
+ *       汇总按窗口开始时间写入，重复执行会覆盖同一个点，所以中断、重启后从水位继续即可</li>
+ *   <li>迟到数据：离线补发的样本早于水位时记下该 Agent 的最早时间，{@code lag} 之后、且这些样本已写入 InfluxDB
+ *       (写入完整水位越过其到达时间) 后只对这个 Agent 重新汇总</li>
+ *   <li>查询：窗口是某一级整数倍、且开始时间在该级覆盖范围内时选最粗的一级，水位之前读汇总，之后的部分照常查询；
+ *       聚合函数按汇总合并 (mean = Σsum / Σcount，max/min/last 取对应统计量)</li>
+ * </ul>
+ * <p>写入完整水位见 {@link MetricStore#durableWatermark()}：WAL 积压时水位不会越过还没写入 InfluxDB 的数据。
+ * 汇总只读取 server_metrics：双读旧结构期间 (monitor.storage.dual-read=true) 与嵌入式存储下不启用。
+ * 第一次启用时从 {@code backfill-days} 之前开始回填，每次最多推进 {@code max-step-hours}。</p>
+ */
+@Component
+public class RollupStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(RollupStore.class);
+
+    /**
+     * 汇总桶中的 measurement，标签只有 agent_id，字段为 "原字段_统计量"
+     */
+    public static final String MEASUREMENT = "server_metrics_rollup";
+
+    private static final long UNSET = Long.MIN_VALUE;
+
+    /**
+     * 汇总级别
+     */
+    enum Tier {
+        MINUTE(60), HOUR(3_600);
+
+        final long seconds;
+
+        Tier(long seconds) {
+            this.seconds = seconds;
+        }
+
+        long millis() {
+            return seconds * 1000;
+        }
+    }
+
+    private final InfluxDBClient influxDBClient;
+    private final MetricStore metricStore;
+    private final boolean active;
+    private final long minuteRetentionMillis;
+    private final long hourRetentionMillis;
+
+    @Value("${influx.bucket}")
+    private String rawBucket;
+
+    @Value("${influx.org}")
+    private String org;
+
+    @Value("${monitor.rollup.minute.bucket:monitor_bucket_1m}")
+    private String minuteBucket;
+
+    @Value("${monitor.rollup.hour.bucket:monitor_bucket_1h}")
+    private String hourBucket;
+
+    /**
+     * 汇总任务的执行间隔 (毫秒)
+     */
+    @Value("${monitor.rollup.interval:60000}")
+    private long intervalMillis;
+
+    /**
+     * 只汇总早于 min(now, 写入完整水位) - lag 的数据 (留出写入与上报的延迟)
+     */
+    @Value("${monitor.rollup.lag:120000}")
+    private long lagMillis;
+
+    @Value("${monitor.rollup.backfill-days:30}")
+    private long backfillDays;
+
+    @Value("${monitor.rollup.max-step-hours:6}")
+    private long maxStepHours;
+
+    /**
+     * 分钟汇总已完成到的时间 (不含)，按分钟对齐；小时汇总完成到其所在的整点
+     */
+    private volatile long watermark = UNSET;
+    /**
+     * 正在汇总的范围结束时间：早于它的样本可能赶不上本次汇总，按迟到数据处理
+     */
+    private volatile long processingTo = UNSET;
+    private volatile long minuteFrom = UNSET;
+    private volatile long hourFrom = UNSET;
+
+    /**
+     * 需要重新汇总的 Agent：agentId -> [最早的迟到时间, 最近一次标记时间]
+     */
+    private final Map<String, long[]> dirty = new ConcurrentHashMap<>();
+
+    private final AtomicLong passes = new AtomicLong();
+    private final AtomicLong recomputed = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong routed = new AtomicLong();
+    private final AtomicLong fallbacks = new AtomicLong();
+    private volatile String lastError;
+
+    private volatile boolean running;
+    private Thread worker;
+
+    @Autowired
+    public RollupStore(InfluxDBClient influxDBClient, MetricStore metricStore,
+                       @Value("${monitor.rollup.enabled:true}") boolean enabled,
+                       @Value("${monitor.storage.engine:influx}") String engine,
+                       @Value("${monitor.storage.dual-read:true}") boolean dualRead,
+                       @Value("${monitor.rollup.minute.retention-days:30}") long minuteRetentionDays,
+                       @Value("${monitor.rollup.hour.retention-days:730}") long hourRetentionDays) {
+        this(influxDBClient, metricStore, enabled && "influx".equalsIgnoreCase(engine) && !dualRead,
+                TimeUnit.DAYS.toMillis(minuteRetentionDays), TimeUnit.DAYS.toMillis(hourRetentionDays));
+    }
+
+    RollupStore(InfluxDBClient influxDBClient, MetricStore metricStore, boolean active,
+                long minuteRetentionMillis, long hourRetentionMillis) {
+        this.influxDBClient = influxDBClient;
+        this.metricStore = metricStore;
+        this.active = active;
+        this.minuteRetentionMillis = minuteRetentionMillis;
+        this.hourRetentionMillis = hourRetentionMillis;
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!active) {
+            return;
+        }
+        running = true;
+        worker = new Thread(this::runLoop, "metrics-rollup");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        running = false;
+        if (worker != null) {
+            worker.interrupt();
+            worker.join(TimeUnit.SECONDS.toMillis(10));
+        }
+    }
+
+    /**
+     * 记录迟到的样本 (上报线程调用)：落在已汇总或正在汇总的范围内的样本，让该 Agent 稍后重新汇总
+     */
+    public void markLate(List<IngestSample> samples) {
+        long until = processingTo;
+        if (!active || until == UNSET) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        for (IngestSample sample : samples) {
+            String agentId = sample.model().getAgentId();
+            long time = sample.timestampMillis();
+            if (agentId == null || time >= until) {
+                continue;
+            }
+            dirty.merge(agentId, new long[]{time, now},
+                    (a, b) -> new long[]{Math.min(a[0], b[0]), Math.max(a[1], b[1])});
+        }
+    }
+
+    /**
+     * 用汇总回答历史曲线查询：水位之前的窗口读汇总，之后的部分交给 tail (参数为剩余部分的开始时间)
+     *
+     * @return 没有可用的汇总级别 (窗口太细、开始时间超出覆盖范围、该 Agent 等待重新汇总) 时返回 null
+     */
+    public MetricColumns queryColumns(String agentId, List<String> fields, String start, String end,
+                                      AggregateWindow window, Function<String, MetricColumns> tail) {
+        long mark = watermark;
+        if (!active || mark == UNSET) {
+            return null;
+        }
+        long now = System.currentTimeMillis();
+        Long from = FluxTime.parse(start, "-1h", now);
+        Long to = FluxTime.parse(end, "now()", now);
+        if (from == null || to == null) {
+            return null;
+        }
+        to = Math.min(to, now);
+        if (dirty.containsKey(agentId)) {
+            fallbacks.incrementAndGet();
+            return null;
+        }
+        long w = window.millis();
+        for (Tier tier : new Tier[]{Tier.HOUR, Tier.MINUTE}) {
+            if (window.seconds() % tier.seconds != 0 || from < coveredFrom(tier, now)) {
+                continue;
+            }
+            long tierMark = Math.floorDiv(mark, tier.millis()) * tier.millis();
+            long split = Math.floorDiv(Math.min(tierMark, to), w) * w;
+            if (split <= from) {
+                continue;
+            }
+            routed.incrementAndGet();
+            MetricColumns head = queryTier(tier, agentId, fields, from, split, window);
+            if (split >= to) {
+                return head;
+            }
+            return concat(head, tail.apply(Instant.ofEpochMilli(split).toString()));
+        }
+        return null;
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("active", active);
+        stats.put("watermark", watermark == UNSET ? null : Instant.ofEpochMilli(watermark).toString());
+        stats.put("minuteFrom", minuteFrom == UNSET ? null : Instant.ofEpochMilli(minuteFrom).toString());
+        stats.put("hourFrom", hourFrom == UNSET ? null : Instant.ofEpochMilli(hourFrom).toString());
+        stats.put("dirtyAgents", dirty.size());
+        stats.put("passes", passes.get());
+        stats.put("recomputed", recomputed.get());
+        stats.put("failures", failures.get());
+        stats.put("lastError", lastError);
+        stats.put("routed", routed.get());
+        stats.put("fallbacks", fallbacks.get());
+        return stats;
+    }
+
+    /**
+     * 设置覆盖范围与水位 (启动时由已有的汇总推算，测试中直接设置)
+     */
+    void initialized(long minuteFrom, long hourFrom, long watermark) {
+        this.minuteFrom = minuteFrom;
+        this.hourFrom = hourFrom;
+        this.processingTo = watermark;
+        this.watermark = watermark;
+    }
+
+    /**
+     * 某一级汇总的覆盖起点：早于它的数据没有汇总或已超出该级的保留时长
+     */
+    private long coveredFrom(Tier tier, long now) {
+        return tier == Tier.MINUTE
+                ? Math.max(minuteFrom, now - minuteRetentionMillis)
+                : Math.max(hourFrom, now - hourRetentionMillis);
+    }
+
+    /**
+     * 从汇总桶读取 [from, to) 的窗口聚合，窗口时间与原始数据上的 aggregateWindow 相同 (窗口结束时间)
+     */
+    MetricColumns queryTier(Tier tier, String agentId, List<String> fields, long from, long to, AggregateWindow window) {
+        boolean mean = "mean".equals(window.fn());
+        StringBuilder fieldFilter = new StringBuilder();
+        for (String field : fields) {
+            for (String stat : mean ? List.of("sum", "count") : List.of(window.fn())) {
+                if (fieldFilter.length() > 0) {
+                    fieldFilter.append(" or ");
+                }
+                fieldFilter.append("r[\"_field\"] == \"").append(escape(field)).append('_').append(stat).append('"');
+            }
+        }
+        String flux = String.format(
+                "from(bucket: \"%s\") " +
+                        "|> range(start: %s, stop: %s) " +
+                        "|> filter(fn: (r) => r[\"_measurement\"] == \"%s\") " +
+                        "|> filter(fn: (r) => r[\"agent_id\"] == \"%s\") " +
+                        "|> filter(fn: (r) => %s) " +
+                        "|> keep(columns: [\"_start\", \"_stop\", \"_time\", \"_value\", \"_field\"]) " +
+                        "|> aggregateWindow(every: %ds, fn: %s, createEmpty: false) " +
+                        "|> group() " +
+                        "|> pivot(rowKey: [\"_time\"], columnKey: [\"_field\"], valueColumn: \"_value\") " +
+                        "|> sort(columns: [\"_time\"])",
+                bucketOf(tier), Instant.ofEpochMilli(from), Instant.ofEpochMilli(to), MEASUREMENT, escape(agentId),
+                fieldFilter, window.seconds(), mean ? "sum" : window.fn());
+
+        List<FluxTable> tables = influxDBClient.getQueryApi().query(flux, org);
+        int size = 0;
+        for (FluxTable table : tables) {
+            size += table.getRecords().size();
+        }
+        long[] times = new long[size];
+        double[][] values = new double[fields.size()][size];
+        int row = 0;
+        for (FluxTable table : tables) {
+            for (FluxRecord record : table.getRecords()) {
+                times[row] = record.getTime().toEpochMilli();
+                for (int f = 0; f < fields.size(); f++) {
+                    String field = fields.get(f);
+                    if (mean) {
+                        double sum = toDouble(record.getValueByKey(field + "_sum"));
+                        double count = toDouble(record.getValueByKey(field + "_count"));
+                        values[f][row] = count > 0 ? sum / count : Double.NaN;
+                    } else {
+                        values[f][row] = toDouble(record.getValueByKey(field + "_" + window.fn()));
+                    }
+                }
+                row++;
+            }
+        }
+        return new MetricColumns(fields, times, values);
+    }
+
+    private void runLoop() {
+        while (running) {
+            try {
+                if (watermark == UNSET) {
+                    initialize();
+                }
+                boolean behind = runPass();
+                recomputeDirty();
+                if (behind) {
+                    // 回填中：不等待，继续推进下一段
+                    continue;
+                }
+            } catch (RuntimeException e) {
+                failures.incrementAndGet();
+                lastError = e.getMessage();
+                logger.warn("汇总任务失败，稍后重试: {}", e.getMessage());
+            }
+            try {
+                Thread.sleep(intervalMillis);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * 创建 (或调整保留时长) 两个汇总桶，并由已有的汇总推算覆盖范围与水位
+     */
+    private void initialize() {
+        ensureBucket(minuteBucket, minuteRetentionMillis);
+        ensureBucket(hourBucket, hourRetentionMillis);
+        long minute = Tier.MINUTE.millis();
+        long hour = Tier.HOUR.millis();
+        long start = Math.floorDiv(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(backfillDays), hour) * hour;
+        Long firstMinute = boundary(minuteBucket, "first");
+        Long lastMinute = boundary(minuteBucket, "last");
+        Long firstHour = boundary(hourBucket, "first");
+        // 已有汇总：从最后一个分钟汇总所在的整点继续 (重复汇总只会覆盖)；没有汇总：从回填起点开始
+        long mark = lastMinute != null ? Math.floorDiv(lastMinute, hour) * hour : start;
+        initialized(firstMinute != null ? Math.floorDiv(firstMinute, minute) * minute : mark,
+                firstHour != null ? firstHour : mark, mark);
+        logger.info("汇总任务已启动: 水位={} 分钟汇总起点={} 小时汇总起点={}", Instant.ofEpochMilli(mark),
+                Instant.ofEpochMilli(minuteFrom), Instant.ofEpochMilli(hourFrom));
+    }
+
+    /**
+     * 推进一次水位：汇总 [水位, min(min(now, 写入完整水位) - lag, 水位 + max-step)) 的分钟汇总，以及其中完整的小时
+     *
+     * @return 推进后仍然落后 (回填中)
+     */
+    boolean runPass() {
+        long minute = Tier.MINUTE.millis();
+        long hour = Tier.HOUR.millis();
+        long from = watermark;
+        // 只汇总已写入 InfluxDB 的时间段：WAL 积压时停在排空水位之前，不把缺数据的分钟写进汇总
+        long written = Math.min(System.currentTimeMillis(), metricStore.durableWatermark());
+        long target = Math.floorDiv(written - lagMillis, minute) * minute;
+        long to = Math.min(target, from + TimeUnit.HOURS.toMillis(Math.max(1, maxStepHours)));
+        if (to <= from) {
+            return false;
+        }
+        processingTo = to;
+        execute(rollupFlux(Tier.MINUTE, from, to, null));
+        long hourStart = Math.floorDiv(from, hour) * hour;
+        long hourStop = Math.floorDiv(to, hour) * hour;
+        if (hourStop > hourStart) {
+            execute(rollupFlux(Tier.HOUR, hourStart, hourStop, null));
+        }
+        watermark = to;
+        passes.incrementAndGet();
+        return to < target;
+    }
+
+    /**
+     * 对收到迟到数据、最近 lag 内没有新的迟到数据、且迟到数据已写入 InfluxDB 的 Agent
+     * 重新汇总 [最早迟到时间所在的整点, 水位)
+     */
+    void recomputeDirty() {
+        long now = System.currentTimeMillis();
+        long hour = Tier.HOUR.millis();
+        long mark = watermark;
+        long written = metricStore.durableWatermark();
+        for (Map.Entry<String, long[]> entry : dirty.entrySet()) {
+            long[] range = entry.getValue();
+            if (now - range[1] < lagMillis || range[1] >= written) {
+                continue;
+            }
+            String agentId = entry.getKey();
+            long from = Math.floorDiv(Math.max(range[0], coveredFrom(Tier.MINUTE, now)), hour) * hour;
+            if (from < mark) {
+                execute(rollupFlux(Tier.MINUTE, from, mark, agentId));
+                long hourStop = Math.floorDiv(mark, hour) * hour;
+                if (hourStop > from) {
+                    execute(rollupFlux(Tier.HOUR, from, hourStop, agentId));
+                }
+            }
+            // 重新汇总期间又有迟到数据时保留标记，下一次再处理
+            dirty.remove(agentId, range);
+            recomputed.incrementAndGet();
+        }
+    }
+
+    /**
+     * 汇总任务：分钟汇总读原始数据，小时汇总读分钟汇总 (count 合并时求和)
+     *
+     * @param agentId 只汇总一个 Agent (重新汇总迟到数据)，null 表示全部
+     */
+    String rollupFlux(Tier tier, long from, long to, String agentId) {
+        boolean minute = tier == Tier.MINUTE;
+        StringBuilder flux = new StringBuilder("import \"strings\"\n");
+        flux.append("data = from(bucket: \"").append(escape(minute ? rawBucket : minuteBucket)).append("\") ")
+                .append("|> range(start: ").append(Instant.ofEpochMilli(from))
+                .append(", stop: ").append(Instant.ofEpochMilli(to)).append(") ")
+                .append("|> filter(fn: (r) => r[\"_measurement\"] == \"")
+                .append(minute ? MetricsLineEncoder.METRICS : MEASUREMENT).append("\") ");
+        if (agentId != null) {
+            flux.append("|> filter(fn: (r) => r[\"agent_id\"] == \"").append(escape(agentId)).append("\") ");
+        }
+        flux.append("|> keep(columns: [\"_start\", \"_stop\", \"_time\", \"_value\", \"_field\", \"_measurement\", \"agent_id\"]) ")
+                .append("|> toFloat()\n");
+        // 分钟汇总给字段名加上统计量后缀；小时汇总按后缀选出同一种统计量合并，字段名不变
+        flux.append("rollup = (tables=<-, agg, suffix) => tables ");
+        if (!minute) {
+            flux.append("|> filter(fn: (r) => strings.hasSuffix(v: r._field, suffix: suffix)) ");
+        }
+        flux.append("|> aggregateWindow(every: ").append(tier.seconds)
+                .append("s, fn: agg, createEmpty: false, timeSrc: \"_start\") ")
+                .append("|> toFloat() ")
+                .append("|> map(fn: (r) => ({r with _measurement: \"").append(MEASUREMENT).append("\", _field: ")
+                .append(minute ? "r._field + suffix" : "r._field").append("})) ")
+                .append("|> to(bucket: \"").append(escape(bucketOf(tier))).append("\", org: \"").append(escape(org))
+                .append("\", tagColumns: [\"agent_id\"])\n");
+        flux.append("data |> rollup(agg: min, suffix: \"_min\")\n")
+                .append("data |> rollup(agg: max, suffix: \"_max\")\n")
+                .append("data |> rollup(agg: sum, suffix: \"_sum\")\n")
+                .append("data |> rollup(agg: ").append(minute ? "count" : "sum").append(", suffix: \"_count\")\n")
+                .append("data |> rollup(agg: last, suffix: \"_last\")\n");
+        return flux.toString();
+    }
+
+    void execute(String flux) {
+        // to() 的结果表只用于确认执行完成，内容不需要
+        influxDBClient.getQueryApi().query(flux, org);
+    }
+
+    /**
+     * 汇总桶中第一个/最后一个汇总点的时间
+     *
+     * @param fn first 或 last
+     * @return 桶为空时返回 null
+     */
+    private Long boundary(String bucket, String fn) {
+        String flux = String.format(
+                "from(bucket: \"%s\") " +
+                        "|> range(start: 1970-01-01T00:00:00Z) " +
+                        "|> filter(fn: (r) => r[\"_measurement\"] == \"%s\") " +
+                        "|> filter(fn: (r) => r[\"_field\"] == \"cpu_load_count\") " +
+                        "|> group() " +
+                        "|> %s()",
+                escape(bucket), MEASUREMENT, fn);
+        for (FluxTable table : influxDBClient.getQueryApi().query(flux, org)) {
+            for (FluxRecord record : table.getRecords()) {
+                return record.getTime().toEpochMilli();
+            }
+        }
+        return null;
+    }
+
+    private void ensureBucket(String name, long retentionMillis) {
+        int seconds = (int) Math.min(Integer.MAX_VALUE, TimeUnit.MILLISECONDS.toSeconds(retentionMillis));
+        Bucket bucket = influxDBClient.getBucketsApi().findBucketByName(name);
+        if (bucket == null) {
+            Organization organization = influxDBClient.getOrganizationsApi().findOrganizations().stream()
+                    .filter(o -> org.equals(o.getName()))
+                    .findFirst()
+                    .orElseThrow(() -> new IllegalStateException("找不到 InfluxDB 组织: " + org));
+            influxDBClient.getBucketsApi().createBucket(name, new BucketRetentionRules().everySeconds(seconds),
+                    organization);
+            logger.info("已创建汇总桶: {} (保留 {} 天)", name, TimeUnit.SECONDS.toDays(seconds));
+            return;
+        }
+        List<BucketRetentionRules> rules = bucket.getRetentionRules();
+        if (rules.size() != 1 || !Integer.valueOf(seconds).equals(rules.get(0).getEverySeconds())) {
+            bucket.setRetentionRules(new ArrayList<>(List.of(new BucketRetentionRules().everySeconds(seconds))));
+            influxDBClient.getBucketsApi().updateBucket(bucket);
+            logger.info("已调整汇总桶的保留时长: {} ({} 天)", name, TimeUnit.SECONDS.toDays(seconds));
+        }
+    }
+
+    private String bucketOf(Tier tier) {
+        return tier == Tier.MINUTE ? minuteBucket : hourBucket;
+    }
+
+    /**
+     * 按时间顺序拼接汇总部分与之后的部分 (两者的窗口不重叠)
+     */
+    private static MetricColumns concat(MetricColumns head, MetricColumns tail) {
+        int size = head.size() + tail.size();
+        long[] times = new long[size];
+        System.arraycopy(head.times(), 0, times, 0, head.size());
+        System.arraycopy(tail.times(), 0, times, head.size(), tail.size());
+        double[][] values = new double[head.fields().size()][size];
+        for (int f = 0; f < values.length; f++) {
+            System.arraycopy(head.values()[f], 0, values[f], 0, head.size());
+            System.arraycopy(tail.values()[f], 0, values[f], head.size(), tail.size());
+        }
+        return new MetricColumns(head.fields(), times, values);
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("${", "\\${");
+    }
+
+    private static double toDouble(Object value) {
+        return value instanceof Number number ? number.doubleValue() : Double.NaN;
+    }
+}
@@ -0,0 +1,422 @@
+package com.xu.monitorserver.repository;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 嵌入式存储 ({@link EmbeddedMetricStore}) 中一个 Agent 一天 (UTC) 的段文件：内存映射、只追加、定长记录
+ *
+ * <pre>
+ * 偏移  类型        说明 (小端)
+ * 0     int32       魔数 "MSEG"
+ * 4     int32       版本 1
+ * 8     int32       字段数 F
+ * 12    int32       已提交的记录数：先写记录再更新，崩溃时写了一半的记录不计入
+ * 16    int64       最小时间 (epoch 毫秒)
+ * 24    int64       最大时间
+ * 32    int32       记录是否按时间严格递增 (1/0)
+ * 36    int32       字段名字节数
+ * 40    bytes       字段名 (UTF-8，逗号分隔)
+ * 512   记录 × N    int64 时间 + F × float64 (NaN 表示该时间点没有这个字段)
+ * </pre>
+ *
+ * <p>时间索引：头部的最小/最大时间用于跳过整段；有序段的定长记录直接按时间二分查找起点。
+ * 离线补发等乱序样本照常追加并把段标记为无序，读取无序段时先按时间排序、同一时间保留最后写入的记录
+ * (与 InfluxDB 同一时间戳覆盖的语义一致)，后台压缩 ({@link #compact()}) 时重写为有序段。</p>
+ *
+ * <p>读取不加锁：记录只追加，已提交的记录不会再修改；读取开始时取一次映射与记录数的快照，
+ * 扩容与压缩替换映射后，旧映射仍指向原来的数据。</p>
+ */
+final class SeriesSegment {
+
+    static final int MAGIC = 0x4745534D;
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 512;
+    private static final int INITIAL_RECORDS = 1024;
+
+    /**
+     * 按时间顺序逐行回调，values 在各行之间复用
+     */
+    @FunctionalInterface
+    interface RowVisitor {
+        void accept(long time, double[] values) throws IOException;
+    }
+
+    private final Path path;
+    private final long day;
+    private final int fieldCount;
+    private final int recordBytes;
+
+    private MappedByteBuffer buffer;
+    private int capacity;
+    private int count;
+    private long minTime;
+    private long maxTime;
+    private boolean sorted;
+    private boolean dirty;
+    private long lastWrite;
+    /**
+     * 已过期删除：不再追加，也不再刷盘
+     */
+    private boolean closed;
+
+    private SeriesSegment(Path path, long day, int fieldCount) {
+        this.path = path;
+        this.day = day;
+        this.fieldCount = fieldCount;
+        this.recordBytes = Long.BYTES + fieldCount * Double.BYTES;
+    }
+
+    /**
+     * 打开段文件，不存在时创建。字段与当前不一致 (新版本增加了字段) 的旧文件先按字段名转换成当前结构
+     *
+     * @param day 段对应的 UTC 日期零点 (epoch 毫秒)
+     */
+    static SeriesSegment open(Path path, long day, List<String> fields) throws IOException {
+        SeriesSegment segment = new SeriesSegment(path, day, fields.size());
+        if (!Files.exists(path)) {
+            segment.create(fields);
+            return segment;
+        }
+        List<String> stored = readFields(path);
+        if (!stored.equals(fields)) {
+            convert(path, stored, fields);
+        }
+        segment.load();
+        return segment;
+    }
+
+    private void create(List<String> fields) throws IOException {
+        byte[] names = String.join(",", fields).getBytes(StandardCharsets.UTF_8);
+        if (40 + names.length > HEADER_BYTES) {
+            throw new IllegalArgumentException("字段名超过段文件头部长度");
+        }
+        Files.createDirectories(path.getParent());
+        map(INITIAL_RECORDS);
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, VERSION);
+        buffer.putInt(8, fieldCount);
+        buffer.putInt(36, names.length);
+        buffer.put(40, names);
+        count = 0;
+        minTime = Long.MAX_VALUE;
+        maxTime = Long.MIN_VALUE;
+        sorted = true;
+        writeHeader();
+    }
+
+    private void load() throws IOException {
+        long size = Files.size(path);
+        int records = (int) Math.max(0, (size - HEADER_BYTES) / recordBytes);
+        map(Math.max(records, 1));
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION || buffer.getInt(8) != fieldCount) {
+            throw new IOException("不是有效的段文件: " + path);
+        }
+        count = Math.min(buffer.getInt(12), records);
+        minTime = buffer.getLong(16);
+        maxTime = buffer.getLong(24);
+        sorted = buffer.getInt(32) == 1;
+    }
+
+    private void map(int records) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES + (long) records * recordBytes);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            capacity = records;
+        }
+    }
+
+    private void writeHeader() {
+        buffer.putInt(12, count);
+        buffer.putLong(16, minTime);
+        buffer.putLong(24, maxTime);
+        buffer.putInt(32, sorted ? 1 : 0);
+    }
+
+    /**
+     * 追加一条记录
+     *
+     * @param row 当前结构下的全部字段 (长度为 F)
+     * @return 段已关闭 (过期删除) 时返回 false
+     */
+    synchronized boolean append(long time, double[] row) throws IOException {
+        if (closed) {
+            return false;
+        }
+        if (count == capacity) {
+            map(capacity * 2);
+        }
+        int offset = HEADER_BYTES + count * recordBytes;
+        buffer.putLong(offset, time);
+        for (int f = 0; f < fieldCount; f++) {
+            buffer.putDouble(offset + Long.BYTES + f * Double.BYTES, row[f]);
+        }
+        if (count > 0 && time <= maxTime) {
+            sorted = false;
+        }
+        count++;
+        minTime = Math.min(minTime, time);
+        maxTime = Math.max(maxTime, time);
+        writeHeader();
+        dirty = true;
+        lastWrite = System.currentTimeMillis();
+        return true;
+    }
+
+    /**
+     * 按时间顺序回调 [from, to) 内的记录
+     *
+     * @param fields 需要的字段在记录中的位置 (-1 表示不存在，回调中为 NaN)
+     * @return 回调的行数
+     */
+    long scan(long from, long to, int[] fields, RowVisitor visitor) throws IOException {
+        ByteBuffer data;
+        int n;
+        boolean ordered;
+        synchronized (this) {
+            if (closed || count == 0 || maxTime < from || minTime >= to) {
+                return 0;
+            }
+            data = buffer;
+            n = count;
+            ordered = sorted;
+        }
+        double[] values = new double[fields.length];
+        long rows = 0;
+        if (ordered) {
+            for (int i = lowerBound(data, n, from); i < n; i++) {
+                long time = timeAt(data, i);
+                if (time >= to) {
+                    break;
+                }
+                visitor.accept(time, read(data, i, fields, values));
+                rows++;
+            }
+            return rows;
+        }
+        for (int i : orderedRows(data, n, from, to)) {
+            visitor.accept(timeAt(data, i), read(data, i, fields, values));
+            rows++;
+        }
+        return rows;
+    }
+
+    /**
+     * 某个字段不早于 notBefore 的最新值
+     *
+     * @param out 输出 out[0] 为值
+     * @return 时间，没有时返回 Long.MIN_VALUE
+     */
+    long last(int field, long notBefore, double[] out) {
+        ByteBuffer data;
+        int n;
+        boolean ordered;
+        synchronized (this) {
+            if (closed || count == 0 || maxTime < notBefore) {
+                return Long.MIN_VALUE;
+            }
+            data = buffer;
+            n = count;
+            ordered = sorted;
+        }
+        long best = Long.MIN_VALUE;
+        // 倒序遍历：同一时间取最后写入的记录；有序段遇到第一个有值的记录即可结束
+        for (int i = n - 1; i >= 0; i--) {
+            long time = timeAt(data, i);
+            double value = valueAt(data, i, field);
+            if (ordered && time < notBefore) {
+                break;
+            }
+            if (time > best && time >= notBefore && !Double.isNaN(value)) {
+                best = time;
+                out[0] = value;
+                if (ordered) {
+                    break;
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * 无序段重写为有序段 (按时间排序，同一时间保留最后写入的记录)，写入临时文件后原子替换
+     *
+     * @return 是否执行了压缩
+     */
+    synchronized boolean compact() throws IOException {
+        if (sorted || closed) {
+            return false;
+        }
+        int[] rows = orderedRows(buffer, count, Long.MIN_VALUE, Long.MAX_VALUE);
+        Path tmp = path.resolveSibling(path.getFileName() + ".compact");
+        ByteBuffer out = ByteBuffer.allocate(HEADER_BYTES + rows.length * recordBytes).order(ByteOrder.LITTLE_ENDIAN);
+        out.put(0, buffer, 0, HEADER_BYTES);
+        for (int r = 0; r < rows.length; r++) {
+            out.put(HEADER_BYTES + r * recordBytes, buffer, HEADER_BYTES + rows[r] * recordBytes, recordBytes);
+        }
+        out.putInt(12, rows.length);
+        out.putLong(16, rows.length == 0 ? Long.MAX_VALUE : timeAt(buffer, rows[0]));
+        out.putLong(24, rows.length == 0 ? Long.MIN_VALUE : timeAt(buffer, rows[rows.length - 1]));
+        out.putInt(32, 1);
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (out.hasRemaining()) {
+                channel.write(out);
+            }
+            channel.force(true);
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        // 留出追加空间
+        map(Math.max(rows.length * 2, INITIAL_RECORDS));
+        count = rows.length;
+        minTime = buffer.getLong(16);
+        maxTime = buffer.getLong(24);
+        sorted = true;
+        dirty = false;
+        return true;
+    }
+
+    /**
+     * 把已写入映射的数据刷到磁盘
+     */
+    synchronized void force() {
+        if (dirty && !closed) {
+            buffer.force();
+            dirty = false;
+        }
+    }
+
+    /**
+     * 关闭段并释放映射 (删除文件之前调用)。JDK 没有显式解除映射的接口，映射在正在进行的读取结束后由 GC 回收
+     */
+    synchronized void close() {
+        closed = true;
+        dirty = false;
+        buffer = null;
+    }
+
+    long day() {
+        return day;
+    }
+
+    synchronized boolean isSorted() {
+        return sorted;
+    }
+
+    synchronized long lastWrite() {
+        return lastWrite;
+    }
+
+    synchronized int count() {
+        return count;
+    }
+
+    Path path() {
+        return path;
+    }
+
+    private long timeAt(ByteBuffer data, int row) {
+        return data.getLong(HEADER_BYTES + row * recordBytes);
+    }
+
+    private double valueAt(ByteBuffer data, int row, int field) {
+        return data.getDouble(HEADER_BYTES + row * recordBytes + Long.BYTES + field * Double.BYTES);
+    }
+
+    private double[] read(ByteBuffer data, int row, int[] fields, double[] values) {
+        for (int f = 0; f < fields.length; f++) {
+            values[f] = fields[f] < 0 ? Double.NaN : valueAt(data, row, fields[f]);
+        }
+        return values;
+    }
+
+    /**
+     * 有序段中第一条时间不早于 from 的记录
+     */
+    private int lowerBound(ByteBuffer data, int n, long from) {
+        int lo = 0;
+        int hi = n;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (timeAt(data, mid) < from) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * [from, to) 内的记录按时间排序，同一时间只保留最后写入的一条
+     */
+    private int[] orderedRows(ByteBuffer data, int n, long from, long to) {
+        // (时间, 写入顺序) 排序：按时间升序，同一时间写入顺序靠后的排在后面
+        long[][] keys = new long[n][];
+        int m = 0;
+        for (int i = 0; i < n; i++) {
+            long time = timeAt(data, i);
+            if (time >= from && time < to) {
+                keys[m++] = new long[]{time, i};
+            }
+        }
+        long[][] inRange = Arrays.copyOf(keys, m);
+        Arrays.sort(inRange, (a, b) -> a[0] != b[0] ? Long.compare(a[0], b[0]) : Long.compare(a[1], b[1]));
+        int[] rows = new int[m];
+        int k = 0;
+        for (int i = 0; i < m; i++) {
+            if (i + 1 < m && inRange[i + 1][0] == inRange[i][0]) {
+                continue;
+            }
+            rows[k++] = (int) inRange[i][1];
+        }
+        return Arrays.copyOf(rows, k);
+    }
+
+    private static List<String> readFields(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            while (header.hasRemaining() && channel.read(header) >= 0) {
+                // 读满头部
+            }
+            if (header.position() < HEADER_BYTES || header.getInt(0) != MAGIC) {
+                throw new IOException("不是有效的段文件: " + path);
+            }
+            int length = header.getInt(36);
+            byte[] names = new byte[Math.max(0, Math.min(length, HEADER_BYTES - 40))];
+            header.get(40, names);
+            String joined = new String(names, StandardCharsets.UTF_8);
+            return joined.isEmpty() ? List.of() : List.of(joined.split(","));
+        }
+    }
+
+    /**
+     * 旧结构的段文件按字段名转换成当前结构 (缺少的字段为 NaN)
+     */
+    private static void convert(Path path, List<String> stored, List<String> fields) throws IOException {
+        SeriesSegment old = new SeriesSegment(path, 0, stored.size());
+        old.load();
+        int[] mapping = new int[fields.size()];
+        for (int f = 0; f < fields.size(); f++) {
+            mapping[f] = stored.indexOf(fields.get(f));
+        }
+        Path tmp = path.resolveSibling(path.getFileName() + ".convert");
+        Files.deleteIfExists(tmp);
+        SeriesSegment converted = new SeriesSegment(tmp, 0, fields.size());
+        converted.create(fields);
+        old.scan(Long.MIN_VALUE, Long.MAX_VALUE, mapping, converted::append);
+        converted.force();
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -0,0 +1,90 @@
+package com.xu.monitorserver.repository;
+
+import com.xu.monitorserver.dto.MetricColumns;
+
+import java.util.List;
+
+/**
+ * 内存中的窗口聚合，结果与 Flux 的 aggregateWindow(createEmpty: false) + pivot 相同：
+ * 窗口按 epoch 对齐，以窗口结束时间 (不超过范围结束时间) 为点的时间，没有任何字段有数据的窗口不返回。
+ * 热层 ({@link HotTierStore}) 与嵌入式存储 ({@link EmbeddedMetricStore}) 共用
+ *
+ * <p>fn 为 last 时按调用顺序取最后一个值，调用方需按时间顺序添加。</p>
+ */
+final class WindowAggregator {
+
+    private final long first;
+    private final long windowMillis;
+    private final long stop;
+    private final String fn;
+    private final double[][] values;
+    private final int[][] counts;
+
+    /**
+     * @param from 范围开始 (epoch 毫秒，含)
+     * @param to   范围结束 (epoch 毫秒，不含)
+     */
+    WindowAggregator(int fieldCount, long from, long to, AggregateWindow window) {
+        this.windowMillis = window.millis();
+        this.first = Math.floorDiv(from, windowMillis) * windowMillis;
+        this.stop = to;
+        this.fn = window.fn();
+        int slots = (int) Math.max(0, Math.floorDiv(to - first + windowMillis - 1, windowMillis));
+        this.values = new double[fieldCount][slots];
+        this.counts = new int[fieldCount][slots];
+    }
+
+    void add(int field, long time, double value) {
+        long slot = Math.floorDiv(time - first, windowMillis);
+        if (slot < 0 || slot >= counts[field].length || Double.isNaN(value)) {
+            return;
+        }
+        int s = (int) slot;
+        double[] out = values[field];
+        if (counts[field][s] == 0) {
+            out[s] = value;
+        } else {
+            out[s] = switch (fn) {
+                case "mean" -> out[s] + value;
+                case "max" -> Math.max(out[s], value);
+                case "min" -> Math.min(out[s], value);
+                default -> value;
+            };
+        }
+        counts[field][s]++;
+    }
+
+    MetricColumns toColumns(List<String> fields) {
+        int slots = counts.length == 0 ? 0 : counts[0].length;
+        boolean[] present = new boolean[slots];
+        int rows = 0;
+        for (int s = 0; s < slots; s++) {
+            for (int[] fieldCounts : counts) {
+                if (fieldCounts[s] > 0) {
+                    present[s] = true;
+                    rows++;
+                    break;
+                }
+            }
+        }
+        long[] times = new long[rows];
+        double[][] result = new double[fields.size()][rows];
+        int row = 0;
+        for (int s = 0; s < slots; s++) {
+            if (!present[s]) {
+                continue;
+            }
+            times[row] = Math.min(first + (s + 1) * windowMillis, stop);
+            for (int f = 0; f < fields.size(); f++) {
+                int count = counts[f][s];
+                if (count == 0) {
+                    result[f][row] = Double.NaN;
+                } else {
+                    result[f][row] = "mean".equals(fn) ? values[f][s] / count : values[f][s];
+                }
+            }
+            row++;
+        }
+        return new MetricColumns(fields, times, result);
+    }
+}
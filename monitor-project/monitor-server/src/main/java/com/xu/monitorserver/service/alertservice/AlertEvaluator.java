@@ -0,0 +1,369 @@
+package com.xu.monitorserver.service.alertservice;
+
+import com.xu.monitorserver.dto.IngestSample;
+import com.xu.monitorserver.entity.AlertRule;
+import com.xu.monitorserver.repository.MetricsLineEncoder;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * 告警规则的增量评估：每个样本到达时只更新该 Agent 各规则的滑动窗口，不查询时序存储
+ *
+ * <ul>
+ *   <li>窗口：每个 (规则, Agent) 一个，保留最近 {@code durationSeconds} 内的样本。aggregation=all 只需记录最近一次
+ *       不满足条件的时间；avg/max/min 使用基本类型数组的环形缓冲区 (avg 维护累加和)</li>
+ *   <li>触发：连续观测满 durationSeconds 且窗口满足条件时触发；窗口不再满足条件时恢复</li>
+ *   <li>乱序：早于该 Agent 最近样本的样本 (离线补发) 不参与评估；两个样本间隔超过 {@code gap} 时清空窗口重新观测</li>
+ *   <li>规则变更：定义不变的规则保留窗口与触发状态；被修改、删除或停用的规则在该 Agent 下一个样本到达时恢复</li>
+ * </ul>
+ * <p>同一个 Agent 的样本在该 Agent 的状态对象上串行评估，不同 Agent 之间没有竞争。</p>
+ */
+final class AlertEvaluator {
+
+    static final List<String> OPERATORS = List.of(">", ">=", "<", "<=");
+    static final List<String> AGGREGATIONS = List.of("all", "avg", "max", "min");
+
+    private static final int ALL = 0;
+    private static final int AVG = 1;
+    private static final int MAX = 2;
+    private static final int MIN = 3;
+    private static final long NONE = Long.MIN_VALUE;
+    private static final int INITIAL_CAPACITY = 8;
+
+    /**
+     * 单个窗口的最多样本数 (超出后丢弃最旧的样本)
+     */
+    private final int maxWindowPoints;
+    private final long gapMillis;
+
+    private volatile RuleSet ruleSet = new RuleSet(0, new CompiledRule[0], new String[0]);
+    private final Map<String, AgentState> agents = new ConcurrentHashMap<>();
+    /**
+     * 重启前仍在触发中的 (规则, Agent)：创建对应窗口时直接置为触发状态，条件不再满足时产生恢复事件
+     */
+    private final Set<String> restoredFiring = ConcurrentHashMap.newKeySet();
+
+    private final AtomicInteger firing = new AtomicInteger();
+    private final AtomicLong evaluated = new AtomicLong();
+    private final AtomicLong outOfOrder = new AtomicLong();
+
+    AlertEvaluator(int maxWindowPoints, long gapMillis) {
+        this.maxWindowPoints = maxWindowPoints;
+        this.gapMillis = gapMillis;
+    }
+
+    /**
+     * 替换规则集 (只保留启用且定义合法的规则)；各 Agent 的窗口在其下一个样本到达时按新规则集重建
+     */
+    void setRules(List<AlertRule> rules) {
+        Map<String, Integer> fields = new LinkedHashMap<>();
+        List<CompiledRule> compiled = new ArrayList<>();
+        for (AlertRule rule : rules) {
+            int operator = OPERATORS.indexOf(rule.getOperator());
+            int aggregation = AGGREGATIONS.indexOf(rule.getAggregation() == null ? "all" : rule.getAggregation());
+            if (rule.getEnabled() == null || rule.getEnabled() != 1 || operator < 0 || aggregation < 0
+                    || rule.getThreshold() == null || !MetricsLineEncoder.METRIC_FIELDS.contains(rule.getMetric())) {
+                continue;
+            }
+            int field = fields.computeIfAbsent(rule.getMetric(), name -> fields.size());
+            long duration = rule.getDurationSeconds() == null ? 0 : Math.max(0, rule.getDurationSeconds()) * 1000L;
+            compiled.add(new CompiledRule(rule, field, operator, rule.getThreshold(), duration, aggregation));
+        }
+        RuleSet previous = ruleSet;
+        ruleSet = new RuleSet(previous.version() + 1, compiled.toArray(new CompiledRule[0]),
+                fields.keySet().toArray(new String[0]));
+    }
+
+    /**
+     * 恢复重启前仍在触发中的告警
+     *
+     * @param keys {@link #key} 的列表
+     */
+    void restoreFiring(Collection<String> keys) {
+        restoredFiring.addAll(keys);
+    }
+
+    static String key(long ruleId, String agentId) {
+        return ruleId + ":" + agentId;
+    }
+
+    /**
+     * 评估一个样本 (上报线程调用)，状态变化交给 out
+     */
+    void evaluate(IngestSample sample, Consumer<AlertTransition> out) {
+        String agentId = sample.model().getAgentId();
+        if (agentId == null) {
+            return;
+        }
+        RuleSet set = ruleSet;
+        AgentState state = set.rules().length > 0
+                ? agents.computeIfAbsent(agentId, id -> new AgentState())
+                : agents.get(agentId);
+        if (state == null) {
+            return;
+        }
+        long time = sample.timestampMillis();
+        synchronized (state) {
+            if (state.version != set.version()) {
+                state.remap(set, agentId, time, out);
+            }
+            if (time <= state.lastTime) {
+                outOfOrder.incrementAndGet();
+                return;
+            }
+            boolean gap = state.lastTime != NONE && time - state.lastTime > gapMillis;
+            state.lastTime = time;
+            for (int f = 0; f < set.fields().length; f++) {
+                state.values[f] = MetricsLineEncoder.metricValue(sample, set.fields()[f]);
+            }
+            for (RuleWindow window : state.windows) {
+                if (window == null) {
+                    continue;
+                }
+                if (gap) {
+                    window.clear();
+                }
+                double value = state.values[window.rule.field()];
+                if (Double.isNaN(value)) {
+                    continue;
+                }
+                window.add(time, value);
+                boolean breached = window.breached();
+                if (!window.firing && breached && time - window.since >= window.rule.durationMillis()) {
+                    window.firing = true;
+                    firing.incrementAndGet();
+                    out.accept(new AlertTransition(window.rule.rule(), agentId, true, window.aggregate(), time));
+                } else if (window.firing && !breached) {
+                    window.firing = false;
+                    firing.decrementAndGet();
+                    out.accept(new AlertTransition(window.rule.rule(), agentId, false, window.aggregate(), time));
+                }
+            }
+            evaluated.incrementAndGet();
+        }
+    }
+
+    Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("rules", ruleSet.rules().length);
+        stats.put("agents", agents.size());
+        stats.put("firing", firing.get());
+        stats.put("evaluated", evaluated.get());
+        stats.put("outOfOrder", outOfOrder.get());
+        return stats;
+    }
+
+    /**
+     * 编译后的规则
+     *
+     * @param field          在 {@link RuleSet#fields()} 中的下标
+     * @param durationMillis 持续时间
+     */
+    private record CompiledRule(AlertRule rule, int field, int operator, double threshold, long durationMillis,
+                                int aggregation) {
+
+        boolean matches(double value) {
+            return switch (operator) {
+                case 0 -> value > threshold;
+                case 1 -> value >= threshold;
+                case 2 -> value < threshold;
+                default -> value <= threshold;
+            };
+        }
+
+        /**
+         * 影响窗口状态的定义 (名称、级别的修改不重置窗口)
+         */
+        String signature() {
+            return rule.getId() + "|" + rule.getMetric() + "|" + operator + "|" + threshold + "|" + durationMillis
+                    + "|" + aggregation + "|" + rule.getAgentId();
+        }
+
+        boolean appliesTo(String agentId) {
+            return rule.getAgentId() == null || rule.getAgentId().isBlank() || rule.getAgentId().equals(agentId);
+        }
+    }
+
+    /**
+     * 不可变的规则集快照，version 变化时各 Agent 重建窗口
+     */
+    private record RuleSet(long version, CompiledRule[] rules, String[] fields) {
+    }
+
+    private final class AgentState {
+
+        private long version = -1;
+        private long lastTime = NONE;
+        private RuleWindow[] windows = new RuleWindow[0];
+        private double[] values = new double[0];
+
+        /**
+         * 按新规则集重建窗口：定义不变的规则沿用原窗口，消失的规则若仍在触发则产生恢复事件
+         */
+        void remap(RuleSet set, String agentId, long time, Consumer<AlertTransition> out) {
+            Map<String, RuleWindow> previous = new HashMap<>();
+            for (RuleWindow window : windows) {
+                if (window != null) {
+                    previous.put(window.rule.signature(), window);
+                }
+            }
+            RuleWindow[] next = new RuleWindow[set.rules().length];
+            for (int i = 0; i < next.length; i++) {
+                CompiledRule rule = set.rules()[i];
+                if (!rule.appliesTo(agentId)) {
+                    continue;
+                }
+                RuleWindow window = previous.remove(rule.signature());
+                if (window == null) {
+                    window = new RuleWindow(rule);
+                    if (restoredFiring.remove(key(rule.rule().getId(), agentId))) {
+                        window.firing = true;
+                        firing.incrementAndGet();
+                    }
+                } else {
+                    window.rule = rule;
+                }
+                next[i] = window;
+            }
+            for (RuleWindow removed : previous.values()) {
+                if (removed.firing) {
+                    firing.decrementAndGet();
+                    out.accept(new AlertTransition(removed.rule.rule(), agentId, false, Double.NaN, time));
+                }
+            }
+            windows = next;
+            values = new double[set.fields().length];
+            version = set.version();
+        }
+    }
+
+    /**
+     * 一个 (规则, Agent) 的滑动窗口
+     */
+    private final class RuleWindow {
+
+        private CompiledRule rule;
+        private boolean firing;
+        /**
+         * 连续观测的起点 (清空窗口后重新计算)
+         */
+        private long since = NONE;
+        private long latestTime = NONE;
+        private double latest = Double.NaN;
+        /**
+         * aggregation=all：最近一次不满足条件的样本时间
+         */
+        private long lastMiss = NONE;
+
+        // avg/max/min：环形缓冲区
+        private long[] times;
+        private double[] samples;
+        private int head;
+        private int size;
+        private double sum;
+
+        RuleWindow(CompiledRule rule) {
+            this.rule = rule;
+            if (rule.aggregation() != ALL) {
+                times = new long[INITIAL_CAPACITY];
+                samples = new double[INITIAL_CAPACITY];
+            }
+        }
+
+        void add(long time, double value) {
+            if (since == NONE) {
+                since = time;
+            }
+            latestTime = time;
+            latest = value;
+            if (rule.aggregation() == ALL) {
+                if (!rule.matches(value)) {
+                    lastMiss = time;
+                }
+                return;
+            }
+            long retainFrom = time - rule.durationMillis();
+            while (size > 0 && times[head] < retainFrom) {
+                evictOldest();
+            }
+            if (size == times.length) {
+                if (size < maxWindowPoints) {
+                    grow();
+                } else {
+                    evictOldest();
+                }
+            }
+            int tail = (head + size) % times.length;
+            times[tail] = time;
+            samples[tail] = value;
+            size++;
+            sum += value;
+        }
+
+        boolean breached() {
+            if (rule.aggregation() == ALL) {
+                return latestTime != NONE && (lastMiss == NONE || lastMiss < latestTime - rule.durationMillis());
+            }
+            return size > 0 && rule.matches(aggregate());
+        }
+
+        /**
+         * 窗口值：all 为最新样本值，avg/max/min 为窗口内样本的平均/最大/最小值
+         */
+        double aggregate() {
+            if (rule.aggregation() == ALL || size == 0) {
+                return latest;
+            }
+            if (rule.aggregation() == AVG) {
+                return sum / size;
+            }
+            double result = samples[head];
+            for (int i = 1; i < size; i++) {
+                double value = samples[(head + i) % samples.length];
+                result = rule.aggregation() == MAX ? Math.max(result, value) : Math.min(result, value);
+            }
+            return result;
+        }
+
+        void clear() {
+            since = NONE;
+            lastMiss = NONE;
+            head = 0;
+            size = 0;
+            sum = 0;
+        }
+
+        private void evictOldest() {
+            sum -= samples[head];
+            head = (head + 1) % times.length;
+            size--;
+            if (size == 0) {
+                // 清零累加和，避免长期加减的浮点误差
+                sum = 0;
+            }
+        }
+
+        private void grow() {
+            int capacity = Math.min(maxWindowPoints, times.length * 2);
+            long[] t = new long[capacity];
+            double[] v = new double[capacity];
+            for (int i = 0; i < size; i++) {
+                t[i] = times[(head + i) % times.length];
+                v[i] = samples[(head + i) % samples.length];
+            }
+            times = t;
+            samples = v;
+            head = 0;
+        }
+    }
+}
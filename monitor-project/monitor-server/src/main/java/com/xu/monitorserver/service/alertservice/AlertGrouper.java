@@ -0,0 +1,192 @@
+package com.xu.monitorserver.service.alertservice;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 告警通知的分组、去重与抑制抖动 (只由 {@link AlertNotifier} 的分发线程调用，不需要同步)
+ *
+ * <ul>
+ *   <li>分组：按规则 (或规则 + Agent) 分组，分组中第一条状态变化到达后等待 {@code groupWait} 再合并成一条通知；
+ *       分组达到 {@code maxGroupSize} 时立即发出</li>
+ *   <li>去重：与上次通知的状态相同的变化不再通知；还没发出的触发在等待期间恢复 (或反过来) 时两条一起撤销</li>
+ *   <li>抖动：{@code flapWindow} 内状态变化超过 {@code flapThreshold} 次的 (规则, Agent) 进入抖动状态，暂停通知；
+ *       窗口内的变化降到阈值一半以下时退出，如果最终状态与上次通知的不同再补发一条</li>
+ * </ul>
+ */
+final class AlertGrouper {
+
+    private static final long CLEANUP_INTERVAL = 60_000;
+
+    private final long groupWaitMillis;
+    private final int maxGroupSize;
+    private final long flapWindowMillis;
+    private final int flapThreshold;
+    private final boolean groupByAgent;
+
+    private final Map<String, Tracker> trackers = new HashMap<>();
+    private final Map<String, Group> groups = new LinkedHashMap<>();
+    private final Set<Tracker> flapping = new HashSet<>();
+    private long nextCleanup;
+
+    private long duplicates;
+    private long cancelled;
+    private long flapSuppressed;
+
+    AlertGrouper(long groupWaitMillis, int maxGroupSize, long flapWindowMillis, int flapThreshold,
+                 boolean groupByAgent) {
+        this.groupWaitMillis = groupWaitMillis;
+        this.maxGroupSize = Math.max(1, maxGroupSize);
+        this.flapWindowMillis = flapWindowMillis;
+        this.flapThreshold = flapThreshold;
+        this.groupByAgent = groupByAgent;
+    }
+
+    void offer(AlertTransition transition, long now) {
+        String key = AlertEvaluator.key(transition.rule().getId(), transition.agentId());
+        Tracker tracker = trackers.computeIfAbsent(key, Tracker::new);
+        tracker.latest = transition;
+        tracker.changes.addLast(now);
+        prune(tracker, now);
+
+        if (flapThreshold > 0 && tracker.changes.size() > flapThreshold && !tracker.flapping) {
+            tracker.flapping = true;
+            flapping.add(tracker);
+            withdraw(tracker);
+        }
+        if (tracker.flapping) {
+            flapSuppressed++;
+            return;
+        }
+        if (tracker.group != null) {
+            // 等待期间状态又变回去了：两条变化相互抵消
+            withdraw(tracker);
+            cancelled++;
+        } else if (tracker.sent != null && tracker.sent == transition.firing()) {
+            duplicates++;
+        } else {
+            enqueue(tracker, now);
+        }
+    }
+
+    /**
+     * 取出到期的分组 (同时处理退出抖动状态的告警)
+     */
+    List<AlertNotification> poll(long now) {
+        for (Iterator<Tracker> it = flapping.iterator(); it.hasNext(); ) {
+            Tracker tracker = it.next();
+            prune(tracker, now);
+            if (tracker.changes.size() <= flapThreshold / 2) {
+                it.remove();
+                tracker.flapping = false;
+                boolean firing = tracker.latest.firing();
+                if (tracker.sent == null ? firing : tracker.sent != firing) {
+                    enqueue(tracker, now);
+                }
+            }
+        }
+
+        List<AlertNotification> due = new ArrayList<>();
+        for (Iterator<Group> it = groups.values().iterator(); it.hasNext(); ) {
+            Group group = it.next();
+            if (now - group.createdAt < groupWaitMillis && group.items.size() < maxGroupSize) {
+                continue;
+            }
+            it.remove();
+            List<AlertTransition> alerts = new ArrayList<>(group.items.size());
+            for (Tracker tracker : group.items.values()) {
+                alerts.add(tracker.latest);
+                tracker.sent = tracker.latest.firing();
+                tracker.group = null;
+            }
+            due.add(new AlertNotification(group.key, alerts.get(alerts.size() - 1).rule(), alerts, now));
+        }
+
+        if (now >= nextCleanup) {
+            nextCleanup = now + CLEANUP_INTERVAL;
+            // 已恢复且不再变化的告警不需要继续跟踪
+            trackers.values().removeIf(tracker -> {
+                prune(tracker, now);
+                return tracker.group == null && !tracker.flapping && tracker.changes.isEmpty()
+                        && !Boolean.TRUE.equals(tracker.sent);
+            });
+        }
+        return due;
+    }
+
+    Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("tracked", trackers.size());
+        stats.put("pendingGroups", groups.size());
+        stats.put("flapping", flapping.size());
+        stats.put("duplicates", duplicates);
+        stats.put("cancelled", cancelled);
+        stats.put("flapSuppressed", flapSuppressed);
+        return stats;
+    }
+
+    private void enqueue(Tracker tracker, long now) {
+        AlertTransition transition = tracker.latest;
+        String key = "rule:" + transition.rule().getId() + (groupByAgent ? ":agent:" + transition.agentId() : "");
+        Group group = groups.computeIfAbsent(key, k -> new Group(k, now));
+        group.items.put(tracker.key, tracker);
+        tracker.group = group;
+    }
+
+    private void withdraw(Tracker tracker) {
+        Group group = tracker.group;
+        if (group == null) {
+            return;
+        }
+        group.items.remove(tracker.key);
+        if (group.items.isEmpty()) {
+            groups.remove(group.key);
+        }
+        tracker.group = null;
+    }
+
+    private void prune(Tracker tracker, long now) {
+        while (!tracker.changes.isEmpty() && tracker.changes.peekFirst() <= now - flapWindowMillis) {
+            tracker.changes.pollFirst();
+        }
+    }
+
+    /**
+     * 一个 (规则, Agent) 的通知状态
+     */
+    private static final class Tracker {
+
+        private final String key;
+        private final ArrayDeque<Long> changes = new ArrayDeque<>();
+        private AlertTransition latest;
+        /**
+         * 上次通知的状态，null 表示还没通知过 (服务端重启前的状态未知)
+         */
+        private Boolean sent;
+        private Group group;
+        private boolean flapping;
+
+        Tracker(String key) {
+            this.key = key;
+        }
+    }
+
+    private static final class Group {
+
+        private final String key;
+        private final long createdAt;
+        private final Map<String, Tracker> items = new LinkedHashMap<>();
+
+        Group(String key, long createdAt) {
+            this.key = key;
+            this.createdAt = createdAt;
+        }
+    }
+}
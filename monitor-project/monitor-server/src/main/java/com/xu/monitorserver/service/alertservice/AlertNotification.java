@@ -0,0 +1,55 @@
+package com.xu.monitorserver.service.alertservice;
+
+import com.xu.monitorserver.entity.AlertRule;
+
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * 一条合并后的告警通知：同一分组在等待时间内的状态变化
+ *
+ * @param groupKey  分组键 (见 {@link AlertGrouper})
+ * @param rule      规则 (分组中最新的快照)
+ * @param alerts    状态变化，每个 (规则, Agent) 只保留最新的一条
+ * @param createdAt 生成时间 (epoch 毫秒)
+ */
+public record AlertNotification(String groupKey, AlertRule rule, List<AlertTransition> alerts, long createdAt) {
+
+    public int firingCount() {
+        int count = 0;
+        for (AlertTransition alert : alerts) {
+            if (alert.firing()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public int resolvedCount() {
+        return alerts.size() - firingCount();
+    }
+
+    /**
+     * 标题，如 [WARNING] CPU 持续过高: 3 个触发, 1 个恢复
+     */
+    public String title() {
+        return String.format("[%s] %s: %d 个触发, %d 个恢复", rule.getSeverity(), rule.getName(),
+                firingCount(), resolvedCount());
+    }
+
+    /**
+     * 纯文本正文 (日志、邮件)
+     */
+    public String text() {
+        StringBuilder out = new StringBuilder(title()).append('\n')
+                .append("条件: ").append(rule.getMetric()).append(' ').append(rule.getOperator()).append(' ')
+                .append(rule.getThreshold()).append(", 持续 ").append(rule.getDurationSeconds()).append(" 秒 (")
+                .append(rule.getAggregation()).append(")\n");
+        for (AlertTransition alert : alerts) {
+            out.append(alert.firing() ? "FIRING   " : "RESOLVED ").append(alert.agentId())
+                    .append(" 值=").append(Double.isNaN(alert.value()) ? "-" : alert.value())
+                    .append(" 时间=").append(Instant.ofEpochMilli(alert.time())).append('\n');
+        }
+        return out.toString();
+    }
+}
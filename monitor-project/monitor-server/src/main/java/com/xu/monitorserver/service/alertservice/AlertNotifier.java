@@ -0,0 +1,269 @@
+package com.xu.monitorserver.service.alertservice;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 告警通知分发：把告警状态变化分组、去重、抑制抖动后 (见 {@link AlertGrouper})，合并成通知交给各个渠道。
+ *
+ * <p>状态变化先进入有界队列 (满了丢弃并计数)，由一个分发线程处理；每个渠道有自己的发送线程：</p>
+ * <ul>
+ *     <li>限流：令牌桶，每分钟最多 {@link NotificationChannel#ratePerMinute()} 条，超出时延后发送</li>
+ *     <li>重试：发送失败按指数退避重试，最多 max-attempts 次；等待发送的通知超过 max-pending 时丢弃新的通知</li>
+ * </ul>
+ * <p>一个渠道变慢或不可用不影响其他渠道，也不影响告警评估与事件写入。</p>
+ */
+@Service
+public class AlertNotifier {
+
+    private static final Logger logger = LoggerFactory.getLogger(AlertNotifier.class);
+
+    private static final long MAX_BACKOFF_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+    private final List<ChannelSender> senders = new ArrayList<>();
+    private final AlertGrouper grouper;
+    private final BlockingQueue<AlertTransition> queue;
+    private final int maxAttempts;
+    private final long retryBackoffMillis;
+    private final int maxPending;
+
+    private final AtomicLong received = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong notifications = new AtomicLong();
+    private volatile Map<String, Object> grouperStats = Map.of();
+
+    private volatile boolean running;
+    private Thread worker;
+
+    @Autowired
+    public AlertNotifier(List<NotificationChannel> channels,
+                         @Value("${monitor.alert.notify.queue-capacity:10000}") int queueCapacity,
+                         @Value("${monitor.alert.notify.group-wait:30000}") long groupWaitMillis,
+                         @Value("${monitor.alert.notify.group-by:rule}") String groupBy,
+                         @Value("${monitor.alert.notify.max-group-size:100}") int maxGroupSize,
+                         @Value("${monitor.alert.notify.flap-window:600000}") long flapWindowMillis,
+                         @Value("${monitor.alert.notify.flap-threshold:4}") int flapThreshold,
+                         @Value("${monitor.alert.notify.max-attempts:5}") int maxAttempts,
+                         @Value("${monitor.alert.notify.retry-backoff:2000}") long retryBackoffMillis,
+                         @Value("${monitor.alert.notify.max-pending:1000}") int maxPending) {
+        this(channels, new AlertGrouper(groupWaitMillis, maxGroupSize, flapWindowMillis, flapThreshold,
+                        "rule-agent".equalsIgnoreCase(groupBy)),
+                queueCapacity, maxAttempts, retryBackoffMillis, maxPending);
+    }
+
+    AlertNotifier(List<NotificationChannel> channels, AlertGrouper grouper, int queueCapacity, int maxAttempts,
+                  long retryBackoffMillis, int maxPending) {
+        this.grouper = grouper;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.retryBackoffMillis = retryBackoffMillis;
+        this.maxPending = maxPending;
+        for (NotificationChannel channel : channels) {
+            if (channel.enabled()) {
+                senders.add(new ChannelSender(channel));
+            }
+        }
+    }
+
+    @PostConstruct
+    public void start() {
+        running = true;
+        worker = new Thread(this::runLoop, "alert-notify");
+        worker.setDaemon(true);
+        worker.start();
+        logger.info("告警通知渠道: {}", senders.stream().map(sender -> sender.channel.name()).toList());
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        running = false;
+        if (worker != null) {
+            worker.interrupt();
+            worker.join(TimeUnit.SECONDS.toMillis(10));
+        }
+        for (ChannelSender sender : senders) {
+            sender.executor.shutdownNow();
+        }
+    }
+
+    /**
+     * 提交一次状态变化 (不阻塞)
+     */
+    public void submit(AlertTransition transition) {
+        if (senders.isEmpty()) {
+            return;
+        }
+        received.incrementAndGet();
+        if (!queue.offer(transition)) {
+            dropped.incrementAndGet();
+        }
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>(grouperStats);
+        stats.put("received", received.get());
+        stats.put("queued", queue.size());
+        stats.put("dropped", dropped.get());
+        stats.put("notifications", notifications.get());
+        Map<String, Object> channels = new LinkedHashMap<>();
+        for (ChannelSender sender : senders) {
+            channels.put(sender.channel.name(), sender.stats());
+        }
+        stats.put("channels", channels);
+        return stats;
+    }
+
+    private void runLoop() {
+        List<AlertTransition> batch = new ArrayList<>();
+        while (running) {
+            try {
+                AlertTransition first = queue.poll(500, TimeUnit.MILLISECONDS);
+                long now = System.currentTimeMillis();
+                if (first != null) {
+                    batch.add(first);
+                    queue.drainTo(batch);
+                    for (AlertTransition transition : batch) {
+                        grouper.offer(transition, now);
+                    }
+                    batch.clear();
+                }
+                for (AlertNotification notification : grouper.poll(now)) {
+                    notifications.incrementAndGet();
+                    for (ChannelSender sender : senders) {
+                        sender.submit(notification);
+                    }
+                }
+                grouperStats = grouper.stats();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                logger.warn("告警通知分发失败: {}", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 一个渠道的发送线程：令牌桶限流 + 指数退避重试 (令牌桶只在该线程中访问)
+     */
+    private final class ChannelSender {
+
+        private final NotificationChannel channel;
+        private final ScheduledExecutorService executor;
+        private final AtomicInteger pending = new AtomicInteger();
+        private final AtomicLong sent = new AtomicLong();
+        private final AtomicLong failed = new AtomicLong();
+        private final AtomicLong retries = new AtomicLong();
+        private final AtomicLong rateLimited = new AtomicLong();
+        private final AtomicLong overflow = new AtomicLong();
+        private volatile String lastError;
+
+        private double tokens;
+        private long refilledAt = System.currentTimeMillis();
+
+        ChannelSender(NotificationChannel channel) {
+            this.channel = channel;
+            this.tokens = channel.ratePerMinute();
+            this.executor = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "alert-notify-" + channel.name());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+
+        void submit(AlertNotification notification) {
+            if (pending.incrementAndGet() > maxPending) {
+                pending.decrementAndGet();
+                overflow.incrementAndGet();
+                return;
+            }
+            schedule(() -> attempt(notification, 1), 0);
+        }
+
+        private void attempt(AlertNotification notification, int attempt) {
+            long wait = acquire();
+            if (wait > 0) {
+                rateLimited.incrementAndGet();
+                schedule(() -> attempt(notification, attempt), wait);
+                return;
+            }
+            try {
+                channel.send(notification);
+                sent.incrementAndGet();
+                pending.decrementAndGet();
+            } catch (Exception e) {
+                lastError = e.getMessage();
+                if (attempt >= maxAttempts) {
+                    failed.incrementAndGet();
+                    pending.decrementAndGet();
+                    logger.warn("告警通知发送失败，已放弃: channel={} group={} attempts={} error={}",
+                            channel.name(), notification.groupKey(), attempt, e.getMessage());
+                    return;
+                }
+                retries.incrementAndGet();
+                long backoff = Math.min(MAX_BACKOFF_MILLIS, retryBackoffMillis << Math.min(attempt - 1, 20));
+                schedule(() -> attempt(notification, attempt + 1), backoff);
+            }
+        }
+
+        /**
+         * 取一个令牌
+         *
+         * @return 需要等待的毫秒数，0 表示可以立即发送
+         */
+        private long acquire() {
+            int rate = channel.ratePerMinute();
+            if (rate <= 0) {
+                return 0;
+            }
+            long now = System.currentTimeMillis();
+            tokens = Math.min(rate, tokens + (now - refilledAt) * rate / 60_000.0);
+            refilledAt = now;
+            if (tokens >= 1) {
+                tokens -= 1;
+                return 0;
+            }
+            return (long) Math.ceil((1 - tokens) * 60_000.0 / rate);
+        }
+
+        private void schedule(Runnable task, long delayMillis) {
+            try {
+                executor.schedule(task, delayMillis, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                // 服务端正在停止
+                pending.decrementAndGet();
+            }
+        }
+
+        Map<String, Object> stats() {
+            Map<String, Object> stats = new LinkedHashMap<>();
+            stats.put("ratePerMinute", channel.ratePerMinute());
+            stats.put("pending", pending.get());
+            stats.put("sent", sent.get());
+            stats.put("retries", retries.get());
+            stats.put("failed", failed.get());
+            stats.put("rateLimited", rateLimited.get());
+            stats.put("overflow", overflow.get());
+            stats.put("lastError", lastError);
+            return stats;
+        }
+    }
+}
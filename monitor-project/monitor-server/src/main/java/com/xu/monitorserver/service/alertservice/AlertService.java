@@ -0,0 +1,286 @@
+package com.xu.monitorserver.service.alertservice;
+
+import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
+import com.baomidou.mybatisplus.core.conditions.update.LambdaUpdateWrapper;
+import com.xu.monitorserver.dto.IngestSample;
+import com.xu.monitorserver.entity.AlertEvent;
+import com.xu.monitorserver.entity.AlertRule;
+import com.xu.monitorserver.exception.ServiceException;
+import com.xu.monitorserver.mapper.AlertEventMapper;
+import com.xu.monitorserver.mapper.AlertRuleMapper;
+import com.xu.monitorserver.repository.MetricsLineEncoder;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 告警服务：规则保存在 MySQL，在上报链路上逐样本增量评估 (见 {@link AlertEvaluator})。
+ *
+ * <p>评估只更新内存中的滑动窗口，不查询 InfluxDB；产生的状态变化放入有界队列，由后台线程写入 alert_event
+ * 并交给 {@link AlertNotifier} 合并后发送通知，上报线程不等待数据库。规则按 refresh-interval 定期从 MySQL
+ * 重新加载 (多实例部署时其他实例的修改也会生效)，通过本服务保存的修改立即生效。</p>
+ */
+@Service
+public class AlertService {
+
+    private static final Logger logger = LoggerFactory.getLogger(AlertService.class);
+
+    private static final int MAX_EVENTS_LIMIT = 500;
+
+    private final AlertRuleMapper ruleMapper;
+    private final AlertEventMapper eventMapper;
+    private final boolean enabled;
+    private final AlertEvaluator evaluator;
+    private final BlockingQueue<AlertTransition> transitions;
+    private final AlertNotifier notifier;
+
+    /**
+     * 定期从 MySQL 重新加载规则的间隔 (毫秒)
+     */
+    @Value("${monitor.alert.refresh-interval:30000}")
+    private long refreshIntervalMillis;
+
+    private volatile boolean loaded;
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private volatile String lastError;
+
+    private volatile boolean running;
+    private Thread worker;
+
+    public AlertService(AlertRuleMapper ruleMapper, AlertEventMapper eventMapper, AlertNotifier notifier,
+                        @Value("${monitor.alert.enabled:true}") boolean enabled,
+                        @Value("${monitor.alert.queue-capacity:10000}") int queueCapacity,
+                        @Value("${monitor.alert.max-window-points:720}") int maxWindowPoints,
+                        @Value("${monitor.alert.stale-gap:300000}") long staleGapMillis) {
+        this.ruleMapper = ruleMapper;
+        this.eventMapper = eventMapper;
+        this.notifier = notifier;
+        this.enabled = enabled;
+        this.evaluator = new AlertEvaluator(maxWindowPoints, staleGapMillis);
+        this.transitions = new ArrayBlockingQueue<>(queueCapacity);
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        running = true;
+        worker = new Thread(this::runLoop, "alert-events");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        running = false;
+        if (worker != null) {
+            worker.interrupt();
+            worker.join(TimeUnit.SECONDS.toMillis(10));
+        }
+    }
+
+    /**
+     * 评估一批样本 (上报线程调用，不访问数据库)；事件队列已满时丢弃状态变化并计数
+     */
+    public void evaluate(List<IngestSample> samples) {
+        if (!enabled || !loaded) {
+            return;
+        }
+        for (IngestSample sample : samples) {
+            evaluator.evaluate(sample, transition -> {
+                if (!transitions.offer(transition)) {
+                    dropped.incrementAndGet();
+                }
+            });
+        }
+    }
+
+    public List<AlertRule> listRules() {
+        return ruleMapper.selectList(new LambdaQueryWrapper<AlertRule>().orderByAsc(AlertRule::getId));
+    }
+
+    /**
+     * 新增 (id 为空) 或修改规则，保存后立即重新加载
+     */
+    public AlertRule saveRule(AlertRule rule, String username) {
+        validate(rule);
+        rule.setUpdateTime(LocalDateTime.now());
+        if (rule.getId() == null) {
+            rule.setCreateBy(username);
+            rule.setCreateTime(LocalDateTime.now());
+            ruleMapper.insert(rule);
+        } else if (ruleMapper.updateById(rule) == 0) {
+            throw new ServiceException(404, "告警规则不存在");
+        }
+        reloadRules();
+        return ruleMapper.selectById(rule.getId());
+    }
+
+    public void deleteRule(Long id) {
+        if (ruleMapper.deleteById(id) == 0) {
+            throw new ServiceException(404, "告警规则不存在");
+        }
+        reloadRules();
+    }
+
+    /**
+     * 按触发时间倒序查询告警事件
+     *
+     * @param status  FIRING / RESOLVED，为空表示全部
+     * @param agentId 为空表示全部
+     */
+    public List<AlertEvent> listEvents(String status, String agentId, int limit) {
+        int size = Math.max(1, Math.min(limit, MAX_EVENTS_LIMIT));
+        return eventMapper.selectList(new LambdaQueryWrapper<AlertEvent>()
+                .eq(status != null && !status.isBlank(), AlertEvent::getStatus, status)
+                .eq(agentId != null && !agentId.isBlank(), AlertEvent::getAgentId, agentId)
+                .orderByDesc(AlertEvent::getFiredAt)
+                .last("LIMIT " + size));
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>(evaluator.stats());
+        stats.put("enabled", enabled);
+        stats.put("loaded", loaded);
+        stats.put("queued", transitions.size());
+        stats.put("written", written.get());
+        stats.put("dropped", dropped.get());
+        stats.put("failures", failures.get());
+        stats.put("lastError", lastError);
+        stats.put("notify", notifier.stats());
+        return stats;
+    }
+
+    private void validate(AlertRule rule) {
+        if (rule.getName() == null || rule.getName().isBlank()) {
+            throw new ServiceException(400, "规则名称不能为空");
+        }
+        if (!MetricsLineEncoder.METRIC_FIELDS.contains(rule.getMetric())) {
+            throw new ServiceException(400, "不支持的指标: " + rule.getMetric());
+        }
+        if (!AlertEvaluator.OPERATORS.contains(rule.getOperator())) {
+            throw new ServiceException(400, "operator 只能是 " + AlertEvaluator.OPERATORS);
+        }
+        if (rule.getThreshold() == null || rule.getThreshold().isNaN()) {
+            throw new ServiceException(400, "阈值不能为空");
+        }
+        if (rule.getAggregation() == null) {
+            rule.setAggregation("all");
+        } else if (!AlertEvaluator.AGGREGATIONS.contains(rule.getAggregation())) {
+            throw new ServiceException(400, "aggregation 只能是 " + AlertEvaluator.AGGREGATIONS);
+        }
+        if (rule.getDurationSeconds() == null) {
+            rule.setDurationSeconds(0);
+        } else if (rule.getDurationSeconds() < 0) {
+            throw new ServiceException(400, "持续时间不能为负数");
+        }
+        if (rule.getSeverity() == null || rule.getSeverity().isBlank()) {
+            rule.setSeverity("WARNING");
+        }
+        if (rule.getEnabled() == null) {
+            rule.setEnabled(1);
+        }
+        if (rule.getAgentId() != null && rule.getAgentId().isBlank()) {
+            rule.setAgentId(null);
+        }
+    }
+
+    private void reloadRules() {
+        if (!enabled) {
+            return;
+        }
+        if (!loaded) {
+            // 第一次加载：恢复重启前仍在触发中的告警，避免条件持续满足时重复插入 FIRING 事件
+            List<String> firing = new ArrayList<>();
+            for (AlertEvent event : eventMapper.selectList(new LambdaQueryWrapper<AlertEvent>()
+                    .eq(AlertEvent::getStatus, AlertEvent.FIRING))) {
+                firing.add(AlertEvaluator.key(event.getRuleId(), event.getAgentId()));
+            }
+            evaluator.restoreFiring(firing);
+        }
+        evaluator.setRules(ruleMapper.selectList(null));
+        loaded = true;
+    }
+
+    private void runLoop() {
+        long nextRefresh = 0;
+        while (running) {
+            try {
+                if (System.currentTimeMillis() >= nextRefresh) {
+                    nextRefresh = System.currentTimeMillis() + refreshIntervalMillis;
+                    reloadRules();
+                }
+                AlertTransition transition = transitions.poll(1, TimeUnit.SECONDS);
+                if (transition != null) {
+                    // 先交给通知分发 (不阻塞)，MySQL 不可用时告警通知照常发出
+                    notifier.submit(transition);
+                    write(transition);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                failures.incrementAndGet();
+                lastError = e.getMessage();
+                logger.warn("告警事件处理失败: {}", e.getMessage());
+                sleepQuietly();
+            }
+        }
+    }
+
+    private void write(AlertTransition transition) {
+        AlertRule rule = transition.rule();
+        LocalDateTime time = LocalDateTime.ofInstant(Instant.ofEpochMilli(transition.time()), ZoneId.systemDefault());
+        if (transition.firing()) {
+            AlertEvent event = new AlertEvent();
+            event.setRuleId(rule.getId());
+            event.setRuleName(rule.getName());
+            event.setAgentId(transition.agentId());
+            event.setSeverity(rule.getSeverity());
+            event.setStatus(AlertEvent.FIRING);
+            event.setValue(transition.value());
+            event.setThreshold(rule.getThreshold());
+            event.setMessage(String.format("%s %s %s %s (%ss, %s)", rule.getName(), rule.getMetric(),
+                    rule.getOperator(), rule.getThreshold(), rule.getDurationSeconds(), rule.getAggregation()));
+            event.setFiredAt(time);
+            eventMapper.insert(event);
+            logger.info("告警触发: rule={} agentId={} value={}", rule.getName(), transition.agentId(), transition.value());
+        } else {
+            eventMapper.update(null, new LambdaUpdateWrapper<AlertEvent>()
+                    .eq(AlertEvent::getRuleId, rule.getId())
+                    .eq(AlertEvent::getAgentId, transition.agentId())
+                    .eq(AlertEvent::getStatus, AlertEvent.FIRING)
+                    .set(AlertEvent::getStatus, AlertEvent.RESOLVED)
+                    .set(AlertEvent::getResolvedAt, time));
+            logger.info("告警恢复: rule={} agentId={}", rule.getName(), transition.agentId());
+        }
+        written.incrementAndGet();
+    }
+
+    private void sleepQuietly() {
+        try {
+            Thread.sleep(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            running = false;
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package com.xu.monitorserver.service.alertservice;
+
+import com.xu.monitorserver.entity.AlertRule;
+
+/**
+ * 一次告警状态变化 (由评估器在上报线程中产生)
+ *
+ * @param rule    规则 (评估时的快照)
+ * @param agentId Agent ID
+ * @param firing  true 为触发，false 为恢复
+ * @param value   窗口值 (规则被修改或删除导致的恢复为 NaN)
+ * @param time    样本采集时间 (epoch 毫秒)
+ */
+public record AlertTransition(AlertRule rule, String agentId, boolean firing, double value, long time) {
+}
@@ -0,0 +1,38 @@
+package com.xu.monitorserver.service.alertservice;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * 日志渠道：把通知写入服务端日志 (默认启用，便于没有配置外部渠道时排查)
+ */
+@Component
+public class LogNotificationChannel implements NotificationChannel {
+
+    private static final Logger logger = LoggerFactory.getLogger(LogNotificationChannel.class);
+
+    @Value("${monitor.alert.notify.log.enabled:true}")
+    private boolean enabled;
+
+    @Override
+    public String name() {
+        return "log";
+    }
+
+    @Override
+    public boolean enabled() {
+        return enabled;
+    }
+
+    @Override
+    public int ratePerMinute() {
+        return 0;
+    }
+
+    @Override
+    public void send(AlertNotification notification) {
+        logger.warn("告警通知 {}\n{}", notification.groupKey(), notification.text());
+    }
+}
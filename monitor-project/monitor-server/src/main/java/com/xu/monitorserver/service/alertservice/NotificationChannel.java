@@ -0,0 +1,20 @@
+package com.xu.monitorserver.service.alertservice;
+
+/**
+ * 告警通知渠道。实现为 Spring Bean 即可被 {@link AlertNotifier} 发现，未启用的渠道会被忽略。
+ *
+ * <p>{@link #send} 在该渠道自己的发送线程中调用 (同一渠道串行)，抛出异常时按退避间隔重试。</p>
+ */
+public interface NotificationChannel {
+
+    String name();
+
+    boolean enabled();
+
+    /**
+     * 每分钟最多发送的通知数，0 表示不限制
+     */
+    int ratePerMinute();
+
+    void send(AlertNotification notification) throws Exception;
+}
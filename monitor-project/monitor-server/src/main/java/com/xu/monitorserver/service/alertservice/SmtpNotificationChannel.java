@@ -0,0 +1,216 @@
+package com.xu.monitorserver.service.alertservice;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.net.ssl.SNIHostName;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * 邮件渠道：直接通过 SMTP 发送纯文本邮件 (支持 SSL、STARTTLS 与 AUTH LOGIN)，不依赖 JavaMail。
+ *
+ * <p>标题按 RFC 2047 编码，正文使用 UTF-8 + base64，不需要处理以点开头的行。</p>
+ *
+ * <p>TLS 连接除了校验证书链，还按 HTTPS 的规则校验证书中的主机名 (并发送 SNI)，握手成功后才发送 AUTH 凭据。</p>
+ */
+@Component
+public class SmtpNotificationChannel implements NotificationChannel {
+
+    private static final String CRLF = "\r\n";
+    private static final Pattern IP_LITERAL = Pattern.compile("[0-9.]+|.*:.*");
+
+    /**
+     * 建立 TLS 连接使用的工厂 (默认信任 JVM 的根证书)
+     */
+    private SSLSocketFactory socketFactory = (SSLSocketFactory) SSLSocketFactory.getDefault();
+
+    @Value("${monitor.alert.notify.email.host:}")
+    private String host;
+
+    @Value("${monitor.alert.notify.email.port:25}")
+    private int port;
+
+    /**
+     * 直接建立 SSL 连接 (一般为 465 端口)
+     */
+    @Value("${monitor.alert.notify.email.ssl:false}")
+    private boolean ssl;
+
+    /**
+     * 明文连接后通过 STARTTLS 升级 (一般为 587 端口)
+     */
+    @Value("${monitor.alert.notify.email.starttls:false}")
+    private boolean starttls;
+
+    @Value("${monitor.alert.notify.email.username:}")
+    private String username;
+
+    @Value("${monitor.alert.notify.email.password:}")
+    private String password;
+
+    @Value("${monitor.alert.notify.email.from:}")
+    private String from;
+
+    /**
+     * 收件人，逗号分隔
+     */
+    @Value("${monitor.alert.notify.email.to:}")
+    private String to;
+
+    @Value("${monitor.alert.notify.email.timeout:10000}")
+    private int timeoutMillis;
+
+    @Value("${monitor.alert.notify.email.rate-per-minute:10}")
+    private int ratePerMinute;
+
+    @Override
+    public String name() {
+        return "email";
+    }
+
+    @Override
+    public boolean enabled() {
+        return host != null && !host.isBlank() && !recipients().isEmpty();
+    }
+
+    @Override
+    public int ratePerMinute() {
+        return ratePerMinute;
+    }
+
+    @Override
+    public void send(AlertNotification notification) throws IOException {
+        String sender = from == null || from.isBlank() ? username : from;
+        Socket socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(host, port), timeoutMillis);
+            socket.setSoTimeout(timeoutMillis);
+            if (ssl) {
+                socket = secure(socket);
+            }
+            Session session = new Session(socket);
+            session.expect(220);
+            session.command("EHLO monitor-server", 250);
+            if (starttls && !ssl) {
+                session.command("STARTTLS", 220);
+                socket = secure(socket);
+                session = new Session(socket);
+                session.command("EHLO monitor-server", 250);
+            }
+            if (username != null && !username.isBlank()) {
+                session.command("AUTH LOGIN", 334);
+                session.command(base64(username), 334);
+                session.command(base64(password), 235);
+            }
+            session.command("MAIL FROM:<" + sender + ">", 250);
+            for (String recipient : recipients()) {
+                session.command("RCPT TO:<" + recipient + ">", 250, 251);
+            }
+            session.command("DATA", 354);
+            session.command(message(notification, sender) + CRLF + ".", 250);
+            session.command("QUIT", 221);
+        } finally {
+            socket.close();
+        }
+    }
+
+    /**
+     * 在已连接的 socket 上完成 TLS 握手：校验证书链与主机名，主机名不是 IP 时发送 SNI
+     */
+    private SSLSocket secure(Socket plain) throws IOException {
+        SSLSocket socket = (SSLSocket) socketFactory.createSocket(plain, host, port, true);
+        SSLParameters parameters = socket.getSSLParameters();
+        parameters.setEndpointIdentificationAlgorithm("HTTPS");
+        if (!IP_LITERAL.matcher(host).matches()) {
+            parameters.setServerNames(List.of(new SNIHostName(host)));
+        }
+        socket.setSSLParameters(parameters);
+        socket.startHandshake();
+        return socket;
+    }
+
+    private List<String> recipients() {
+        if (to == null) {
+            return List.of();
+        }
+        return Arrays.stream(to.split(",")).map(String::trim).filter(s -> !s.isEmpty()).toList();
+    }
+
+    private String message(AlertNotification notification, String sender) {
+        String body = Base64.getMimeEncoder(76, CRLF.getBytes(StandardCharsets.US_ASCII))
+                .encodeToString(notification.text().getBytes(StandardCharsets.UTF_8));
+        return "From: " + sender + CRLF
+                + "To: " + String.join(", ", recipients()) + CRLF
+                + "Subject: =?UTF-8?B?" + base64(notification.title()) + "?=" + CRLF
+                + "Date: " + DateTimeFormatter.RFC_1123_DATE_TIME.format(ZonedDateTime.now()) + CRLF
+                + "MIME-Version: 1.0" + CRLF
+                + "Content-Type: text/plain; charset=UTF-8" + CRLF
+                + "Content-Transfer-Encoding: base64" + CRLF
+                + CRLF
+                + body;
+    }
+
+    private static String base64(String value) {
+        return Base64.getEncoder().encodeToString((value == null ? "" : value).getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 一次 SMTP 会话：发送命令并检查响应码 (多行响应读到最后一行)
+     */
+    private static final class Session {
+
+        private final BufferedReader in;
+        private final OutputStream out;
+
+        Session(Socket socket) throws IOException {
+            this.in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+            this.out = socket.getOutputStream();
+        }
+
+        void command(String line, int... expected) throws IOException {
+            out.write((line + CRLF).getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            expect(expected);
+        }
+
+        void expect(int... expected) throws IOException {
+            String line;
+            do {
+                line = in.readLine();
+                if (line == null) {
+                    throw new IOException("SMTP 连接已关闭");
+                }
+            } while (line.length() > 3 && line.charAt(3) == '-');
+            int code = line.length() >= 3 ? parseCode(line) : -1;
+            for (int value : expected) {
+                if (code == value) {
+                    return;
+                }
+            }
+            throw new IOException("SMTP 响应异常: " + line);
+        }
+
+        private static int parseCode(String line) {
+            try {
+                return Integer.parseInt(line.substring(0, 3));
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+        }
+    }
+}
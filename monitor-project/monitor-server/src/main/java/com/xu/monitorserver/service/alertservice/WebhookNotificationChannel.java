@@ -0,0 +1,105 @@
+package com.xu.monitorserver.service.alertservice;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.xu.monitorserver.entity.AlertRule;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.RestTemplate;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Webhook 渠道：把通知以 JSON POST 到配置的 URL，非 2xx 响应视为失败 (由分发器重试)
+ *
+ * <pre>
+ * {"groupKey":"rule:1","title":"...","rule":{...},"firing":2,"resolved":1,
+ *  "alerts":[{"agentId":"...","status":"FIRING","value":95.0,"time":"2026-01-01T00:00:00Z"}],"text":"..."}
+ * </pre>
+ */
+@Component
+public class WebhookNotificationChannel implements NotificationChannel {
+
+    private final String url;
+    private final int ratePerMinute;
+    private final ObjectMapper objectMapper;
+    // RestTemplate（设置超时，避免接收方无响应时占住发送线程）
+    private final RestTemplate restTemplate;
+
+    public WebhookNotificationChannel(@Value("${monitor.alert.notify.webhook.url:}") String url,
+                                      @Value("${monitor.alert.notify.webhook.timeout:5000}") int timeoutMillis,
+                                      @Value("${monitor.alert.notify.webhook.rate-per-minute:30}") int ratePerMinute,
+                                      ObjectMapper objectMapper) {
+        this.url = url;
+        this.ratePerMinute = ratePerMinute;
+        this.objectMapper = objectMapper;
+        SimpleClientHttpRequestFactory factory = new SimpleClientHttpRequestFactory();
+        factory.setConnectTimeout(timeoutMillis);
+        factory.setReadTimeout(timeoutMillis);
+        this.restTemplate = new RestTemplate(factory);
+    }
+
+    @Override
+    public String name() {
+        return "webhook";
+    }
+
+    @Override
+    public boolean enabled() {
+        return url != null && !url.isBlank();
+    }
+
+    @Override
+    public int ratePerMinute() {
+        return ratePerMinute;
+    }
+
+    @Override
+    public void send(AlertNotification notification) throws Exception {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        String body = objectMapper.writeValueAsString(payload(notification));
+        // 非 2xx 时 RestTemplate 抛出异常
+        restTemplate.postForEntity(url, new HttpEntity<>(body, headers), String.class);
+    }
+
+    private static Map<String, Object> payload(AlertNotification notification) {
+        AlertRule rule = notification.rule();
+        Map<String, Object> ruleInfo = new LinkedHashMap<>();
+        ruleInfo.put("id", rule.getId());
+        ruleInfo.put("name", rule.getName());
+        ruleInfo.put("metric", rule.getMetric());
+        ruleInfo.put("operator", rule.getOperator());
+        ruleInfo.put("threshold", rule.getThreshold());
+        ruleInfo.put("durationSeconds", rule.getDurationSeconds());
+        ruleInfo.put("aggregation", rule.getAggregation());
+        ruleInfo.put("severity", rule.getSeverity());
+
+        List<Map<String, Object>> alerts = new ArrayList<>(notification.alerts().size());
+        for (AlertTransition alert : notification.alerts()) {
+            Map<String, Object> item = new LinkedHashMap<>();
+            item.put("agentId", alert.agentId());
+            item.put("status", alert.firing() ? "FIRING" : "RESOLVED");
+            item.put("value", Double.isNaN(alert.value()) ? null : alert.value());
+            item.put("time", Instant.ofEpochMilli(alert.time()).toString());
+            alerts.add(item);
+        }
+
+        Map<String, Object> payload = new LinkedHashMap<>();
+        payload.put("groupKey", notification.groupKey());
+        payload.put("title", notification.title());
+        payload.put("rule", ruleInfo);
+        payload.put("firing", notification.firingCount());
+        payload.put("resolved", notification.resolvedCount());
+        payload.put("alerts", alerts);
+        payload.put("text", notification.text());
+        return payload;
+    }
+}
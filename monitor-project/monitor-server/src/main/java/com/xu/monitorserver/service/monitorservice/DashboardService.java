@@ -0,0 +1,188 @@
+package com.xu.monitorserver.service.monitorservice;
+
+import com.xu.monitorserver.dto.HistoryQuery;
+import com.xu.monitorserver.exception.ServiceException;
+import com.xu.monitorserver.repository.FluxTime;
+import com.xu.monitorserver.utils.HistoryCursor;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Dashboard 聚合查询：一次请求并发查询多个面板
+ *
+ * <p>原先前端每 5 秒分别请求 6~7 个 /api/monitor/* 接口，每个接口都要经过一次 Servlet 请求、JWT 过滤器和一次 InfluxDB 查询。
+ * 这里把各面板的查询提交到一个有界线程池并发执行，整体耗时取决于最慢的面板，并受 {@code monitor.dashboard.timeout} 约束：
+ * 超时或线程池已满的面板返回 error，其余面板照常返回。</p>
+ */
+@Service
+public class DashboardService {
+
+    private static final Logger logger = LoggerFactory.getLogger(DashboardService.class);
+
+    /**
+     * 面板查询：agentId + 查询参数 -> 面板数据
+     */
+    @FunctionalInterface
+    private interface PanelQuery {
+        Object query(String agentId, HistoryQuery query);
+    }
+
+    /**
+     * 面板名 -> 查询 (顺序即默认面板顺序)
+     */
+    private final Map<String, PanelQuery> panels = new LinkedHashMap<>();
+
+    private final ThreadPoolExecutor executor;
+
+    @Value("${monitor.dashboard.timeout:5000}")
+    private long timeoutMillis;
+
+    public DashboardService(IMonitorService monitorService,
+                            @Value("${monitor.dashboard.threads:8}") int threads,
+                            @Value("${monitor.dashboard.queue-capacity:64}") int queueCapacity) {
+        panels.put("info", (agentId, query) -> monitorService.getServerLatestInfo(agentId));
+        panels.put("cpu", monitorService::getCpuHistory);
+        panels.put("temp", monitorService::getTempHistory);
+        panels.put("disk", monitorService::getDiskHistory);
+        panels.put("net", monitorService::getNetHistory);
+        panels.put("load", monitorService::getSystemLoadHistory);
+        panels.put("io", monitorService::getDiskIoHistory);
+
+        AtomicInteger seq = new AtomicInteger();
+        // 有界队列 + 拒绝：查询堆积时直接让面板失败，而不是无限排队拖长所有请求
+        this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                r -> {
+                    Thread t = new Thread(r, "dashboard-query-" + seq.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * 并发查询一组面板
+     *
+     * @param agentId    Agent ID
+     * @param panelNames 面板列表，为空时查询全部面板
+     * @param query      时间范围、点数上限与聚合函数，所有曲线面板共用
+     * @return { agentId, totalMillis, cursor, panels: { cpu: { data, millis }, load: { error, millis }, ... } }
+     */
+    public Map<String, Object> load(String agentId, List<String> panelNames, HistoryQuery query) {
+        List<String> names = panelNames == null || panelNames.isEmpty()
+                ? List.copyOf(panels.keySet())
+                : panelNames.stream().distinct().toList();
+        for (String name : names) {
+            if (!panels.containsKey(name)) {
+                throw new ServiceException(400, "不支持的面板: " + name + "，可选值: " + panels.keySet());
+            }
+        }
+        // 时间直接拼进 Flux，只接受能解析的写法 (否则每个面板各自报错)
+        long now = System.currentTimeMillis();
+        if (FluxTime.parse(query.start(), "-1h", now) == null || FluxTime.parse(query.end(), "now()", now) == null) {
+            throw new ServiceException(400, "start/end 必须是 RFC3339 时间、now() 或 -7d 这类相对时间");
+        }
+
+        long begin = System.nanoTime();
+        Map<String, Future<Map<String, Object>>> futures = new LinkedHashMap<>();
+        Map<String, Object> results = new LinkedHashMap<>();
+        for (String name : names) {
+            PanelQuery panelQuery = panels.get(name);
+            try {
+                futures.put(name, executor.submit(() -> {
+                    long t0 = System.nanoTime();
+                    Map<String, Object> panel = new LinkedHashMap<>();
+                    panel.put("data", panelQuery.query(agentId, query));
+                    panel.put("millis", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - t0));
+                    return panel;
+                }));
+            } catch (RejectedExecutionException e) {
+                results.put(name, failed("服务繁忙，请稍后重试", 0));
+            }
+        }
+
+        // 所有面板共用一个截止时间，整次刷新的耗时有上限
+        long deadline = begin + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        for (Map.Entry<String, Future<Map<String, Object>>> entry : futures.entrySet()) {
+            Future<Map<String, Object>> future = entry.getValue();
+            try {
+                results.put(entry.getKey(), future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS));
+            } catch (TimeoutException e) {
+                future.cancel(true);
+                results.put(entry.getKey(), failed("查询超时", elapsedMillis(begin)));
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause() != null ? e.getCause() : e;
+                logger.warn("Dashboard 面板查询失败: panel={} agentId={} {}", entry.getKey(), agentId, cause.getMessage());
+                results.put(entry.getKey(), failed(cause.getMessage(), elapsedMillis(begin)));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                future.cancel(true);
+                results.put(entry.getKey(), failed("请求已中断", elapsedMillis(begin)));
+            }
+        }
+
+        // 按请求的面板顺序输出
+        Map<String, Object> ordered = new LinkedHashMap<>();
+        for (String name : names) {
+            ordered.put(name, results.get(name));
+        }
+        Map<String, Object> bundle = new LinkedHashMap<>();
+        bundle.put("agentId", agentId);
+        bundle.put("totalMillis", elapsedMillis(begin));
+        bundle.put("cursor", cursorOf(ordered, query.since()));
+        bundle.put("panels", ordered);
+        return bundle;
+    }
+
+    /**
+     * 所有曲线面板中最新一个点的时间，下次轮询作为 since 传回；没有新点时沿用请求中的 since
+     */
+    private static String cursorOf(Map<String, Object> panels, String since) {
+        String cursor = since;
+        Long cursorMillis = FluxTime.parseCursor(since);
+        for (Map.Entry<String, Object> entry : panels.entrySet()) {
+            if ("info".equals(entry.getKey()) || !(entry.getValue() instanceof Map<?, ?> panel)) {
+                continue;
+            }
+            String latest = HistoryCursor.latest(panel.get("data"), null);
+            if (latest != null && (cursorMillis == null || Instant.parse(latest).toEpochMilli() > cursorMillis)) {
+                cursor = latest;
+                cursorMillis = Instant.parse(latest).toEpochMilli();
+            }
+        }
+        return cursor;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private static Map<String, Object> failed(String error, long millis) {
+        Map<String, Object> panel = new LinkedHashMap<>();
+        panel.put("error", error);
+        panel.put("millis", millis);
+        return panel;
+    }
+
+    private static long elapsedMillis(long beginNanos) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - beginNanos);
+    }
+}
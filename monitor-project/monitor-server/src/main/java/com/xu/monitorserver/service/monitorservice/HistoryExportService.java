@@ -0,0 +1,332 @@
+package com.xu.monitorserver.service.monitorservice;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.xu.monitorcommon.moudule.HostFacts;
+import com.xu.monitorserver.exception.ServiceException;
+import com.xu.monitorserver.repository.FluxTime;
+import com.xu.monitorserver.repository.MetricStore;
+import com.xu.monitorserver.repository.MetricsLineEncoder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * 原始数据导出：不做窗口聚合，按 NDJSON 或 CSV 逐行写入 HTTP 响应。
+ *
+ * <p>每个 Agent 一次 Flux 查询，记录经 InfluxDB 客户端的流式回调直接写出，内存占用只有一行的缓冲，
+ * 与时间范围、字段数和服务器数量无关。每 {@link #FLUSH_ROWS} 行刷新一次，客户端可以边下载边处理；
+ * 客户端断开时写出失败，正在执行的查询随即取消，后续 Agent 不再查询。</p>
+ */
+@Service
+public class HistoryExportService {
+
+    private static final Logger logger = LoggerFactory.getLogger(HistoryExportService.class);
+
+    /**
+     * 每写出 N 行主动刷新一次，避免客户端长时间收不到数据
+     */
+    private static final int FLUSH_ROWS = 5000;
+
+    private static final DateTimeFormatter FILE_STAMP =
+            DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmss'Z'", Locale.ROOT).withZone(ZoneOffset.UTC);
+
+    public enum Format {
+        NDJSON("application/x-ndjson", "ndjson"),
+        CSV("text/csv", "csv");
+
+        private final String contentType;
+        private final String extension;
+
+        Format(String contentType, String extension) {
+            this.contentType = contentType;
+            this.extension = extension;
+        }
+
+        public String getContentType() {
+            return contentType;
+        }
+
+        public String getExtension() {
+            return extension;
+        }
+
+        /**
+         * @return 无法识别时返回 null
+         */
+        public static Format parse(String value) {
+            if (value == null || value.isBlank()) {
+                return NDJSON;
+            }
+            for (Format format : values()) {
+                if (format.name().equalsIgnoreCase(value.trim())) {
+                    return format;
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * 校验后的导出请求，校验在写出响应头之前完成，参数错误时仍能返回 R JSON
+     */
+    public record ExportRequest(List<String> agentIds, List<String> fields, String start, String end, Format format) {
+    }
+
+    private final MetricStore metricStore;
+    private final HostFactsService hostFactsService;
+    private final JsonFactory jsonFactory = new JsonFactory();
+
+    @Value("${monitor.export.max-agents:100}")
+    private int maxAgents;
+
+    @Value("${monitor.export.query-timeout:1800000}")
+    private long queryTimeoutMillis;
+
+    public HistoryExportService(MetricStore metricStore, HostFactsService hostFactsService) {
+        this.metricStore = metricStore;
+        this.hostFactsService = hostFactsService;
+    }
+
+    /**
+     * @param agentIds 要导出的 Agent，不能为空
+     * @param fields   server_metrics 的数值字段，为空时导出全部字段
+     * @param start    开始时间 (RFC3339 或 -7d 这类相对时间)，为空时 -1h
+     * @param end      结束时间，为空时 now()
+     * @param format   ndjson (默认) / csv
+     */
+    public ExportRequest prepare(List<String> agentIds, List<String> fields, String start, String end, String format) {
+        Format parsed = Format.parse(format);
+        if (parsed == null) {
+            throw new ServiceException(400, "不支持的导出格式: " + format + "，可选值: ndjson/csv");
+        }
+        List<String> agents = agentIds == null ? List.of()
+                : agentIds.stream().filter(id -> id != null && !id.isBlank()).distinct().toList();
+        if (agents.isEmpty()) {
+            throw new ServiceException(400, "agentIds 不能为空");
+        }
+        if (agents.size() > maxAgents) {
+            throw new ServiceException(400, "一次最多导出 " + maxAgents + " 台服务器");
+        }
+        List<String> exportFields = fields == null || fields.isEmpty()
+                ? MetricsLineEncoder.METRIC_FIELDS.stream().sorted().toList()
+                : fields.stream().distinct().toList();
+        for (String field : exportFields) {
+            if (!MetricsLineEncoder.METRIC_FIELDS.contains(field)) {
+                throw new ServiceException(400, "不支持的字段: " + field);
+            }
+        }
+        // 时间直接拼进 Flux，只接受能解析的写法
+        long now = System.currentTimeMillis();
+        if (FluxTime.parse(start, "-1h", now) == null || FluxTime.parse(end, "now()", now) == null) {
+            throw new ServiceException(400, "start/end 必须是 RFC3339 时间、now() 或 -7d 这类相对时间");
+        }
+        return new ExportRequest(agents, exportFields, start, end, parsed);
+    }
+
+    /**
+     * 按 Agent 顺序导出，同一 Agent 内按时间升序
+     *
+     * <p>开始写出后响应已提交，查询失败 (超时、InfluxDB 出错) 不能再返回 R JSON：
+     * 在已写出的数据之后追加一行错误 (见 {@link RowWriter#error}) 并结束导出，下载方据此判断文件不完整。</p>
+     *
+     * @return 写出的行数
+     * @throws IOException 客户端断开
+     */
+    public long export(ExportRequest request, OutputStream out) throws IOException {
+        long begin = System.nanoTime();
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 64 * 1024);
+        RowWriter rows = request.format() == Format.CSV
+                ? new CsvRowWriter(writer, request.fields())
+                : new NdjsonRowWriter(jsonFactory.createGenerator(writer), writer, request.fields());
+        rows.header();
+        long total = 0;
+        try {
+            for (String agentId : request.agentIds()) {
+                HostFacts facts = hostFactsService.get(agentId);
+                String ip = facts != null ? facts.getIp() : null;
+                try {
+                    total += metricStore.streamRawRows(agentId, ip, request.fields(), request.start(), request.end(),
+                            queryTimeoutMillis, (time, values) -> rows.row(agentId, time.toString(), values));
+                } catch (ServiceException e) {
+                    logger.warn("导出查询失败，已写出 {} 行: agentId={} {}", rows.count(), agentId, e.getMessage());
+                    rows.error(agentId, e.getMessage());
+                    writer.flush();
+                    return rows.count();
+                }
+            }
+            rows.finish();
+            writer.flush();
+        } catch (IOException e) {
+            logger.info("客户端断开，导出已取消: 已写出 {} 行 {}", total, e.getMessage());
+            throw e;
+        }
+        logger.info("导出完成: agents={} fields={} rows={} format={} {}ms", request.agentIds().size(),
+                request.fields().size(), total, request.format(), (System.nanoTime() - begin) / 1_000_000);
+        return total;
+    }
+
+    /**
+     * 下载文件名，如 metrics-export-20251216T100000Z.csv
+     */
+    public static String fileName(Format format) {
+        return "metrics-export-" + FILE_STAMP.format(Instant.now()) + "." + format.getExtension();
+    }
+
+    private abstract static class RowWriter {
+
+        protected final Writer writer;
+        protected final List<String> fields;
+        private long rows;
+
+        RowWriter(Writer writer, List<String> fields) {
+            this.writer = writer;
+            this.fields = fields;
+        }
+
+        void header() throws IOException {
+        }
+
+        final void row(String agentId, String time, double[] values) throws IOException {
+            write(agentId, time, values);
+            if (++rows % FLUSH_ROWS == 0) {
+                writer.flush();
+            }
+        }
+
+        abstract void write(String agentId, String time, double[] values) throws IOException;
+
+        /**
+         * 响应已提交后查询失败，追加一行错误作为结尾
+         */
+        abstract void error(String agentId, String message) throws IOException;
+
+        void finish() throws IOException {
+        }
+
+        final long count() {
+            return rows;
+        }
+    }
+
+    /**
+     * 每行一个 JSON 对象：{"agentId":"...","time":"...","cpu_load":12.5,...}，没有数据的字段为 null
+     */
+    private static final class NdjsonRowWriter extends RowWriter {
+
+        private final JsonGenerator gen;
+
+        NdjsonRowWriter(JsonGenerator gen, Writer writer, List<String> fields) {
+            super(writer, fields);
+            // 由外层统一 flush/close 响应流
+            gen.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            gen.disable(JsonGenerator.Feature.FLUSH_PASSED_TO_STREAM);
+            // 行之间用换行分隔，不要默认的空格
+            gen.setRootValueSeparator(null);
+            this.gen = gen;
+        }
+
+        @Override
+        void write(String agentId, String time, double[] values) throws IOException {
+            gen.writeStartObject();
+            gen.writeStringField("agentId", agentId);
+            gen.writeStringField("time", time);
+            for (int f = 0; f < fields.size(); f++) {
+                gen.writeFieldName(fields.get(f));
+                if (Double.isNaN(values[f])) {
+                    gen.writeNull();
+                } else {
+                    gen.writeNumber(values[f]);
+                }
+            }
+            gen.writeEndObject();
+            gen.writeRaw('\n');
+            // 生成器自身的缓冲交给 writer，由 RowWriter 按行数刷新到响应
+            gen.flush();
+        }
+
+        /**
+         * {"agentId":"...","error":"..."}，没有 time 字段，与数据行区分
+         */
+        @Override
+        void error(String agentId, String message) throws IOException {
+            gen.writeStartObject();
+            gen.writeStringField("agentId", agentId);
+            gen.writeStringField("error", message);
+            gen.writeEndObject();
+            gen.writeRaw('\n');
+            gen.close();
+        }
+
+        @Override
+        void finish() throws IOException {
+            gen.close();
+        }
+    }
+
+    /**
+     * 首行为表头 agent_id,time,字段...；没有数据的字段留空
+     */
+    private static final class CsvRowWriter extends RowWriter {
+
+        CsvRowWriter(Writer writer, List<String> fields) {
+            super(writer, fields);
+        }
+
+        @Override
+        void header() throws IOException {
+            writer.write("agent_id,time");
+            for (String field : fields) {
+                writer.write(',');
+                writer.write(field);
+            }
+            writer.write('\n');
+        }
+
+        @Override
+        void write(String agentId, String time, double[] values) throws IOException {
+            writer.write(csv(agentId));
+            writer.write(',');
+            writer.write(time);
+            for (double value : values) {
+                writer.write(',');
+                if (!Double.isNaN(value)) {
+                    writer.write(Double.toString(value));
+                }
+            }
+            writer.write('\n');
+        }
+
+        /**
+         * # error,agentId,原因；以 # 开头，不会被当成数据行
+         */
+        @Override
+        void error(String agentId, String message) throws IOException {
+            writer.write("# error,");
+            writer.write(csv(agentId));
+            writer.write(',');
+            writer.write(csv(String.valueOf(message)));
+            writer.write('\n');
+        }
+
+        private static String csv(String value) {
+            if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0) {
+                return value;
+            }
+            return '"' + value.replace("\"", "\"\"") + '"';
+        }
+    }
+}
@@ -0,0 +1,259 @@
+package com.xu.monitorserver.service.monitorservice;
+
+import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
+import com.xu.monitorcommon.moudule.HostFacts;
+import com.xu.monitorserver.entity.ServerInfo;
+import com.xu.monitorserver.mapper.ServerInfoMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 主机静态信息服务：维护 agentId -> {@link HostFacts} 的内存缓存。
+ *
+ * <p>Agent 只在指纹变化时上报 HostFacts（见 /api/agent/facts），服务端将其落到 MySQL server_info，
+ * 同时缓存在 JVM 内存中，供 base-info 查询补充静态信息使用。
+ * 服务端重启后缓存为空，按需从 server_info 回填。</p>
+ *
+ * <p>时序数据以稳定的 agentId 为键，IP 只是可变属性 (DHCP 会变化)。
+ * 这里同时维护 ip -> agentId 的内存索引，供仍按 IP 调用的兼容接口解析出 agentId。</p>
+ */
+@Service
+public class HostFactsService {
+
+    private static final Logger logger = LoggerFactory.getLogger(HostFactsService.class);
+
+    /**
+     * 查不到的 agentId 在这段时间内不再查库
+     */
+    static final long UNKNOWN_TTL_MILLIS = 30_000;
+
+    /**
+     * 查不到的 agentId 最多记录的个数
+     */
+    static final int MAX_UNKNOWN = 10_000;
+
+    private final ServerInfoMapper serverInfoMapper;
+
+    /**
+     * agentId -> HostFacts。只缓存已上报或已在 server_info 登记的 Agent：
+     * 上报接口不校验 agentId，查不到的 agentId 不进入缓存，避免缓存随任意 agentId 无限增长。
+     */
+    private final Map<String, HostFacts> cache = new ConcurrentHashMap<>();
+
+    /**
+     * ip -> agentId 索引，随缓存中的 HostFacts 一起维护；未命中时查 server_info
+     */
+    private final Map<String, String> agentIdByIp = new ConcurrentHashMap<>();
+
+    /**
+     * 查不到的 agentId -> 过期时间。上报接口不需要登录，否则每个未注册 agentId 的样本都会查一次库；
+     * 超过上限 (大量随机 agentId) 时在条目过期前不再为新的 agentId 查库
+     */
+    private final Map<String, Long> unknownUntil = new ConcurrentHashMap<>();
+
+    public HostFactsService(ServerInfoMapper serverInfoMapper) {
+        this.serverInfoMapper = serverInfoMapper;
+    }
+
+    /**
+     * 处理 Agent 上报的静态信息：指纹未变化时直接忽略，否则更新缓存并落库
+     */
+    public void update(HostFacts facts) {
+        if (facts == null || facts.getAgentId() == null) {
+            return;
+        }
+        if (facts.getFingerprint() == null) {
+            facts.setFingerprint(facts.computeFingerprint());
+        }
+        HostFacts cached = cache.get(facts.getAgentId());
+        if (cached != null && Objects.equals(cached.getFingerprint(), facts.getFingerprint())) {
+            return;
+        }
+        unknownUntil.remove(facts.getAgentId());
+        HostFacts previous = cache.put(facts.getAgentId(), facts);
+        if (previous != null && previous.getIp() != null && !previous.getIp().equals(facts.getIp())) {
+            // IP 变化：旧 IP 不再指向该 Agent (若已被其他 Agent 占用则保持不变)
+            agentIdByIp.remove(previous.getIp(), facts.getAgentId());
+        }
+        index(facts);
+
+        ServerInfo server = serverInfoMapper.selectOne(
+                new LambdaQueryWrapper<ServerInfo>().eq(ServerInfo::getAgentId, facts.getAgentId()));
+        if (server == null) {
+            // 尚未注册：只保留在缓存中，注册时 AgentController 从缓存取出一并入库
+            return;
+        }
+        server.setIp(facts.getIp());
+        server.setOsName(facts.getOsName());
+        server.setMemoryTotal(facts.getMemoryTotal());
+        server.setDiskTotal(facts.getDiskTotal());
+        server.setFactsFingerprint(facts.getFingerprint());
+        server.setUpdateTime(LocalDateTime.now());
+        serverInfoMapper.updateById(server);
+        logger.info("主机静态信息已更新: agentId={} ip={} fingerprint={}",
+                facts.getAgentId(), facts.getIp(), facts.getFingerprint());
+    }
+
+    /**
+     * 按 agentId 获取静态信息，缓存未命中时从 server_info 回填；
+     * 数据库中也查不到时返回一个只有 agentId 的占位对象 (不缓存，只在 {@link #unknownUntil} 中短时间记录)
+     */
+    public HostFacts get(String agentId) {
+        if (agentId == null) {
+            return null;
+        }
+        HostFacts cached = cache.get(agentId);
+        if (cached != null) {
+            return cached;
+        }
+        long now = System.currentTimeMillis();
+        if (isKnownMissing(agentId, now)) {
+            return placeholder(agentId);
+        }
+        ServerInfo server = serverInfoMapper.selectOne(
+                new LambdaQueryWrapper<ServerInfo>().eq(ServerInfo::getAgentId, agentId));
+        if (server == null) {
+            unknownUntil.put(agentId, now + UNKNOWN_TTL_MILLIS);
+            return placeholder(agentId);
+        }
+        HostFacts facts = fromServerInfo(server);
+        HostFacts previous = cache.putIfAbsent(agentId, facts);
+        if (previous != null) {
+            // 并发的上报已经写入了更新的信息
+            return previous;
+        }
+        index(facts);
+        return facts;
+    }
+
+    /**
+     * 把 IP 解析为 agentId (兼容按 IP 查询的接口)。
+     * 优先查内存索引；未命中时查 server_info，多台主机登记了同一 IP 时取最近更新的一台
+     *
+     * @return 找不到对应 Agent 时返回 null
+     */
+    public String resolveAgentId(String ip) {
+        if (ip == null || ip.isEmpty()) {
+            return null;
+        }
+        String agentId = agentIdByIp.get(ip);
+        if (agentId != null) {
+            return agentId;
+        }
+        List<ServerInfo> servers = serverInfoMapper.selectList(
+                new LambdaQueryWrapper<ServerInfo>()
+                        .eq(ServerInfo::getIp, ip)
+                        .isNotNull(ServerInfo::getAgentId)
+                        .orderByDesc(ServerInfo::getUpdateTime));
+        if (servers.isEmpty()) {
+            return null;
+        }
+        agentId = servers.get(0).getAgentId();
+        // 回填缓存；缓存中的 IP 若已是别的值 (比数据库新)，则不把这个 IP 记入索引
+        HostFacts facts = get(agentId);
+        if (ip.equals(facts.getIp())) {
+            agentIdByIp.putIfAbsent(ip, agentId);
+        }
+        return agentId;
+    }
+
+    /**
+     * 按 IP 查找静态信息
+     */
+    public HostFacts findByIp(String ip) {
+        String agentId = resolveAgentId(ip);
+        return agentId != null ? get(agentId) : null;
+    }
+
+    /**
+     * 只查缓存 (不查库)：注册时取出先于注册到达的静态信息
+     */
+    public HostFacts cached(String agentId) {
+        return agentId != null ? cache.get(agentId) : null;
+    }
+
+    /**
+     * Agent 注册后调用：server_info 已有该 Agent，更新缓存中的 IP 与主机名。
+     * 缓存中的静态信息保留 (Agent 已记录上报过的指纹，不会再次上报)
+     */
+    public void registered(String agentId, String ip, String hostName) {
+        if (agentId == null) {
+            return;
+        }
+        unknownUntil.remove(agentId);
+        HostFacts cached = cache.get(agentId);
+        if (cached == null) {
+            return;
+        }
+        HostFacts facts = copy(cached);
+        facts.setIp(ip);
+        facts.setHostName(hostName);
+        if (cache.replace(agentId, cached, facts)) {
+            if (cached.getIp() != null && !cached.getIp().equals(ip)) {
+                agentIdByIp.remove(cached.getIp(), agentId);
+            }
+            index(facts);
+        }
+    }
+
+    /**
+     * 最近查过库且查不到；记录已满时先清理过期条目，仍然满时同样视为查不到
+     */
+    private boolean isKnownMissing(String agentId, long now) {
+        Long until = unknownUntil.get(agentId);
+        if (until != null) {
+            if (until > now) {
+                return true;
+            }
+            unknownUntil.remove(agentId, until);
+        }
+        if (unknownUntil.size() >= MAX_UNKNOWN) {
+            unknownUntil.values().removeIf(expiry -> expiry <= now);
+            return unknownUntil.size() >= MAX_UNKNOWN;
+        }
+        return false;
+    }
+
+    private void index(HostFacts facts) {
+        if (facts.getIp() != null && !facts.getIp().isEmpty()) {
+            agentIdByIp.put(facts.getIp(), facts.getAgentId());
+        }
+    }
+
+    private HostFacts fromServerInfo(ServerInfo server) {
+        HostFacts facts = new HostFacts();
+        facts.setAgentId(server.getAgentId());
+        facts.setHostName(server.getName());
+        facts.setIp(server.getIp());
+        facts.setOsName(server.getOsName());
+        facts.setMemoryTotal(server.getMemoryTotal() != null ? server.getMemoryTotal() : 0);
+        facts.setDiskTotal(server.getDiskTotal() != null ? server.getDiskTotal() : 0);
+        facts.setFingerprint(server.getFactsFingerprint());
+        return facts;
+    }
+
+    private static HostFacts copy(HostFacts source) {
+        HostFacts facts = new HostFacts();
+        facts.setAgentId(source.getAgentId());
+        facts.setHostName(source.getHostName());
+        facts.setIp(source.getIp());
+        facts.setOsName(source.getOsName());
+        facts.setMemoryTotal(source.getMemoryTotal());
+        facts.setDiskTotal(source.getDiskTotal());
+        facts.setFingerprint(source.getFingerprint());
+        return facts;
+    }
+
+    private HostFacts placeholder(String agentId) {
+        HostFacts facts = new HostFacts();
+        facts.setAgentId(agentId);
+        return facts;
+    }
+}
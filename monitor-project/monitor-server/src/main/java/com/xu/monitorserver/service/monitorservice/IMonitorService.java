@@ -1,25 +1,46 @@
 package com.xu.monitorserver.service.monitorservice;
 
 import com.xu.monitorcommon.moudule.BaseMonitorModel;
+import com.xu.monitorserver.dto.HistoryQuery;
+import com.xu.monitorserver.dto.MetricColumns;
+import com.xu.monitorserver.dto.TimeSeriesColumns;
+
 import java.util.List;
 import java.util.Map;
 
 public interface IMonitorService {
     // 保存数据
     void saveMonitorData(BaseMonitorModel model);
+    // 批量保存数据 (一次写入 InfluxDB)
+    void saveMonitorDataBatch(List<BaseMonitorModel> models);
+
+    // 把 IP 解析为 agentId (兼容按 IP 查询的调用方)，找不到时返回 null
+    String resolveAgentId(String ip);
 
-    // 获取各类历史数据
-    List<Map<String, Object>> getCpuHistory(String ip, String start, String end);
+    // 获取各类历史数据 (按 agentId，窗口大小由时间范围与 maxPoints 决定)
+    List<Map<String, Object>> getCpuHistory(String agentId, HistoryQuery query);
     // 获取磁盘使用率
-    List<Map<String, Object>> getDiskHistory(String ip, String start, String end);
+    List<Map<String, Object>> getDiskHistory(String agentId, HistoryQuery query);
     // 获取网络流量
-    List<Map<String, Object>> getNetHistory(String ip, String start, String end);
+    List<Map<String, Object>> getNetHistory(String agentId, HistoryQuery query);
     // 获取服务器最新信息
-    Map<String, Object> getServerLatestInfo(String ip);
+    Map<String, Object> getServerLatestInfo(String agentId);
+    // 获取所有 Agent 的最新指标 (内存)
+    List<Map<String, Object>> getFleetLatest();
     // 获取系统负载
-    Map<String, Object> getSystemLoadHistory(String ip, String start, String end);
+    Map<String, Object> getSystemLoadHistory(String agentId, HistoryQuery query);
     // 获取磁盘IO
-    Map<String, Object> getDiskIoHistory(String ip, String start, String end);
+    Map<String, Object> getDiskIoHistory(String agentId, HistoryQuery query);
     // 获取CPU温度
-    List<Map<String, Object>> getTempHistory(String ip, String start, String end);
+    List<Map<String, Object>> getTempHistory(String agentId, HistoryQuery query);
+    // 一次查询多个字段，按时间窗口对齐成列
+    TimeSeriesColumns getHistoryColumns(String agentId, List<String> fields, HistoryQuery query);
+    // 同上，返回基本类型数组 (列式/二进制响应直接从数组输出)
+    MetricColumns getHistoryMetricColumns(String agentId, List<String> fields, HistoryQuery query);
+    // 获取实时推送统计 (订阅数、推送/合并/丢弃数量)
+    Map<String, Object> getLiveStats();
+    // 获取写入链路统计 (队列深度、批次大小、写入耗时、丢弃数量)
+    Map<String, Object> getIngestStats();
+    // 获取历史查询缓存统计 (命中、未命中、淘汰)
+    Map<String, Object> getQueryCacheStats();
 }
\ No newline at end of file
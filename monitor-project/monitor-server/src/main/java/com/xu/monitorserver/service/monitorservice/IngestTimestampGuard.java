@@ -0,0 +1,92 @@
+package com.xu.monitorserver.service.monitorservice;
+
+import com.xu.monitorcommon.moudule.BaseMonitorModel;
+import com.xu.monitorcommon.moudule.HostFacts;
+import com.xu.monitorserver.dto.IngestSample;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 写入时间戳校验 (时钟偏差保护)
+ *
+ * <p>样本按 Agent 端采集时间写入 InfluxDB，这样排队、重试、离线补发都不会让数据在时间轴上错位。
+ * 但 Agent 的系统时钟不一定准确，超出允许范围的时间戳按 {@code monitor.ingest.skew-policy} 处理：</p>
+ * <ul>
+ *   <li>CLAMP：超前的时间戳钳制到 now + max-future-skew，并写入 clock_skew_ms 字段 (默认)；
+ *       落后超过 max-past-age 的样本丢弃——这些样本钳制后会落在同一个时间点上相互覆盖，
+ *       只剩最后一条，不如不写</li>
+ *   <li>FLAG：保留原始时间戳，只写入 clock_skew_ms 字段作为标记</li>
+ *   <li>REJECT：丢弃该样本</li>
+ * </ul>
+ * <p>未携带时间戳的样本 (旧版 Agent) 使用服务端当前时间。</p>
+ */
+@Component
+public class IngestTimestampGuard {
+
+    private static final Logger logger = LoggerFactory.getLogger(IngestTimestampGuard.class);
+
+    public enum SkewPolicy { CLAMP, FLAG, REJECT }
+
+    // 允许样本时间超前服务端的最大毫秒数
+    @Value("${monitor.ingest.max-future-skew:60000}")
+    private long maxFutureSkewMillis;
+
+    // 允许样本时间落后服务端的最大毫秒数 (需覆盖 Agent 离线缓冲的补发时长)
+    @Value("${monitor.ingest.max-past-age:604800000}")
+    private long maxPastAgeMillis;
+
+    @Value("${monitor.ingest.skew-policy:CLAMP}")
+    private SkewPolicy skewPolicy;
+
+    // 超出允许范围的样本数 (按处理方式统计)
+    private final AtomicLong clamped = new AtomicLong();
+    private final AtomicLong flagged = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    /**
+     * 校验样本时间戳
+     *
+     * @return 待写入的样本；REJECT 策略下超限的样本返回 null
+     */
+    public IngestSample check(BaseMonitorModel model, HostFacts facts) {
+        long now = System.currentTimeMillis();
+        long timestamp = model.getTimestamp() > 0 ? model.getTimestamp() : now;
+
+        boolean future = timestamp > now + maxFutureSkewMillis;
+        boolean past = timestamp < now - maxPastAgeMillis;
+        if (!future && !past) {
+            return new IngestSample(model, facts, timestamp, 0);
+        }
+        long skew = timestamp - now;
+
+        if (skewPolicy == SkewPolicy.FLAG) {
+            flagged.incrementAndGet();
+            return new IngestSample(model, facts, timestamp, skew);
+        }
+        if (skewPolicy == SkewPolicy.CLAMP && future) {
+            clamped.incrementAndGet();
+            logger.warn("样本时间戳超出允许范围,已钳制: agentId={} skew={}ms", model.getAgentId(), skew);
+            return new IngestSample(model, facts, now + maxFutureSkewMillis, skew);
+        }
+        // REJECT，或 CLAMP 下过旧的样本 (一批补发的旧样本会被钳制到同一时间点相互覆盖)
+        rejected.incrementAndGet();
+        logger.warn("样本时间戳超出允许范围,已丢弃: agentId={} skew={}ms", model.getAgentId(), skew);
+        return null;
+    }
+
+    public long getClamped() {
+        return clamped.get();
+    }
+
+    public long getFlagged() {
+        return flagged.get();
+    }
+
+    public long getRejected() {
+        return rejected.get();
+    }
+}
@@ -0,0 +1,117 @@
+package com.xu.monitorserver.service.monitorservice;
+
+import com.xu.monitorserver.dto.IngestSample;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 每个 Agent 最新一条样本的内存存储
+ *
+ * <p>上报接口写入 WAL 成功后顺手更新这里，base-info 与全局最新值接口直接读内存，不再为"最新一条"去 InfluxDB 执行
+ * {@code range(-1h) |> last()}。只有服务端刚启动、还没收到某个 Agent 的样本时才回退到 InfluxDB 查询。</p>
+ *
+ * <p>只保留时间戳更新的样本：离线缓冲补发、WAL 迁移等回填的旧样本不会覆盖当前值。
+ * 存储在单个服务端实例的内存中，多实例部署时各实例只知道自己收到的样本。</p>
+ *
+ * <p>超过 max-age 未更新的 Agent (下线、被替换的主机) 在写入时顺带清理，条目数不随历史上出现过的 Agent 数增长。</p>
+ */
+@Component
+public class LatestSampleStore {
+
+    private final Map<String, IngestSample> latest = new ConcurrentHashMap<>();
+
+    /**
+     * 超过该时长未更新的样本视为过期 (与原先 Flux 查询的 range(start: -1h) 一致)
+     */
+    @Value("${monitor.latest.max-age:3600000}")
+    private long maxAgeMillis;
+
+    /**
+     * 两次清理过期条目的最小间隔 (毫秒)
+     */
+    private static final long SWEEP_INTERVAL_MILLIS = 60_000;
+
+    private final AtomicLong nextSweep = new AtomicLong();
+
+    /**
+     * 记录一批已写入的样本，每个 Agent 只保留时间戳最新的一条
+     *
+     * @return 成为新的最新值的样本 (补发的旧样本不在其中)
+     */
+    public List<IngestSample> update(List<IngestSample> samples) {
+        List<IngestSample> accepted = new ArrayList<>(samples.size());
+        for (IngestSample sample : samples) {
+            String agentId = sample.model().getAgentId();
+            if (agentId == null) {
+                continue;
+            }
+            IngestSample merged = latest.merge(agentId, sample,
+                    (current, incoming) -> incoming.timestampMillis() >= current.timestampMillis() ? incoming : current);
+            if (merged == sample) {
+                accepted.add(sample);
+            }
+        }
+        expireStale();
+        return accepted;
+    }
+
+    /**
+     * 删除已过期的条目，最多每 SWEEP_INTERVAL_MILLIS 执行一次 (只有一个上报线程执行)。
+     * 按值条件删除，清理期间刚被更新的 Agent 不会被误删
+     */
+    private void expireStale() {
+        long now = System.currentTimeMillis();
+        long next = nextSweep.get();
+        if (now < next || !nextSweep.compareAndSet(next, now + Math.min(SWEEP_INTERVAL_MILLIS, maxAgeMillis))) {
+            return;
+        }
+        latest.values().removeIf(this::isStale);
+    }
+
+    /**
+     * 获取某个 Agent 未过期的最新样本
+     *
+     * @return 没有样本或已过期时返回 null
+     */
+    public IngestSample get(String agentId) {
+        if (agentId == null) {
+            return null;
+        }
+        IngestSample sample = latest.get(agentId);
+        if (sample != null && isStale(sample)) {
+            latest.remove(agentId, sample);
+            return null;
+        }
+        return sample;
+    }
+
+    /**
+     * 所有 Agent 的最新样本 (可能包含尚未清理的过期样本，由调用方标记)
+     */
+    public Map<String, IngestSample> snapshot() {
+        return Map.copyOf(latest);
+    }
+
+    public boolean isStale(IngestSample sample) {
+        return System.currentTimeMillis() - sample.timestampMillis() > maxAgeMillis;
+    }
+
+    public int size() {
+        return latest.size();
+    }
+
+    /**
+     * 移除某个 Agent (服务器被删除时调用)
+     */
+    public void remove(String agentId) {
+        if (agentId != null) {
+            latest.remove(agentId);
+        }
+    }
+}
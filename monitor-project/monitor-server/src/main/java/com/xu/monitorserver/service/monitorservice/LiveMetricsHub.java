@@ -0,0 +1,308 @@
+package com.xu.monitorserver.service.monitorservice;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.xu.monitorserver.dto.IngestSample;
+import com.xu.monitorserver.repository.MetricsLineEncoder;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 实时指标推送：上报的样本写入后立即分发给订阅了该 Agent 的 WebSocket 连接，前端不再轮询 InfluxDB。
+ *
+ * <p>每个订阅者有一个待发送缓冲 (按 Agent 合并)：</p>
+ * <ul>
+ *     <li>合并：同一 Agent 还没发出去的旧样本直接被新样本替换，慢的连接只会收到更少、更新的数据</li>
+ *     <li>丢弃最旧：缓冲中的 Agent 数超过 monitor.live.max-pending 时丢弃最早进入缓冲的样本，下一条消息携带丢弃数量</li>
+ *     <li>发送：每个订阅者同一时间只有一个发送任务，一次把缓冲中的全部样本合成一条消息；
+ *         上报线程只做入队，不会被慢连接阻塞</li>
+ * </ul>
+ *
+ * <p>只推送成为最新值的样本 (见 {@link LatestSampleStore#update})，离线补发的旧样本不推送。</p>
+ */
+@Component
+public class LiveMetricsHub {
+
+    private static final Logger logger = LoggerFactory.getLogger(LiveMetricsHub.class);
+
+    /**
+     * 推送通道 (WebSocket 连接)，实现需保证 send 可以被多个线程调用
+     */
+    public interface Sink {
+        void send(String text) throws IOException;
+
+        void close();
+    }
+
+    private final Map<String, Subscriber> subscribers = new ConcurrentHashMap<>();
+    private final LatestSampleStore latestStore;
+    private final Executor executor;
+    private final JsonFactory jsonFactory = new JsonFactory();
+
+    private final int maxPending;
+
+    private final AtomicLong published = new AtomicLong();
+    private final AtomicLong messages = new AtomicLong();
+    private final AtomicLong delivered = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong sendFailures = new AtomicLong();
+
+    @Autowired
+    public LiveMetricsHub(LatestSampleStore latestStore,
+                          @Value("${monitor.live.sender-threads:2}") int threads,
+                          @Value("${monitor.live.max-pending:256}") int maxPending) {
+        this(latestStore, newExecutor(threads), maxPending);
+    }
+
+    LiveMetricsHub(LatestSampleStore latestStore, Executor executor, int maxPending) {
+        this.latestStore = latestStore;
+        this.executor = executor;
+        this.maxPending = maxPending;
+    }
+
+    private static ExecutorService newExecutor(int threads) {
+        AtomicInteger seq = new AtomicInteger();
+        // 每个订阅者最多排队一个发送任务，队列长度不会超过连接数
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(),
+                r -> {
+                    Thread t = new Thread(r, "live-metrics-sender-" + seq.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * 订阅 (同一 id 重复订阅时替换订阅条件)，并立即推送订阅范围内各 Agent 当前的最新样本
+     *
+     * @param id       订阅者 ID (WebSocket session id)
+     * @param agentIds 订阅的 Agent，为空时订阅全部
+     * @param fields   推送的字段 (已校验)
+     */
+    public void subscribe(String id, Sink sink, Set<String> agentIds, List<String> fields) {
+        Subscriber subscriber = new Subscriber(id, sink, agentIds, fields);
+        subscribers.put(id, subscriber);
+        for (IngestSample sample : latestStore.snapshot().values()) {
+            if (subscriber.accepts(sample) && !latestStore.isStale(sample)) {
+                offer(subscriber, sample);
+            }
+        }
+    }
+
+    public void unsubscribe(String id) {
+        subscribers.remove(id);
+    }
+
+    /**
+     * 分发一批新写入的样本 (上报线程调用，只入队不发送)
+     */
+    public void publish(List<IngestSample> samples) {
+        if (samples.isEmpty() || subscribers.isEmpty()) {
+            return;
+        }
+        for (IngestSample sample : samples) {
+            published.incrementAndGet();
+            for (Subscriber subscriber : subscribers.values()) {
+                if (subscriber.accepts(sample)) {
+                    offer(subscriber, sample);
+                }
+            }
+        }
+    }
+
+    private void offer(Subscriber subscriber, IngestSample sample) {
+        if (!subscriber.offer(sample)) {
+            return;
+        }
+        try {
+            executor.execute(() -> drain(subscriber));
+        } catch (RejectedExecutionException e) {
+            // 关闭过程中
+            subscriber.reset();
+        }
+    }
+
+    /**
+     * 发送任务：把缓冲中的样本合成一条消息发出，发送期间新到的样本留到下一轮
+     */
+    private void drain(Subscriber subscriber) {
+        while (true) {
+            Batch batch = subscriber.take();
+            if (batch == null) {
+                return;
+            }
+            if (subscribers.get(subscriber.id) != subscriber) {
+                // 已退订或被新的订阅替换
+                return;
+            }
+            try {
+                subscriber.sink.send(encode(batch, subscriber.fields));
+                messages.incrementAndGet();
+                delivered.addAndGet(batch.samples().size());
+            } catch (IOException | RuntimeException e) {
+                sendFailures.incrementAndGet();
+                logger.info("实时指标推送失败，关闭订阅 {}: {}", subscriber.id, e.getMessage());
+                subscribers.remove(subscriber.id, subscriber);
+                subscriber.reset();
+                subscriber.sink.close();
+                return;
+            }
+        }
+    }
+
+    /**
+     * {"type":"metrics","dropped":0,"samples":[{"agentId":"...","time":"...","values":{"cpu_load":12.5,...}}]}，
+     * 样本中没有的字段为 null
+     */
+    String encode(Batch batch, List<String> fields) throws IOException {
+        StringWriter out = new StringWriter(128 + batch.samples().size() * (64 + fields.size() * 24));
+        try (JsonGenerator gen = jsonFactory.createGenerator(out)) {
+            gen.writeStartObject();
+            gen.writeStringField("type", "metrics");
+            gen.writeNumberField("dropped", batch.dropped());
+            gen.writeArrayFieldStart("samples");
+            for (IngestSample sample : batch.samples()) {
+                gen.writeStartObject();
+                gen.writeStringField("agentId", sample.model().getAgentId());
+                gen.writeStringField("time", Instant.ofEpochMilli(sample.timestampMillis()).toString());
+                gen.writeObjectFieldStart("values");
+                for (String field : fields) {
+                    double value = MetricsLineEncoder.metricValue(sample, field);
+                    gen.writeFieldName(field);
+                    if (Double.isNaN(value)) {
+                        gen.writeNull();
+                    } else {
+                        gen.writeNumber(value);
+                    }
+                }
+                gen.writeEndObject();
+                gen.writeEndObject();
+            }
+            gen.writeEndArray();
+            gen.writeEndObject();
+        }
+        return out.toString();
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("subscribers", subscribers.size());
+        stats.put("published", published.get());
+        stats.put("messages", messages.get());
+        stats.put("delivered", delivered.get());
+        stats.put("coalesced", coalesced.get());
+        stats.put("dropped", dropped.get());
+        stats.put("sendFailures", sendFailures.get());
+        stats.put("maxPending", maxPending);
+        return stats;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (executor instanceof ExecutorService service) {
+            service.shutdownNow();
+        }
+    }
+
+    /**
+     * 一次发送的内容
+     *
+     * @param samples 各 Agent 最新的样本 (按进入缓冲的顺序)
+     * @param dropped 上次发送以来因缓冲已满丢弃的样本数
+     */
+    record Batch(List<IngestSample> samples, long dropped) {
+    }
+
+    final class Subscriber {
+
+        private final String id;
+        private final Sink sink;
+        private final Set<String> agentIds;
+        private final List<String> fields;
+
+        /**
+         * agentId -> 待发送的样本，按进入缓冲的顺序 (最旧的在前)
+         */
+        private final LinkedHashMap<String, IngestSample> pending = new LinkedHashMap<>();
+        private long droppedSinceLastSend;
+        private boolean scheduled;
+
+        Subscriber(String id, Sink sink, Set<String> agentIds, List<String> fields) {
+            this.id = id;
+            this.sink = sink;
+            this.agentIds = agentIds;
+            this.fields = fields;
+        }
+
+        boolean accepts(IngestSample sample) {
+            return agentIds.isEmpty() || agentIds.contains(sample.model().getAgentId());
+        }
+
+        /**
+         * @return 需要提交发送任务时返回 true
+         */
+        synchronized boolean offer(IngestSample sample) {
+            String agentId = sample.model().getAgentId();
+            if (pending.remove(agentId) != null) {
+                coalesced.incrementAndGet();
+            } else if (pending.size() >= maxPending) {
+                Iterator<String> eldest = pending.keySet().iterator();
+                eldest.next();
+                eldest.remove();
+                droppedSinceLastSend++;
+                dropped.incrementAndGet();
+            }
+            pending.put(agentId, sample);
+            if (scheduled) {
+                return false;
+            }
+            scheduled = true;
+            return true;
+        }
+
+        /**
+         * @return 缓冲为空时返回 null，并结束本轮发送任务
+         */
+        synchronized Batch take() {
+            if (pending.isEmpty()) {
+                scheduled = false;
+                return null;
+            }
+            Batch batch = new Batch(new ArrayList<>(pending.values()), droppedSinceLastSend);
+            pending.clear();
+            droppedSinceLastSend = 0;
+            return batch;
+        }
+
+        synchronized void reset() {
+            pending.clear();
+            scheduled = false;
+        }
+    }
+}
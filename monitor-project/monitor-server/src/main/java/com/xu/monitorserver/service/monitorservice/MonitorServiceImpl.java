@@ -1,67 +1,409 @@
 package com.xu.monitorserver.service.monitorservice;
 
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.xu.monitorcommon.moudule.BaseMonitorModel;
-import com.xu.monitorserver.repository.InfluxRepository;
+import com.xu.monitorcommon.moudule.HostFacts;
+import com.xu.monitorcommon.moudule.ProcessModel;
+import com.xu.monitorserver.dto.HistoryQuery;
+import com.xu.monitorserver.dto.IngestSample;
+import com.xu.monitorserver.dto.MetricColumns;
+import com.xu.monitorserver.dto.TimeSeriesColumns;
+import com.xu.monitorserver.repository.AggregateWindow;
+import com.xu.monitorserver.repository.FluxTime;
+import com.xu.monitorserver.repository.HistoryQueryCache;
+import com.xu.monitorserver.repository.HotTierStore;
+import com.xu.monitorserver.repository.InfluxBatchWriter;
+import com.xu.monitorserver.exception.ServiceException;
+import com.xu.monitorserver.repository.MetricStore;
+import com.xu.monitorserver.repository.MetricsLineEncoder;
+import com.xu.monitorserver.repository.RollupStore;
+import com.xu.monitorserver.service.alertservice.AlertService;
+import com.xu.monitorserver.utils.Downsampler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
 @Service
 public class MonitorServiceImpl implements IMonitorService {
 
-    private final InfluxRepository influxRepository;
+    private static final Logger logger = LoggerFactory.getLogger(MonitorServiceImpl.class);
+    private static final TypeReference<List<ProcessModel>> PROCESS_LIST = new TypeReference<>() {
+    };
 
-    public MonitorServiceImpl(InfluxRepository influxRepository) {
-        this.influxRepository = influxRepository;
+    private final MetricStore metricStore;
+    private final HostFactsService hostFactsService;
+    private final IngestTimestampGuard timestampGuard;
+    /**
+     * engine=embedded 时没有异步写入器，为 null
+     */
+    private final InfluxBatchWriter batchWriter;
+    private final ObjectMapper objectMapper;
+    private final LatestSampleStore latestStore;
+    private final HistoryQueryCache historyCache;
+    private final LiveMetricsHub liveHub;
+    private final HotTierStore hotTier;
+    private final RollupStore rollups;
+    private final AlertService alertService;
+
+    /**
+     * 未指定 maxPoints 时每条曲线最多返回的点数
+     */
+    @Value("${monitor.history.default-max-points:1000}")
+    private int defaultMaxPoints;
+
+    /**
+     * maxPoints 允许的最大值
+     */
+    @Value("${monitor.history.max-points-limit:10000}")
+    private int maxPointsLimit;
+
+    /**
+     * 降采样时按 maxPoints 的多少倍选择输入窗口
+     */
+    @Value("${monitor.history.downsample.oversample:10}")
+    private int downsampleOversample;
+
+    /**
+     * 降采样输入的点数上限 (每个字段)
+     */
+    @Value("${monitor.history.downsample.max-input-points:100000}")
+    private int downsampleMaxInput;
+
+    public MonitorServiceImpl(MetricStore metricStore, HostFactsService hostFactsService,
+                              IngestTimestampGuard timestampGuard, ObjectProvider<InfluxBatchWriter> batchWriter,
+                              ObjectMapper objectMapper, LatestSampleStore latestStore,
+                              HistoryQueryCache historyCache, LiveMetricsHub liveHub, HotTierStore hotTier,
+                              RollupStore rollups, AlertService alertService) {
+        this.metricStore = metricStore;
+        this.hostFactsService = hostFactsService;
+        this.timestampGuard = timestampGuard;
+        this.batchWriter = batchWriter.getIfAvailable();
+        this.objectMapper = objectMapper;
+        this.latestStore = latestStore;
+        this.historyCache = historyCache;
+        this.liveHub = liveHub;
+        this.hotTier = hotTier;
+        this.rollups = rollups;
+        this.alertService = alertService;
     }
 
 
     @Override
     public void saveMonitorData(BaseMonitorModel model) {
-        influxRepository.save(model);
+        // 样本只包含动态指标，主机静态信息取自缓存
+        normalizeProcesses(model);
+        IngestSample sample = timestampGuard.check(model, hostFactsService.get(model.getAgentId()));
+        if (sample != null) {
+            metricStore.save(sample);
+            hotTier.append(List.of(sample));
+            liveHub.publish(latestStore.update(List.of(sample)));
+            historyCache.invalidate(List.of(sample));
+            rollups.markLate(List.of(sample));
+            alertService.evaluate(List.of(sample));
+        }
     }
 
     @Override
-    public List<Map<String, Object>> getCpuHistory(String ip, String start, String end) {
-        return influxRepository.queryHistory(ip, "cpu_load", start, end);
+    public void saveMonitorDataBatch(List<BaseMonitorModel> models) {
+        if (models == null || models.isEmpty()) {
+            return;
+        }
+        List<IngestSample> samples = new ArrayList<>(models.size());
+        for (BaseMonitorModel model : models) {
+            normalizeProcesses(model);
+            IngestSample sample = timestampGuard.check(model, hostFactsService.get(model.getAgentId()));
+            if (sample != null) {
+                samples.add(sample);
+            }
+        }
+        if (!samples.isEmpty()) {
+            metricStore.saveBatch(samples);
+            hotTier.append(samples);
+            // 写入 WAL 成功后再更新内存中的最新值，并推送给实时订阅者
+            liveHub.publish(latestStore.update(samples));
+            // 离线补发的旧样本会落入已缓存的历史时间桶
+            historyCache.invalidate(samples);
+            rollups.markLate(samples);
+            alertService.evaluate(samples);
+        }
+    }
+
+    /**
+     * 旧版 Agent 只上报 topProcessesJson 字符串，这里解析成结构化列表，统一按 process_top 写入
+     */
+    private void normalizeProcesses(BaseMonitorModel model) {
+        if (model.getTopProcesses() != null || model.getTopProcessesJson() == null
+                || model.getTopProcessesJson().isEmpty()) {
+            return;
+        }
+        try {
+            model.setTopProcesses(objectMapper.readValue(model.getTopProcessesJson(), PROCESS_LIST));
+        } catch (Exception e) {
+            // 进程列表只是附加信息，解析失败不影响指标写入
+            logger.warn("无法解析旧版 topProcessesJson: agentId={} {}", model.getAgentId(), e.getMessage());
+        }
     }
 
     @Override
-    public List<Map<String, Object>> getDiskHistory(String ip, String start, String end) {
-        return influxRepository.queryHistory(ip, "disk_usage", start, end);
+    public String resolveAgentId(String ip) {
+        return hostFactsService.resolveAgentId(ip);
+    }
+
+    /**
+     * 旧结构 server_status 以 ip 为标签，双读时用该 Agent 当前登记的 IP 读取
+     */
+    private String legacyIpOf(String agentId) {
+        HostFacts facts = hostFactsService.get(agentId);
+        return facts != null ? facts.getIp() : null;
+    }
+
+    /**
+     * 历史曲线都经过按时间桶对齐的查询缓存，已结束的时间段不再重复查询 InfluxDB
+     */
+    private List<Map<String, Object>> history(String agentId, String field, HistoryQuery query) {
+        return historyColumns(agentId, List.of(field), query).points(field);
+    }
+
+    private TimeSeriesColumns historyColumns(String agentId, List<String> fields, HistoryQuery query) {
+        return historyMetricColumns(agentId, fields, query).toTimeSeries();
+    }
+
+    private MetricColumns historyMetricColumns(String agentId, List<String> fields, HistoryQuery query) {
+        Downsampler.Mode mode = Downsampler.Mode.parse(query.downsample());
+        if (mode == null) {
+            throw new ServiceException(400, "不支持的降采样方式: " + query.downsample() + "，可选值: none/lttb/minmax");
+        }
+        int maxPoints = maxPointsOf(query);
+        // 降采样时先按更细的窗口取 maxPoints 的若干倍，再从中挑选 maxPoints 个点
+        int inputPoints = mode == Downsampler.Mode.NONE
+                ? maxPoints
+                : (int) Math.min((long) maxPoints * downsampleOversample, downsampleMaxInput);
+        // 窗口始终按完整的 start~end 选择，增量结果与全量结果落在同一组窗口上
+        AggregateWindow window = windowOf(query, inputPoints);
+        String start = query.start();
+        if (query.since() != null && !query.since().isBlank()) {
+            start = sinceStart(query);
+            // 增量结果只有最近几个窗口，不需要降采样
+            mode = Downsampler.Mode.NONE;
+        }
+        // 长时间范围：已汇总的部分读 rollup，之后的部分与短时间范围一样读取
+        MetricColumns columns = rollups.queryColumns(agentId, fields, start, query.end(), window,
+                tailStart -> recentColumns(agentId, fields, tailStart, query.end(), window));
+        if (columns == null) {
+            columns = recentColumns(agentId, fields, start, query.end(), window);
+        }
+        return Downsampler.apply(columns, mode, maxPoints);
+    }
+
+    /**
+     * 最近的数据 (热层覆盖范围内) 直接在内存中聚合，其余经查询缓存读取时序存储
+     */
+    private MetricColumns recentColumns(String agentId, List<String> fields, String start, String end,
+                                        AggregateWindow window) {
+        MetricColumns columns = hotTier.queryColumns(agentId, fields, start, end, window);
+        if (columns == null) {
+            columns = historyCache.queryColumns(agentId, legacyIpOf(agentId), fields, start, end, window);
+        }
+        return columns;
+    }
+
+    /**
+     * 增量查询的开始时间：只取时间 (窗口结束时间) 不早于游标的窗口。
+     * 游标所在的窗口可能仍在写入，会再返回一次，客户端用新值替换
+     */
+    private String sinceStart(HistoryQuery query) {
+        Long since = FluxTime.parseCursor(query.since());
+        if (since == null) {
+            throw new ServiceException(400, "since 必须是 RFC3339 时间或 epoch 毫秒: " + query.since());
+        }
+        Long from = FluxTime.parse(query.start(), "-1h", System.currentTimeMillis());
+        if (from != null && from >= since) {
+            return query.start();
+        }
+        return Instant.ofEpochMilli(since - 1).toString();
+    }
+
+    private int maxPointsOf(HistoryQuery query) {
+        int maxPoints = query.maxPoints() == null ? defaultMaxPoints : query.maxPoints();
+        if (maxPoints <= 0 || maxPoints > maxPointsLimit) {
+            throw new ServiceException(400, "maxPoints 必须在 1 ~ " + maxPointsLimit + " 之间");
+        }
+        return maxPoints;
+    }
+
+    /**
+     * 按时间范围与点数上限选择聚合窗口：-1h 仍是 10 秒窗口，7 天约 30 分钟窗口，返回的点数与范围大小无关
+     *
+     * @throws ServiceException start/end 无法解析 (400)
+     */
+    private AggregateWindow windowOf(HistoryQuery query, int maxPoints) {
+        String fn = query.fn() == null || query.fn().isBlank() ? AggregateWindow.DEFAULT.fn() : query.fn();
+        if (!AggregateWindow.FUNCTIONS.contains(fn)) {
+            throw new ServiceException(400, "不支持的聚合函数: " + fn + "，可选值: " + AggregateWindow.FUNCTIONS);
+        }
+        long now = System.currentTimeMillis();
+        Long from = FluxTime.parse(query.start(), "-1h", now);
+        Long to = FluxTime.parse(query.end(), "now()", now);
+        if (from == null || to == null) {
+            // 时间直接拼进 Flux，在构造任何查询之前拒绝无法解析的写法 (如 -1mo)
+            throw new ServiceException(400, "start/end 必须是 RFC3339 时间、now() 或 -7d 这类相对时间");
+        }
+        return AggregateWindow.choose(Math.max(0, to - from), maxPoints, fn);
     }
 
     @Override
-    public List<Map<String, Object>> getNetHistory(String ip, String start, String end) {
-        return influxRepository.queryHistory(ip, "net_recv_rate", start, end);
+    public List<Map<String, Object>> getCpuHistory(String agentId, HistoryQuery query) {
+        return history(agentId, "cpu_load", query);
     }
 
     @Override
-    public Map<String, Object> getServerLatestInfo(String ip) {
-        return influxRepository.queryLastOne(ip);
+    public List<Map<String, Object>> getDiskHistory(String agentId, HistoryQuery query) {
+        return history(agentId, "disk_usage", query);
     }
 
     @Override
-    public Map<String, Object> getSystemLoadHistory(String ip, String start, String end){
+    public List<Map<String, Object>> getNetHistory(String agentId, HistoryQuery query) {
+        return history(agentId, "net_recv_rate", query);
+    }
+
+    @Override
+    public Map<String, Object> getServerLatestInfo(String agentId) {
+        HostFacts facts = hostFactsService.get(agentId);
+        IngestSample latest = latestStore.get(agentId);
+        // 内存中有最新样本时直接返回；服务端刚启动、还没收到该 Agent 的样本时才查时序存储
+        Map<String, Object> info = latest != null
+                ? latestInfo(latest)
+                : metricStore.queryLastOne(agentId, facts != null ? facts.getIp() : null);
+        // 系统/主机名/内存与磁盘总量来自主机静态信息，v2 的时序数据中不再携带
+        if (facts != null) {
+            info.put("memoryTotal", facts.getMemoryTotal());
+            info.put("diskTotal", facts.getDiskTotal());
+            info.putIfAbsent("osName", facts.getOsName());
+            info.putIfAbsent("hostName", facts.getHostName());
+            info.putIfAbsent("ip", facts.getIp());
+        }
+        info.put("agentId", agentId);
+        return info;
+    }
+
+    @Override
+    public List<Map<String, Object>> getFleetLatest() {
+        List<Map<String, Object>> fleet = new ArrayList<>();
+        for (Map.Entry<String, IngestSample> entry : latestStore.snapshot().entrySet()) {
+            IngestSample sample = entry.getValue();
+            BaseMonitorModel model = sample.model();
+            Map<String, Object> item = new LinkedHashMap<>();
+            item.put("agentId", entry.getKey());
+            HostFacts facts = hostFactsService.get(entry.getKey());
+            if (facts != null) {
+                item.put("hostName", facts.getHostName());
+                item.put("ip", facts.getIp());
+                item.put("osName", facts.getOsName());
+            }
+            item.put("timestamp", sample.timestampMillis());
+            item.put("stale", latestStore.isStale(sample));
+            item.put("cpuLoad", model.getCpuLoad());
+            item.put("memoryUsed", model.getMemoryUsed());
+            item.put("diskUsage", model.getDiskUsage());
+            item.put("netRecvRate", model.getNetRecvRate());
+            item.put("netSentRate", model.getNetSentRate());
+            item.put("diskReadRate", model.getDiskReadRate());
+            item.put("diskWriteRate", model.getDiskWriteRate());
+            item.put("systemLoad1", model.getSystemLoad1());
+            item.put("cpuTemperature", model.getCpuTemperature());
+            item.put("uptime", model.getUpTime());
+            fleet.add(item);
+        }
+        fleet.sort(Comparator.comparing(item -> String.valueOf(item.get("agentId"))));
+        return fleet;
+    }
+
+    /**
+     * 由内存中的最新样本构造 base-info (字段与 InfluxDB 查询结果一致)
+     */
+    private Map<String, Object> latestInfo(IngestSample sample) {
+        Map<String, Object> info = new HashMap<>();
+        info.put("uptime", sample.model().getUpTime());
+        info.put("topProcesses", sample.model().getTopProcesses() != null ? sample.model().getTopProcesses() : List.of());
+        info.put("timestamp", sample.timestampMillis());
+        return info;
+    }
+
+    @Override
+    public Map<String, Object> getSystemLoadHistory(String agentId, HistoryQuery query){
         HashMap<String, Object> result = new HashMap<>();
-        result.put("load1", influxRepository.queryHistory(ip, "sys_load_1", start, end));
-        result.put("load5", influxRepository.queryHistory(ip, "sys_load_5", start, end));
-        result.put("load15", influxRepository.queryHistory(ip, "sys_load_15", start, end));
+        // 三个字段一次查询，按时间对齐后再拆回各自的曲线
+        TimeSeriesColumns columns = historyColumns(agentId, List.of("sys_load_1", "sys_load_5", "sys_load_15"), query);
+        result.put("load1", columns.points("sys_load_1"));
+        result.put("load5", columns.points("sys_load_5"));
+        result.put("load15", columns.points("sys_load_15"));
         return result;
     }
 
     @Override
-    public Map<String, Object> getDiskIoHistory(String ip, String start, String end) {
+    public Map<String, Object> getDiskIoHistory(String agentId, HistoryQuery query) {
         Map<String, Object> result = new HashMap<>();
-        result.put("read", influxRepository.queryHistory(ip, "disk_read_rate", start, end));
-        result.put("write", influxRepository.queryHistory(ip, "disk_write_rate", start, end));
+        TimeSeriesColumns columns = historyColumns(agentId, List.of("disk_read_rate", "disk_write_rate"), query);
+        result.put("read", columns.points("disk_read_rate"));
+        result.put("write", columns.points("disk_write_rate"));
         return result;
     }
 
     @Override
-    public List<Map<String, Object>> getTempHistory(String ip, String start, String end){
-        return influxRepository.queryHistory(ip, "cpu_temp", start, end);
+    public List<Map<String, Object>> getTempHistory(String agentId, HistoryQuery query){
+        return history(agentId, "cpu_temp", query);
+    }
+
+    @Override
+    public TimeSeriesColumns getHistoryColumns(String agentId, List<String> fields, HistoryQuery query) {
+        return getHistoryMetricColumns(agentId, fields, query).toTimeSeries();
+    }
+
+    @Override
+    public MetricColumns getHistoryMetricColumns(String agentId, List<String> fields, HistoryQuery query) {
+        if (fields == null || fields.isEmpty()) {
+            throw new ServiceException(400, "fields 不能为空");
+        }
+        for (String field : fields) {
+            if (!MetricsLineEncoder.METRIC_FIELDS.contains(field)) {
+                throw new ServiceException(400, "不支持的字段: " + field);
+            }
+        }
+        return historyMetricColumns(agentId, fields.stream().distinct().toList(), query);
+    }
+
+    @Override
+    public Map<String, Object> getLiveStats() {
+        return liveHub.stats();
+    }
+
+    @Override
+    public Map<String, Object> getIngestStats() {
+        // 嵌入式存储同步写入段文件，没有队列与 WAL 的统计
+        Map<String, Object> stats = batchWriter != null ? batchWriter.stats() : new LinkedHashMap<>();
+        stats.put("skewClamped", timestampGuard.getClamped());
+        stats.put("skewFlagged", timestampGuard.getFlagged());
+        stats.put("skewRejected", timestampGuard.getRejected());
+        stats.put("latestAgents", latestStore.size());
+        return stats;
+    }
+
+    @Override
+    public Map<String, Object> getQueryCacheStats() {
+        Map<String, Object> stats = historyCache.stats();
+        stats.put("hotTier", hotTier.stats());
+        stats.put("rollup", rollups.stats());
+        return stats;
     }
-}
\ No newline at end of file
+}
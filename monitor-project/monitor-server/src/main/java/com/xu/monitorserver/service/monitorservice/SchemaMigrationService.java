@@ -0,0 +1,258 @@
+package com.xu.monitorserver.service.monitorservice;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.influxdb.client.InfluxDBClient;
+import com.influxdb.client.domain.WritePrecision;
+import com.influxdb.query.FluxRecord;
+import com.influxdb.query.FluxTable;
+import com.xu.monitorcommon.moudule.BaseMonitorModel;
+import com.xu.monitorcommon.moudule.ProcessModel;
+import com.xu.monitorserver.dto.IngestSample;
+import com.xu.monitorserver.exception.ServiceException;
+import com.xu.monitorserver.repository.InfluxBatchWriter;
+import com.xu.monitorserver.repository.InfluxRepository;
+import com.xu.monitorserver.repository.MetricsLineEncoder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 存储结构迁移：把旧结构 server_status (按 ip 打标签、top_processes 为 JSON 字段)
+ * 改写为 v2 的 server_metrics (按 agent_id) 与 process_top。
+ *
+ * <p>由管理员手动触发，后台单线程按时间窗口顺序读取旧数据，经 {@link InfluxBatchWriter} (WAL) 写入新结构。
+ * InfluxDB 中相同序列、相同时间戳的点会被覆盖，所以迁移可以重复执行，中断后重新执行即可。</p>
+ *
+ * <p>ip 按当前 server_info 的登记映射到 agentId；查不到 agentId 的 ip (已下线或未注册的主机) 跳过并计数。
+ * 迁移期间查询接口通过双读 (monitor.storage.dual-read) 同时读取新旧两种结构，迁移完成后可关闭双读。</p>
+ */
+@Service
+public class SchemaMigrationService {
+
+    private static final Logger logger = LoggerFactory.getLogger(SchemaMigrationService.class);
+    private static final TypeReference<List<ProcessModel>> PROCESS_LIST = new TypeReference<>() {
+    };
+
+    /**
+     * 每攒够 N 行提交一次写入器
+     */
+    private static final int SUBMIT_LINES = 2000;
+
+    private final InfluxDBClient influxDBClient;
+    /**
+     * engine=embedded 时没有异步写入器 (也没有旧结构数据)，为 null
+     */
+    private final InfluxBatchWriter batchWriter;
+    private final HostFactsService hostFactsService;
+    private final ObjectMapper objectMapper;
+
+    @Value("${influx.bucket}")
+    private String bucket;
+
+    @Value("${influx.org}")
+    private String org;
+
+    /**
+     * 每次查询的时间窗口 (小时)，窗口越大单次查询占用内存越多
+     */
+    @Value("${monitor.storage.migration.window-hours:1}")
+    private int windowHours;
+
+    private final AtomicBoolean running = new AtomicBoolean(false);
+    private final AtomicLong rowsMigrated = new AtomicLong();
+    private final AtomicLong rowsSkipped = new AtomicLong();
+    private final AtomicLong windowsDone = new AtomicLong();
+    private volatile String state = "IDLE";
+    private volatile long windowsTotal;
+    private volatile Instant rangeStart;
+    private volatile Instant rangeStop;
+    private volatile Instant cursor;
+    private volatile Instant startedAt;
+    private volatile Instant finishedAt;
+    private volatile String error;
+
+    public SchemaMigrationService(InfluxDBClient influxDBClient, ObjectProvider<InfluxBatchWriter> batchWriter,
+                                  HostFactsService hostFactsService, ObjectMapper objectMapper) {
+        this.influxDBClient = influxDBClient;
+        this.batchWriter = batchWriter.getIfAvailable();
+        this.hostFactsService = hostFactsService;
+        this.objectMapper = objectMapper;
+    }
+
+    /**
+     * 启动迁移 (后台执行，立即返回)
+     *
+     * @param days 迁移最近多少天的旧数据
+     */
+    public Map<String, Object> start(int days) {
+        if (days <= 0) {
+            throw new ServiceException(400, "迁移天数必须大于 0");
+        }
+        if (batchWriter == null) {
+            throw new ServiceException(400, "只有 monitor.storage.engine=influx 时才需要迁移旧结构数据");
+        }
+        if (!running.compareAndSet(false, true)) {
+            throw new ServiceException(409, "迁移任务正在执行中");
+        }
+        Instant stop = Instant.now();
+        Instant start = stop.minus(Duration.ofDays(days));
+        Duration window = Duration.ofHours(Math.max(1, windowHours));
+
+        rowsMigrated.set(0);
+        rowsSkipped.set(0);
+        windowsDone.set(0);
+        windowsTotal = (Duration.between(start, stop).toMillis() + window.toMillis() - 1) / window.toMillis();
+        rangeStart = start;
+        rangeStop = stop;
+        cursor = start;
+        startedAt = stop;
+        finishedAt = null;
+        error = null;
+        state = "RUNNING";
+
+        Thread worker = new Thread(() -> run(start, stop, window), "schema-v2-migration");
+        worker.setDaemon(true);
+        worker.start();
+        return status();
+    }
+
+    /**
+     * 迁移进度
+     */
+    public Map<String, Object> status() {
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("state", state);
+        status.put("rangeStart", rangeStart != null ? rangeStart.toString() : null);
+        status.put("rangeStop", rangeStop != null ? rangeStop.toString() : null);
+        status.put("cursor", cursor != null ? cursor.toString() : null);
+        status.put("windowsDone", windowsDone.get());
+        status.put("windowsTotal", windowsTotal);
+        status.put("rowsMigrated", rowsMigrated.get());
+        status.put("rowsSkipped", rowsSkipped.get());
+        status.put("startedAt", startedAt != null ? startedAt.toString() : null);
+        status.put("finishedAt", finishedAt != null ? finishedAt.toString() : null);
+        status.put("error", error);
+        return status;
+    }
+
+    private void run(Instant start, Instant stop, Duration window) {
+        logger.info("开始迁移 server_status -> server_metrics/process_top: {} ~ {}", start, stop);
+        // ip -> agentId，一次迁移内只查一次
+        Map<String, Optional<String>> agentIds = new HashMap<>();
+        try {
+            for (Instant from = start; from.isBefore(stop); from = from.plus(window)) {
+                Instant to = from.plus(window).isAfter(stop) ? stop : from.plus(window);
+                migrateWindow(from, to, agentIds);
+                cursor = to;
+                windowsDone.incrementAndGet();
+            }
+            state = "DONE";
+            logger.info("存储结构迁移完成: 迁移 {} 行, 跳过 {} 行", rowsMigrated.get(), rowsSkipped.get());
+        } catch (Exception e) {
+            state = "FAILED";
+            error = e.getMessage();
+            logger.error("存储结构迁移失败，停在 {}: {}", cursor, e.getMessage(), e);
+        } finally {
+            finishedAt = Instant.now();
+            running.set(false);
+        }
+    }
+
+    /**
+     * 迁移一个时间窗口：pivot 后每行就是旧结构中的一个完整样本
+     */
+    private void migrateWindow(Instant from, Instant to, Map<String, Optional<String>> agentIds) {
+        String flux = String.format(
+                "from(bucket: \"%s\") " +
+                        "|> range(start: %s, stop: %s) " +
+                        "|> filter(fn: (r) => r[\"_measurement\"] == \"%s\") " +
+                        "|> pivot(rowKey: [\"_time\"], columnKey: [\"_field\"], valueColumn: \"_value\")",
+                bucket, from, to, InfluxRepository.LEGACY_MEASUREMENT
+        );
+        List<FluxTable> tables = influxDBClient.getQueryApi().query(flux, org);
+
+        WritePrecision precision = batchWriter.getPrecision();
+        StringBuilder lines = new StringBuilder(64 * 1024);
+        int lineCount = 0;
+        for (FluxTable table : tables) {
+            for (FluxRecord record : table.getRecords()) {
+                String ip = (String) record.getValueByKey("ip");
+                String agentId = ip == null ? null : agentIds.computeIfAbsent(ip,
+                        key -> Optional.ofNullable(hostFactsService.resolveAgentId(key))).orElse(null);
+                if (agentId == null || record.getTime() == null) {
+                    rowsSkipped.incrementAndGet();
+                    continue;
+                }
+                IngestSample sample = toSample(record, agentId);
+                if (lines.length() > 0) {
+                    lines.append('\n');
+                }
+                lineCount += MetricsLineEncoder.encode(sample, precision, lines);
+                rowsMigrated.incrementAndGet();
+                if (lineCount >= SUBMIT_LINES) {
+                    batchWriter.submit(lines, lineCount);
+                    lines.setLength(0);
+                    lineCount = 0;
+                }
+            }
+        }
+        if (lineCount > 0) {
+            batchWriter.submit(lines, lineCount);
+        }
+    }
+
+    private IngestSample toSample(FluxRecord record, String agentId) {
+        BaseMonitorModel model = new BaseMonitorModel();
+        model.setAgentId(agentId);
+        model.setCpuLoad(doubleOf(record, "cpu_load"));
+        model.setCpuTemperature(doubleOf(record, "cpu_temp"));
+        model.setDiskReadRate(doubleOf(record, "disk_read_rate"));
+        model.setDiskUsage(doubleOf(record, "disk_usage"));
+        model.setDiskWriteRate(doubleOf(record, "disk_write_rate"));
+        model.setMemoryUsed(doubleOf(record, "memory_used"));
+        model.setNetRecvRate(doubleOf(record, "net_recv_rate"));
+        model.setNetSentRate(doubleOf(record, "net_sent_rate"));
+        model.setSystemLoad1(doubleOf(record, "sys_load_1"));
+        model.setSystemLoad5(doubleOf(record, "sys_load_5"));
+        model.setSystemLoad15(doubleOf(record, "sys_load_15"));
+        Object upTime = record.getValueByKey("up_time");
+        model.setUpTime(upTime instanceof Number number ? number.longValue() : 0);
+
+        Object processes = record.getValueByKey("top_processes");
+        if (processes instanceof String json && !json.isEmpty()) {
+            try {
+                model.setTopProcesses(objectMapper.readValue(json, PROCESS_LIST));
+            } catch (Exception e) {
+                // 损坏的进程 JSON 只丢弃进程列表，指标照常迁移
+                logger.debug("跳过无法解析的 top_processes: agentId={} time={}", agentId, record.getTime());
+            }
+        }
+
+        Object skew = record.getValueByKey("clock_skew_ms");
+        long clockSkew = skew instanceof Number number ? number.longValue() : 0;
+        long timestamp = record.getTime().toEpochMilli();
+        model.setTimestamp(timestamp);
+        return new IngestSample(model, null, timestamp, clockSkew);
+    }
+
+    /**
+     * 旧数据中缺失的字段记为 NaN，编码时会被跳过，不会凭空写入 0
+     */
+    private static double doubleOf(FluxRecord record, String field) {
+        Object value = record.getValueByKey(field);
+        return value instanceof Number number ? number.doubleValue() : Double.NaN;
+    }
+}
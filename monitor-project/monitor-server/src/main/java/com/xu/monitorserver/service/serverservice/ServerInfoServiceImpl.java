@@ -6,6 +6,7 @@ import com.xu.monitorcommon.constant.AppConstants;
 import com.xu.monitorserver.entity.ServerInfo;
 import com.xu.monitorserver.exception.ServiceException;
 import com.xu.monitorserver.mapper.ServerInfoMapper;
+import com.xu.monitorserver.service.monitorservice.LatestSampleStore;
 import com.jcraft.jsch.JSch;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
@@ -24,9 +25,16 @@ public class ServerInfoServiceImpl extends ServiceImpl<ServerInfoMapper, ServerI
      */
     private final SshSecretCryptoService cryptoService;
 
-    public ServerInfoServiceImpl(StringRedisTemplate redisTemplate, SshSecretCryptoService cryptoService) {
+    /**
+     * 删除服务器时清理该 Agent 在内存中的最新样本
+     */
+    private final LatestSampleStore latestSampleStore;
+
+    public ServerInfoServiceImpl(StringRedisTemplate redisTemplate, SshSecretCryptoService cryptoService,
+                                 LatestSampleStore latestSampleStore) {
         this.redisTemplate = redisTemplate;
         this.cryptoService = cryptoService;
+        this.latestSampleStore = latestSampleStore;
     }
 
     @Override
@@ -216,5 +224,6 @@ public class ServerInfoServiceImpl extends ServiceImpl<ServerInfoMapper, ServerI
         if (!removed) {
             throw new ServiceException(500, "删除失败");
         }
+        latestSampleStore.remove(old.getAgentId());
     }
 }
@@ -0,0 +1,192 @@
+package com.xu.monitorserver.utils;
+
+import com.xu.monitorserver.dto.MetricColumns;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * 曲线降采样：把一条序列压缩到 N 个点，同时保留肉眼可见的形状
+ *
+ * <p>窗口 mean 聚合会把 CPU 尖峰摊平；这里在较细的窗口结果上再挑选点：</p>
+ * <ul>
+ *   <li>{@link Mode#LTTB}：Largest-Triangle-Three-Buckets，每个桶选出与前一个已选点、下一个桶均值构成三角形面积最大的点</li>
+ *   <li>{@link Mode#MINMAX}：最小/最大包络，每个桶保留最小值和最大值两个点，尖峰与低谷一定保留</li>
+ * </ul>
+ * <p>只在 long[]/double[] 上计算并返回选中的行号，不为每个点创建对象。</p>
+ */
+public final class Downsampler {
+
+    public enum Mode {
+        NONE, LTTB, MINMAX;
+
+        /**
+         * @return 参数为空时返回 NONE；无法识别时返回 null
+         */
+        public static Mode parse(String value) {
+            if (value == null || value.isBlank()) {
+                return NONE;
+            }
+            try {
+                return valueOf(value.trim().toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+        }
+    }
+
+    private Downsampler() {
+    }
+
+    /**
+     * 多字段序列降采样：每个字段各自选点 (跳过 NaN)，再取所有字段选中行的并集，保持各列按时间对齐
+     *
+     * @param threshold 每个字段最多保留的点数
+     * @return 行数不超过 字段数 × threshold 的新序列
+     */
+    public static MetricColumns apply(MetricColumns columns, Mode mode, int threshold) {
+        int size = columns.size();
+        if (mode == Mode.NONE || size <= threshold) {
+            return columns;
+        }
+        boolean[] keep = new boolean[size];
+        int[] rows = new int[size];
+        double[] x = new double[size];
+        double[] y = new double[size];
+        long origin = columns.times()[0];
+        for (double[] column : columns.values()) {
+            // 压缩掉该字段没有数据的行
+            int n = 0;
+            for (int i = 0; i < size; i++) {
+                if (!Double.isNaN(column[i])) {
+                    rows[n] = i;
+                    x[n] = columns.times()[i] - origin;
+                    y[n] = column[i];
+                    n++;
+                }
+            }
+            int[] selected = mode == Mode.LTTB ? lttb(x, y, n, threshold) : minMax(y, n, threshold);
+            for (int index : selected) {
+                keep[rows[index]] = true;
+            }
+        }
+        int kept = 0;
+        for (boolean k : keep) {
+            if (k) {
+                kept++;
+            }
+        }
+        int[] result = new int[kept];
+        for (int i = 0, r = 0; i < size; i++) {
+            if (keep[i]) {
+                result[r++] = i;
+            }
+        }
+        return columns.select(result);
+    }
+
+    /**
+     * Largest-Triangle-Three-Buckets
+     *
+     * @param x         横坐标 (时间)，升序
+     * @param y         纵坐标
+     * @param n         有效长度 (只使用前 n 个元素)
+     * @param threshold 输出点数，小于 3 时按 3 处理
+     * @return 选中的下标，升序；首尾两个点总是保留
+     */
+    public static int[] lttb(double[] x, double[] y, int n, int threshold) {
+        threshold = Math.max(3, threshold);
+        if (n <= threshold) {
+            return identity(n);
+        }
+        int[] sampled = new int[threshold];
+        int k = 0;
+        sampled[k++] = 0;
+        // 除首尾两点外，其余 n - 2 个点平均分进 threshold - 2 个桶
+        double every = (double) (n - 2) / (threshold - 2);
+        int a = 0;
+        for (int i = 0; i < threshold - 2; i++) {
+            // 下一个桶的均值作为三角形的第三个顶点 (最后一个桶用终点)
+            int avgStart = (int) ((i + 1) * every) + 1;
+            int avgEnd = Math.min((int) ((i + 2) * every) + 1, n);
+            double avgX = 0;
+            double avgY = 0;
+            for (int j = avgStart; j < avgEnd; j++) {
+                avgX += x[j];
+                avgY += y[j];
+            }
+            int avgLength = avgEnd - avgStart;
+            if (avgLength > 0) {
+                avgX /= avgLength;
+                avgY /= avgLength;
+            } else {
+                avgX = x[n - 1];
+                avgY = y[n - 1];
+            }
+
+            int rangeStart = (int) (i * every) + 1;
+            int rangeEnd = (int) ((i + 1) * every) + 1;
+            double ax = x[a];
+            double ay = y[a];
+            double maxArea = -1;
+            int next = rangeStart;
+            for (int j = rangeStart; j < rangeEnd; j++) {
+                // 面积的 2 倍，比较大小不需要除以 2
+                double area = Math.abs((ax - avgX) * (y[j] - ay) - (ax - x[j]) * (avgY - ay));
+                if (area > maxArea) {
+                    maxArea = area;
+                    next = j;
+                }
+            }
+            sampled[k++] = next;
+            a = next;
+        }
+        sampled[k++] = n - 1;
+        return k == sampled.length ? sampled : Arrays.copyOf(sampled, k);
+    }
+
+    /**
+     * 最小/最大包络：首尾两点之外分成 (threshold - 2) / 2 个桶，每个桶按时间顺序输出最小值与最大值
+     *
+     * @return 选中的下标，升序；首尾两个点总是保留
+     */
+    public static int[] minMax(double[] y, int n, int threshold) {
+        threshold = Math.max(4, threshold);
+        if (n <= threshold) {
+            return identity(n);
+        }
+        int buckets = (threshold - 2) / 2;
+        int interior = n - 2;
+        int[] sampled = new int[buckets * 2 + 2];
+        int k = 0;
+        sampled[k++] = 0;
+        for (int b = 0; b < buckets; b++) {
+            int start = 1 + (int) ((long) b * interior / buckets);
+            int end = 1 + (int) ((long) (b + 1) * interior / buckets);
+            int min = start;
+            int max = start;
+            for (int j = start + 1; j < end; j++) {
+                if (y[j] < y[min]) {
+                    min = j;
+                }
+                if (y[j] > y[max]) {
+                    max = j;
+                }
+            }
+            sampled[k++] = Math.min(min, max);
+            if (min != max) {
+                sampled[k++] = Math.max(min, max);
+            }
+        }
+        sampled[k++] = n - 1;
+        return k == sampled.length ? sampled : Arrays.copyOf(sampled, k);
+    }
+
+    private static int[] identity(int n) {
+        int[] all = new int[n];
+        for (int i = 0; i < n; i++) {
+            all[i] = i;
+        }
+        return all;
+    }
+}
@@ -0,0 +1,61 @@
+package com.xu.monitorserver.utils;
+
+import com.xu.monitorserver.dto.MetricColumns;
+import com.xu.monitorserver.dto.TimeSeriesColumns;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 历史接口的增量游标：返回数据中最新一个点的时间，客户端下次轮询时作为 since 传回
+ */
+public final class HistoryCursor {
+
+    /**
+     * 响应头名称 (单个历史接口通过响应头返回游标，保持响应体格式不变)
+     */
+    public static final String HEADER = "X-History-Cursor";
+
+    private HistoryCursor() {
+    }
+
+    /**
+     * @param data     历史接口的返回值：[{time, value}]、{ load1: [...], ... }、{@link TimeSeriesColumns} 或 {@link MetricColumns}
+     * @param fallback 没有任何点时返回的游标 (通常是请求中的 since)
+     */
+    public static String latest(Object data, String fallback) {
+        Instant latest = latestOf(data);
+        return latest != null ? latest.toString() : fallback;
+    }
+
+    private static Instant latestOf(Object data) {
+        if (data instanceof MetricColumns columns) {
+            int size = columns.size();
+            return size == 0 ? null : Instant.ofEpochMilli(columns.times()[size - 1]);
+        }
+        if (data instanceof TimeSeriesColumns columns) {
+            List<String> time = columns.time();
+            return time.isEmpty() ? null : Instant.parse(time.get(time.size() - 1));
+        }
+        if (data instanceof List<?> points) {
+            // 各曲线按时间升序，最后一个点最新
+            if (!points.isEmpty() && points.get(points.size() - 1) instanceof Map<?, ?> point
+                    && point.get("time") instanceof String time) {
+                return Instant.parse(time);
+            }
+            return null;
+        }
+        if (data instanceof Map<?, ?> series) {
+            Instant latest = null;
+            for (Object value : series.values()) {
+                Instant candidate = value instanceof List<?> ? latestOf(value) : null;
+                if (candidate != null && (latest == null || candidate.isAfter(latest))) {
+                    latest = candidate;
+                }
+            }
+            return latest;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,38 @@
+package com.xu.monitorserver;
+
+import com.xu.monitorserver.repository.EmbeddedMetricStore;
+import com.xu.monitorserver.repository.InfluxBatchWriter;
+import com.xu.monitorserver.repository.IngestWal;
+import com.xu.monitorserver.repository.MetricStore;
+import com.xu.monitorserver.service.monitorservice.IMonitorService;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.ApplicationContext;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+
+/**
+ * engine=embedded 时不创建 WAL 与 InfluxDB 写入链路
+ */
+@SpringBootTest(properties = {"monitor.storage.engine=embedded", "monitor.storage.embedded.dir=target/embedded-context-tsdb"})
+class EmbeddedEngineContextTests {
+
+    @Autowired
+    private ApplicationContext context;
+
+    @Autowired
+    private MetricStore metricStore;
+
+    @Autowired
+    private IMonitorService monitorService;
+
+    @Test
+    void skipsInfluxWritePath() {
+        assertInstanceOf(EmbeddedMetricStore.class, metricStore);
+        assertEquals(0, context.getBeanNamesForType(InfluxBatchWriter.class).length);
+        assertEquals(0, context.getBeanNamesForType(IngestWal.class).length);
+        assertEquals(0L, monitorService.getIngestStats().get("skewRejected"));
+    }
+}
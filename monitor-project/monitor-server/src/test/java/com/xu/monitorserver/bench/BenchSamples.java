@@ -0,0 +1,125 @@
+package com.xu.monitorserver.bench;
+
+import com.influxdb.client.domain.WritePrecision;
+import com.influxdb.client.write.Point;
+import com.xu.monitorcommon.moudule.BaseMonitorModel;
+import com.xu.monitorcommon.moudule.HostFacts;
+import com.xu.monitorcommon.moudule.ProcessModel;
+import com.xu.monitorserver.dto.IngestSample;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 基准测试/一致性测试共用的样本数据
+ */
+public final class BenchSamples {
+
+    private BenchSamples() {
+    }
+
+    public static HostFacts facts() {
+        HostFacts facts = new HostFacts();
+        facts.setAgentId("agent-0001");
+        facts.setHostName("web-01");
+        facts.setIp("10.0.0.8");
+        facts.setOsName("Ubuntu 22.04.4 LTS");
+        return facts;
+    }
+
+    public static BaseMonitorModel model(long timestamp) {
+        BaseMonitorModel model = new BaseMonitorModel();
+        model.setAgentId("agent-0001");
+        model.setTimestamp(timestamp);
+        model.setCpuLoad(37.25);
+        model.setMemoryUsed(11.5);
+        model.setDiskUsed(201.75);
+        model.setDiskUsage(43.5);
+        model.setNetRecvRate(1532.125);
+        model.setNetSentRate(88.5);
+        model.setSystemLoad1(1.25);
+        model.setSystemLoad5(0.75);
+        model.setSystemLoad15(0.5);
+        model.setUpTime(864_000L);
+        model.setDiskReadRate(12.5);
+        model.setDiskWriteRate(256.0);
+        model.setCpuTemperature(58.0);
+        model.setTopProcesses(new ArrayList<>(List.of(
+                process(1201, "java", 12.5, 3.25),
+                process(881, "mysqld", 4.0, 8.5),
+                process(77, "nginx: worker", 1.5, 0.25))));
+        return model;
+    }
+
+    public static ProcessModel process(int pid, String name, double cpu, double mem) {
+        ProcessModel process = new ProcessModel();
+        process.setPid(pid);
+        process.setName(name);
+        process.setCpu(cpu);
+        process.setMem(mem);
+        return process;
+    }
+
+    public static IngestSample sample(long timestamp) {
+        return new IngestSample(model(timestamp), facts(), timestamp, 0);
+    }
+
+    /**
+     * 用 Point 构建器生成 v2 结构的数据点 (server_metrics + 每个进程一个 process_top)，作为编码器的对照
+     */
+    public static List<Point> toPoints(IngestSample sample, WritePrecision precision) {
+        BaseMonitorModel model = sample.model();
+        long time = switch (precision) {
+            case NS -> sample.timestampMillis() * 1_000_000L;
+            case US -> sample.timestampMillis() * 1_000L;
+            case MS -> sample.timestampMillis();
+            case S -> Math.floorDiv(sample.timestampMillis(), 1000L);
+        };
+        List<Point> points = new ArrayList<>();
+        Point metrics = Point.measurement("server_metrics")
+                .addTag("agent_id", model.getAgentId())
+                .addField("cpu_load", model.getCpuLoad())
+                .addField("memory_used", model.getMemoryUsed())
+                .addField("disk_usage", model.getDiskUsage())
+                .addField("net_recv_rate", model.getNetRecvRate())
+                .addField("net_sent_rate", model.getNetSentRate())
+                .addField("sys_load_1", model.getSystemLoad1())
+                .addField("sys_load_5", model.getSystemLoad5())
+                .addField("sys_load_15", model.getSystemLoad15())
+                .addField("up_time", model.getUpTime())
+                .addField("disk_read_rate", model.getDiskReadRate())
+                .addField("disk_write_rate", model.getDiskWriteRate())
+                .addField("cpu_temp", model.getCpuTemperature())
+                .time(time, precision);
+        if (sample.clockSkewMillis() != 0) {
+            metrics.addField("clock_skew_ms", sample.clockSkewMillis());
+        }
+        points.add(metrics);
+        if (model.getTopProcesses() != null) {
+            for (ProcessModel process : model.getTopProcesses()) {
+                points.add(Point.measurement("process_top")
+                        .addTag("agent_id", model.getAgentId())
+                        .addTag("pid", String.valueOf(process.getPid()))
+                        .addTag("name", process.getName())
+                        .addField("cpu", process.getCpu())
+                        .addField("mem", process.getMem())
+                        .time(time, precision));
+            }
+        }
+        return points;
+    }
+
+    /**
+     * 多个数据点拼成以 \n 分隔的 line protocol
+     */
+    public static String toLineProtocol(List<Point> points) {
+        StringBuilder out = new StringBuilder();
+        for (Point point : points) {
+            if (out.length() > 0) {
+                out.append('\n');
+            }
+            out.append(point.toLineProtocol());
+        }
+        return out.toString();
+    }
+}
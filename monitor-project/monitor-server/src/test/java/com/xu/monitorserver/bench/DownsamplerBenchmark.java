@@ -0,0 +1,118 @@
+package com.xu.monitorserver.bench;
+
+import com.xu.monitorserver.dto.MetricColumns;
+import com.xu.monitorserver.utils.Downsampler;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 降采样基准：100 万点的单字段序列降到 1000 点
+ *
+ * <p>对比基本类型数组上的 LTTB、min/max 包络，以及在 [{time, value}] Map 列表上执行同样 LTTB 的写法。</p>
+ *
+ * <p>运行方式 (在 monitor-server 目录)：</p>
+ * <pre>
+ * mvn test-compile dependency:build-classpath -Dmdep.outputFile=target/cp.txt
+ * java -cp "target/test-classes:target/classes:$(cat target/cp.txt)" com.xu.monitorserver.bench.DownsamplerBenchmark
+ * </pre>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DownsamplerBenchmark {
+
+    @Param({"1000000"})
+    public int size;
+
+    @Param({"1000"})
+    public int threshold;
+
+    private MetricColumns columns;
+    private List<Map<String, Object>> points;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        long[] times = new long[size];
+        double[] cpu = new double[size];
+        long start = 1_734_339_600_000L;
+        double value = 20;
+        for (int i = 0; i < size; i++) {
+            times[i] = start + i * 10_000L;
+            // 随机游走 + 偶发尖峰
+            value = Math.max(0, Math.min(100, value + random.nextGaussian()));
+            cpu[i] = random.nextInt(5_000) == 0 ? 100 : value;
+        }
+        columns = new MetricColumns(List.of("cpu_load"), times, new double[][]{cpu});
+
+        points = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            Map<String, Object> point = new HashMap<>();
+            point.put("time", Instant.ofEpochMilli(times[i]).toString());
+            point.put("value", cpu[i]);
+            points.add(point);
+        }
+    }
+
+    @Benchmark
+    public MetricColumns lttb() {
+        return Downsampler.apply(columns, Downsampler.Mode.LTTB, threshold);
+    }
+
+    @Benchmark
+    public MetricColumns minMax() {
+        return Downsampler.apply(columns, Downsampler.Mode.MINMAX, threshold);
+    }
+
+    /**
+     * 对照组：在 Map 列表上逐点取值后执行 LTTB (每个点都要解析时间字符串、拆箱)
+     */
+    @Benchmark
+    public List<Map<String, Object>> lttbOverMaps() {
+        int n = points.size();
+        double[] x = new double[n];
+        double[] y = new double[n];
+        for (int i = 0; i < n; i++) {
+            Map<String, Object> point = points.get(i);
+            x[i] = Instant.parse((String) point.get("time")).toEpochMilli();
+            y[i] = (Double) point.get("value");
+        }
+        int[] selected = Downsampler.lttb(x, y, n, threshold);
+        List<Map<String, Object>> result = new ArrayList<>(selected.length);
+        for (int index : selected) {
+            result.add(points.get(index));
+        }
+        return result;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(DownsamplerBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
@@ -0,0 +1,68 @@
+package com.xu.monitorserver.bench;
+
+import com.influxdb.client.domain.WritePrecision;
+import com.xu.monitorserver.dto.IngestSample;
+import com.xu.monitorserver.repository.MetricsLineEncoder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 样本编码基准 (server_metrics + 3 个 process_top)：Point 构建器 + toLineProtocol() 对比 {@link MetricsLineEncoder}
+ *
+ * <p>运行方式 (在 monitor-server 目录)：</p>
+ * <pre>
+ * mvn test-compile dependency:build-classpath -Dmdep.outputFile=target/cp.txt
+ * java -cp "target/test-classes:target/classes:$(cat target/cp.txt)" com.xu.monitorserver.bench.LineProtocolEncoderBenchmark
+ * </pre>
+ * <p>结果中 gc.alloc.rate.norm 为每次调用 (一个样本) 分配的字节数。</p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LineProtocolEncoderBenchmark {
+
+    private IngestSample sample;
+    private final StringBuilder buffer = new StringBuilder(4096);
+
+    @Setup
+    public void setup() {
+        sample = BenchSamples.sample(1_734_339_600_123L);
+    }
+
+    @Benchmark
+    public String pointToLineProtocol() {
+        return BenchSamples.toLineProtocol(BenchSamples.toPoints(sample, WritePrecision.S));
+    }
+
+    @Benchmark
+    public void encoder(Blackhole bh) {
+        buffer.setLength(0);
+        MetricsLineEncoder.encode(sample, WritePrecision.S, buffer);
+        bh.consume(buffer.length());
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(LineProtocolEncoderBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
@@ -0,0 +1,185 @@
+package com.xu.monitorserver.bench;
+
+import com.influxdb.client.InfluxDBClient;
+import com.influxdb.client.InfluxDBClientFactory;
+import com.influxdb.client.WriteApiBlocking;
+import com.influxdb.client.domain.WritePrecision;
+import com.xu.monitorserver.dto.IngestSample;
+import com.xu.monitorserver.dto.MetricColumns;
+import com.xu.monitorserver.repository.AggregateWindow;
+import com.xu.monitorserver.repository.EmbeddedMetricStore;
+import com.xu.monitorserver.repository.InfluxRepository;
+import com.xu.monitorserver.repository.MetricStore;
+import com.xu.monitorserver.repository.MetricsLineEncoder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * 时序存储基准：同一份数据 (1 个 Agent、最近 1 天、每 5 秒一个点) 分别放在嵌入式存储与 InfluxDB 中
+ *
+ * <p>对比最近 1 小时的 1 分钟均值曲线、1 天原始数据流式读取，以及 1000 条样本的批量写入。
+ * engine=influx 需要可写的 InfluxDB (数据写入 -Dbench.influx.bucket 指定的桶，建议使用单独的桶)：</p>
+ * <pre>
+ * mvn test-compile dependency:build-classpath -Dmdep.outputFile=target/cp.txt
+ * java -cp "target/test-classes:target/classes:$(cat target/cp.txt)" com.xu.monitorserver.bench.MetricStoreBenchmark
+ * java -Dbench.influx.url=http://localhost:8086 -Dbench.influx.token=... -Dbench.influx.org=my-org \
+ *      -Dbench.influx.bucket=bench -cp ... org.openjdk.jmh.Main MetricStoreBenchmark -p engine=embedded,influx
+ * </pre>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MetricStoreBenchmark {
+
+    private static final int DAY_POINTS = 17_280;
+    private static final int BATCH = 1000;
+    private static final List<String> FIELDS = List.of("cpu_load", "memory_used", "net_recv_rate", "net_sent_rate");
+
+    @Param({"embedded"})
+    public String engine;
+
+    private Path dir;
+    private InfluxDBClient client;
+    private WriteApiBlocking writeApi;
+    private MetricStore store;
+    private List<IngestSample> batch;
+    private String dayStart;
+    private String hourStart;
+    private String end;
+    private long writeTime;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        long now = System.currentTimeMillis() / 1000 * 1000;
+        Random random = new Random(42);
+        List<IngestSample> day = new ArrayList<>(DAY_POINTS);
+        for (int i = 0; i < DAY_POINTS; i++) {
+            IngestSample sample = BenchSamples.sample(now - (DAY_POINTS - i) * 5000L);
+            sample.model().setCpuLoad(random.nextDouble() * 100);
+            day.add(sample);
+        }
+        dayStart = Instant.ofEpochMilli(now - TimeUnit.DAYS.toMillis(1)).toString();
+        hourStart = Instant.ofEpochMilli(now - TimeUnit.HOURS.toMillis(1)).toString();
+        end = Instant.ofEpochMilli(now).toString();
+        // 批量写入写在已有数据之后，每次调用时间继续往后推
+        writeTime = now + 5000;
+
+        if ("influx".equals(engine)) {
+            client = InfluxDBClientFactory.create(System.getProperty("bench.influx.url", "http://localhost:8086"),
+                    System.getProperty("bench.influx.token", "").toCharArray(),
+                    System.getProperty("bench.influx.org", "my-org"),
+                    System.getProperty("bench.influx.bucket", "bench"));
+            writeApi = client.getWriteApiBlocking();
+            InfluxRepository repository = new InfluxRepository(client, null);
+            ReflectionTestUtils.setField(repository, "bucket", System.getProperty("bench.influx.bucket", "bench"));
+            ReflectionTestUtils.setField(repository, "org", System.getProperty("bench.influx.org", "my-org"));
+            ReflectionTestUtils.setField(repository, "dualRead", false);
+            store = repository;
+            for (int from = 0; from < day.size(); from += BATCH) {
+                writeInflux(day.subList(from, Math.min(day.size(), from + BATCH)));
+            }
+        } else {
+            dir = Files.createTempDirectory("metric-store-bench");
+            EmbeddedMetricStore embedded = new EmbeddedMetricStore(dir.toString(), 30, 1000, "s");
+            embedded.start();
+            embedded.saveBatch(day);
+            store = embedded;
+        }
+        batch = new ArrayList<>(BATCH);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        if (client != null) {
+            client.close();
+        }
+        if (store instanceof EmbeddedMetricStore embedded) {
+            embedded.stop();
+        }
+        if (dir != null) {
+            try (Stream<Path> files = Files.walk(dir)) {
+                for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        }
+    }
+
+    @Benchmark
+    public MetricColumns aggregateLastHour() {
+        return store.queryMetricColumns("agent-0001", null, FIELDS, hourStart, end, new AggregateWindow(60, "mean"));
+    }
+
+    @Benchmark
+    public long streamRawDay(Blackhole blackhole) throws IOException {
+        return store.streamRawRows("agent-0001", null, FIELDS, dayStart, end, 60_000,
+                (time, values) -> blackhole.consume(values[0]));
+    }
+
+    /**
+     * InfluxDB 一侧直接同步写入行协议 (不经过 WAL 与异步写入器)，与嵌入式存储的同步追加对比
+     */
+    @Benchmark
+    public int writeBatch() {
+        batch.clear();
+        for (int i = 0; i < BATCH; i++) {
+            batch.add(BenchSamples.sample(writeTime));
+            writeTime += 5000;
+        }
+        if (writeApi != null) {
+            writeInflux(batch);
+        } else {
+            store.saveBatch(batch);
+        }
+        return batch.size();
+    }
+
+    private void writeInflux(List<IngestSample> samples) {
+        StringBuilder lines = new StringBuilder(samples.size() * 400);
+        for (IngestSample sample : samples) {
+            if (!lines.isEmpty()) {
+                lines.append('\n');
+            }
+            MetricsLineEncoder.encode(sample, WritePrecision.S, lines);
+        }
+        writeApi.writeRecord(WritePrecision.S, lines.toString());
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(MetricStoreBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
@@ -0,0 +1,76 @@
+package com.xu.monitorserver.config;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.xu.monitorserver.dto.MetricColumns;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.MediaType;
+import org.springframework.mock.http.MockHttpOutputMessage;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 列式响应：JSON 并列数组与二进制帧都能还原出原始的时间与数值
+ */
+public class MetricColumnsMessageConverterTest {
+
+    private static final MetricColumns COLUMNS = new MetricColumns(List.of("sys_load_1", "sys_load_5"),
+            new long[]{1_734_339_600_000L, 1_734_339_610_000L, 1_734_339_620_000L},
+            new double[][]{{0.5, Double.NaN, 1.25}, {0.75, 0.8, 0.9}});
+
+    private static MockHttpOutputMessage write(MediaType mediaType) throws Exception {
+        MockHttpOutputMessage output = new MockHttpOutputMessage();
+        new MetricColumnsMessageConverter().write(COLUMNS, mediaType, output);
+        return output;
+    }
+
+    @Test
+    public void writesParallelJsonArrays() throws Exception {
+        JsonNode body = new ObjectMapper().readTree(write(MetricColumnsMessageConverter.JSON).getBodyAsBytes());
+
+        assertEquals(200, body.get("code").asInt());
+        JsonNode data = body.get("data");
+        assertEquals("sys_load_5", data.get("fields").get(1).asText());
+        assertEquals(1_734_339_610_000L, data.get("times").get(1).asLong());
+        assertTrue(data.get("values").get("sys_load_1").get(1).isNull());
+        assertEquals(1.25, data.get("values").get("sys_load_1").get(2).asDouble());
+        assertEquals(0.8, data.get("values").get("sys_load_5").get(1).asDouble());
+    }
+
+    @Test
+    public void writesAlignedLittleEndianFrame() throws Exception {
+        MockHttpOutputMessage output = write(MetricColumnsMessageConverter.BINARY);
+        assertEquals(MetricColumnsMessageConverter.BINARY_VALUE, output.getHeaders().getContentType().toString());
+
+        ByteBuffer buffer = ByteBuffer.wrap(output.getBodyAsBytes()).order(ByteOrder.LITTLE_ENDIAN);
+        assertEquals("MCOL", new String(output.getBodyAsBytes(), 0, 4, StandardCharsets.US_ASCII));
+        buffer.position(4);
+        assertEquals(1, buffer.getShort());
+        int fields = buffer.getShort();
+        int rows = buffer.getInt();
+        assertEquals(2, fields);
+        assertEquals(3, rows);
+        for (int f = 0; f < fields; f++) {
+            byte[] name = new byte[buffer.getShort()];
+            buffer.get(name);
+            assertEquals(COLUMNS.fields().get(f), new String(name, StandardCharsets.UTF_8));
+        }
+        // 数值列按 8 字节对齐
+        buffer.position((buffer.position() + 7) & ~7);
+        for (int i = 0; i < rows; i++) {
+            assertEquals(COLUMNS.times()[i], buffer.getLong());
+        }
+        for (int f = 0; f < fields; f++) {
+            for (int i = 0; i < rows; i++) {
+                assertEquals(COLUMNS.values()[f][i], buffer.getDouble());
+            }
+        }
+        assertEquals(buffer.capacity(), buffer.position());
+    }
+}
@@ -0,0 +1,167 @@
+package com.xu.monitorserver.repository;
+
+import com.xu.monitorserver.bench.BenchSamples;
+import com.xu.monitorserver.dto.IngestSample;
+import com.xu.monitorserver.dto.MetricColumns;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 嵌入式存储：跨日期的范围查询与窗口聚合、乱序写入与压缩、重启后读取、按保留时长删除段文件
+ */
+public class EmbeddedMetricStoreTest {
+
+    private static final long RETENTION = TimeUnit.DAYS.toMillis(3650);
+    private static final long MIDNIGHT = Instant.parse("2024-12-17T00:00:00Z").toEpochMilli();
+
+    @TempDir
+    Path dir;
+
+    private EmbeddedMetricStore store() {
+        return new EmbeddedMetricStore(dir, RETENTION, 1000, 1000);
+    }
+
+    private static IngestSample sample(long time, double cpu) {
+        IngestSample sample = BenchSamples.sample(time);
+        sample.model().setCpuLoad(cpu);
+        sample.model().setCpuTemperature(Double.NaN);
+        return sample;
+    }
+
+    private static String iso(long millis) {
+        return Instant.ofEpochMilli(millis).toString();
+    }
+
+    private static List<long[]> raw(MetricStore store, long from, long to) throws IOException {
+        List<long[]> rows = new ArrayList<>();
+        store.streamRawRows("agent-0001", null, List.of("cpu_load", "cpu_temp"), iso(from), iso(to), 60_000,
+                (time, values) -> {
+                    assertTrue(Double.isNaN(values[1]));
+                    rows.add(new long[]{time.toEpochMilli(), (long) values[0]});
+                });
+        return rows;
+    }
+
+    @Test
+    public void queriesAcrossDaySegmentsLikeFlux() throws IOException {
+        EmbeddedMetricStore store = store();
+        List<IngestSample> samples = new ArrayList<>();
+        // 23:50 ~ 00:10 每 5 秒一个点 (时间带毫秒，按秒截断)，cpu_load 为距 23:50 的分钟数
+        for (int i = 0; i < 240; i++) {
+            samples.add(sample(MIDNIGHT - 600_000 + i * 5000L + 250, i / 12));
+        }
+        store.saveBatch(samples);
+        assertTrue(Files.exists(dir.resolve("agent-0001").resolve("2024-12-16.seg")));
+        assertTrue(Files.exists(dir.resolve("agent-0001").resolve("2024-12-17.seg")));
+
+        // 开始时间不在窗口边界上：第一个窗口只统计范围内的点；最后一个窗口以范围结束时间为时间
+        MetricColumns columns = store.queryMetricColumns("agent-0001", null, List.of("cpu_load", "cpu_temp"),
+                iso(MIDNIGHT - 90_000), iso(MIDNIGHT + 150_000), new AggregateWindow(60, "mean"));
+        assertArrayEquals(new long[]{MIDNIGHT - 60_000, MIDNIGHT, MIDNIGHT + 60_000, MIDNIGHT + 120_000,
+                MIDNIGHT + 150_000}, columns.times());
+        assertArrayEquals(new double[]{8, 9, 10, 11, 12}, columns.values()[0]);
+        assertTrue(Double.isNaN(columns.values()[1][0]));
+
+        MetricColumns max = store.queryMetricColumns("agent-0001", null, List.of("cpu_load"),
+                iso(MIDNIGHT - 600_000), iso(MIDNIGHT + 600_000), new AggregateWindow(3600, "max"));
+        assertArrayEquals(new long[]{MIDNIGHT, MIDNIGHT + 600_000}, max.times());
+        assertArrayEquals(new double[]{9, 19}, max.values()[0]);
+
+        List<long[]> rows = raw(store, MIDNIGHT - 10_000, MIDNIGHT + 10_000);
+        assertEquals(4, rows.size());
+        assertEquals(MIDNIGHT - 10_000, rows.get(0)[0]);
+        assertEquals(MIDNIGHT + 5_000, rows.get(3)[0]);
+    }
+
+    @Test
+    public void resolvesOutOfOrderWritesAndSurvivesRestart() throws IOException {
+        EmbeddedMetricStore store = store();
+        store.saveBatch(List.of(sample(MIDNIGHT + 10_000, 1), sample(MIDNIGHT + 20_000, 2)));
+        // 离线补发：更早的点，以及同一时间戳的新值 (覆盖)
+        store.saveBatch(List.of(sample(MIDNIGHT + 5_000, 5), sample(MIDNIGHT + 20_000, 7)));
+
+        List<long[]> expected = List.of(new long[]{MIDNIGHT + 5_000, 5}, new long[]{MIDNIGHT + 10_000, 1},
+                new long[]{MIDNIGHT + 20_000, 7});
+        assertRows(expected, raw(store, MIDNIGHT, MIDNIGHT + 60_000));
+
+        // 空闲超过 1 分钟的无序段被重写为有序段
+        store.maintain(System.currentTimeMillis() + 120_000);
+        assertRows(expected, raw(store, MIDNIGHT, MIDNIGHT + 60_000));
+        store.flush();
+
+        // 重启后从段文件读取，之后继续追加
+        EmbeddedMetricStore reopened = store();
+        assertRows(expected, raw(reopened, MIDNIGHT, MIDNIGHT + 60_000));
+        reopened.saveBatch(List.of(sample(MIDNIGHT + 25_000, 9)));
+        assertEquals(4, raw(reopened, MIDNIGHT, MIDNIGHT + 60_000).size());
+    }
+
+    @Test
+    public void expiresOldSegmentsAndReadsLatestUptime() {
+        EmbeddedMetricStore store = new EmbeddedMetricStore(dir, TimeUnit.DAYS.toMillis(2), 1000, 1000);
+        long now = System.currentTimeMillis();
+        store.saveBatch(List.of(sample(now - TimeUnit.DAYS.toMillis(5), 1),
+                sample(now - TimeUnit.DAYS.toMillis(1), 2),
+                sample(now - 60_000, 3)));
+
+        Map<String, Object> info = store.queryLastOne("agent-0001", null);
+        assertEquals(864_000L, info.get("uptime"));
+        assertTrue(store.queryLastOne("unknown", null).isEmpty());
+
+        // 早于保留时长的样本不写入；整段过期的段文件由后台任务删除
+        long threeDaysLater = now + TimeUnit.DAYS.toMillis(3);
+        store.maintain(threeDaysLater);
+        try (var files = Files.list(dir.resolve("agent-0001"))) {
+            assertFalse(files.anyMatch(file -> file.getFileName().toString()
+                    .equals(Instant.ofEpochMilli(now - TimeUnit.DAYS.toMillis(1)).toString().substring(0, 10) + ".seg")));
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Test
+    public void closesLoadedSegmentBeforeDeletingIt() throws IOException {
+        EmbeddedMetricStore store = new EmbeddedMetricStore(dir, TimeUnit.DAYS.toMillis(2), 1000, 1000);
+        long today = Math.floorDiv(System.currentTimeMillis(), TimeUnit.DAYS.toMillis(1)) * TimeUnit.DAYS.toMillis(1);
+        long yesterday = today - 3_600_000;
+        store.saveBatch(List.of(sample(yesterday, 1), sample(today + 60_000, 2)));
+        assertEquals(1, raw(store, yesterday, yesterday + 1000).size());
+
+        // 昨天的段已整段过期，今天的段仍在保留时长内
+        store.maintain(today + TimeUnit.DAYS.toMillis(2) + 3_600_000);
+        assertEquals(0, raw(store, yesterday, yesterday + 1000).size());
+        assertEquals(1, raw(store, today, today + 120_000).size());
+        try (var files = Files.list(dir.resolve("agent-0001"))) {
+            assertEquals(1, files.count());
+        }
+        store.flush();
+
+        // 过期删除后仍持有旧段的写入不会写进已删除的文件
+        Path file = dir.resolve("closed.seg");
+        SeriesSegment segment = SeriesSegment.open(file, today, EmbeddedMetricStore.FIELDS);
+        segment.close();
+        assertFalse(segment.append(today, new double[EmbeddedMetricStore.FIELDS.size()]));
+        segment.force();
+    }
+
+    private static void assertRows(List<long[]> expected, List<long[]> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertArrayEquals(expected.get(i), actual.get(i));
+        }
+    }
+}
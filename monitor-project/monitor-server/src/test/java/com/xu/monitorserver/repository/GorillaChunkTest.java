@@ -0,0 +1,97 @@
+package com.xu.monitorserver.repository;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Gorilla 编码必须无损：时间与数值 (按位比较) 解码后与写入时完全一致
+ */
+public class GorillaChunkTest {
+
+    private static void assertRoundTrip(long[] times, double[] values) {
+        GorillaChunk chunk = new GorillaChunk(times.length);
+        for (int i = 0; i < times.length; i++) {
+            chunk.append(times[i], values[i]);
+        }
+        for (int pass = 0; pass < 2; pass++) {
+            long[] decodedTimes = new long[times.length];
+            double[] decodedValues = new double[times.length];
+            chunk.decode(decodedTimes, decodedValues);
+            assertArrayEquals(times, decodedTimes);
+            for (int i = 0; i < values.length; i++) {
+                assertEquals(Double.doubleToRawLongBits(values[i]), Double.doubleToRawLongBits(decodedValues[i]),
+                        "第 " + i + " 个点");
+            }
+            // 封存后位流被截短，仍能完整解码
+            chunk.seal();
+        }
+        assertEquals(times.length, chunk.count());
+        assertEquals(times[0], chunk.firstTime());
+        assertEquals(times[times.length - 1], chunk.lastTime());
+    }
+
+    @Test
+    public void regularSamplesCompressToAFewBitsPerPoint() {
+        int n = HotTierStore.BLOCK_POINTS;
+        long[] times = new long[n];
+        double[] values = new double[n];
+        for (int i = 0; i < n; i++) {
+            times[i] = 1_734_339_600_000L + i * 5000L;
+            // 缓慢变化的指标：大多数点与上一个值相同
+            values[i] = 40 + (i / 16) * 0.5;
+        }
+        GorillaChunk chunk = new GorillaChunk(n);
+        for (int i = 0; i < n; i++) {
+            chunk.append(times[i], values[i]);
+        }
+        // 时间差值的差值为 0 占 1 位，值不变占 1 位
+        assertTrue(chunk.bitLength() < n * 8, "bits=" + chunk.bitLength());
+        assertRoundTrip(times, values);
+    }
+
+    @Test
+    public void roundTripsJitterGapsAndSpecialValues() {
+        Random random = new Random(42);
+        int n = 2000;
+        long[] times = new long[n];
+        double[] values = new double[n];
+        long time = 1_734_339_600_123L;
+        double[] specials = {0.0, -0.0, Double.MAX_VALUE, Double.MIN_VALUE, -1e-300, 1e300, 864_000, -3.5};
+        for (int i = 0; i < n; i++) {
+            // 覆盖 dod 的各个区间：采集抖动、Agent 暂停几分钟、离线几天、精确到毫秒的乱序间隔
+            long delta = switch (i % 7) {
+                case 0 -> 5000 + random.nextInt(200) - 100;
+                case 1 -> 5000 + random.nextInt(60_000);
+                case 2 -> 300_000 + random.nextInt(200_000);
+                case 3 -> 3L * 86_400_000 + random.nextInt(1000);
+                case 4 -> 1;
+                default -> 5000;
+            };
+            time += delta;
+            times[i] = time;
+            values[i] = switch (i % 5) {
+                case 0 -> random.nextDouble() * 100;
+                case 1 -> values[Math.max(0, i - 1)];
+                case 2 -> specials[random.nextInt(specials.length)];
+                case 3 -> random.nextGaussian() * 1e9;
+                default -> Math.round(random.nextDouble() * 1000) / 4.0;
+            };
+        }
+        assertRoundTrip(times, values);
+    }
+
+    @Test
+    public void singlePointAndOrdering() {
+        assertRoundTrip(new long[]{-5000L}, new double[]{Double.NaN});
+
+        GorillaChunk chunk = new GorillaChunk(4);
+        chunk.append(1000, 1);
+        assertThrows(IllegalArgumentException.class, () -> chunk.append(1000, 2));
+    }
+}
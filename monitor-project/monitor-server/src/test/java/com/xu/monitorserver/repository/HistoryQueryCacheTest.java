@@ -0,0 +1,218 @@
+package com.xu.monitorserver.repository;
+
+import com.xu.monitorserver.bench.BenchSamples;
+import com.xu.monitorserver.dto.IngestSample;
+import com.xu.monitorserver.dto.MetricColumns;
+import com.xu.monitorserver.dto.TimeSeriesColumns;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 时间桶缓存：已关闭的桶只查询一次，尾部桶每次实时查询，迟到数据让对应的桶失效
+ */
+public class HistoryQueryCacheTest {
+
+    private static final long MINUTE = 60_000L;
+    private static final AggregateWindow TEN_SECONDS = AggregateWindow.DEFAULT;
+
+    /**
+     * 假的 InfluxRepository：每个窗口一个点，值为窗口结束时间 (秒)，记录每次查询的范围；watermark 模拟 WAL 排空水位
+     */
+    private static class FakeRepository extends InfluxRepository {
+        final List<String> queries = new ArrayList<>();
+        long watermark = Long.MAX_VALUE;
+
+        FakeRepository() {
+            super(null, null);
+        }
+
+        @Override
+        public long durableWatermark() {
+            return watermark;
+        }
+
+        @Override
+        public MetricColumns queryMetricColumns(String agentId, String ip, List<String> fields, String start, String end,
+                                                AggregateWindow window) {
+            queries.add(start + "~" + end);
+            long from = Instant.parse(start).toEpochMilli();
+            long to = Instant.parse(end).toEpochMilli();
+            TimeSeriesColumns columns = TimeSeriesColumns.empty(fields);
+            for (long stop = (from / window.millis() + 1) * window.millis(); stop <= to; stop += window.millis()) {
+                columns.time().add(Instant.ofEpochMilli(stop).toString());
+                for (String field : fields) {
+                    columns.values().get(field).add(stop / 1000d);
+                }
+            }
+            return MetricColumns.of(columns, fields);
+        }
+    }
+
+    @Test
+    public void closedBucketsAreQueriedOnce() {
+        FakeRepository repository = new FakeRepository();
+        HistoryQueryCache cache = new HistoryQueryCache(repository, 600, 0, 1_000_000);
+        long end = Instant.parse("2025-12-16T11:00:00Z").toEpochMilli();
+        String start = Instant.ofEpochMilli(end - 60 * MINUTE + 5_000).toString();
+
+        TimeSeriesColumns first = cache.query("a1", null, List.of("cpu_load"), start, Instant.ofEpochMilli(end).toString(), TEN_SECONDS);
+        // 6 个相邻的缺失桶合并成一次查询；第一个窗口与范围部分相交也保留
+        assertEquals(1, repository.queries.size());
+        assertEquals(360, first.time().size());
+        assertEquals("2025-12-16T10:00:10Z", first.time().get(0));
+
+        TimeSeriesColumns second = cache.query("a1", null, List.of("cpu_load"), start, Instant.ofEpochMilli(end).toString(), TEN_SECONDS);
+        assertEquals(1, repository.queries.size());
+        assertEquals(first, second);
+
+        Map<String, Object> stats = cache.stats();
+        assertEquals(6L, stats.get("hits"));
+        assertEquals(6L, stats.get("misses"));
+    }
+
+    @Test
+    public void openBucketIsAlwaysLive() {
+        FakeRepository repository = new FakeRepository();
+        HistoryQueryCache cache = new HistoryQueryCache(repository, 600, 0, 1_000_000);
+
+        cache.query("a1", null, List.of("cpu_load"), "-1h", "now()", TEN_SECONDS);
+        int afterFirst = repository.queries.size();
+        cache.query("a1", null, List.of("cpu_load"), "-1h", "now()", TEN_SECONDS);
+        // 第二次只查询尾部桶 (跨越桶边界时可能多一个新关闭的桶)
+        int delta = repository.queries.size() - afterFirst;
+        assertTrue(delta == 1 || delta == 2, "queries: " + repository.queries);
+    }
+
+    @Test
+    public void lateSampleInvalidatesBucket() {
+        FakeRepository repository = new FakeRepository();
+        HistoryQueryCache cache = new HistoryQueryCache(repository, 600, 0, 1_000_000);
+        String start = "2025-12-16T10:00:00Z";
+        String end = "2025-12-16T10:20:00Z";
+        cache.query("agent-0001", null, List.of("cpu_load"), start, end, TEN_SECONDS);
+        cache.query("a2", null, List.of("cpu_load"), start, end, TEN_SECONDS);
+        assertEquals(2, repository.queries.size());
+
+        long late = Instant.parse("2025-12-16T10:15:00Z").toEpochMilli();
+        cache.invalidate(List.of(new IngestSample(BenchSamples.model(late), null, late, 0)));
+        assertEquals(1L, cache.stats().get("invalidations"));
+
+        // 只有 agent-0001 的第二个桶重新查询，a2 不受影响
+        cache.query("agent-0001", null, List.of("cpu_load"), start, end, TEN_SECONDS);
+        cache.query("a2", null, List.of("cpu_load"), start, end, TEN_SECONDS);
+        assertEquals(3, repository.queries.size());
+
+        // 落在桶边界上的样本属于以该边界为结束时间的窗口 (前一个桶)
+        long boundary = Instant.parse("2025-12-16T10:10:00Z").toEpochMilli() - 1;
+        cache.invalidate(List.of(new IngestSample(BenchSamples.model(boundary), null, boundary, 0)));
+        assertEquals(2L, cache.stats().get("invalidations"));
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() {
+        FakeRepository repository = new FakeRepository();
+        // 每个桶 60 个点，最多放下 2 个桶
+        HistoryQueryCache cache = new HistoryQueryCache(repository, 600, 0, 150);
+        cache.query("a1", null, List.of("cpu_load"), "2025-12-16T10:00:00Z", "2025-12-16T10:10:00Z", TEN_SECONDS);
+        cache.query("a2", null, List.of("cpu_load"), "2025-12-16T10:00:00Z", "2025-12-16T10:10:00Z", TEN_SECONDS);
+        cache.query("a1", null, List.of("cpu_load"), "2025-12-16T10:00:00Z", "2025-12-16T10:10:00Z", TEN_SECONDS);
+        cache.query("a3", null, List.of("cpu_load"), "2025-12-16T10:00:00Z", "2025-12-16T10:10:00Z", TEN_SECONDS);
+
+        Map<String, Object> stats = cache.stats();
+        assertEquals(1L, stats.get("evictions"));
+        assertEquals(2, stats.get("entries"));
+        // a2 最久未访问，被淘汰
+        cache.query("a1", null, List.of("cpu_load"), "2025-12-16T10:00:00Z", "2025-12-16T10:10:00Z", TEN_SECONDS);
+        assertEquals(3, repository.queries.size());
+        cache.query("a2", null, List.of("cpu_load"), "2025-12-16T10:00:00Z", "2025-12-16T10:10:00Z", TEN_SECONDS);
+        assertEquals(4, repository.queries.size());
+    }
+
+    @Test
+    public void largerWindowsUseTheirOwnBuckets() {
+        FakeRepository repository = new FakeRepository();
+        HistoryQueryCache cache = new HistoryQueryCache(repository, 600, 0, 1_000_000);
+        AggregateWindow window = AggregateWindow.choose(7 * 24 * 60 * MINUTE, 1000, "max");
+        assertEquals(new AggregateWindow(1_800, "max"), window);
+
+        TimeSeriesColumns columns = cache.query("a1", null, List.of("cpu_load"),
+                "2025-12-09T00:00:00Z", "2025-12-16T00:00:00Z", window);
+        assertEquals(336, columns.time().size());
+        // 桶长度取窗口整数倍 (30 分钟)，再次查询全部命中
+        cache.query("a1", null, List.of("cpu_load"), "2025-12-09T00:00:00Z", "2025-12-16T00:00:00Z", window);
+        assertEquals(1, repository.queries.size());
+        assertEquals(336L, cache.stats().get("hits"));
+        // 同一范围换一个聚合函数是另一组缓存
+        cache.query("a1", null, List.of("cpu_load"), "2025-12-09T00:00:00Z", "2025-12-16T00:00:00Z",
+                new AggregateWindow(1_800, "mean"));
+        assertEquals(2, repository.queries.size());
+    }
+
+    @Test
+    public void lateDrainKeepsBucketsOpen() {
+        FakeRepository repository = new FakeRepository();
+        HistoryQueryCache cache = new HistoryQueryCache(repository, 600, 0, 1_000_000);
+        String start = "2025-12-16T10:00:00Z";
+        String end = "2025-12-16T11:00:00Z";
+        // WAL 积压：10:30 之后提交的数据还没写入 InfluxDB
+        repository.watermark = Instant.parse("2025-12-16T10:30:00Z").toEpochMilli();
+
+        cache.query("a1", null, List.of("cpu_load"), start, end, TEN_SECONDS);
+        assertEquals(List.of("2025-12-16T10:00:00Z~2025-12-16T10:30:00Z", "2025-12-16T10:30:00Z~2025-12-16T11:00:00Z"),
+                repository.queries);
+        // 水位之后的桶没有缓存，再次查询仍然实时读取
+        cache.query("a1", null, List.of("cpu_load"), start, end, TEN_SECONDS);
+        assertEquals("2025-12-16T10:30:00Z~2025-12-16T11:00:00Z", repository.queries.get(2));
+
+        // 积压写完后这些桶才缓存，之后全部命中
+        repository.watermark = Long.MAX_VALUE;
+        cache.query("a1", null, List.of("cpu_load"), start, end, TEN_SECONDS);
+        cache.query("a1", null, List.of("cpu_load"), start, end, TEN_SECONDS);
+        assertEquals(4, repository.queries.size());
+    }
+
+    @Test
+    public void lateSamplesInvalidateAgainAfterDrain() {
+        FakeRepository repository = new FakeRepository();
+        HistoryQueryCache cache = new HistoryQueryCache(repository, 600, 0, 1_000_000);
+        String start = "2025-12-16T10:00:00Z";
+        String end = "2025-12-16T11:00:00Z";
+        String agentId = BenchSamples.sample(0).model().getAgentId();
+        cache.query(agentId, null, List.of("cpu_load"), start, end, TEN_SECONDS);
+        assertEquals(1, repository.queries.size());
+
+        // 补发的 10:15 样本已写入 WAL，但还没写入 InfluxDB
+        repository.watermark = System.currentTimeMillis() - 1_000;
+        cache.invalidate(List.of(BenchSamples.sample(Instant.parse("2025-12-16T10:15:00Z").toEpochMilli())));
+        cache.query(agentId, null, List.of("cpu_load"), start, end, TEN_SECONDS);
+        assertEquals("2025-12-16T10:10:00Z~2025-12-16T10:20:00Z", repository.queries.get(1));
+        // 此时查到的桶不含迟到数据，但已被缓存
+        cache.query(agentId, null, List.of("cpu_load"), start, end, TEN_SECONDS);
+        assertEquals(2, repository.queries.size());
+
+        // 水位越过补发数据的到达时间：该桶再失效一次，重新读取
+        repository.watermark = System.currentTimeMillis() + 1_000;
+        cache.query(agentId, null, List.of("cpu_load"), start, end, TEN_SECONDS);
+        assertEquals(3, repository.queries.size());
+        assertEquals("2025-12-16T10:10:00Z~2025-12-16T10:20:00Z", repository.queries.get(2));
+        cache.query(agentId, null, List.of("cpu_load"), start, end, TEN_SECONDS);
+        assertEquals(3, repository.queries.size());
+    }
+
+    @Test
+    public void parsesRelativeAndAbsoluteTimes() {
+        long now = 1_000_000_000L;
+        assertEquals(now - 5_400_000L, FluxTime.parse("-1h30m", null, now));
+        assertEquals(now, FluxTime.parse(null, "now()", now));
+        assertEquals(0L, FluxTime.parse("1970-01-01T00:00:00Z", null, now));
+        assertNull(FluxTime.parse("-1mo", null, now));
+    }
+}
@@ -0,0 +1,142 @@
+package com.xu.monitorserver.repository;
+
+import com.xu.monitorserver.bench.BenchSamples;
+import com.xu.monitorserver.dto.IngestSample;
+import com.xu.monitorserver.dto.MetricColumns;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 热层的聚合结果与 aggregateWindow(createEmpty: false) 一致，覆盖范围之外的查询交还给 InfluxDB
+ */
+public class HotTierStoreTest {
+
+    private static final List<String> FIELDS = List.of("cpu_load", "cpu_temp");
+    private static final AggregateWindow WINDOW = new AggregateWindow(60, "mean");
+
+    /**
+     * 40 分钟前 (按 10 分钟对齐)，写入 25 分钟的数据
+     */
+    private final long base = Math.floorDiv(System.currentTimeMillis(), 600_000L) * 600_000L - 40 * 60_000L;
+
+    private static IngestSample sample(long time, double cpu) {
+        IngestSample sample = BenchSamples.sample(time);
+        sample.model().setCpuLoad(cpu);
+        sample.model().setCpuTemperature(Double.NaN);
+        return sample;
+    }
+
+    private static String iso(long millis) {
+        return Instant.ofEpochMilli(millis).toString();
+    }
+
+    /**
+     * 每 5 秒一个点，cpu_load 为该点所在分钟的序号
+     */
+    private List<IngestSample> minutes(int count) {
+        List<IngestSample> samples = new ArrayList<>();
+        for (int i = 0; i < count * 12; i++) {
+            samples.add(sample(base + i * 5000L + 1300, i / 12));
+        }
+        return samples;
+    }
+
+    @Test
+    public void aggregatesAlignedWindowsLikeInflux() {
+        HotTierStore store = new HotTierStore(true, 7_200_000L, 1 << 24, 1000);
+        List<IngestSample> samples = minutes(25);
+        // 第 3 分钟缺一半的点，第 5 分钟没有点
+        samples.removeIf(s -> s.timestampMillis() >= base + 180_000 && s.timestampMillis() < base + 210_000);
+        samples.removeIf(s -> s.timestampMillis() >= base + 300_000 && s.timestampMillis() < base + 360_000);
+        store.append(samples);
+
+        MetricColumns columns = store.queryColumns("agent-0001", FIELDS,
+                iso(base + 90_000), iso(base + 400_000), WINDOW);
+        assertNotNull(columns);
+        // 与 [from, to) 相交的窗口：第 1~6 分钟，第 5 分钟没有数据不返回
+        assertArrayEquals(new long[]{base + 120_000, base + 180_000, base + 240_000, base + 300_000, base + 420_000},
+                columns.times());
+        assertArrayEquals(new double[]{1, 2, 3, 4, 6}, columns.values()[0]);
+        // 没有值的字段为 NaN
+        assertTrue(Double.isNaN(columns.values()[1][0]));
+
+        MetricColumns max = store.queryColumns("agent-0001", List.of("cpu_load"),
+                iso(base + 600_000), iso(base + 700_000), new AggregateWindow(600, "max"));
+        assertNotNull(max);
+        assertArrayEquals(new long[]{base + 1_200_000}, max.times());
+        assertEquals(19, max.values()[0][0]);
+    }
+
+    @Test
+    public void fallsBackOutsideCoverage() {
+        HotTierStore store = new HotTierStore(true, 7_200_000L, 1 << 24, 1000);
+        store.append(minutes(25));
+
+        // 覆盖起点 base + 1s (按秒截断) 所在的窗口不完整
+        assertNull(store.queryColumns("agent-0001", FIELDS, iso(base), iso(base + 60_000), WINDOW));
+        assertNull(store.queryColumns("agent-0001", FIELDS, "-1h", "now()", WINDOW));
+        assertNull(store.queryColumns("unknown", FIELDS, "-5m", "now()", WINDOW));
+        String from = iso(base + 1_200_000);
+        String to = iso(base + 1_440_000);
+        assertEquals(4, store.queryColumns("agent-0001", FIELDS, from, to, WINDOW).size());
+
+        // 乱序样本无法追加：覆盖起点移到已有数据之后
+        store.append(List.of(sample(base + 600_000 + 2000, 99)));
+        assertNull(store.queryColumns("agent-0001", FIELDS, from, to, WINDOW));
+        assertEquals(1L, store.stats().get("outOfOrder"));
+    }
+
+    @Test
+    public void evictsOldestBlocksOverBudget() {
+        HotTierStore store = new HotTierStore(true, 7_200_000L, 4_000, 1000);
+        store.append(minutes(25));
+
+        assertTrue((long) store.stats().get("evicted") > 0);
+        assertTrue((long) store.stats().get("bytes") <= 4_000);
+        // 淘汰的块之前不再覆盖
+        assertNull(store.queryColumns("agent-0001", FIELDS, iso(base + 60_000), iso(base + 120_000), WINDOW));
+        assertNotNull(store.queryColumns("agent-0001", FIELDS, "-2m", "now()", WINDOW));
+    }
+
+    @Test
+    public void openChunksCountTowardBudget() {
+        // 每个 Agent 只有几个点，全部在未封存的当前块中
+        HotTierStore store = new HotTierStore(true, 7_200_000L, 20_000, 1000);
+        long now = System.currentTimeMillis();
+        for (int agent = 0; agent < 50; agent++) {
+            IngestSample sample = sample(now - 60_000 + agent, agent);
+            sample.model().setAgentId("agent-" + agent);
+            store.append(List.of(sample));
+        }
+        Map<String, Object> stats = store.stats();
+        assertTrue((long) stats.get("evictedAgents") > 0);
+        assertTrue((long) stats.get("bytes") <= 20_000);
+        // 最久没有上报的 Agent 先被淘汰
+        assertNull(store.queryColumns("agent-0", FIELDS, "-5m", "now()", WINDOW));
+        assertEquals(50 - (long) stats.get("evictedAgents"), ((Number) stats.get("agents")).longValue());
+    }
+
+    @Test
+    public void expiresIdleAgents() {
+        HotTierStore store = new HotTierStore(true, 600_000L, 1 << 24, 1000);
+        long now = System.currentTimeMillis();
+        IngestSample idle = sample(now - 1_200_000, 1);
+        idle.model().setAgentId("agent-idle");
+        store.append(List.of(idle));
+
+        Map<String, Object> stats = store.stats();
+        assertEquals(1L, stats.get("expiredAgents"));
+        assertEquals(0, stats.get("agents"));
+        assertEquals(0L, stats.get("bytes"));
+    }
+}
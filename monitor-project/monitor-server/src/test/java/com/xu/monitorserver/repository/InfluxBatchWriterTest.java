@@ -0,0 +1,141 @@
+package com.xu.monitorserver.repository;
+
+import com.influxdb.client.InfluxDBClient;
+import com.influxdb.client.InfluxDBClientFactory;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 批量写入：被拒绝的批次二分重写只丢弃坏行，统计按行计数；读取 WAL 出错时补写线程不退出
+ */
+public class InfluxBatchWriterTest {
+
+    @TempDir
+    Path dir;
+
+    private HttpServer server;
+    private InfluxDBClient client;
+    private InfluxBatchWriter writer;
+
+    /**
+     * 已写入假 InfluxDB 的行
+     */
+    private final List<String> accepted = new CopyOnWriteArrayList<>();
+
+    /**
+     * 假的 InfluxDB：请求中有一行包含 "bad" 时整个请求返回 400，否则接受全部行
+     */
+    private InfluxDBClient fakeInflux() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/api/v2/write", exchange -> {
+            String body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+            List<String> lines = body.lines().filter(line -> !line.isEmpty()).toList();
+            if (lines.stream().anyMatch(line -> line.contains("bad"))) {
+                byte[] error = "{\"code\":\"invalid\",\"message\":\"unable to parse\"}".getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().add("Content-Type", "application/json");
+                exchange.sendResponseHeaders(400, error.length);
+                exchange.getResponseBody().write(error);
+            } else {
+                accepted.addAll(lines);
+                exchange.sendResponseHeaders(204, -1);
+            }
+            exchange.close();
+        });
+        server.start();
+        client = InfluxDBClientFactory.create("http://127.0.0.1:" + server.getAddress().getPort(),
+                "token".toCharArray(), "org", "bucket");
+        return client;
+    }
+
+    private InfluxBatchWriter writer(IngestWal wal) throws IOException {
+        InfluxBatchWriter writer = new InfluxBatchWriter(fakeInflux(), wal, 100);
+        ReflectionTestUtils.setField(writer, "bucket", "bucket");
+        ReflectionTestUtils.setField(writer, "org", "org");
+        ReflectionTestUtils.setField(writer, "precision", "s");
+        ReflectionTestUtils.setField(writer, "batchSize", 100);
+        ReflectionTestUtils.setField(writer, "flushIntervalMillis", 50L);
+        ReflectionTestUtils.setField(writer, "maxRetries", 2);
+        ReflectionTestUtils.setField(writer, "retryBaseDelayMillis", 10L);
+        ReflectionTestUtils.setField(writer, "retryMaxDelayMillis", 50L);
+        ReflectionTestUtils.setField(writer, "overflowPolicy", InfluxBatchWriter.OverflowPolicy.DROP_NEWEST);
+        ReflectionTestUtils.setField(writer, "drainBatchBytes", 1 << 20);
+        ReflectionTestUtils.setField(writer, "fsyncIntervalMillis", 0L);
+        return writer;
+    }
+
+    @AfterEach
+    public void tearDown() throws InterruptedException {
+        if (writer != null) {
+            writer.stop();
+        }
+        if (client != null) {
+            client.close();
+        }
+        if (server != null) {
+            server.stop(0);
+        }
+    }
+
+    private static void await(Supplier<Boolean> condition) throws InterruptedException {
+        for (int i = 0; i < 250 && !condition.get(); i++) {
+            Thread.sleep(20);
+        }
+        assertTrue(condition.get());
+    }
+
+    @Test
+    public void rejectedBatchDropsOnlyBadLine() throws Exception {
+        writer = writer(new IngestWal(false, dir.toString(), 1 << 16, 1 << 20));
+        writer.start();
+        writer.submit("cpu v=1 1\ncpu v=2 2", 2);
+        writer.submit("cpu v=3 3\ncpu bad 4\ncpu v=5 5", 3);
+        writer.submit("cpu v=6 6", 1);
+
+        await(() -> ((Number) writer.stats().get("written")).longValue() == 5);
+        Map<String, Object> stats = writer.stats();
+        assertEquals(6L, stats.get("enqueued"));
+        assertEquals(1L, stats.get("droppedWriteFailure"));
+        assertEquals(0L, stats.get("retries"));
+        assertEquals(List.of("cpu v=1 1", "cpu v=2 2", "cpu v=3 3", "cpu v=5 5", "cpu v=6 6"),
+                accepted.stream().sorted().toList());
+    }
+
+    @Test
+    public void drainLoopSurvivesWalReadFailure() throws Exception {
+        AtomicInteger failures = new AtomicInteger(2);
+        IngestWal wal = new IngestWal(true, dir.toString(), 1 << 16, 1 << 20) {
+            @Override
+            public Batch read(Cursor from, int maxBytes) {
+                if (failures.getAndDecrement() > 0) {
+                    throw new IllegalStateException("simulated read failure");
+                }
+                return super.read(from, maxBytes);
+            }
+        };
+        writer = writer(wal);
+        writer.submit("cpu v=1 1\ncpu v=2 2", 2);
+        writer.start();
+
+        await(() -> accepted.size() == 2);
+        writer.submit("cpu v=3 3", 1);
+        await(() -> accepted.size() == 3);
+        assertEquals(2L, writer.stats().get("drainErrors"));
+        assertEquals(3L, writer.stats().get("written"));
+    }
+}
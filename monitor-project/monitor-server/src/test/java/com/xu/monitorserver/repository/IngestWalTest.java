@@ -0,0 +1,119 @@
+package com.xu.monitorserver.repository;
+
+import com.xu.monitorserver.exception.ServiceException;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * WAL 恢复：CRC 扫描丢弃损坏/写了一半的记录，从检查点继续读取；单条过大返回 413，写满返回 503
+ */
+public class IngestWalTest {
+
+    private static final int SEGMENT_BYTES = 4096;
+    private static final int RECORD_HEADER = 8;
+
+    @TempDir
+    Path dir;
+
+    private IngestWal open() throws IOException {
+        return new IngestWal(true, dir.toString(), SEGMENT_BYTES, 1 << 20);
+    }
+
+    private static List<String> readAll(IngestWal wal) {
+        return wal.read(wal.getCheckpoint(), Integer.MAX_VALUE).records();
+    }
+
+    private Path firstSegment() throws IOException {
+        try (var files = Files.list(dir)) {
+            return files.filter(p -> p.getFileName().toString().endsWith(".seg")).sorted().findFirst().orElseThrow();
+        }
+    }
+
+    @Test
+    public void recoversIntactRecordsAfterCorruptLastRecord() throws IOException {
+        IngestWal wal = open();
+        wal.append("cpu v=1 1");
+        wal.append("cpu v=2 2\ncpu v=3 3");
+        wal.append("cpu v=4 4");
+        wal.close();
+
+        // 最后一条记录的数据被改坏 (CRC 不再匹配)
+        int last = RECORD_HEADER + "cpu v=1 1".length() + RECORD_HEADER + "cpu v=2 2\ncpu v=3 3".length();
+        try (RandomAccessFile file = new RandomAccessFile(firstSegment().toFile(), "rw")) {
+            file.seek(last + RECORD_HEADER);
+            file.write('X');
+        }
+
+        IngestWal reopened = open();
+        assertEquals(List.of("cpu v=1 1", "cpu v=2 2\ncpu v=3 3"), readAll(reopened));
+        // 损坏记录之后继续追加，读出的数据不会混入残留字节
+        reopened.append("cpu v=5 5");
+        assertEquals(List.of("cpu v=1 1", "cpu v=2 2\ncpu v=3 3", "cpu v=5 5"), readAll(reopened));
+        reopened.close();
+    }
+
+    @Test
+    public void dropsTornTailRecord() throws IOException {
+        IngestWal wal = open();
+        wal.append("cpu v=1 1");
+        wal.append("cpu v=2 2");
+        wal.close();
+
+        // 模拟崩溃：长度已写入，数据只写了一部分，CRC 未写
+        int tail = 2 * (RECORD_HEADER + "cpu v=1 1".length());
+        try (RandomAccessFile file = new RandomAccessFile(firstSegment().toFile(), "rw")) {
+            file.seek(tail);
+            file.writeInt(64);
+            file.seek(tail + RECORD_HEADER);
+            file.write("cpu v=3".getBytes());
+        }
+
+        IngestWal reopened = open();
+        assertEquals(List.of("cpu v=1 1", "cpu v=2 2"), readAll(reopened));
+        reopened.close();
+    }
+
+    @Test
+    public void resumesFromCheckpoint() throws IOException {
+        IngestWal wal = open();
+        wal.append("cpu v=1 1");
+        wal.append("cpu v=2 2");
+        wal.append("cpu v=3 3");
+        IngestWal.Batch first = wal.read(wal.getCheckpoint(), 1);
+        assertEquals(List.of("cpu v=1 1"), first.records());
+        wal.commit(first.next());
+        wal.close();
+
+        IngestWal reopened = open();
+        assertEquals(first.next(), reopened.getCheckpoint());
+        assertEquals(List.of("cpu v=2 2", "cpu v=3 3"), readAll(reopened));
+        reopened.close();
+    }
+
+    @Test
+    public void rejectsOversizedRecordAndFullWal() throws IOException {
+        IngestWal wal = new IngestWal(true, dir.toString(), SEGMENT_BYTES, 2L * SEGMENT_BYTES);
+        ServiceException tooLarge = assertThrows(ServiceException.class, () -> wal.append("x".repeat(SEGMENT_BYTES)));
+        assertEquals(413, tooLarge.getCode());
+
+        // 两个段写满后不能再滚动
+        String record = "y".repeat(1000);
+        ServiceException full = assertThrows(ServiceException.class, () -> {
+            for (int i = 0; i < 10; i++) {
+                wal.append(record);
+            }
+        });
+        assertEquals(503, full.getCode());
+        assertEquals(8, readAll(wal).size());
+        wal.close();
+    }
+}
@@ -0,0 +1,72 @@
+package com.xu.monitorserver.repository;
+
+import com.influxdb.client.domain.WritePrecision;
+import com.xu.monitorserver.bench.BenchSamples;
+import com.xu.monitorserver.dto.IngestSample;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 编码器输出必须与 Point.toLineProtocol() 一致
+ */
+public class MetricsLineEncoderTest {
+
+    private static String encode(IngestSample sample, WritePrecision precision, int expectedLines) {
+        StringBuilder out = new StringBuilder();
+        assertEquals(expectedLines, MetricsLineEncoder.encode(sample, precision, out));
+        return out.toString();
+    }
+
+    @Test
+    public void matchesPointLineProtocol() {
+        for (WritePrecision precision : WritePrecision.values()) {
+            IngestSample sample = BenchSamples.sample(1_734_339_600_123L);
+            assertEquals(BenchSamples.toLineProtocol(BenchSamples.toPoints(sample, precision)),
+                    encode(sample, precision, 4));
+        }
+    }
+
+    @Test
+    public void escapesTagsAndSkipsNonFiniteFields() {
+        IngestSample sample = new IngestSample(BenchSamples.model(1000L), null, 1000L, -7200_000L);
+        sample.model().getTopProcesses().add(BenchSamples.process(4, "C:\\app\\a b,c=d.exe", 0.5, Double.NaN));
+        sample.model().getTopProcesses().add(BenchSamples.process(9, "", 0.0, 0.0));
+        sample.model().setCpuTemperature(Double.NaN);
+
+        assertEquals(BenchSamples.toLineProtocol(BenchSamples.toPoints(sample, WritePrecision.MS)),
+                encode(sample, WritePrecision.MS, 6));
+    }
+
+    @Test
+    public void writesSmallAndLargeDoublesAsPlainDecimals() {
+        IngestSample sample = BenchSamples.sample(5000L);
+        sample.model().setCpuLoad(1.0E-4);
+        sample.model().setCpuTemperature(-3.5E-7);
+        sample.model().setDiskReadRate(1.2345678E7);
+        sample.model().setDiskWriteRate(1.0E7);
+        sample.model().setMemoryUsed(9.876543210123E15);
+        sample.model().setNetRecvRate(Double.MIN_VALUE);
+        sample.model().setNetSentRate(-0.0);
+        sample.model().setSystemLoad1(0.001);
+        sample.model().setSystemLoad5(9999999.5);
+        sample.model().getTopProcesses().add(BenchSamples.process(7, "big", 2.5E-5, 3.0E12));
+
+        String encoded = encode(sample, WritePrecision.S, 5);
+        assertEquals(BenchSamples.toLineProtocol(BenchSamples.toPoints(sample, WritePrecision.S)), encoded);
+        assertTrue(encoded.contains("cpu_load=0.0001,"));
+        assertTrue(encoded.contains("disk_read_rate=12345678.0,"));
+        assertFalse(encoded.matches("(?s).*\\dE-?\\d.*"));
+    }
+
+    @Test
+    public void writesOnlyMetricsWithoutProcesses() {
+        IngestSample sample = BenchSamples.sample(5000L);
+        sample.model().setTopProcesses(null);
+
+        assertEquals(BenchSamples.toLineProtocol(BenchSamples.toPoints(sample, WritePrecision.S)),
+                encode(sample, WritePrecision.S, 1));
+    }
+}
@@ -0,0 +1,143 @@
+package com.xu.monitorserver.repository;
+
+import com.xu.monitorserver.bench.BenchSamples;
+import com.xu.monitorserver.dto.MetricColumns;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 连续汇总的查询路由：选最粗的可用级别、在水位处与实时部分拼接、迟到数据待重算时回落
+ */
+public class RollupStoreTest {
+
+    private static final long HOUR = TimeUnit.HOURS.toMillis(1);
+    private static final List<String> FIELDS = List.of("cpu_load");
+
+    private final List<String> tierQueries = new ArrayList<>();
+    private final List<String> tailStarts = new ArrayList<>();
+    private final List<String> executed = new ArrayList<>();
+    private RollupStore store;
+    private long mark;
+
+    /**
+     * 模拟 WAL 排空水位
+     */
+    private long drained = Long.MAX_VALUE;
+
+    @BeforeEach
+    public void setup() {
+        InfluxRepository metricStore = new InfluxRepository(null, null) {
+            @Override
+            public long durableWatermark() {
+                return drained;
+            }
+        };
+        store = new RollupStore(null, metricStore, true, TimeUnit.DAYS.toMillis(30), TimeUnit.DAYS.toMillis(730)) {
+            @Override
+            MetricColumns queryTier(Tier tier, String agentId, List<String> fields, long from, long to,
+                                    AggregateWindow window) {
+                tierQueries.add(tier + " " + window.seconds());
+                return new MetricColumns(fields, new long[]{to - window.millis(), to}, new double[][]{{1, 2}});
+            }
+
+            @Override
+            void execute(String flux) {
+                executed.add(flux);
+            }
+        };
+        ReflectionTestUtils.setField(store, "rawBucket", "monitor_bucket");
+        ReflectionTestUtils.setField(store, "org", "org");
+        ReflectionTestUtils.setField(store, "minuteBucket", "monitor_bucket_1m");
+        ReflectionTestUtils.setField(store, "hourBucket", "monitor_bucket_1h");
+        long now = System.currentTimeMillis();
+        mark = Math.floorDiv(now, HOUR) * HOUR - 2 * HOUR;
+        store.initialized(now - TimeUnit.DAYS.toMillis(10), now - TimeUnit.DAYS.toMillis(100), mark);
+    }
+
+    private MetricColumns query(String agentId, String start, long windowSeconds) {
+        return store.queryColumns(agentId, FIELDS, start, "now()", new AggregateWindow(windowSeconds, "mean"),
+                tailStart -> {
+                    tailStarts.add(tailStart);
+                    long t = Instant.parse(tailStart).toEpochMilli() + windowSeconds * 1000;
+                    return new MetricColumns(FIELDS, new long[]{t}, new double[][]{{3}});
+                });
+    }
+
+    @Test
+    public void picksCoarsestTierAndJoinsAtWatermark() {
+        MetricColumns month = query("agent-0001", "-30d", 3_600);
+        assertNotNull(month);
+        assertEquals(List.of("HOUR 3600"), tierQueries);
+        assertEquals(List.of(Instant.ofEpochMilli(mark).toString()), tailStarts);
+        assertArrayEquals(new long[]{mark - HOUR, mark, mark + HOUR}, month.times());
+        assertArrayEquals(new double[]{1, 2, 3}, month.values()[0]);
+
+        // 5 分钟窗口不是小时的整数倍，读分钟汇总
+        assertNotNull(query("agent-0001", "-7d", 300));
+        assertEquals("MINUTE 300", tierQueries.get(1));
+
+        // 分钟汇总只覆盖最近 10 天：更早的开始时间只能用小时汇总，小时窗口以下的查询回落到原始数据
+        assertNotNull(query("agent-0001", "-60d", 10_800));
+        assertEquals("HOUR 10800", tierQueries.get(2));
+        assertNull(query("agent-0001", "-20d", 1_800));
+        assertNull(query("agent-0001", "-200d", 86_400));
+        assertNull(query("agent-0001", "-1h", 10));
+        assertEquals(3, tierQueries.size());
+    }
+
+    @Test
+    public void lateSamplesBypassRollupsUntilRecomputed() {
+        store.markLate(List.of(BenchSamples.sample(mark - TimeUnit.DAYS.toMillis(1))));
+        assertNull(query("agent-0001", "-30d", 3_600));
+        assertNotNull(query("agent-0002", "-30d", 3_600));
+        assertEquals(1, store.stats().get("dirtyAgents"));
+
+        // 水位之后的样本是正常写入，不需要重算
+        store.markLate(List.of(BenchSamples.sample(System.currentTimeMillis())));
+        assertEquals(1, store.stats().get("dirtyAgents"));
+    }
+
+    @Test
+    public void watermarkStopsAtDrainedWatermark() {
+        // WAL 积压：水位之后 30 分钟提交的数据还没写入 InfluxDB
+        drained = mark + 30 * 60_000L;
+        store.runPass();
+        assertEquals(Instant.ofEpochMilli(drained).toString(), store.stats().get("watermark"));
+        assertEquals(1, executed.size());
+        assertFalse(store.runPass());
+        assertEquals(1, executed.size());
+
+        // 写完后继续推进 (每次最多 max-step 小时)
+        drained = Long.MAX_VALUE;
+        store.runPass();
+        assertEquals(Instant.ofEpochMilli(mark + 90 * 60_000L).toString(), store.stats().get("watermark"));
+    }
+
+    @Test
+    public void recomputesLateAgentOnlyAfterDrain() {
+        store.markLate(List.of(BenchSamples.sample(mark - TimeUnit.DAYS.toMillis(1))));
+        // 迟到样本还在 WAL 中
+        drained = System.currentTimeMillis() - 1_000;
+        store.recomputeDirty();
+        assertTrue(executed.isEmpty());
+        assertEquals(1, store.stats().get("dirtyAgents"));
+
+        drained = System.currentTimeMillis() + 1_000;
+        store.recomputeDirty();
+        assertEquals(2, executed.size());
+        assertEquals(0, store.stats().get("dirtyAgents"));
+    }
+}
@@ -0,0 +1,138 @@
+package com.xu.monitorserver.service.alertservice;
+
+import com.xu.monitorserver.bench.BenchSamples;
+import com.xu.monitorserver.dto.IngestSample;
+import com.xu.monitorserver.entity.AlertRule;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 告警增量评估：持续时间、窗口聚合、乱序样本、规则变更
+ */
+public class AlertEvaluatorTest {
+
+    private static final long T0 = 1_700_000_000_000L;
+    private static final long STEP = 5_000;
+
+    private final AlertEvaluator evaluator = new AlertEvaluator(720, 60_000);
+    private final List<AlertTransition> transitions = new ArrayList<>();
+
+    private static AlertRule rule(long id, String operator, double threshold, int seconds, String aggregation) {
+        AlertRule rule = new AlertRule();
+        rule.setId(id);
+        rule.setName("rule-" + id);
+        rule.setMetric("cpu_load");
+        rule.setOperator(operator);
+        rule.setThreshold(threshold);
+        rule.setDurationSeconds(seconds);
+        rule.setAggregation(aggregation);
+        rule.setEnabled(1);
+        return rule;
+    }
+
+    private void feed(long time, double cpu) {
+        IngestSample sample = BenchSamples.sample(time);
+        sample.model().setCpuLoad(cpu);
+        evaluator.evaluate(sample, transitions::add);
+    }
+
+    @Test
+    public void firesAfterDurationAndResolves() {
+        evaluator.setRules(List.of(rule(1, ">", 90, 30, "all")));
+        for (int i = 0; i < 6; i++) {
+            feed(T0 + i * STEP, 95);
+        }
+        // 第 6 个样本只覆盖了 25 秒
+        assertTrue(transitions.isEmpty());
+        feed(T0 + 6 * STEP, 95);
+        assertEquals(1, transitions.size());
+        assertTrue(transitions.get(0).firing());
+        assertEquals(T0 + 6 * STEP, transitions.get(0).time());
+
+        // 仍满足条件时不重复触发
+        feed(T0 + 7 * STEP, 99);
+        assertEquals(1, transitions.size());
+
+        feed(T0 + 8 * STEP, 10);
+        assertEquals(2, transitions.size());
+        assertFalse(transitions.get(1).firing());
+        assertEquals(10, transitions.get(1).value());
+
+        // 中途出现不满足条件的样本后重新计时
+        for (int i = 9; i < 15; i++) {
+            feed(T0 + i * STEP, 95);
+        }
+        assertEquals(2, transitions.size());
+        feed(T0 + 15 * STEP, 95);
+        assertEquals(3, transitions.size());
+    }
+
+    @Test
+    public void averagesOverWindow() {
+        evaluator.setRules(List.of(rule(1, ">=", 80, 20, "avg")));
+        double[] values = {100, 60, 100, 60, 100};
+        for (int i = 0; i < values.length; i++) {
+            feed(T0 + i * STEP, values[i]);
+        }
+        // 第 1 个样本 100 已满足条件，但观测时间不足
+        assertEquals(1, transitions.size());
+        assertEquals(T0 + 4 * STEP, transitions.get(0).time());
+        assertEquals(84, transitions.get(0).value(), 1e-9);
+
+        // 最早的 100 移出窗口：60,100,60,100,60 平均 76
+        feed(T0 + 5 * STEP, 60);
+        assertEquals(2, transitions.size());
+        assertFalse(transitions.get(1).firing());
+    }
+
+    @Test
+    public void ignoresOutOfOrderSamplesAndResetsAfterGap() {
+        evaluator.setRules(List.of(rule(1, ">", 90, 10, "all")));
+        feed(T0, 95);
+        feed(T0 + STEP, 95);
+        // 离线补发的旧样本不影响窗口
+        feed(T0 - STEP, 10);
+        feed(T0 + 2 * STEP, 95);
+        assertEquals(1, transitions.size());
+        assertEquals(1L, evaluator.stats().get("outOfOrder"));
+
+        evaluator.setRules(List.of(rule(2, ">", 90, 10, "all")));
+        // 规则 1 被删除：恢复；规则 2 在长时间中断后重新观测
+        long resumed = T0 + 10 * 60_000;
+        feed(resumed, 95);
+        assertEquals(2, transitions.size());
+        assertFalse(transitions.get(1).firing());
+        assertTrue(Double.isNaN(transitions.get(1).value()));
+        feed(resumed + STEP, 95);
+        assertEquals(2, transitions.size());
+        feed(resumed + 2 * STEP, 95);
+        assertEquals(3, transitions.size());
+        assertEquals(2L, transitions.get(2).rule().getId());
+    }
+
+    @Test
+    public void keepsStateWhenOnlyNameChangesAndRestoresFiring() {
+        evaluator.restoreFiring(Set.of(AlertEvaluator.key(1, "agent-0001")));
+        evaluator.setRules(List.of(rule(1, ">", 90, 0, "all")));
+        // 重启前已触发：条件仍满足时不重复触发
+        feed(T0, 95);
+        assertTrue(transitions.isEmpty());
+
+        AlertRule renamed = rule(1, ">", 90, 0, "all");
+        renamed.setName("renamed");
+        evaluator.setRules(List.of(renamed));
+        feed(T0 + STEP, 95);
+        assertTrue(transitions.isEmpty());
+
+        feed(T0 + 2 * STEP, 50);
+        assertEquals(1, transitions.size());
+        assertEquals("renamed", transitions.get(0).rule().getName());
+    }
+}
@@ -0,0 +1,147 @@
+package com.xu.monitorserver.service.alertservice;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpServer;
+import com.xu.monitorserver.entity.AlertRule;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 告警通知：分组合并、去重、抖动抑制，以及 Webhook 发送失败后的重试
+ */
+public class AlertNotifierTest {
+
+    private static final long T0 = 1_700_000_000_000L;
+
+    private static AlertRule rule(long id) {
+        AlertRule rule = new AlertRule();
+        rule.setId(id);
+        rule.setName("rule-" + id);
+        rule.setMetric("cpu_load");
+        rule.setOperator(">");
+        rule.setThreshold(90.0);
+        rule.setDurationSeconds(60);
+        rule.setAggregation("all");
+        rule.setSeverity("WARNING");
+        return rule;
+    }
+
+    private static AlertTransition transition(long ruleId, String agentId, boolean firing) {
+        return new AlertTransition(rule(ruleId), agentId, firing, firing ? 95 : 10, T0);
+    }
+
+    @Test
+    public void groupsByRuleAndCancelsChangesWithinWait() {
+        AlertGrouper grouper = new AlertGrouper(30_000, 100, 600_000, 4, false);
+        grouper.offer(transition(1, "a1", true), T0);
+        grouper.offer(transition(1, "a2", true), T0 + 1_000);
+        grouper.offer(transition(2, "a1", true), T0 + 2_000);
+        // a3 触发后在等待期间恢复：两条抵消
+        grouper.offer(transition(1, "a3", true), T0 + 3_000);
+        grouper.offer(transition(1, "a3", false), T0 + 4_000);
+        assertTrue(grouper.poll(T0 + 29_000).isEmpty());
+
+        List<AlertNotification> due = grouper.poll(T0 + 30_000);
+        assertEquals(1, due.size());
+        assertEquals("rule:1", due.get(0).groupKey());
+        assertEquals(2, due.get(0).firingCount());
+        due = grouper.poll(T0 + 32_000);
+        assertEquals(1, due.size());
+        assertEquals("rule:2", due.get(0).groupKey());
+        assertEquals(1L, grouper.stats().get("cancelled"));
+
+        // 已通知过的状态不再重复通知
+        grouper.offer(transition(1, "a1", true), T0 + 40_000);
+        assertEquals(1L, grouper.stats().get("duplicates"));
+        grouper.offer(transition(1, "a1", false), T0 + 41_000);
+        due = grouper.poll(T0 + 71_000);
+        assertEquals(1, due.get(0).resolvedCount());
+    }
+
+    @Test
+    public void suppressesFlappingUntilStable() {
+        AlertGrouper grouper = new AlertGrouper(0, 100, 60_000, 4, false);
+        boolean firing = true;
+        for (int i = 0; i < 8; i++) {
+            grouper.offer(transition(1, "a1", firing), T0 + i * 1_000);
+            if (i == 0) {
+                assertEquals(1, grouper.poll(T0).size());
+            }
+            firing = !firing;
+        }
+        // 第 5 次变化起进入抖动状态，之后不再通知
+        assertTrue(grouper.poll(T0 + 8_000).isEmpty());
+        assertEquals(1, grouper.stats().get("flapping"));
+
+        // 变化移出窗口后退出抖动；最终状态为恢复，与上次通知的触发不同，补发一条
+        List<AlertNotification> due = grouper.poll(T0 + 7_000 + 60_000);
+        assertEquals(1, due.size());
+        assertEquals(1, due.get(0).resolvedCount());
+        assertEquals(0, grouper.stats().get("flapping"));
+    }
+
+    @Test
+    public void webhookRetriesUntilAccepted() throws Exception {
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        AtomicInteger requests = new AtomicInteger();
+        List<String> bodies = new CopyOnWriteArrayList<>();
+        CountDownLatch accepted = new CountDownLatch(1);
+        server.createContext("/hook", exchange -> {
+            bodies.add(new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8));
+            // 第一次返回 503，重试后成功
+            int status = requests.incrementAndGet() == 1 ? 503 : 200;
+            exchange.sendResponseHeaders(status, -1);
+            exchange.close();
+            if (status == 200) {
+                accepted.countDown();
+            }
+        });
+        server.start();
+        ObjectMapper objectMapper = new ObjectMapper();
+        String url = "http://127.0.0.1:" + server.getAddress().getPort() + "/hook";
+        WebhookNotificationChannel webhook = new WebhookNotificationChannel(url, 2_000, 0, objectMapper);
+        AlertNotifier notifier = new AlertNotifier(List.of(webhook), new AlertGrouper(300, 100, 60_000, 4, false),
+                100, 3, 50, 100);
+        notifier.start();
+        try {
+            notifier.submit(transition(1, "a1", true));
+            notifier.submit(transition(1, "a2", true));
+            assertTrue(accepted.await(10, TimeUnit.SECONDS));
+            assertEquals(2, requests.get());
+
+            JsonNode payload = objectMapper.readTree(bodies.get(1));
+            assertEquals("rule:1", payload.get("groupKey").asText());
+            assertEquals(2, payload.get("firing").asInt());
+            assertEquals("a1", payload.get("alerts").get(0).get("agentId").asText());
+
+            // 接收方返回后发送线程才计数
+            Map<String, Object> stats = webhookStats(notifier);
+            for (int i = 0; i < 100 && !Long.valueOf(1).equals(stats.get("sent")); i++) {
+                Thread.sleep(20);
+                stats = webhookStats(notifier);
+            }
+            assertEquals(1L, stats.get("retries"));
+            assertEquals(1L, stats.get("sent"));
+        } finally {
+            notifier.stop();
+            server.stop(0);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> webhookStats(AlertNotifier notifier) {
+        return (Map<String, Object>) ((Map<String, Object>) notifier.stats().get("channels")).get("webhook");
+    }
+}
@@ -0,0 +1,164 @@
+package com.xu.monitorserver.service.alertservice;
+
+import com.xu.monitorserver.entity.AlertRule;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLHandshakeException;
+import javax.net.ssl.SSLServerSocket;
+import javax.net.ssl.TrustManagerFactory;
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.KeyStore;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 邮件渠道：TLS 连接校验证书中的主机名，证书链可信但主机名不符时不发送凭据
+ */
+public class SmtpNotificationChannelTest {
+
+    private static final char[] PASSWORD = "changeit".toCharArray();
+
+    @TempDir
+    Path dir;
+
+    private SSLServerSocket server;
+
+    /**
+     * 假 SMTP 服务收到的命令
+     */
+    private final List<String> received = new CopyOnWriteArrayList<>();
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        if (server != null) {
+            server.close();
+        }
+    }
+
+    /**
+     * 用 keytool 生成一张自签名证书
+     */
+    private KeyStore keyStore(String dnsName) throws Exception {
+        Path file = dir.resolve(dnsName + ".p12");
+        Process process = new ProcessBuilder(Path.of(System.getProperty("java.home"), "bin", "keytool").toString(),
+                "-genkeypair", "-alias", "smtp", "-keyalg", "RSA", "-keysize", "2048", "-validity", "2",
+                "-dname", "CN=" + dnsName, "-ext", "SAN=dns:" + dnsName, "-storetype", "PKCS12",
+                "-keystore", file.toString(), "-storepass", new String(PASSWORD), "-keypass", new String(PASSWORD))
+                .redirectErrorStream(true).start();
+        process.getInputStream().readAllBytes();
+        assertEquals(0, process.waitFor());
+        KeyStore store = KeyStore.getInstance("PKCS12");
+        try (FileInputStream in = new FileInputStream(file.toFile())) {
+            store.load(in, PASSWORD);
+        }
+        return store;
+    }
+
+    /**
+     * 启动一个 SSL 的假 SMTP 服务，返回信任该证书的客户端渠道
+     */
+    private SmtpNotificationChannel channel(String certificateHost) throws Exception {
+        KeyStore store = keyStore(certificateHost);
+        KeyManagerFactory keys = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        keys.init(store, PASSWORD);
+        SSLContext serverContext = SSLContext.getInstance("TLS");
+        serverContext.init(keys.getKeyManagers(), null, null);
+        server = (SSLServerSocket) serverContext.getServerSocketFactory()
+                .createServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        Thread acceptor = new Thread(this::serve, "fake-smtp");
+        acceptor.setDaemon(true);
+        acceptor.start();
+
+        TrustManagerFactory trust = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        trust.init(store);
+        SSLContext clientContext = SSLContext.getInstance("TLS");
+        clientContext.init(null, trust.getTrustManagers(), null);
+
+        SmtpNotificationChannel channel = new SmtpNotificationChannel();
+        ReflectionTestUtils.setField(channel, "socketFactory", clientContext.getSocketFactory());
+        ReflectionTestUtils.setField(channel, "host", "localhost");
+        ReflectionTestUtils.setField(channel, "port", server.getLocalPort());
+        ReflectionTestUtils.setField(channel, "ssl", true);
+        ReflectionTestUtils.setField(channel, "username", "alert@example.com");
+        ReflectionTestUtils.setField(channel, "password", "secret");
+        ReflectionTestUtils.setField(channel, "to", "ops@example.com");
+        ReflectionTestUtils.setField(channel, "timeoutMillis", 5000);
+        return channel;
+    }
+
+    private void serve() {
+        try (Socket socket = server.accept()) {
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+            OutputStream out = socket.getOutputStream();
+            reply(out, "220 fake");
+            // AUTH LOGIN 之后还要读取用户名与密码两行
+            int authLines = 0;
+            String line;
+            while ((line = in.readLine()) != null) {
+                received.add(line);
+                if (line.equals("AUTH LOGIN")) {
+                    authLines = 2;
+                    reply(out, "334 username");
+                } else if (authLines > 0) {
+                    reply(out, --authLines > 0 ? "334 password" : "235 ok");
+                } else if (line.equals("DATA")) {
+                    reply(out, "354 go");
+                    while ((line = in.readLine()) != null && !line.equals(".")) {
+                        // 忽略正文
+                    }
+                    reply(out, "250 queued");
+                } else if (line.equals("QUIT")) {
+                    reply(out, "221 bye");
+                    return;
+                } else {
+                    reply(out, "250 ok");
+                }
+            }
+        } catch (Exception e) {
+            // 握手失败时服务端同样结束
+        }
+    }
+
+    private static void reply(OutputStream out, String line) throws IOException {
+        out.write((line + "\r\n").getBytes(StandardCharsets.US_ASCII));
+        out.flush();
+    }
+
+    private static AlertNotification notification() {
+        AlertRule rule = new AlertRule();
+        rule.setName("cpu");
+        rule.setSeverity("WARNING");
+        return new AlertNotification("cpu", rule, List.of(), System.currentTimeMillis());
+    }
+
+    @Test
+    public void sendsOverTlsWhenHostnameMatches() throws Exception {
+        channel("localhost").send(notification());
+        assertTrue(received.contains("AUTH LOGIN"));
+        assertTrue(received.contains("QUIT"));
+    }
+
+    @Test
+    public void rejectsCertificateForAnotherHost() throws Exception {
+        SmtpNotificationChannel channel = channel("mail.example.org");
+        assertThrows(SSLHandshakeException.class, () -> channel.send(notification()));
+        assertTrue(received.isEmpty());
+    }
+}
@@ -0,0 +1,153 @@
+package com.xu.monitorserver.service.monitorservice;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.xu.monitorserver.exception.ServiceException;
+import com.xu.monitorserver.repository.InfluxRepository;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 原始数据导出：逐行输出 NDJSON/CSV，客户端断开后不再继续查询
+ */
+public class HistoryExportServiceTest {
+
+    /**
+     * 每个 Agent 输出 rows 行，第 2 个字段在奇数行没有数据
+     */
+    private static class FakeRepository extends InfluxRepository {
+        final List<String> agents = new ArrayList<>();
+        final int rows;
+        /** 写完 rows 行后模拟查询超时的 Agent */
+        String timeoutAgent;
+
+        FakeRepository(int rows) {
+            super(null, null);
+            this.rows = rows;
+        }
+
+        @Override
+        public long streamRawRows(String agentId, String ip, List<String> fields, String start, String end,
+                                  long timeoutMillis, RawRowHandler handler) throws IOException {
+            agents.add(agentId);
+            double[] values = new double[fields.size()];
+            for (int i = 0; i < rows; i++) {
+                for (int f = 0; f < values.length; f++) {
+                    values[f] = f == 1 && i % 2 == 1 ? Double.NaN : i + f / 10d;
+                }
+                handler.accept(Instant.ofEpochSecond(1_734_339_600L + i), values);
+            }
+            if (agentId.equals(timeoutAgent)) {
+                throw new ServiceException(500, "导出查询失败: 超过 " + timeoutMillis + "ms");
+            }
+            return rows;
+        }
+    }
+
+    private static HistoryExportService service(FakeRepository repository) {
+        HistoryExportService service = new HistoryExportService(repository, Mockito.mock(HostFactsService.class));
+        ReflectionTestUtils.setField(service, "maxAgents", 10);
+        ReflectionTestUtils.setField(service, "queryTimeoutMillis", 60_000L);
+        return service;
+    }
+
+    @Test
+    public void writesNdjsonLines() throws Exception {
+        HistoryExportService service = service(new FakeRepository(3));
+        HistoryExportService.ExportRequest request = service.prepare(List.of("a1", "a2"),
+                List.of("cpu_load", "cpu_temp"), "-1h", null, null);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        assertEquals(6, service.export(request, out));
+        String[] lines = out.toString(StandardCharsets.UTF_8).split("\n");
+        assertEquals(6, lines.length);
+        JsonNode second = new ObjectMapper().readTree(lines[1]);
+        assertEquals("a1", second.get("agentId").asText());
+        assertEquals("2024-12-16T09:00:01Z", second.get("time").asText());
+        assertEquals(1.0, second.get("cpu_load").asDouble());
+        assertTrue(second.get("cpu_temp").isNull());
+        assertEquals("a2", new ObjectMapper().readTree(lines[5]).get("agentId").asText());
+    }
+
+    @Test
+    public void writesCsvWithHeader() throws Exception {
+        HistoryExportService service = service(new FakeRepository(2));
+        HistoryExportService.ExportRequest request = service.prepare(List.of("a1"),
+                List.of("cpu_load", "cpu_temp"), "2024-12-16T09:00:00Z", "now()", "csv");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        service.export(request, out);
+        assertEquals("agent_id,time,cpu_load,cpu_temp\n"
+                + "a1,2024-12-16T09:00:00Z,0.0,0.1\n"
+                + "a1,2024-12-16T09:00:01Z,1.0,\n", out.toString(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void stopsWhenClientDisconnects() {
+        FakeRepository repository = new FakeRepository(100_000);
+        HistoryExportService service = service(repository);
+        HistoryExportService.ExportRequest request = service.prepare(List.of("a1", "a2"), null, "-1d", null, "csv");
+        OutputStream disconnected = new OutputStream() {
+            private long written;
+
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[]{(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                written += len;
+                if (written > 256 * 1024) {
+                    throw new IOException("Broken pipe");
+                }
+            }
+        };
+
+        assertThrows(IOException.class, () -> service.export(request, disconnected));
+        assertEquals(List.of("a1"), repository.agents);
+    }
+
+    @Test
+    public void appendsErrorLineWhenQueryTimesOutMidStream() throws Exception {
+        FakeRepository repository = new FakeRepository(2);
+        repository.timeoutAgent = "a1";
+        HistoryExportService service = service(repository);
+        HistoryExportService.ExportRequest request = service.prepare(List.of("a1", "a2"),
+                List.of("cpu_load"), "-1h", null, null);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        assertEquals(2, service.export(request, out));
+        String[] lines = out.toString(StandardCharsets.UTF_8).split("\n");
+        assertEquals(3, lines.length);
+        JsonNode error = new ObjectMapper().readTree(lines[2]);
+        assertEquals("a1", error.get("agentId").asText());
+        assertEquals("导出查询失败: 超过 60000ms", error.get("error").asText());
+        assertEquals(List.of("a1"), repository.agents);
+
+        ByteArrayOutputStream csv = new ByteArrayOutputStream();
+        service.export(service.prepare(List.of("a1"), List.of("cpu_load"), "-1h", null, "csv"), csv);
+        assertTrue(csv.toString(StandardCharsets.UTF_8).endsWith("# error,a1,导出查询失败: 超过 60000ms\n"));
+    }
+
+    @Test
+    public void rejectsUnsafeRange() {
+        HistoryExportService service = service(new FakeRepository(1));
+        assertThrows(ServiceException.class, () -> service.prepare(List.of("a1"), null, "-1h) |> drop(", null, null));
+        assertThrows(ServiceException.class, () -> service.prepare(List.of("a1"), List.of("password"), null, null, null));
+        assertThrows(ServiceException.class, () -> service.prepare(List.of("a1"), null, null, null, "xml"));
+    }
+}
@@ -0,0 +1,85 @@
+package com.xu.monitorserver.service.monitorservice;
+
+import com.xu.monitorcommon.moudule.HostFacts;
+import com.xu.monitorserver.entity.ServerInfo;
+import com.xu.monitorserver.mapper.ServerInfoMapper;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+/**
+ * 静态信息缓存：未注册的 agentId 短时间内不重复查库，注册时保留先到达的静态信息
+ */
+public class HostFactsServiceTest {
+
+    private final AtomicInteger queries = new AtomicInteger();
+
+    /**
+     * server_info 中的行 (null 表示没有)
+     */
+    private ServerInfo row;
+
+    private HostFactsService service() {
+        ServerInfoMapper mapper = (ServerInfoMapper) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[]{ServerInfoMapper.class}, (proxy, method, args) -> switch (method.getName()) {
+                    case "selectOne" -> {
+                        queries.incrementAndGet();
+                        yield row;
+                    }
+                    case "selectList" -> {
+                        queries.incrementAndGet();
+                        yield row != null ? List.of(row) : List.of();
+                    }
+                    case "updateById", "insert" -> 1;
+                    default -> throw new UnsupportedOperationException(method.getName());
+                });
+        return new HostFactsService(mapper);
+    }
+
+    @Test
+    public void unknownAgentIdIsNotQueriedPerSample() {
+        HostFactsService service = service();
+        for (int i = 0; i < 100; i++) {
+            assertNull(service.get("random-agent").getOsName());
+        }
+        assertEquals(1, queries.get());
+
+        // 上报静态信息后立即可见
+        service.update(facts("random-agent", "10.0.0.9"));
+        assertEquals("Linux", service.get("random-agent").getOsName());
+    }
+
+    @Test
+    public void registrationKeepsFactsReportedBeforeIt() {
+        HostFactsService service = service();
+        // 静态信息先于注册到达：server_info 中还没有这一行
+        HostFacts facts = facts("agent-0001", "10.0.0.1");
+        service.update(facts);
+        assertSame(facts, service.cached("agent-0001"));
+
+        service.registered("agent-0001", "10.0.0.2", "host-b");
+        HostFacts cached = service.cached("agent-0001");
+        assertEquals("Linux", cached.getOsName());
+        assertEquals(16, cached.getMemoryTotal());
+        assertEquals(facts.getFingerprint(), cached.getFingerprint());
+        assertEquals("10.0.0.2", cached.getIp());
+        assertEquals("agent-0001", service.resolveAgentId("10.0.0.2"));
+    }
+
+    private static HostFacts facts(String agentId, String ip) {
+        HostFacts facts = new HostFacts();
+        facts.setAgentId(agentId);
+        facts.setIp(ip);
+        facts.setHostName("host-a");
+        facts.setOsName("Linux");
+        facts.setMemoryTotal(16);
+        facts.setDiskTotal(500);
+        return facts;
+    }
+}
@@ -0,0 +1,67 @@
+package com.xu.monitorserver.service.monitorservice;
+
+import com.xu.monitorserver.bench.BenchSamples;
+import com.xu.monitorserver.dto.IngestSample;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 时钟偏差保护：CLAMP 只钳制超前的样本，过旧的样本不会被钳制到同一时间点相互覆盖
+ */
+public class IngestTimestampGuardTest {
+
+    private static final long MAX_FUTURE = 60_000;
+    private static final long MAX_PAST = 3_600_000;
+
+    private static IngestTimestampGuard guard(IngestTimestampGuard.SkewPolicy policy) {
+        IngestTimestampGuard guard = new IngestTimestampGuard();
+        ReflectionTestUtils.setField(guard, "maxFutureSkewMillis", MAX_FUTURE);
+        ReflectionTestUtils.setField(guard, "maxPastAgeMillis", MAX_PAST);
+        ReflectionTestUtils.setField(guard, "skewPolicy", policy);
+        return guard;
+    }
+
+    @Test
+    public void clampRejectsTooOldSamples() {
+        IngestTimestampGuard guard = guard(IngestTimestampGuard.SkewPolicy.CLAMP);
+        long now = System.currentTimeMillis();
+        // 一批补发的过旧样本：钳制会让它们落在同一个时间点上
+        assertNull(guard.check(BenchSamples.model(now - MAX_PAST - 10_000), null));
+        assertNull(guard.check(BenchSamples.model(now - MAX_PAST - 5_000), null));
+        assertEquals(2, guard.getRejected());
+        assertEquals(0, guard.getClamped());
+
+        IngestSample inRange = guard.check(BenchSamples.model(now - 5_000), null);
+        assertNotNull(inRange);
+        assertEquals(now - 5_000, inRange.timestampMillis());
+        assertEquals(0, inRange.clockSkewMillis());
+    }
+
+    @Test
+    public void clampLimitsFutureSamples() {
+        IngestTimestampGuard guard = guard(IngestTimestampGuard.SkewPolicy.CLAMP);
+        long now = System.currentTimeMillis();
+        IngestSample sample = guard.check(BenchSamples.model(now + 600_000), null);
+        assertNotNull(sample);
+        assertTrue(sample.timestampMillis() <= System.currentTimeMillis() + MAX_FUTURE);
+        assertTrue(sample.timestampMillis() >= now + MAX_FUTURE);
+        assertTrue(sample.clockSkewMillis() > MAX_FUTURE);
+        assertEquals(1, guard.getClamped());
+    }
+
+    @Test
+    public void flagKeepsOriginalTimestamp() {
+        IngestTimestampGuard guard = guard(IngestTimestampGuard.SkewPolicy.FLAG);
+        long old = System.currentTimeMillis() - MAX_PAST - 10_000;
+        IngestSample sample = guard.check(BenchSamples.model(old), null);
+        assertNotNull(sample);
+        assertEquals(old, sample.timestampMillis());
+        assertTrue(sample.clockSkewMillis() < -MAX_PAST);
+        assertEquals(1, guard.getFlagged());
+    }
+}
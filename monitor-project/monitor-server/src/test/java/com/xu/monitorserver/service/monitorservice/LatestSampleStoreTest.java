@@ -0,0 +1,50 @@
+package com.xu.monitorserver.service.monitorservice;
+
+import com.xu.monitorcommon.moudule.BaseMonitorModel;
+import com.xu.monitorserver.dto.IngestSample;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * 最新样本：旧样本不覆盖新样本，长时间未上报的 Agent 被清理
+ */
+public class LatestSampleStoreTest {
+
+    private static final long MAX_AGE = 60_000;
+
+    private static IngestSample sample(String agentId, long time) {
+        BaseMonitorModel model = new BaseMonitorModel();
+        model.setAgentId(agentId);
+        model.setTimestamp(time);
+        return new IngestSample(model, null, time, 0);
+    }
+
+    @Test
+    public void expiresIdleAgents() {
+        LatestSampleStore store = new LatestSampleStore();
+        ReflectionTestUtils.setField(store, "maxAgeMillis", MAX_AGE);
+        long now = System.currentTimeMillis();
+
+        store.update(List.of(sample("a1", now - 10_000), sample("a2", now)));
+        // 补发的旧样本不覆盖当前值
+        assertEquals(List.of(), store.update(List.of(sample("a2", now - 5_000))));
+        assertEquals(2, store.size());
+
+        // a1 之后不再上报：超过 max-age 后从 get 返回 null 并被删除
+        ReflectionTestUtils.setField(store, "maxAgeMillis", 5_000L);
+        assertNull(store.get("a1"));
+        assertEquals(1, store.size());
+
+        // 写入时定期清理其他过期的 Agent
+        store.update(List.of(sample("a3", now - 20_000), sample("a4", now)));
+        ((AtomicLong) ReflectionTestUtils.getField(store, "nextSweep")).set(0);
+        store.update(List.of(sample("a2", now + 1_000)));
+        assertEquals(List.of("a2", "a4"), store.snapshot().keySet().stream().sorted().toList());
+    }
+}
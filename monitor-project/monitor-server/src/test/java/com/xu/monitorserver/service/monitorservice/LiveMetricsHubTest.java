@@ -0,0 +1,145 @@
+package com.xu.monitorserver.service.monitorservice;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.xu.monitorcommon.moudule.BaseMonitorModel;
+import com.xu.monitorserver.bench.BenchSamples;
+import com.xu.monitorserver.dto.IngestSample;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 实时推送：按订阅过滤、慢连接上合并同一 Agent 的样本、缓冲满时丢弃最旧的样本
+ */
+public class LiveMetricsHubTest {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    /**
+     * 发送任务先攒着，由测试决定何时执行 (模拟发送线程忙)
+     */
+    private final Queue<Runnable> tasks = new ArrayDeque<>();
+
+    private static class RecordingSink implements LiveMetricsHub.Sink {
+        final List<JsonNode> messages = new ArrayList<>();
+        boolean broken;
+        boolean closed;
+
+        @Override
+        public void send(String text) throws IOException {
+            if (broken) {
+                throw new IOException("Broken pipe");
+            }
+            messages.add(MAPPER.readTree(text));
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+
+    private static IngestSample sample(String agentId, long time, double cpu) {
+        BaseMonitorModel model = BenchSamples.model(time);
+        model.setAgentId(agentId);
+        model.setCpuLoad(cpu);
+        return new IngestSample(model, null, time, 0);
+    }
+
+    private LiveMetricsHub hub(int maxPending) {
+        LatestSampleStore store = new LatestSampleStore();
+        ReflectionTestUtils.setField(store, "maxAgeMillis", 3_600_000L);
+        return new LiveMetricsHub(store, tasks::add, maxPending);
+    }
+
+    private void runTasks() {
+        while (!tasks.isEmpty()) {
+            tasks.poll().run();
+        }
+    }
+
+    @Test
+    public void deliversOnlySubscribedAgentsAndFields() {
+        LiveMetricsHub hub = hub(16);
+        RecordingSink sink = new RecordingSink();
+        hub.subscribe("s1", sink, Set.of("a1"), List.of("cpu_load", "cpu_temp"));
+
+        long now = System.currentTimeMillis();
+        hub.publish(List.of(sample("a1", now, 12.5), sample("a2", now, 99)));
+        runTasks();
+
+        assertEquals(1, sink.messages.size());
+        JsonNode samples = sink.messages.get(0).get("samples");
+        assertEquals(1, samples.size());
+        assertEquals("a1", samples.get(0).get("agentId").asText());
+        assertEquals(12.5, samples.get(0).get("values").get("cpu_load").asDouble());
+        assertEquals(2, samples.get(0).get("values").size());
+    }
+
+    @Test
+    public void slowSubscriberGetsCoalescedLatestValues() {
+        LiveMetricsHub hub = hub(16);
+        RecordingSink sink = new RecordingSink();
+        hub.subscribe("s1", sink, Set.of(), List.of("cpu_load"));
+
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < 10; i++) {
+            hub.publish(List.of(sample("a1", now + i, i), sample("a2", now + i, 100 + i)));
+        }
+        // 发送线程一直没空：只排了一个发送任务，每个 Agent 只保留最新值
+        assertEquals(1, tasks.size());
+        runTasks();
+
+        assertEquals(1, sink.messages.size());
+        JsonNode samples = sink.messages.get(0).get("samples");
+        assertEquals(2, samples.size());
+        assertEquals(9.0, samples.get(0).get("values").get("cpu_load").asDouble());
+        assertEquals(109.0, samples.get(1).get("values").get("cpu_load").asDouble());
+        assertEquals(18L, ((Number) hub.stats().get("coalesced")).longValue());
+    }
+
+    @Test
+    public void fullBufferDropsOldest() {
+        LiveMetricsHub hub = hub(3);
+        RecordingSink sink = new RecordingSink();
+        hub.subscribe("s1", sink, Set.of(), List.of("cpu_load"));
+
+        long now = System.currentTimeMillis();
+        for (int i = 1; i <= 5; i++) {
+            hub.publish(List.of(sample("a" + i, now, i)));
+        }
+        runTasks();
+
+        JsonNode message = sink.messages.get(0);
+        assertEquals(2, message.get("dropped").asInt());
+        List<String> agents = new ArrayList<>();
+        message.get("samples").forEach(node -> agents.add(node.get("agentId").asText()));
+        assertEquals(List.of("a3", "a4", "a5"), agents);
+    }
+
+    @Test
+    public void brokenConnectionIsUnsubscribed() {
+        LiveMetricsHub hub = hub(16);
+        RecordingSink sink = new RecordingSink();
+        sink.broken = true;
+        hub.subscribe("s1", sink, Set.of(), List.of("cpu_load"));
+
+        hub.publish(List.of(sample("a1", System.currentTimeMillis(), 1)));
+        runTasks();
+
+        assertTrue(sink.closed);
+        assertEquals(0, hub.stats().get("subscribers"));
+        hub.publish(List.of(sample("a1", System.currentTimeMillis(), 2)));
+        assertTrue(tasks.isEmpty());
+    }
+}
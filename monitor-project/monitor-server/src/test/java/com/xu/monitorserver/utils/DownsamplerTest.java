@@ -0,0 +1,110 @@
+package com.xu.monitorserver.utils;
+
+import com.xu.monitorserver.dto.MetricColumns;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 降采样：点数受限、首尾保留、尖峰不被抹掉
+ */
+public class DownsamplerTest {
+
+    /**
+     * 平稳的正弦曲线中间夹一个尖峰
+     */
+    private static double[] series(int n, int spikeAt) {
+        double[] y = new double[n];
+        for (int i = 0; i < n; i++) {
+            y[i] = 20 + 5 * Math.sin(i / 50.0);
+        }
+        y[spikeAt] = 100;
+        return y;
+    }
+
+    private static double[] axis(int n) {
+        double[] x = new double[n];
+        for (int i = 0; i < n; i++) {
+            x[i] = i * 10_000d;
+        }
+        return x;
+    }
+
+    private static void assertAscending(int[] indices) {
+        for (int i = 1; i < indices.length; i++) {
+            assertTrue(indices[i] > indices[i - 1], Arrays.toString(indices));
+        }
+    }
+
+    @Test
+    public void lttbKeepsEndpointsAndSpike() {
+        int n = 100_000;
+        double[] y = series(n, 12_345);
+        int[] selected = Downsampler.lttb(axis(n), y, n, 500);
+
+        assertEquals(500, selected.length);
+        assertEquals(0, selected[0]);
+        assertEquals(n - 1, selected[selected.length - 1]);
+        assertAscending(selected);
+        assertTrue(Arrays.stream(selected).anyMatch(i -> i == 12_345));
+    }
+
+    @Test
+    public void minMaxKeepsExtremes() {
+        int n = 100_000;
+        double[] y = series(n, 77_777);
+        y[40_000] = -50;
+        int[] selected = Downsampler.minMax(y, n, 500);
+
+        assertTrue(selected.length <= 500);
+        assertEquals(0, selected[0]);
+        assertEquals(n - 1, selected[selected.length - 1]);
+        assertAscending(selected);
+        assertTrue(Arrays.stream(selected).anyMatch(i -> i == 77_777));
+        assertTrue(Arrays.stream(selected).anyMatch(i -> i == 40_000));
+    }
+
+    @Test
+    public void shortSeriesIsUnchanged() {
+        assertArrayEquals(new int[]{0, 1, 2}, Downsampler.lttb(axis(3), series(3, 1), 3, 10));
+        MetricColumns columns = new MetricColumns(List.of("cpu_load"), new long[]{1, 2}, new double[][]{{1, 2}});
+        assertSame(columns, Downsampler.apply(columns, Downsampler.Mode.LTTB, 10));
+    }
+
+    @Test
+    public void multipleFieldsStayAligned() {
+        int n = 10_000;
+        long[] times = new long[n];
+        for (int i = 0; i < n; i++) {
+            times[i] = i * 10_000L;
+        }
+        double[] cpu = series(n, 100);
+        double[] temp = series(n, 9_000);
+        // 温度前半段没有数据
+        Arrays.fill(temp, 0, n / 2, Double.NaN);
+        MetricColumns columns = new MetricColumns(List.of("cpu_load", "cpu_temp"), times, new double[][]{cpu, temp});
+
+        MetricColumns result = Downsampler.apply(columns, Downsampler.Mode.LTTB, 200);
+        assertTrue(result.size() <= 400);
+        for (int i = 0; i < result.size(); i++) {
+            int row = (int) (result.times()[i] / 10_000L);
+            assertEquals(cpu[row], result.values()[0][i]);
+            assertEquals(temp[row], result.values()[1][i]);
+        }
+        assertTrue(Arrays.stream(result.times()).anyMatch(t -> t == 9_000 * 10_000L));
+    }
+
+    @Test
+    public void parsesMode() {
+        assertEquals(Downsampler.Mode.NONE, Downsampler.Mode.parse(null));
+        assertEquals(Downsampler.Mode.MINMAX, Downsampler.Mode.parse("minmax"));
+        assertNull(Downsampler.Mode.parse("avg"));
+    }
+}
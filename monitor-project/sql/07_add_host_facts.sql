@@ -0,0 +1,8 @@
+-- 主机静态信息 (HostFacts) 拆分：操作系统、内存/磁盘总量不再随每个监控样本写入 InfluxDB，
+-- 改为 Agent 在指纹变化时上报一次，由服务端落到 server_info 并缓存在内存中。
+
+ALTER TABLE `server_info`
+    ADD COLUMN `os_name` VARCHAR(128) DEFAULT NULL COMMENT '操作系统名称(Agent 上报)' AFTER `agent_id`,
+    ADD COLUMN `memory_total` DOUBLE DEFAULT NULL COMMENT '内存总量(GB)' AFTER `os_name`,
+    ADD COLUMN `disk_total` DOUBLE DEFAULT NULL COMMENT '磁盘总量(GB)' AFTER `memory_total`,
+    ADD COLUMN `facts_fingerprint` VARCHAR(64) DEFAULT NULL COMMENT '主机静态信息指纹 (SHA-256)' AFTER `disk_total`;
@@ -0,0 +1,41 @@
+-- 告警：规则与事件
+-- 说明：
+-- 1) 规则在上报链路上逐样本增量评估 (服务端内存中的滑动窗口)，不查询 InfluxDB；规则修改后立即生效。
+-- 2) metric 为 server_metrics 的字段名 (cpu_load、disk_usage、memory_used ...)。
+-- 3) duration_seconds 为持续时间，aggregation 为窗口内的判定方式：
+--    all 窗口内每个样本都满足条件 (即"持续超过")，avg/max/min 窗口内样本的平均/最大/最小值满足条件。
+-- 4) 事件在触发时插入一行 (FIRING)，恢复时同一行更新为 RESOLVED 并记录恢复时间。
+
+CREATE TABLE IF NOT EXISTS `alert_rule` (
+    `id` BIGINT NOT NULL AUTO_INCREMENT COMMENT '主键',
+    `name` VARCHAR(64) NOT NULL COMMENT '规则名称',
+    `metric` VARCHAR(32) NOT NULL COMMENT '指标字段 (server_metrics 字段名)',
+    `operator` VARCHAR(2) NOT NULL COMMENT '比较运算符: > >= < <=',
+    `threshold` DOUBLE NOT NULL COMMENT '阈值',
+    `duration_seconds` INT NOT NULL DEFAULT 0 COMMENT '持续时间(秒)，0 表示单个样本即触发',
+    `aggregation` VARCHAR(8) NOT NULL DEFAULT 'all' COMMENT '窗口判定方式: all/avg/max/min',
+    `agent_id` VARCHAR(64) DEFAULT NULL COMMENT '只对该 Agent 生效，为空表示全部',
+    `severity` VARCHAR(16) NOT NULL DEFAULT 'WARNING' COMMENT '级别: INFO/WARNING/CRITICAL',
+    `enabled` TINYINT(1) NOT NULL DEFAULT 1 COMMENT '是否启用',
+    `create_by` VARCHAR(64) DEFAULT NULL COMMENT '创建人',
+    `create_time` DATETIME DEFAULT CURRENT_TIMESTAMP,
+    `update_time` DATETIME DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP,
+    PRIMARY KEY (`id`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COMMENT='告警规则表';
+
+CREATE TABLE IF NOT EXISTS `alert_event` (
+    `id` BIGINT NOT NULL AUTO_INCREMENT COMMENT '主键',
+    `rule_id` BIGINT NOT NULL COMMENT '规则ID',
+    `rule_name` VARCHAR(64) DEFAULT NULL COMMENT '触发时的规则名称',
+    `agent_id` VARCHAR(64) NOT NULL COMMENT '探针唯一ID',
+    `severity` VARCHAR(16) DEFAULT NULL COMMENT '级别',
+    `status` VARCHAR(16) NOT NULL COMMENT 'FIRING / RESOLVED',
+    `value` DOUBLE DEFAULT NULL COMMENT '触发时的窗口值',
+    `threshold` DOUBLE DEFAULT NULL COMMENT '触发时的阈值',
+    `message` VARCHAR(255) DEFAULT NULL COMMENT '描述',
+    `fired_at` DATETIME(3) NOT NULL COMMENT '触发时间 (样本采集时间)',
+    `resolved_at` DATETIME(3) DEFAULT NULL COMMENT '恢复时间 (样本采集时间)',
+    PRIMARY KEY (`id`),
+    KEY `idx_alert_event_rule_agent` (`rule_id`, `agent_id`, `status`),
+    KEY `idx_alert_event_fired_at` (`fired_at`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COMMENT='告警事件表';
@@ -3,6 +3,15 @@ import request from "@/utils/request.js";
 //  Dashboard 监控大屏接口
 // ===========================
 
+// Dashboard 聚合接口：一次请求并发查询多个面板 (panels 逗号分隔)
+export const getDashboard = (params) => {
+    return request({
+        url: '/monitor/dashboard',
+        method: 'get',
+        params
+    })
+}
+
 // 获取 CPU 历史数据
 export const getCpuHistory = (params) => {
     return request({